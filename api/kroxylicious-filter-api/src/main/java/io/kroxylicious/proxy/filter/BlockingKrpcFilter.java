@@ -0,0 +1,27 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.filter;
+
+/**
+ * <p>A filter whose {@code on*Request} and {@code on*Response} methods may block, such as one which calls
+ * a KMS, a schema registry or a policy engine.
+ * The proxy invokes such a filter's methods on a thread of their own, which is a virtual thread when
+ * the proxy runs on Java 21 or later, rather than on the event loop.
+ * So the filter can call slow services synchronously, and use
+ * {@link KrpcFilterContext#sendRequestAndWait(short, org.apache.kafka.common.protocol.ApiMessage)},
+ * without holding up the other connections sharing the event loop.</p>
+ *
+ * <p>As with filters annotated with {@link Offload}, the methods of an instance are invoked one at a time,
+ * so member fields can be used without synchronization, and the requests (and responses) following one being
+ * handled are held back until the filter has forwarded it.
+ * How many methods of blocking filters can run at once, across all connections, is limited by the proxy's configuration.</p>
+ *
+ * <p>Implementations also implement the {@code *RequestFilter} and {@code *ResponseFilter} interfaces for the
+ * messages they handle, and forward messages with {@link KrpcFilterContext#forwardRequest(org.apache.kafka.common.protocol.ApiMessage)}
+ * and {@link KrpcFilterContext#forwardResponse(org.apache.kafka.common.protocol.ApiMessage)} as usual.</p>
+ */
+public interface BlockingKrpcFilter extends KrpcFilter {
+}
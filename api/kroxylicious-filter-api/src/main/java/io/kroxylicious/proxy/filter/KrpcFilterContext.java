@@ -35,6 +35,13 @@ public interface KrpcFilterContext {
      */
     String sniHostname();
 
+    /**
+     * The topic metadata shared by the connections to this connection's upstream cluster with its SNI hostname,
+     * which saves filters from having to track topic ids and names themselves, or from sending their own Metadata requests.
+     * @return The topic metadata cache.
+     */
+    TopicMetadataCache topicMetadata();
+
     /**
      * Send a request towards the broker, invoking upstream filters.
      * @param request The request to forward to the broker.
@@ -55,11 +62,36 @@ public interface KrpcFilterContext {
      */
     <T extends ApiMessage> CompletionStage<T> sendRequest(short apiVersion, ApiMessage request);
 
+    /**
+     * Send a message from a filter towards the broker, as {@link #sendRequest(short, ApiMessage)} does,
+     * and wait for the response.
+     * This may only be called by a {@link BlockingKrpcFilter}, or a filter's own thread, since it must not block the event loop.
+     *
+     * @param apiVersion The version of the request to use
+     * @param request The request to send.
+     * @param <T> The type of the response
+     * @return The response.
+     * @throws IllegalStateException If called on the event loop.
+     * @throws org.apache.kafka.common.errors.TimeoutException If there was no response in time.
+     * @throws java.util.concurrent.CompletionException If the request otherwise failed, or the thread was interrupted.
+     */
+    <T extends ApiMessage> T sendRequestAndWait(short apiVersion, ApiMessage request);
+
     /**
      * Send a response towards the client, invoking downstream filters.
      * @param response The response to forward to the client.
      */
     void forwardResponse(ApiMessage response);
 
+    /**
+     * Forward the current request or response once the given stage has completed, such as when the filter
+     * is changing it on another thread. Later requests (or responses) on the connection are held back
+     * until then, so that the client still receives responses in the order it sent its requests.
+     * If the stage completes exceptionally the connection is closed.
+     * @param stage The stage to wait for.
+     * @param message The request or response to forward.
+     */
+    void forwardWhenComplete(CompletionStage<?> stage, ApiMessage message);
+
     // TODO an API to allow a filter to add/remove another filter from the pipeline
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.filter;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Marks a filter whose {@code on*Request} and {@code on*Response} methods are CPU-heavy,
+ * such as one which transforms, encrypts or validates records.
+ * The proxy invokes such a filter's methods on a worker pool rather than on the event loop,
+ * so that it doesn't hold up the other connections sharing the event loop.</p>
+ *
+ * <p>The methods of an instance are still invoked one at a time, and each sees the changes made by the one before,
+ * so member fields can be used without synchronization. The requests (and responses) following one being
+ * handled on the worker pool are held back until the filter has forwarded it, so they keep their order.</p>
+ *
+ * <p>Continuations of the stages returned by {@link KrpcFilterContext#sendRequest(short, org.apache.kafka.common.protocol.ApiMessage)}
+ * and {@link KrpcFilterContext#topicMetadata()} run on the event loop, so state they share with the filter's methods
+ * needs to be thread-safe.</p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Offload {
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.filter;
+
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.kafka.common.Uuid;
+
+/**
+ * What the proxy knows about a topic, as of the most recent metadata it has seen for it.
+ */
+public final class TopicMetadata {
+
+    private final Uuid topicId;
+    private final String name;
+    private final Map<Integer, Integer> partitionLeaders;
+
+    /**
+     * @param topicId The topic id.
+     * @param name The topic name.
+     * @param partitionLeaders The id of the leader of each partition, by partition index.
+     */
+    public TopicMetadata(Uuid topicId, String name, Map<Integer, Integer> partitionLeaders) {
+        this.topicId = Objects.requireNonNull(topicId);
+        this.name = Objects.requireNonNull(name);
+        this.partitionLeaders = Map.copyOf(partitionLeaders);
+    }
+
+    public Uuid topicId() {
+        return topicId;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return The number of partitions.
+     */
+    public int partitions() {
+        return partitionLeaders.size();
+    }
+
+    /**
+     * @return The id of the leader of each partition, by partition index.
+     * A leader of -1 means the partition had no leader.
+     */
+    public Map<Integer, Integer> partitionLeaders() {
+        return partitionLeaders;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TopicMetadata that = (TopicMetadata) o;
+        return topicId.equals(that.topicId) && name.equals(that.name) && partitionLeaders.equals(that.partitionLeaders);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(topicId, name, partitionLeaders);
+    }
+
+    @Override
+    public String toString() {
+        return "TopicMetadata(" +
+                "topicId=" + topicId +
+                ", name=" + name +
+                ", partitionLeaders=" + partitionLeaders +
+                ')';
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.filter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+import org.apache.kafka.common.Uuid;
+
+/**
+ * <p>Topic metadata shared by all the filters of the connections to one upstream cluster with one SNI hostname,
+ * so that connections to different virtual clusters, or tenants, never see each other's cached topics.
+ * It is kept while any of those connections is open.</p>
+ *
+ * <p>The cache is kept up to date from the Metadata, CreateTopics and DeleteTopics responses which pass through the proxy,
+ * so looking a topic up usually needs no request to the broker.
+ * The metadata reflects the broker's view, before any filter has changed it.</p>
+ */
+public interface TopicMetadataCache {
+
+    /**
+     * @param topicId The topic id.
+     * @return The cached metadata for the topic, if any.
+     */
+    Optional<TopicMetadata> topic(Uuid topicId);
+
+    /**
+     * @param topicName The topic name.
+     * @return The cached metadata for the topic, if any.
+     */
+    Optional<TopicMetadata> topic(String topicName);
+
+    /**
+     * Looks up the names of the given topics, sending a Metadata request for those which are not cached.
+     * Concurrent lookups of the same uncached topic, from any connection, share a single request.
+     * If all the topics are cached the returned stage is already complete.
+     * Otherwise it completes on the event loop of the calling filter.
+     * @param topicIds The topic ids.
+     * @return The names of the topics, by id. Topics the broker doesn't know are absent.
+     */
+    CompletionStage<Map<Uuid, String>> topicNames(Collection<Uuid> topicIds);
+}
@@ -47,7 +47,8 @@ import org.apache.kafka.common.protocol.ApiMessage;
  *     <li>That each instance of the filter is associated with a single channel</li>
  *     <li>That {@link #shouldDeserializeRequest(ApiKeys, short)} and
  *     {@link #onRequest(ApiKeys, RequestHeaderData, ApiMessage, KrpcFilterContext)} (or {@code on*Request} as appropriate)
- *     will always be invoked on the same thread.</li>
+ *     will always be invoked on the same thread, or, for filters annotated with {@link Offload}
+ *     or implementing {@link BlockingKrpcFilter}, one at a time.</li>
  *     <li>That filters are applied in the order they were configured.</li>
  * </ol>
  * <p>From 1. and 2. it follows that you can use member variables in your filter to
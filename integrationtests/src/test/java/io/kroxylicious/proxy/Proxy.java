@@ -6,6 +6,8 @@
 
 package io.kroxylicious.proxy;
 
+import java.util.Map;
+
 import com.fasterxml.jackson.annotation.JsonInclude;
 
 import io.sundr.builder.annotations.Buildable;
@@ -15,5 +17,6 @@ import static com.fasterxml.jackson.annotation.JsonInclude.Include.NON_NULL;
 @Buildable(editableEnabled = false)
 public record Proxy(String address,
                     @JsonInclude(NON_NULL) String keyStoreFile,
-                    @JsonInclude(NON_NULL) String keyPassword) {
+                    @JsonInclude(NON_NULL) String keyPassword,
+                    @JsonInclude(NON_NULL) Map<String, Object> recording) {
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.kroxylicious.proxy.internal.TrafficRecording;
+import io.kroxylicious.proxy.internal.TrafficReplayer;
+import io.kroxylicious.testing.kafka.api.KafkaCluster;
+import io.kroxylicious.testing.kafka.junit5ext.KafkaClusterExtension;
+
+import static io.kroxylicious.proxy.Utils.startProxy;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(KafkaClusterExtension.class)
+public class TrafficReplayIT {
+
+    private static final String PROXY_ADDRESS = "localhost:9192";
+    private static final String TOPIC = "replayed-topic";
+
+    @TempDir
+    private Path recordingDirectory;
+
+    @Test
+    public void replaysRecordedTraffic(KafkaCluster cluster, Admin admin) throws Exception {
+        admin.createTopics(List.of(new NewTopic(TOPIC, 1, (short) 1))).all().get();
+
+        String recordingConfig = baseConfigBuilder(cluster.getBootstrapServers())
+                .editProxy().withRecording(Map.of("directory", recordingDirectory.toString())).endProxy()
+                .build().toYaml();
+        try (var proxy = startProxy(recordingConfig)) {
+            try (var producer = new KafkaProducer<String, String>(Map.of(
+                    ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, PROXY_ADDRESS,
+                    ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                    ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class))) {
+                for (int i = 0; i < 20; i++) {
+                    producer.send(new ProducerRecord<>(TOPIC, "key", "value-" + i)).get();
+                }
+            }
+            try (var consumer = new KafkaConsumer<String, String>(Map.of(
+                    ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, PROXY_ADDRESS,
+                    ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                    ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                    ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest"))) {
+                // Assigned rather than subscribed, so that replaying doesn't wait on group rebalances
+                consumer.assign(List.of(new TopicPartition(TOPIC, 0)));
+                assertThat(consumer.poll(Duration.ofSeconds(10))).isNotEmpty();
+            }
+        }
+
+        var recording = TrafficRecording.read(recordingDirectory);
+        assertThat(recording.sessions()).isNotEmpty();
+
+        String replayConfig = baseConfigBuilder(cluster.getBootstrapServers()).build().toYaml();
+        try (var proxy = startProxy(replayConfig)) {
+            var result = new TrafficReplayer(recording, "localhost", 9192, 10).replay(Duration.ofSeconds(60));
+
+            assertThat(result.failedSessions()).isZero();
+            assertThat(result.mismatched()).isZero();
+            assertThat(result.unanswered()).isZero();
+            assertThat(result.latencies()).containsKeys(ApiKeys.API_VERSIONS, ApiKeys.METADATA, ApiKeys.PRODUCE, ApiKeys.FETCH);
+            assertThat(result.latencies().get(ApiKeys.PRODUCE).count()).isEqualTo(20);
+        }
+    }
+
+    private static KroxyConfigBuilder baseConfigBuilder(String bootstrapServers) {
+        return KroxyConfig.builder().withNewProxy().withAddress(PROXY_ADDRESS).endProxy()
+                .addToClusters("demo", new ClusterBuilder().withBootstrapServers(bootstrapServers).build())
+                .addNewFilter().withType("ApiVersions").endFilter()
+                .addNewFilter().withType("BrokerAddress").endFilter();
+    }
+}
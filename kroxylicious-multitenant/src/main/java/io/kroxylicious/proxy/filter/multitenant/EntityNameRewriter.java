@@ -0,0 +1,32 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.filter.multitenant;
+
+/**
+ * Rewrites the names of entities as they're visited by the generated {@link EntityNameVisitor}.
+ * Each method is given the name held by a field, which may be null or empty (for example where
+ * the field isn't present in the message's version), and returns the name to set it to.
+ */
+public interface EntityNameRewriter {
+
+    /**
+     * @param name A topic name.
+     * @return The rewritten topic name.
+     */
+    String topicName(String name);
+
+    /**
+     * @param id A group id.
+     * @return The rewritten group id.
+     */
+    String groupId(String id);
+
+    /**
+     * @param id A transactional id.
+     * @return The rewritten transactional id.
+     */
+    String transactionalId(String id);
+}
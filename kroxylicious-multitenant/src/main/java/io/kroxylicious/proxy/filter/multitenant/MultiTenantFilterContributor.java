@@ -12,7 +12,7 @@ import io.kroxylicious.proxy.service.BaseContributor;
 public class MultiTenantFilterContributor extends BaseContributor<KrpcFilter> implements FilterContributor {
 
     public static final BaseContributorBuilder<KrpcFilter> FILTERS = BaseContributor.<KrpcFilter> builder()
-            .add("MultiTenant", MultiTenantTransformationFilter::new);
+            .add("MultiTenant", MultiTenantTransformationFilter.MultiTenantConfig.class, MultiTenantTransformationFilter::new);
 
     public MultiTenantFilterContributor() {
         super(FILTERS);
@@ -5,74 +5,32 @@
  */
 package io.kroxylicious.proxy.filter.multitenant;
 
-import java.util.Optional;
-import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
 
-import org.apache.kafka.common.message.CreateTopicsRequestData;
 import org.apache.kafka.common.message.CreateTopicsResponseData;
-import org.apache.kafka.common.message.DeleteTopicsRequestData;
 import org.apache.kafka.common.message.DeleteTopicsResponseData;
-import org.apache.kafka.common.message.DescribeGroupsRequestData;
-import org.apache.kafka.common.message.DescribeGroupsResponseData;
-import org.apache.kafka.common.message.FetchRequestData;
-import org.apache.kafka.common.message.FetchResponseData;
 import org.apache.kafka.common.message.FindCoordinatorRequestData;
 import org.apache.kafka.common.message.FindCoordinatorResponseData;
-import org.apache.kafka.common.message.HeartbeatRequestData;
-import org.apache.kafka.common.message.JoinGroupRequestData;
-import org.apache.kafka.common.message.LeaveGroupRequestData;
 import org.apache.kafka.common.message.ListGroupsResponseData;
-import org.apache.kafka.common.message.ListOffsetsRequestData;
-import org.apache.kafka.common.message.ListOffsetsResponseData;
+import org.apache.kafka.common.message.ListTransactionsResponseData;
 import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.MetadataRequestData.MetadataRequestTopic;
 import org.apache.kafka.common.message.MetadataResponseData;
-import org.apache.kafka.common.message.OffsetCommitRequestData;
-import org.apache.kafka.common.message.OffsetCommitResponseData;
-import org.apache.kafka.common.message.OffsetDeleteRequestData;
-import org.apache.kafka.common.message.OffsetDeleteResponseData;
-import org.apache.kafka.common.message.OffsetFetchRequestData;
-import org.apache.kafka.common.message.OffsetFetchResponseData;
-import org.apache.kafka.common.message.OffsetForLeaderEpochRequestData;
-import org.apache.kafka.common.message.OffsetForLeaderEpochResponseData;
-import org.apache.kafka.common.message.ProduceRequestData;
-import org.apache.kafka.common.message.ProduceResponseData;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic;
 import org.apache.kafka.common.message.RequestHeaderData;
 import org.apache.kafka.common.message.ResponseHeaderData;
-import org.apache.kafka.common.message.SyncGroupRequestData;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.FindCoordinatorRequest.CoordinatorType;
 
-import io.kroxylicious.proxy.filter.CreateTopicsRequestFilter;
-import io.kroxylicious.proxy.filter.CreateTopicsResponseFilter;
-import io.kroxylicious.proxy.filter.DeleteTopicsRequestFilter;
-import io.kroxylicious.proxy.filter.DeleteTopicsResponseFilter;
-import io.kroxylicious.proxy.filter.DescribeGroupsRequestFilter;
-import io.kroxylicious.proxy.filter.DescribeGroupsResponseFilter;
-import io.kroxylicious.proxy.filter.FetchRequestFilter;
-import io.kroxylicious.proxy.filter.FetchResponseFilter;
-import io.kroxylicious.proxy.filter.FindCoordinatorRequestFilter;
-import io.kroxylicious.proxy.filter.FindCoordinatorResponseFilter;
-import io.kroxylicious.proxy.filter.HeartbeatRequestFilter;
-import io.kroxylicious.proxy.filter.JoinGroupRequestFilter;
+import io.kroxylicious.proxy.config.BaseConfig;
+import io.kroxylicious.proxy.filter.KrpcFilter;
 import io.kroxylicious.proxy.filter.KrpcFilterContext;
-import io.kroxylicious.proxy.filter.LeaveGroupRequestFilter;
-import io.kroxylicious.proxy.filter.ListGroupsResponseFilter;
-import io.kroxylicious.proxy.filter.ListOffsetsRequestFilter;
-import io.kroxylicious.proxy.filter.ListOffsetsResponseFilter;
-import io.kroxylicious.proxy.filter.MetadataRequestFilter;
-import io.kroxylicious.proxy.filter.MetadataResponseFilter;
-import io.kroxylicious.proxy.filter.OffsetCommitRequestFilter;
-import io.kroxylicious.proxy.filter.OffsetCommitResponseFilter;
-import io.kroxylicious.proxy.filter.OffsetDeleteRequestFilter;
-import io.kroxylicious.proxy.filter.OffsetDeleteResponseFilter;
-import io.kroxylicious.proxy.filter.OffsetFetchRequestFilter;
-import io.kroxylicious.proxy.filter.OffsetFetchResponseFilter;
-import io.kroxylicious.proxy.filter.OffsetForLeaderEpochRequestFilter;
-import io.kroxylicious.proxy.filter.OffsetForLeaderEpochResponseFilter;
-import io.kroxylicious.proxy.filter.ProduceRequestFilter;
-import io.kroxylicious.proxy.filter.ProduceResponseFilter;
-import io.kroxylicious.proxy.filter.SyncGroupRequestFilter;
 
 /**
  * Simple multi-tenant filter.
@@ -81,270 +39,255 @@ import io.kroxylicious.proxy.filter.SyncGroupRequestFilter;
  * This tenant prefix is prepended to the kafka resources name in order to present an isolated
  * environment for each tenant.
  *
- * TODO prefix other resources e.g. group names, transaction ids
+ * The topic names, group ids and transactional ids of every API are found by the generated {@link EntityNameVisitor}.
+ * Only the coordinator keys of FindCoordinator, whose entity type depends on the key type, are handled by hand.
+ *
+ * When {@code scopeMetadataRequests} is enabled, a Metadata request for all topics is sent upstream for just the tenant's topics,
+ * as found by a {@link TopicIndex}, so that the size of the response doesn't grow with the number of topics in the cluster.
+ * The index is shared by all tenants, so it must be refreshed by a connection which sees all the cluster's topics.
+ * A connection whose client authenticates with the broker itself, through SASL requests passed through the proxy,
+ * sees only what the broker authorizes for the client's principal, so it neither refreshes nor uses the index,
+ * and its Metadata requests for all topics are sent as they are. The other connections all reach the broker
+ * with the proxy's identity, so they see the same topics.
+ * Topics created other than through the proxy only appear in the scoped responses once the index is next refreshed,
+ * up to {@code topicIndexRefreshMs} later.
+ *
  * TODO disallow the use of topic uids belonging to one tenant by another.
  */
-public class MultiTenantTransformationFilter
-        implements CreateTopicsRequestFilter, CreateTopicsResponseFilter,
-        DeleteTopicsRequestFilter, DeleteTopicsResponseFilter,
-        MetadataRequestFilter, MetadataResponseFilter,
-        ProduceRequestFilter, ProduceResponseFilter,
-        ListOffsetsRequestFilter, ListOffsetsResponseFilter,
-        FetchRequestFilter, FetchResponseFilter,
-        OffsetFetchRequestFilter, OffsetFetchResponseFilter,
-        OffsetCommitRequestFilter, OffsetCommitResponseFilter,
-        OffsetDeleteRequestFilter, OffsetDeleteResponseFilter,
-        OffsetForLeaderEpochRequestFilter, OffsetForLeaderEpochResponseFilter,
-        FindCoordinatorRequestFilter, FindCoordinatorResponseFilter,
-        ListGroupsResponseFilter,
-        JoinGroupRequestFilter,
-        SyncGroupRequestFilter,
-        LeaveGroupRequestFilter,
-        HeartbeatRequestFilter,
-        DescribeGroupsRequestFilter, DescribeGroupsResponseFilter {
-    private static final Logger LOGGER = LoggerFactory.getLogger(MultiTenantTransformationFilter.class);
-
-    @Override
-    public void onCreateTopicsRequest(RequestHeaderData data, CreateTopicsRequestData request, KrpcFilterContext context) {
-        request.topics().forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardRequest(request);
-    }
+public class MultiTenantTransformationFilter implements KrpcFilter {
 
-    @Override
-    public void onCreateTopicsResponse(ResponseHeaderData data, CreateTopicsResponseData response, KrpcFilterContext context) {
-        response.topics().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardResponse(response);
-    }
+    public static class MultiTenantConfig extends BaseConfig {
 
-    @Override
-    public void onDeleteTopicsRequest(RequestHeaderData data, DeleteTopicsRequestData request, KrpcFilterContext context) {
-        request.topics().forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, topic.topicId() != null));
-        context.forwardRequest(request);
-    }
+        public static final long DEFAULT_TOPIC_INDEX_REFRESH_MS = 30_000L;
 
-    @Override
-    public void onDeleteTopicsResponse(ResponseHeaderData data, DeleteTopicsResponseData response, KrpcFilterContext context) {
-        response.responses().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardResponse(response);
-    }
+        private final boolean scopeMetadataRequests;
+        private final long topicIndexRefreshMs;
+        private TopicIndex topicIndex;
 
-    @Override
-    public void onMetadataRequest(RequestHeaderData data, MetadataRequestData request, KrpcFilterContext context) {
-        if (request.topics() != null) {
-            // n.b. request.topics() == null used to query all the topics.
-            request.topics().forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, false));
+        public MultiTenantConfig(Boolean scopeMetadataRequests, Long topicIndexRefreshMs) {
+            this.scopeMetadataRequests = scopeMetadataRequests != null && scopeMetadataRequests;
+            this.topicIndexRefreshMs = topicIndexRefreshMs == null ? DEFAULT_TOPIC_INDEX_REFRESH_MS : topicIndexRefreshMs;
+            if (this.topicIndexRefreshMs <= 0) {
+                throw new IllegalArgumentException("topicIndexRefreshMs must be > 0, but was " + this.topicIndexRefreshMs);
+            }
         }
-        context.forwardRequest(request);
-
-    }
-
-    @Override
-    public void onMetadataResponse(ResponseHeaderData data, MetadataResponseData response, KrpcFilterContext context) {
-        String tenantPrefix = getTenantPrefix(context);
-        response.topics().removeIf(topic -> !topic.name().startsWith(tenantPrefix)); // TODO: allow kafka internal topics to be returned?
-        response.topics().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardResponse(response);
-    }
-
-    @Override
-    public void onProduceRequest(RequestHeaderData data, ProduceRequestData request, KrpcFilterContext context) {
-        request.topicData().forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardRequest(request);
-
-    }
-
-    @Override
-    public void onProduceResponse(ResponseHeaderData data, ProduceResponseData response, KrpcFilterContext context) {
-        response.responses().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardResponse(response);
-
-    }
-
-    @Override
-    public void onListOffsetsRequest(RequestHeaderData data, ListOffsetsRequestData request, KrpcFilterContext context) {
-        request.topics().forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardRequest(request);
-    }
-
-    @Override
-    public void onListOffsetsResponse(ResponseHeaderData data, ListOffsetsResponseData response, KrpcFilterContext context) {
-        response.topics().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardResponse(response);
-    }
-
-    @Override
-    public void onOffsetFetchRequest(RequestHeaderData data, OffsetFetchRequestData request, KrpcFilterContext context) {
-        request.topics().forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, false));
-        request.groups().forEach(requestGroup -> {
-            applyTenantPrefix(context, requestGroup::groupId, requestGroup::setGroupId, false);
-            Optional.ofNullable(requestGroup.topics())
-                    .ifPresent(topics -> topics.forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, false)));
-        });
-
-        context.forwardRequest(request);
-    }
-
-    @Override
-    public void onOffsetFetchResponse(ResponseHeaderData data, OffsetFetchResponseData response, KrpcFilterContext context) {
-        response.topics().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        response.groups().forEach(responseGroup -> {
-            removeTenantPrefix(context, responseGroup::groupId, responseGroup::setGroupId, false);
-            responseGroup.topics().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        });
-        context.forwardResponse(response);
-    }
-
-    @Override
-    public void onOffsetForLeaderEpochRequest(RequestHeaderData data, OffsetForLeaderEpochRequestData request, KrpcFilterContext context) {
-        request.topics().forEach(topic -> applyTenantPrefix(context, topic::topic, topic::setTopic, false));
-        context.forwardRequest(request);
-    }
-
-    @Override
-    public void onOffsetForLeaderEpochResponse(ResponseHeaderData data, OffsetForLeaderEpochResponseData response, KrpcFilterContext context) {
-        response.topics().forEach(topic -> removeTenantPrefix(context, topic::topic, topic::setTopic, false));
-        context.forwardResponse(response);
-    }
-
-    @Override
-    public void onOffsetCommitRequest(RequestHeaderData data, OffsetCommitRequestData request, KrpcFilterContext context) {
-        applyTenantPrefix(context, request::groupId, request::setGroupId, false);
-        request.topics().forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardRequest(request);
-    }
-
-    @Override
-    public void onOffsetCommitResponse(ResponseHeaderData data, OffsetCommitResponseData response, KrpcFilterContext context) {
-        response.topics().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardResponse(response);
-    }
-
-    @Override
-    public void onOffsetDeleteRequest(RequestHeaderData header, OffsetDeleteRequestData request, KrpcFilterContext context) {
-        applyTenantPrefix(context, request::groupId, request::setGroupId, false);
-        request.topics().forEach(topic -> applyTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardRequest(request);
-    }
 
-    @Override
-    public void onOffsetDeleteResponse(ResponseHeaderData header, OffsetDeleteResponseData response, KrpcFilterContext context) {
-        response.topics().forEach(topic -> removeTenantPrefix(context, topic::name, topic::setName, false));
-        context.forwardResponse(response);
-    }
+        /**
+         * @return Whether to send Metadata requests for all topics upstream for just the tenant's topics, which defaults to false.
+         */
+        public boolean scopeMetadataRequests() {
+            return scopeMetadataRequests;
+        }
 
-    @Override
-    public void onFetchRequest(RequestHeaderData data, FetchRequestData request, KrpcFilterContext context) {
-        request.topics().forEach(topic -> applyTenantPrefix(context, topic::topic, topic::setTopic, topic.topicId() != null));
-        context.forwardRequest(request);
-    }
+        /**
+         * @return How often the index of the cluster's topics is refreshed, when {@link #scopeMetadataRequests()} is enabled.
+         * Topics created other than through the proxy are missing from scoped Metadata responses for up to this long.
+         */
+        public long topicIndexRefreshMs() {
+            return topicIndexRefreshMs;
+        }
 
-    @Override
-    public void onFetchResponse(ResponseHeaderData data, FetchResponseData response, KrpcFilterContext context) {
-        response.responses().forEach(topic -> removeTenantPrefix(context, topic::topic, topic::setTopic, topic.topicId() != null));
-        context.forwardResponse(response);
+        /**
+         * @return The topic index, shared by all the connections using this configuration.
+         */
+        synchronized TopicIndex topicIndex() {
+            if (topicIndex == null) {
+                topicIndex = new TopicIndex(topicIndexRefreshMs);
+            }
+            return topicIndex;
+        }
     }
 
-    @Override
-    public void onFindCoordinatorRequest(RequestHeaderData header, FindCoordinatorRequestData request, KrpcFilterContext context) {
-        request.setCoordinatorKeys(request.coordinatorKeys().stream().map(key -> applyTenantPrefix(context, key)).toList());
-        context.forwardRequest(request);
-    }
+    // The filter belongs to a single connection, whose tenant is resolved when its first message is filtered
+    private TenantContext tenant;
+    private final TopicIndex topicIndex;
+    // The correlation ids of the Metadata requests which were scoped to the tenant's topics
+    private final Set<Integer> scopedMetadataRequests = new HashSet<>();
+    // Whether the client authenticates with the broker, so that the connection only sees what the client's principal may
+    private boolean authenticatingWithBroker;
 
-    @Override
-    public void onFindCoordinatorResponse(ResponseHeaderData header, FindCoordinatorResponseData response, KrpcFilterContext context) {
-        response.coordinators().forEach(coordinator -> removeTenantPrefix(context, coordinator::key, coordinator::setKey, false));
-        context.forwardResponse(response);
+    public MultiTenantTransformationFilter(MultiTenantConfig config) {
+        this.topicIndex = config != null && config.scopeMetadataRequests() ? config.topicIndex() : null;
     }
 
-    @Override
-    public void onListGroupsResponse(ResponseHeaderData header, ListGroupsResponseData response, KrpcFilterContext context) {
-        var tenantPrefix = getTenantPrefix(context);
-        var filteredGroups = response.groups().stream().filter(listedGroup -> listedGroup.groupId().startsWith(tenantPrefix)).toList();
-        filteredGroups.forEach(listedGroup -> removeTenantPrefix(context, listedGroup::groupId, listedGroup::setGroupId, false));
-        response.setGroups(filteredGroups);
-        context.forwardResponse(response);
-    }
-
-    @Override
-    public void onJoinGroupRequest(RequestHeaderData header, JoinGroupRequestData request, KrpcFilterContext context) {
-        var tenantPrefix = getTenantPrefix(context);
-        request.setGroupId(tenantPrefix + request.groupId());
-        context.forwardRequest(request);
+    public MultiTenantTransformationFilter() {
+        this(null);
     }
 
     @Override
-    public void onSyncGroupRequest(RequestHeaderData header, SyncGroupRequestData request, KrpcFilterContext context) {
-        var tenantPrefix = getTenantPrefix(context);
-        request.setGroupId(tenantPrefix + request.groupId());
-        context.forwardRequest(request);
+    public boolean shouldDeserializeRequest(ApiKeys apiKey, short apiVersion) {
+        return apiKey == ApiKeys.FIND_COORDINATOR || EntityNameVisitor.visitsRequest(apiKey) || (topicIndex != null && isSasl(apiKey));
     }
 
-    @Override
-    public void onLeaveGroupRequest(RequestHeaderData header, LeaveGroupRequestData request, KrpcFilterContext context) {
-        var tenantPrefix = getTenantPrefix(context);
-        request.setGroupId(tenantPrefix + request.groupId());
-        context.forwardRequest(request);
+    private static boolean isSasl(ApiKeys apiKey) {
+        return apiKey == ApiKeys.SASL_HANDSHAKE || apiKey == ApiKeys.SASL_AUTHENTICATE;
     }
 
     @Override
-    public void onHeartbeatRequest(RequestHeaderData header, HeartbeatRequestData request, KrpcFilterContext context) {
-        var tenantPrefix = getTenantPrefix(context);
-        request.setGroupId(tenantPrefix + request.groupId());
-        context.forwardRequest(request);
+    public boolean shouldDeserializeResponse(ApiKeys apiKey, short apiVersion) {
+        return apiKey == ApiKeys.FIND_COORDINATOR || EntityNameVisitor.visitsResponse(apiKey);
     }
 
     @Override
-    public void onDescribeGroupsRequest(RequestHeaderData header, DescribeGroupsRequestData request, KrpcFilterContext context) {
-        request.setGroups(request.groups().stream().map(group -> applyTenantPrefix(context, group)).toList());
-        context.forwardRequest(request);
+    public void onRequest(ApiKeys apiKey, RequestHeaderData header, ApiMessage body, KrpcFilterContext context) {
+        var tenantContext = tenant(context);
+        if (isSasl(apiKey)) {
+            authenticatingWithBroker = true;
+            context.forwardRequest(body);
+            return;
+        }
+        if (apiKey == ApiKeys.METADATA && topicIndex != null && scopeMetadataRequest(header, (MetadataRequestData) body, tenantContext, context)) {
+            // The scoped request's names are already prefixed
+            context.forwardRequest(body);
+            return;
+        }
+        var rewriter = tenantContext.applyPrefix();
+        if (apiKey == ApiKeys.FIND_COORDINATOR) {
+            onFindCoordinatorRequest((FindCoordinatorRequestData) body, rewriter);
+        }
+        else {
+            EntityNameVisitor.visitRequest(apiKey, body, rewriter);
+        }
+        context.forwardRequest(body);
     }
 
     @Override
-    public void onDescribeGroupsResponse(ResponseHeaderData header, DescribeGroupsResponseData response, KrpcFilterContext context) {
-        response.groups().forEach(group -> removeTenantPrefix(context, group::groupId, group::setGroupId, false));
-        context.forwardResponse(response);
+    public void onResponse(ApiKeys apiKey, ResponseHeaderData header, ApiMessage body, KrpcFilterContext context) {
+        var tenantContext = tenant(context);
+        var tenantPrefix = tenantContext.prefix();
+        var rewriter = tenantContext.removePrefix();
+        switch (apiKey) {
+            case FIND_COORDINATOR:
+                onFindCoordinatorResponse((FindCoordinatorResponseData) body, rewriter);
+                break;
+            case METADATA:
+                onMetadataResponse(header, (MetadataResponseData) body, tenantPrefix);
+                break;
+            case LIST_GROUPS:
+                // ListGroups can't be scoped upstream, since it has no filter on group ids
+                ((ListGroupsResponseData) body).groups().removeIf(listedGroup -> !listedGroup.groupId().startsWith(tenantPrefix));
+                break;
+            case CREATE_TOPICS:
+                if (topicIndex != null) {
+                    for (var topic : ((CreateTopicsResponseData) body).topics()) {
+                        if (topic.errorCode() == Errors.NONE.code()) {
+                            topicIndex.add(topic.name());
+                        }
+                    }
+                }
+                break;
+            case DELETE_TOPICS:
+                if (topicIndex != null) {
+                    for (var topic : ((DeleteTopicsResponseData) body).responses()) {
+                        if (topic.errorCode() == Errors.NONE.code() && topic.name() != null) {
+                            topicIndex.remove(topic.name());
+                        }
+                    }
+                }
+                break;
+            case LIST_TRANSACTIONS:
+                var listTransactions = (ListTransactionsResponseData) body;
+                listTransactions.setTransactionStates(listTransactions.transactionStates().stream()
+                        .filter(transactionState -> transactionState.transactionalId().startsWith(tenantPrefix)).toList());
+                break;
+            default:
+                break;
+        }
+        EntityNameVisitor.visitResponse(apiKey, body, rewriter);
+        context.forwardResponse(body);
+    }
+
+    /**
+     * Replaces a request for all topics with a request for the tenant's topics, if the topic index has been populated.
+     * @return true if the request was scoped.
+     */
+    private boolean scopeMetadataRequest(RequestHeaderData header, MetadataRequestData request, TenantContext tenantContext, KrpcFilterContext context) {
+        short apiVersion = header.requestApiVersion();
+        // Before version 4 a request couldn't disable topic auto-creation, which would recreate topics deleted since the last refresh
+        if (request.topics() != null || apiVersion < 4 || authenticatingWithBroker) {
+            return false;
+        }
+        refreshTopicIndex(apiVersion, context);
+        NavigableSet<String> tenantTopics = topicIndex.topics(tenantContext.prefix());
+        if (tenantTopics == null) {
+            return false;
+        }
+        List<MetadataRequestTopic> topics = new ArrayList<>(tenantTopics.size());
+        for (String topic : tenantTopics) {
+            topics.add(new MetadataRequestTopic().setName(topic));
+        }
+        request.setTopics(topics).setAllowAutoTopicCreation(false);
+        scopedMetadataRequests.add(header.correlationId());
+        return true;
     }
 
-    private void applyTenantPrefix(KrpcFilterContext context, Supplier<String> getter, Consumer<String> setter, boolean ignoreEmpty) {
-        String clientSideName = getter.get();
-        if (ignoreEmpty && (clientSideName == null || clientSideName.isEmpty())) {
+    private void refreshTopicIndex(short apiVersion, KrpcFilterContext context) {
+        if (!topicIndex.startRefresh()) {
             return;
         }
-        setter.accept(applyTenantPrefix(context, clientSideName));
+        var allTopics = new MetadataRequestData().setTopics(null).setAllowAutoTopicCreation(false);
+        context.<MetadataResponseData> sendRequest(apiVersion, allTopics).whenComplete((response, error) -> {
+            if (error != null) {
+                topicIndex.refreshFailed();
+            }
+            else {
+                List<String> names = new ArrayList<>(response.topics().size());
+                for (MetadataResponseTopic topic : response.topics()) {
+                    if (topic.errorCode() == Errors.NONE.code()) {
+                        names.add(topic.name());
+                    }
+                }
+                topicIndex.refreshed(names);
+            }
+        });
     }
 
-    private String applyTenantPrefix(KrpcFilterContext context, String clientSideName) {
-        var tenantPrefix = getTenantPrefix(context);
-        return tenantPrefix + clientSideName;
+    private void onMetadataResponse(ResponseHeaderData header, MetadataResponseData response, String tenantPrefix) {
+        boolean scoped = scopedMetadataRequests.remove(header.correlationId());
+        var topics = response.topics().iterator();
+        while (topics.hasNext()) {
+            var topic = topics.next();
+            // TODO: allow kafka internal topics to be returned?
+            if (topic.name() == null || !topic.name().startsWith(tenantPrefix)) {
+                topics.remove();
+            }
+            else if (scoped && topic.errorCode() == Errors.UNKNOWN_TOPIC_OR_PARTITION.code()) {
+                // Deleted since the topic index was refreshed, so it wouldn't have been in a response for all topics
+                topicIndex.remove(topic.name());
+                topics.remove();
+            }
+            else if (scoped && topic.errorCode() == Errors.TOPIC_AUTHORIZATION_FAILED.code()) {
+                // A response for all topics leaves out the topics the client may not describe, rather than naming them
+                topics.remove();
+            }
+        }
     }
 
-    private void removeTenantPrefix(KrpcFilterContext context, Supplier<String> getter, Consumer<String> setter, boolean ignoreEmpty) {
-        var brokerSideName = getter.get();
-        if (ignoreEmpty && (brokerSideName == null || brokerSideName.isEmpty())) {
-            return;
+    private void onFindCoordinatorRequest(FindCoordinatorRequestData request, EntityNameRewriter rewriter) {
+        request.setKey(coordinatorKey(request.keyType(), request.key(), rewriter));
+        List<String> coordinatorKeys = new ArrayList<>(request.coordinatorKeys().size());
+        for (String key : request.coordinatorKeys()) {
+            coordinatorKeys.add(coordinatorKey(request.keyType(), key, rewriter));
         }
+        request.setCoordinatorKeys(coordinatorKeys);
+    }
 
-        setter.accept(removeTenantPrefix(context, brokerSideName));
+    private void onFindCoordinatorResponse(FindCoordinatorResponseData response, EntityNameRewriter rewriter) {
+        // The key type isn't in the response, but groups and transactions are prefixed alike
+        for (var coordinator : response.coordinators()) {
+            coordinator.setKey(rewriter.groupId(coordinator.key()));
+        }
     }
 
-    private String removeTenantPrefix(KrpcFilterContext context, String brokerSideName) {
-        var tenantPrefix = getTenantPrefix(context);
-        return brokerSideName.substring(tenantPrefix.length());
+    private static String coordinatorKey(byte keyType, String key, EntityNameRewriter rewriter) {
+        return keyType == CoordinatorType.TRANSACTION.id() ? rewriter.transactionalId(key) : rewriter.groupId(key);
     }
 
-    private static String getTenantPrefix(KrpcFilterContext context) {
-        // TODO naive - POC implementation uses the first component of a FQDN as the multi-tenant prefix.
-        var sniHostname = context.sniHostname();
-        if (sniHostname == null) {
-            throw new IllegalStateException("This filter requires that the client provides a TLS SNI hostname.");
-        }
-        int dot = sniHostname.indexOf(".");
-        if (dot < 1) {
-            throw new IllegalStateException("Unexpected SNI hostname formation. SNI hostname : " + sniHostname);
+    private TenantContext tenant(KrpcFilterContext context) {
+        if (tenant == null) {
+            tenant = TenantContext.forSniHostname(context.sniHostname());
         }
-        return sniHostname.substring(0, dot) + "-";
+        return tenant;
     }
 
-    public MultiTenantTransformationFilter() {
-    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.filter.multitenant;
+
+/**
+ * The tenant of a connection, which is resolved from the connection's SNI hostname once, when its first message is filtered.
+ */
+final class TenantContext {
+
+    private final String prefix;
+    private final EntityNameRewriter applyPrefix = new EntityNameRewriter() {
+        @Override
+        public String topicName(String name) {
+            return applyPrefix(name);
+        }
+
+        @Override
+        public String groupId(String id) {
+            return applyPrefix(id);
+        }
+
+        @Override
+        public String transactionalId(String id) {
+            return applyPrefix(id);
+        }
+    };
+    private final EntityNameRewriter removePrefix = new EntityNameRewriter() {
+        @Override
+        public String topicName(String name) {
+            return removePrefix(name);
+        }
+
+        @Override
+        public String groupId(String id) {
+            return removePrefix(id);
+        }
+
+        @Override
+        public String transactionalId(String id) {
+            return removePrefix(id);
+        }
+    };
+
+    TenantContext(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * @param sniHostname The SNI hostname of a connection.
+     * @return The context of the tenant named by the first component of the hostname.
+     * @throws IllegalStateException If there's no SNI hostname, or it doesn't have more than one component.
+     */
+    static TenantContext forSniHostname(String sniHostname) {
+        // TODO naive - POC implementation uses the first component of a FQDN as the multi-tenant prefix.
+        if (sniHostname == null) {
+            throw new IllegalStateException("This filter requires that the client provides a TLS SNI hostname.");
+        }
+        int dot = sniHostname.indexOf(".");
+        if (dot < 1) {
+            throw new IllegalStateException("Unexpected SNI hostname formation. SNI hostname : " + sniHostname);
+        }
+        return new TenantContext(sniHostname.substring(0, dot) + "-");
+    }
+
+    /**
+     * @return The prefix of the tenant's names on the broker side.
+     */
+    String prefix() {
+        return prefix;
+    }
+
+    /**
+     * @return A rewriter from client side to broker side names.
+     */
+    EntityNameRewriter applyPrefix() {
+        return applyPrefix;
+    }
+
+    /**
+     * @return A rewriter from broker side to client side names.
+     */
+    EntityNameRewriter removePrefix() {
+        return removePrefix;
+    }
+
+    /**
+     * @param clientSideName A name, as the client knows it.
+     * @return The name on the broker side. Null and empty names, such as the names of topics identified by id, are left as they are.
+     */
+    String applyPrefix(String clientSideName) {
+        if (clientSideName == null || clientSideName.isEmpty()) {
+            return clientSideName;
+        }
+        return prefix + clientSideName;
+    }
+
+    /**
+     * @param brokerSideName A name, as the broker knows it.
+     * @return The name as the client knows it. Names without the tenant prefix are left as they are.
+     */
+    String removePrefix(String brokerSideName) {
+        if (brokerSideName == null || !brokerSideName.startsWith(prefix)) {
+            return brokerSideName;
+        }
+        return brokerSideName.substring(prefix.length());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.filter.multitenant;
+
+import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>An index of the (broker side) names of the cluster's topics, from which the topics of a tenant can be found by their prefix
+ * without scanning the topics of the other tenants.</p>
+ *
+ * <p>The index is refreshed from an all topics Metadata request, which a connection sends when it finds the index is
+ * older than the refresh interval. Between refreshes, the topics created and deleted through the proxy are added and removed,
+ * but topics created other than through the proxy are missing until the next refresh.
+ * It is shared by all the connections using the same filter configuration, so it is thread-safe.
+ * Only connections which reach the broker with the proxy's identity refresh or use it, so that it holds the same topics
+ * whichever connection refreshed it.</p>
+ */
+class TopicIndex {
+
+    private final long refreshIntervalNanos;
+    private final LongSupplier nanoTime;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile NavigableSet<String> topics;
+    private volatile long refreshedAtNanos;
+
+    TopicIndex(long refreshIntervalMs) {
+        this(refreshIntervalMs, System::nanoTime);
+    }
+
+    TopicIndex(long refreshIntervalMs, LongSupplier nanoTime) {
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMs);
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @param prefix A tenant's prefix.
+     * @return The names of the tenant's topics, in order, or null if the index hasn't been populated yet.
+     */
+    NavigableSet<String> topics(String prefix) {
+        NavigableSet<String> current = topics;
+        if (current == null) {
+            return null;
+        }
+        // Topic names are ASCII, so every name with the prefix sorts before the prefix followed by the largest char
+        return current.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Claims the refresh of the index, if it needs refreshing and no other connection is already refreshing it.
+     * The caller must then call {@link #refreshed(Collection)} or {@link #refreshFailed()}.
+     * @return true if the caller should refresh the index.
+     */
+    boolean startRefresh() {
+        if (topics != null && nanoTime.getAsLong() - refreshedAtNanos < refreshIntervalNanos) {
+            return false;
+        }
+        return refreshing.compareAndSet(false, true);
+    }
+
+    /**
+     * @param allTopics The names of all the cluster's topics.
+     */
+    void refreshed(Collection<String> allTopics) {
+        refreshedAtNanos = nanoTime.getAsLong();
+        topics = new ConcurrentSkipListSet<>(allTopics);
+        refreshing.set(false);
+    }
+
+    void refreshFailed() {
+        refreshing.set(false);
+    }
+
+    /**
+     * @param topic The name of a topic which was created.
+     */
+    void add(String topic) {
+        NavigableSet<String> current = topics;
+        if (current != null) {
+            current.add(topic);
+        }
+    }
+
+    /**
+     * @param topic The name of a topic which was deleted.
+     */
+    void remove(String topic) {
+        NavigableSet<String> current = topics;
+        if (current != null) {
+            current.remove(topic);
+        }
+    }
+}
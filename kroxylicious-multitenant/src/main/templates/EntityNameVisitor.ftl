@@ -0,0 +1,138 @@
+<#--
+
+    Copyright Kroxylicious Authors.
+
+    Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+
+-->
+<#assign rewriterMethods = {"TOPIC_NAME": "topicName", "GROUP_ID": "groupId", "TRANSACTIONAL_ID": "transactionalId"}>
+<#macro visitFields messageSpec fields owner depth>
+<#list fields as field>
+<#local getter = "${owner}.${field.name?uncap_first}()">
+<#local indent = ""?left_pad(8 + depth * 4)>
+<#if field.type.isStructArray>
+${indent}if (${getter} != null) {
+${indent}    for (var e${depth} : ${getter}) {
+<@visitFields messageSpec=messageSpec fields=entityFields(messageSpec, field) owner="e${depth}" depth=depth + 2/>
+${indent}    }
+${indent}}
+<#elseif field.type.isStruct>
+${indent}if (${getter} != null) {
+${indent}    var s${depth} = ${getter};
+<@visitFields messageSpec=messageSpec fields=entityFields(messageSpec, field) owner="s${depth}" depth=depth + 1/>
+${indent}}
+<#elseif field.type.isArray>
+${indent}if (${getter} != null) {
+${indent}    List<String> rewritten = new ArrayList<>(${getter}.size());
+${indent}    for (String name : ${getter}) {
+${indent}        rewritten.add(rewriter.${rewriterMethods[field.entityType?string]}(name));
+${indent}    }
+${indent}    ${owner}.set${field.name?cap_first}(rewritten);
+${indent}}
+<#else>
+${indent}${owner}.set${field.name?cap_first}(rewriter.${rewriterMethods[field.entityType?string]}(${getter}));
+</#if>
+</#list>
+</#macro>
+<#macro dispatch type>
+        switch (apiKey) {
+<#list messageSpecs as messageSpec>
+<#if messageSpec.type?lower_case == type && entityFields(messageSpec)?has_content>
+            case ${retrieveApiKey(messageSpec)}:
+                visit((${messageSpec.name}Data) body, rewriter);
+                break;
+</#if>
+</#list>
+            default:
+                break;
+        }
+</#macro>
+<#macro visits type>
+        switch (apiKey) {
+<#list messageSpecs as messageSpec>
+<#if messageSpec.type?lower_case == type && entityFields(messageSpec)?has_content>
+            case ${retrieveApiKey(messageSpec)}:
+</#if>
+</#list>
+                return true;
+            default:
+                return false;
+        }
+</#macro>
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+// THIS CODE IS AUTOMATICALLY GENERATED. DO NOT EDIT.
+
+package ${outputPackage};
+
+import java.util.ArrayList;
+import java.util.List;
+
+<#list messageSpecs as messageSpec>
+<#if entityFields(messageSpec)?has_content>
+import org.apache.kafka.common.message.${messageSpec.name}Data;
+</#if>
+</#list>
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+
+/**
+ * <p>Visits the names of the entities (topic names, group ids and transactional ids) in a Kafka message,
+ * replacing each with the name returned by an {@link EntityNameRewriter}.</p>
+ *
+ * <p>The visitor for each message is generated from the {@code entityType} of the fields in its message spec,
+ * so it covers every field of every API which refers to such an entity, without reflection or lambdas.</p>
+ */
+public final class EntityNameVisitor {
+
+    private EntityNameVisitor() {
+    }
+
+    /**
+     * @param apiKey The API key.
+     * @return true if requests with the given {@code apiKey} have fields naming entities.
+     */
+    public static boolean visitsRequest(ApiKeys apiKey) {
+<@visits type="request"/>
+    }
+
+    /**
+     * @param apiKey The API key.
+     * @return true if responses with the given {@code apiKey} have fields naming entities.
+     */
+    public static boolean visitsResponse(ApiKeys apiKey) {
+<@visits type="response"/>
+    }
+
+    /**
+     * Rewrites the entity names in a request.
+     * @param apiKey The request API key.
+     * @param body The request body.
+     * @param rewriter The rewriter.
+     */
+    public static void visitRequest(ApiKeys apiKey, ApiMessage body, EntityNameRewriter rewriter) {
+<@dispatch type="request"/>
+    }
+
+    /**
+     * Rewrites the entity names in a response.
+     * @param apiKey The response API key.
+     * @param body The response body.
+     * @param rewriter The rewriter.
+     */
+    public static void visitResponse(ApiKeys apiKey, ApiMessage body, EntityNameRewriter rewriter) {
+<@dispatch type="response"/>
+    }
+<#list messageSpecs as messageSpec>
+<#if entityFields(messageSpec)?has_content>
+
+    public static void visit(${messageSpec.name}Data data, EntityNameRewriter rewriter) {
+<@visitFields messageSpec=messageSpec fields=entityFields(messageSpec) owner="data" depth=0/>
+    }
+</#if>
+</#list>
+}
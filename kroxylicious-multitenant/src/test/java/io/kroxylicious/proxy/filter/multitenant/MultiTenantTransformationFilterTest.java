@@ -10,18 +10,27 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import org.apache.kafka.common.message.ApiMessageType;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.MetadataRequestData.MetadataRequestTopic;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic;
 import org.apache.kafka.common.message.RequestHeaderData;
 import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.message.SaslHandshakeRequestData;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.protocol.Errors;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -41,8 +50,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static io.kroxylicious.proxy.filter.multitenant.KafkaApiMessageConverter.requestConverterFor;
 import static io.kroxylicious.proxy.filter.multitenant.KafkaApiMessageConverter.responseConverterFor;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyShort;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -168,4 +182,86 @@ class MultiTenantTransformationFilterTest {
         var filtered = responseWriter.apply(apiMessageCaptor.getValue(), header.requestApiVersion());
         assertEquals(responseTestDef.expectedPatch(), JsonDiff.asJson(marshalled, filtered));
     }
+
+    @Test
+    void metadataRequestForAllTopicsIsScopedToTenant() {
+        var scopingFilter = new MultiTenantTransformationFilter(new MultiTenantTransformationFilter.MultiTenantConfig(true, null));
+        var allTopics = new MetadataResponseData();
+        allTopics.topics().add(new MetadataResponseTopic().setName("tenant1-mytopic"));
+        allTopics.topics().add(new MetadataResponseTopic().setName("tenant1-deleted"));
+        allTopics.topics().add(new MetadataResponseTopic().setName("tenant2-mytopic"));
+        var refreshed = new CompletableFuture<MetadataResponseData>();
+        doReturn(refreshed).when(context).sendRequest(anyShort(), any());
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.METADATA.id).setRequestApiVersion((short) 12).setCorrelationId(1);
+
+        // The first request populates the index, and is sent as it is
+        scopingFilter.onRequest(ApiKeys.METADATA, header, new MetadataRequestData().setTopics(null), context);
+        verify(context).forwardRequest(apiMessageCaptor.capture());
+        assertThat(((MetadataRequestData) apiMessageCaptor.getValue()).topics()).isNull();
+        refreshed.complete(allTopics);
+
+        var request = new MetadataRequestData().setTopics(null);
+        scopingFilter.onRequest(ApiKeys.METADATA, header.setCorrelationId(2), request, context);
+        assertThat(request.topics()).extracting(MetadataRequestTopic::name).containsExactly("tenant1-deleted", "tenant1-mytopic");
+        assertThat(request.allowAutoTopicCreation()).isFalse();
+
+        var response = new MetadataResponseData();
+        response.topics().add(new MetadataResponseTopic().setName("tenant1-deleted").setErrorCode(Errors.UNKNOWN_TOPIC_OR_PARTITION.code()));
+        response.topics().add(new MetadataResponseTopic().setName("tenant1-mytopic"));
+        scopingFilter.onResponse(ApiKeys.METADATA, new ResponseHeaderData().setCorrelationId(2), response, context);
+        assertThat(response.topics()).extracting(MetadataResponseTopic::name).containsExactly("mytopic");
+
+        var rescoped = new MetadataRequestData().setTopics(null);
+        scopingFilter.onRequest(ApiKeys.METADATA, header.setCorrelationId(3), rescoped, context);
+        assertThat(rescoped.topics()).extracting(MetadataRequestTopic::name).containsExactly("tenant1-mytopic");
+    }
+
+    @Test
+    void metadataRequestForNamedTopicsIsNotScoped() {
+        var scopingFilter = new MultiTenantTransformationFilter(new MultiTenantTransformationFilter.MultiTenantConfig(true, null));
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.METADATA.id).setRequestApiVersion((short) 12);
+        var request = new MetadataRequestData().setTopics(List.of(new MetadataRequestTopic().setName("mytopic")));
+
+        scopingFilter.onRequest(ApiKeys.METADATA, header, request, context);
+
+        verify(context, never()).sendRequest(anyShort(), any());
+        assertThat(request.topics()).extracting(MetadataRequestTopic::name).containsExactly("tenant1-mytopic");
+    }
+
+    @Test
+    void metadataRequestIsNotScopedWhenClientAuthenticatesWithBroker() {
+        var scopingFilter = new MultiTenantTransformationFilter(new MultiTenantTransformationFilter.MultiTenantConfig(true, null));
+        assertThat(scopingFilter.shouldDeserializeRequest(ApiKeys.SASL_HANDSHAKE, (short) 1)).isTrue();
+        var handshake = new SaslHandshakeRequestData().setMechanism("PLAIN");
+        scopingFilter.onRequest(ApiKeys.SASL_HANDSHAKE, new RequestHeaderData().setRequestApiKey(ApiKeys.SASL_HANDSHAKE.id), handshake, context);
+        verify(context).forwardRequest(handshake);
+
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.METADATA.id).setRequestApiVersion((short) 12).setCorrelationId(1);
+        var request = new MetadataRequestData().setTopics(null);
+        scopingFilter.onRequest(ApiKeys.METADATA, header, request, context);
+
+        // The index isn't refreshed with what the client's principal may see
+        verify(context, never()).sendRequest(anyShort(), any());
+        assertThat(request.topics()).isNull();
+    }
+
+    @Test
+    void topicsTheClientMayNotDescribeAreLeftOutOfScopedResponses() {
+        var scopingFilter = new MultiTenantTransformationFilter(new MultiTenantTransformationFilter.MultiTenantConfig(true, null));
+        var allTopics = new MetadataResponseData();
+        allTopics.topics().add(new MetadataResponseTopic().setName("tenant1-mytopic"));
+        allTopics.topics().add(new MetadataResponseTopic().setName("tenant1-secret"));
+        doReturn(CompletableFuture.completedFuture(allTopics)).when(context).sendRequest(anyShort(), any());
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.METADATA.id).setRequestApiVersion((short) 12).setCorrelationId(1);
+        scopingFilter.onRequest(ApiKeys.METADATA, header, new MetadataRequestData().setTopics(null), context);
+        var request = new MetadataRequestData().setTopics(null);
+        scopingFilter.onRequest(ApiKeys.METADATA, header.setCorrelationId(2), request, context);
+        assertThat(request.topics()).hasSize(2);
+
+        var response = new MetadataResponseData();
+        response.topics().add(new MetadataResponseTopic().setName("tenant1-mytopic"));
+        response.topics().add(new MetadataResponseTopic().setName("tenant1-secret").setErrorCode(Errors.TOPIC_AUTHORIZATION_FAILED.code()));
+        scopingFilter.onResponse(ApiKeys.METADATA, new ResponseHeaderData().setCorrelationId(2), response, context);
+        assertThat(response.topics()).extracting(MetadataResponseTopic::name).containsExactly("mytopic");
+    }
 }
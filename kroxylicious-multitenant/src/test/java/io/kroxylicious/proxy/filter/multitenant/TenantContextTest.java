@@ -0,0 +1,47 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package io.kroxylicious.proxy.filter.multitenant;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TenantContextTest {
+
+    @Test
+    void prefixIsFirstComponentOfSniHostname() {
+        assertThat(TenantContext.forSniHostname("tenant1.kafka.example.com").prefix()).isEqualTo("tenant1-");
+    }
+
+    @Test
+    void rejectsMissingOrUnqualifiedSniHostname() {
+        assertThatThrownBy(() -> TenantContext.forSniHostname(null)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> TenantContext.forSniHostname("localhost")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> TenantContext.forSniHostname(".example.com")).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void prefixIsAppliedAndRemoved() {
+        var tenant = new TenantContext("tenant1-");
+
+        assertThat(tenant.applyPrefix("mytopic")).isEqualTo("tenant1-mytopic");
+        assertThat(tenant.removePrefix("tenant1-mytopic")).isEqualTo("mytopic");
+        assertThat(tenant.applyPrefix().topicName("mytopic")).isEqualTo("tenant1-mytopic");
+        assertThat(tenant.removePrefix().groupId("tenant1-mygroup")).isEqualTo("mygroup");
+    }
+
+    @Test
+    void emptyAndForeignNamesAreLeftAlone() {
+        var tenant = new TenantContext("tenant1-");
+
+        assertThat(tenant.applyPrefix("")).isEmpty();
+        assertThat(tenant.applyPrefix(null)).isNull();
+        assertThat(tenant.removePrefix("tenant2-mytopic")).isEqualTo("tenant2-mytopic");
+        assertThat(tenant.removePrefix(null)).isNull();
+    }
+}
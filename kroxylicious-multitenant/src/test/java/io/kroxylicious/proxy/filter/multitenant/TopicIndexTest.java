@@ -0,0 +1,54 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package io.kroxylicious.proxy.filter.multitenant;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TopicIndexTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final TopicIndex index = new TopicIndex(1000, nanoTime::get);
+
+    @Test
+    void findsTopicsByTenantPrefix() {
+        assertThat(index.topics("tenant1-")).isNull();
+
+        index.refreshed(List.of("tenant2-b", "tenant1-b", "tenant10-a", "tenant1-a", "other"));
+
+        assertThat(index.topics("tenant1-")).containsExactly("tenant1-a", "tenant1-b");
+        assertThat(index.topics("tenant3-")).isEmpty();
+    }
+
+    @Test
+    void createdAndDeletedTopicsUpdateIndex() {
+        index.refreshed(List.of("tenant1-a"));
+
+        index.add("tenant1-b");
+        index.remove("tenant1-a");
+
+        assertThat(index.topics("tenant1-")).containsExactly("tenant1-b");
+    }
+
+    @Test
+    void refreshIsClaimedByOneConnectionOnceStale() {
+        assertThat(index.startRefresh()).isTrue();
+        assertThat(index.startRefresh()).isFalse();
+        index.refreshed(List.of());
+        assertThat(index.startRefresh()).isFalse();
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(index.startRefresh()).isTrue();
+        index.refreshFailed();
+        assertThat(index.startRefresh()).isTrue();
+    }
+}
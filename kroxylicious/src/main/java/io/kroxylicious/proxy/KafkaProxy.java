@@ -13,6 +13,7 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -24,32 +25,67 @@ import org.slf4j.LoggerFactory;
 
 import io.micrometer.core.instrument.Metrics;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.kqueue.KQueue;
+import io.netty.channel.kqueue.KQueueDatagramChannel;
 import io.netty.channel.kqueue.KQueueEventLoopGroup;
 import io.netty.channel.kqueue.KQueueServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.UnixChannelOption;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringDatagramChannel;
 import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
 import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
 
 import io.kroxylicious.proxy.bootstrap.FilterChainFactory;
+import io.kroxylicious.proxy.config.Cluster;
 import io.kroxylicious.proxy.config.Configuration;
+import io.kroxylicious.proxy.config.CoordinatorCacheConfig;
+import io.kroxylicious.proxy.config.FilterExecutorConfig;
+import io.kroxylicious.proxy.config.FrameCaptureConfig;
+import io.kroxylicious.proxy.config.HotPartitionsConfig;
+import io.kroxylicious.proxy.config.MemoryBudgetConfig;
+import io.kroxylicious.proxy.config.MetadataCacheConfig;
 import io.kroxylicious.proxy.config.MicrometerDefinition;
+import io.kroxylicious.proxy.config.NetworkConfig;
 import io.kroxylicious.proxy.config.ProxyConfig;
+import io.kroxylicious.proxy.config.QuotaConfig;
+import io.kroxylicious.proxy.config.TenantMetricsConfig;
+import io.kroxylicious.proxy.config.TracingConfig;
+import io.kroxylicious.proxy.config.TrafficRecordingConfig;
 import io.kroxylicious.proxy.config.admin.AdminHttpConfiguration;
+import io.kroxylicious.proxy.internal.ByteRateQuotas;
+import io.kroxylicious.proxy.internal.FilterExecutor;
+import io.kroxylicious.proxy.internal.FrameCapture;
+import io.kroxylicious.proxy.internal.HotPartitions;
 import io.kroxylicious.proxy.internal.KafkaProxyInitializer;
+import io.kroxylicious.proxy.internal.MemoryAccountant;
 import io.kroxylicious.proxy.internal.MeterRegistries;
+import io.kroxylicious.proxy.internal.RequestTracing;
+import io.kroxylicious.proxy.internal.ResponseCache;
+import io.kroxylicious.proxy.internal.TenantMetrics;
+import io.kroxylicious.proxy.internal.TopicMetadataCaches;
+import io.kroxylicious.proxy.internal.TrafficRecorder;
+import io.kroxylicious.proxy.internal.UpstreamBrokers;
+import io.kroxylicious.proxy.internal.UpstreamResolver;
 import io.kroxylicious.proxy.internal.admin.AdminHttpInitializer;
 import io.kroxylicious.proxy.internal.filter.FixedNetFilter;
 
@@ -63,18 +99,40 @@ public final class KafkaProxy implements AutoCloseable {
 
     private final String proxyHost;
     private final int proxyPort;
-    private final String brokerHost;
-    private final int brokerPort;
+    private final Cluster cluster;
     private final boolean logNetwork;
     private final boolean logFrames;
     private final boolean useIoUring;
+    private final boolean useSoReusePort;
     private final FilterChainFactory filterChainFactory;
     private final AdminHttpConfiguration adminHttpConfig;
     private final List<MicrometerDefinition> micrometerConfig;
     private final ProxyConfig proxyConfig;
+    private final NetworkConfig networkConfig;
+    private final MemoryBudgetConfig memoryBudgetConfig;
+    private final QuotaConfig quotaConfig;
+    private final MetadataCacheConfig metadataCacheConfig;
+    private final CoordinatorCacheConfig coordinatorCacheConfig;
+    private final FilterExecutorConfig filterExecutorConfig;
+    private final HotPartitionsConfig hotPartitionsConfig;
+    private final TenantMetricsConfig tenantMetricsConfig;
+    private final FrameCaptureConfig frameCaptureConfig;
+    private final TrafficRecordingConfig recordingConfig;
+    private final TracingConfig tracingConfig;
+    private MemoryAccountant memoryAccountant;
+    private ByteRateQuotas quotas;
+    private ResponseCache metadataResponses;
+    private ResponseCache coordinatorResponses;
+    private FilterExecutor filterExecutor;
+    private HotPartitions hotPartitions;
+    private TenantMetrics tenantMetrics;
+    private FrameCapture frameCapture;
+    private TrafficRecorder trafficRecorder;
+    private RequestTracing requestTracing;
+    private UpstreamResolver upstreamResolver;
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
-    private Channel acceptorChannel;
+    private List<Channel> acceptorChannels;
     private Channel metricsChannel;
     private Optional<File> keyStoreFile;
     private Optional<String> keyStorePassword;
@@ -83,20 +141,28 @@ public final class KafkaProxy implements AutoCloseable {
         String proxyAddress = config.proxy().address();
         String[] proxyAddressParts = proxyAddress.split(":");
 
-        // TODO: deal with list
-        String brokerAddress = config.clusters().entrySet().iterator().next().getValue().bootstrapServers();
-        String[] brokerAddressParts = brokerAddress.split(":");
+        this.cluster = config.clusters().values().iterator().next();
 
         this.proxyHost = proxyAddressParts[0];
         this.proxyPort = Integer.valueOf(proxyAddressParts[1]);
-        this.brokerHost = brokerAddressParts[0];
-        this.brokerPort = Integer.valueOf(brokerAddressParts[1]);
         this.logNetwork = config.proxy().logNetwork();
         this.logFrames = config.proxy().logFrames();
         this.useIoUring = config.proxy().useIoUring();
+        this.useSoReusePort = config.proxy().useSoReusePort();
         this.adminHttpConfig = config.adminHttpConfig();
         this.micrometerConfig = config.getMicrometer();
         this.proxyConfig = config.proxy();
+        this.networkConfig = config.proxy().network();
+        this.memoryBudgetConfig = config.proxy().memoryBudget();
+        this.quotaConfig = config.proxy().quotas();
+        this.metadataCacheConfig = config.proxy().metadataCache();
+        this.coordinatorCacheConfig = config.proxy().coordinatorCache();
+        this.filterExecutorConfig = config.proxy().filterExecutor();
+        this.hotPartitionsConfig = config.proxy().hotPartitions();
+        this.frameCaptureConfig = config.proxy().frameCapture();
+        this.recordingConfig = config.proxy().recording();
+        this.tracingConfig = config.proxy().tracing();
+        this.tenantMetricsConfig = config.proxy().tenantMetrics();
         this.filterChainFactory = new FilterChainFactory(config);
 
         this.keyStoreFile = config.proxy().keyStoreFile().map(File::new);
@@ -115,28 +181,24 @@ public final class KafkaProxy implements AutoCloseable {
         return proxyHost() + ":" + proxyPort();
     }
 
-    public String brokerHost() {
-        return brokerHost;
-    }
-
-    public int brokerPort() {
-        return brokerPort;
-    }
-
     public String brokerAddress() {
-        return brokerHost() + ":" + brokerPort();
+        return cluster.bootstrapServers();
     }
 
     public boolean useIoUring() {
         return useIoUring;
     }
 
+    public boolean useSoReusePort() {
+        return useSoReusePort;
+    }
+
     /**
      * Starts this proxy.
      * @return This proxy.
      */
     public KafkaProxy startup() throws InterruptedException {
-        if (acceptorChannel != null) {
+        if (acceptorChannels != null) {
             throw new IllegalStateException("This proxy is already running");
         }
 
@@ -157,59 +219,130 @@ public final class KafkaProxy implements AutoCloseable {
             }
         });
 
-        KafkaProxyInitializer initializer = new KafkaProxyInitializer(false,
-                Map.of(),
-                new FixedNetFilter(brokerHost,
-                        brokerPort,
-                        filterChainFactory),
-                logNetwork,
-                logFrames,
-                sslContext);
+        memoryAccountant = new MemoryAccountant(memoryBudgetConfig, Metrics.globalRegistry);
+        quotas = quotaConfig.enabled() ? new ByteRateQuotas(quotaConfig) : null;
+        metadataResponses = metadataCacheConfig.enabled() ? ResponseCache.forMetadata(metadataCacheConfig) : null;
+        coordinatorResponses = coordinatorCacheConfig.enabled() ? ResponseCache.forCoordinators(coordinatorCacheConfig) : null;
+        filterExecutor = new FilterExecutor(filterExecutorConfig);
+        var topicMetadata = new TopicMetadataCaches();
+        hotPartitions = hotPartitionsConfig.enabled() ? new HotPartitions(hotPartitionsConfig) : null;
+        frameCapture = frameCaptureConfig.enabled() ? new FrameCapture(frameCaptureConfig) : null;
+        trafficRecorder = recordingConfig.enabled() ? new TrafficRecorder(recordingConfig) : null;
+        requestTracing = tracingConfig.enabled() ? new RequestTracing(tracingConfig) : null;
+        tenantMetrics = tenantMetricsConfig.enabled() ? new TenantMetrics(Metrics.globalRegistry, tenantMetricsConfig.topK()) : null;
 
-        final int availableCores = Runtime.getRuntime().availableProcessors();
+        final int workerThreads = networkConfig.workerThreads();
 
         // Configure the bootstrap.
         final Class<? extends ServerChannel> channelClass;
+        final Class<? extends DatagramChannel> datagramChannelClass;
+        final boolean reusePortSupported;
         if (useIoUring) {
             if (!IOUring.isAvailable()) {
                 throw new IllegalStateException("io_uring not available due to: " + IOUring.unavailabilityCause());
             }
             bossGroup = new IOUringEventLoopGroup(1);
-            workerGroup = new IOUringEventLoopGroup(availableCores);
+            workerGroup = new IOUringEventLoopGroup(workerThreads);
             channelClass = IOUringServerSocketChannel.class;
+            datagramChannelClass = IOUringDatagramChannel.class;
+            reusePortSupported = true;
+            networkConfig.ioRatio().ifPresent(ioRatio -> LOGGER.warn("ioRatio {} is ignored by the io_uring transport", ioRatio));
         }
         else if (Epoll.isAvailable()) {
             bossGroup = new EpollEventLoopGroup(1);
-            workerGroup = new EpollEventLoopGroup(availableCores);
+            workerGroup = new EpollEventLoopGroup(workerThreads);
             channelClass = EpollServerSocketChannel.class;
+            datagramChannelClass = EpollDatagramChannel.class;
+            reusePortSupported = true;
+            networkConfig.ioRatio().ifPresent(((EpollEventLoopGroup) workerGroup)::setIoRatio);
         }
         else if (KQueue.isAvailable()) {
             bossGroup = new KQueueEventLoopGroup(1);
-            workerGroup = new KQueueEventLoopGroup(availableCores);
+            workerGroup = new KQueueEventLoopGroup(workerThreads);
             channelClass = KQueueServerSocketChannel.class;
+            datagramChannelClass = KQueueDatagramChannel.class;
+            reusePortSupported = false;
+            networkConfig.ioRatio().ifPresent(((KQueueEventLoopGroup) workerGroup)::setIoRatio);
         }
         else {
             bossGroup = new NioEventLoopGroup(1);
-            workerGroup = new NioEventLoopGroup(availableCores);
+            workerGroup = new NioEventLoopGroup(workerThreads);
             channelClass = NioServerSocketChannel.class;
+            datagramChannelClass = NioDatagramChannel.class;
+            reusePortSupported = false;
+            networkConfig.ioRatio().ifPresent(((NioEventLoopGroup) workerGroup)::setIoRatio);
         }
+        if (useSoReusePort && !reusePortSupported) {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            throw new IllegalStateException("SO_REUSEPORT requires the epoll or io_uring transport, but " + channelClass.getSimpleName() + " is in use");
+        }
+
+        LOGGER.info("Using {} with {} worker thread(s)", channelClass.getSimpleName(), workerThreads);
+
+        // Created once the transport is known, since the resolvers' queries must use a channel of the same transport
+        upstreamResolver = networkConfig.dns().async() ? new UpstreamResolver(networkConfig.dns(), datagramChannelClass) : null;
+        KafkaProxyInitializer initializer = new KafkaProxyInitializer(false,
+                Map.of(),
+                new FixedNetFilter(new UpstreamBrokers(cluster.bootstrapServerAddresses(), networkConfig.failover()),
+                        filterChainFactory),
+                logNetwork,
+                logFrames,
+                sslContext,
+                networkConfig,
+                memoryAccountant,
+                quotas,
+                topicMetadata,
+                metadataResponses,
+                coordinatorResponses,
+                filterExecutor,
+                hotPartitions,
+                frameCapture,
+                trafficRecorder,
+                requestTracing,
+                tenantMetrics,
+                upstreamResolver);
 
         MeterRegistries meterRegistries = new MeterRegistries(micrometerConfig, proxyConfig);
-        maybeStartMetricsListener(bossGroup, workerGroup, channelClass, meterRegistries);
+        maybeStartAdminHttpListener(bossGroup, workerGroup, channelClass, meterRegistries);
 
-        ServerBootstrap serverBootstrap = new ServerBootstrap().group(bossGroup, workerGroup)
-                .channel(channelClass)
-                .childHandler(initializer)
-                .childOption(ChannelOption.AUTO_READ, false)
-                .childOption(ChannelOption.TCP_NODELAY, true);
-        ChannelFuture bindFuture;
-        if (proxyHost != null) {
-            bindFuture = serverBootstrap.bind(proxyHost, proxyPort);
+        if (memoryBudgetConfig.enabled()) {
+            // The boss group is otherwise idle once connections are accepted
+            memoryAccountant.start(bossGroup.next());
+        }
+        if (quotas != null) {
+            quotas.start(bossGroup.next());
+        }
+        if (metadataResponses != null) {
+            metadataResponses.start(bossGroup.next());
+        }
+        if (coordinatorResponses != null) {
+            coordinatorResponses.start(bossGroup.next());
+        }
+
+        ByteBufAllocator allocator = allocator(networkConfig.allocator());
+
+        List<ChannelFuture> bindFutures = new ArrayList<>();
+        if (useSoReusePort) {
+            // Bind one listening socket per worker event loop and let the kernel balance
+            // incoming connections across them, so accepting isn't serialised on a single boss thread.
+            // Each accepted channel stays on the event loop that accepted it.
+            for (var executor : workerGroup) {
+                EventLoop eventLoop = (EventLoop) executor;
+                ServerBootstrap serverBootstrap = serverBootstrap(eventLoop, eventLoop, channelClass, initializer, allocator)
+                        .option(UnixChannelOption.SO_REUSEPORT, true);
+                bindFutures.add(bind(serverBootstrap));
+            }
         }
         else {
-            bindFuture = serverBootstrap.bind(proxyPort);
+            bindFutures.add(bind(serverBootstrap(bossGroup, workerGroup, channelClass, initializer, allocator)));
         }
-        acceptorChannel = bindFuture.sync().channel();
+        List<Channel> channels = new ArrayList<>(bindFutures.size());
+        for (ChannelFuture bindFuture : bindFutures) {
+            channels.add(bindFuture.sync().channel());
+        }
+        acceptorChannels = List.copyOf(channels);
+        LOGGER.info("Listening on {} with {} acceptor(s)", proxyAddress(), acceptorChannels.size());
         // Pre-register counters/summaries to avoid creating them on first request and thus skewing the request latency
         Metrics.counter(KROXYLICIOUS_INBOUND_DOWNSTREAM_MESSAGES);
         Metrics.counter(KROXYLICIOUS_INBOUND_DOWNSTREAM_DECODED_MESSAGES);
@@ -217,16 +350,60 @@ public final class KafkaProxy implements AutoCloseable {
         return this;
     }
 
-    private void maybeStartMetricsListener(EventLoopGroup bossGroup,
-                                           EventLoopGroup workerGroup,
-                                           Class<? extends ServerChannel> channelClass,
-                                           MeterRegistries meterRegistries)
+    /**
+     * Netty's default pool is used whenever it prefers the kind of buffer asked for. It is already used by whatever allocates
+     * without a channel, and another pool would have arenas of its own.
+     */
+    private static ByteBufAllocator allocator(NetworkConfig.AllocatorType type) {
+        boolean preferDirect = type == NetworkConfig.AllocatorType.POOLED_DIRECT;
+        return preferDirect == PooledByteBufAllocator.defaultPreferDirect() ? PooledByteBufAllocator.DEFAULT : new PooledByteBufAllocator(preferDirect);
+    }
+
+    private ServerBootstrap serverBootstrap(EventLoopGroup parentGroup,
+                                            EventLoopGroup childGroup,
+                                            Class<? extends ServerChannel> channelClass,
+                                            KafkaProxyInitializer initializer,
+                                            ByteBufAllocator allocator) {
+        var downstream = networkConfig.downstream();
+        var receiveBufferAllocator = networkConfig.receiveBufferAllocator();
+        ServerBootstrap serverBootstrap = new ServerBootstrap().group(parentGroup, childGroup)
+                .channel(channelClass)
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childHandler(initializer)
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, new AdaptiveRecvByteBufAllocator(
+                        receiveBufferAllocator.minimum(), receiveBufferAllocator.initial(), receiveBufferAllocator.maximum()))
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        downstream.writeBufferLowWaterMark(), downstream.writeBufferHighWaterMark()));
+        downstream.sendBufferSize().ifPresent(size -> serverBootstrap.childOption(ChannelOption.SO_SNDBUF, size));
+        // Set SO_RCVBUF on the listening socket so that it's inherited by accepted sockets before the TCP handshake completes,
+        // which is what allows a window scale larger than the default to be negotiated.
+        downstream.receiveBufferSize().ifPresent(size -> serverBootstrap.option(ChannelOption.SO_RCVBUF, size));
+        return serverBootstrap;
+    }
+
+    private ChannelFuture bind(ServerBootstrap serverBootstrap) {
+        if (proxyHost != null) {
+            return serverBootstrap.bind(proxyHost, proxyPort);
+        }
+        else {
+            return serverBootstrap.bind(proxyPort);
+        }
+    }
+
+    private void maybeStartAdminHttpListener(EventLoopGroup bossGroup,
+                                             EventLoopGroup workerGroup,
+                                             Class<? extends ServerChannel> channelClass,
+                                             MeterRegistries meterRegistries)
             throws InterruptedException {
         if (adminHttpConfig != null
-                && adminHttpConfig.getEndpoints().maybePrometheus().isPresent()) {
+                && (adminHttpConfig.getEndpoints().anyEnabled() || hotPartitions != null || frameCapture != null)) {
             ServerBootstrap metricsBootstrap = new ServerBootstrap().group(bossGroup, workerGroup)
                     .channel(channelClass)
-                    .childHandler(new AdminHttpInitializer(meterRegistries, adminHttpConfig));
+                    .childHandler(new AdminHttpInitializer(meterRegistries, adminHttpConfig, networkConfig, channelClass.getSimpleName(),
+                            hotPartitions, frameCapture));
             metricsChannel = metricsBootstrap.bind(adminHttpConfig.getHost(), adminHttpConfig.getPort()).sync().channel();
         }
     }
@@ -237,10 +414,12 @@ public final class KafkaProxy implements AutoCloseable {
      * @throws InterruptedException
      */
     public void block() throws InterruptedException {
-        if (acceptorChannel == null) {
+        if (acceptorChannels == null) {
             throw new IllegalStateException("This proxy is not running");
         }
-        acceptorChannel.closeFuture().sync();
+        for (Channel acceptorChannel : acceptorChannels) {
+            acceptorChannel.closeFuture().sync();
+        }
     }
 
     /**
@@ -248,20 +427,60 @@ public final class KafkaProxy implements AutoCloseable {
      * @throws InterruptedException
      */
     public void shutdown() throws InterruptedException {
-        if (acceptorChannel == null) {
+        if (acceptorChannels == null) {
             throw new IllegalStateException("This proxy is not running");
         }
+        memoryAccountant.stop();
+        if (quotas != null) {
+            quotas.stop();
+        }
+        if (metadataResponses != null) {
+            metadataResponses.stop();
+        }
+        if (coordinatorResponses != null) {
+            coordinatorResponses.stop();
+        }
+        if (hotPartitions != null) {
+            hotPartitions.stop();
+        }
         bossGroup.shutdownGracefully().sync();
         workerGroup.shutdownGracefully().sync();
+        filterExecutor.shutdown();
+        if (upstreamResolver != null) {
+            upstreamResolver.close();
+        }
+        if (trafficRecorder != null) {
+            // Only once the event loops, which write the recording, have terminated
+            trafficRecorder.stop();
+        }
+        if (requestTracing != null) {
+            // Only once the event loops, which end the spans, have terminated
+            requestTracing.stop();
+        }
+        if (tenantMetrics != null) {
+            // Only once the event loops, which count into them, have terminated
+            tenantMetrics.stop();
+        }
         bossGroup = null;
         workerGroup = null;
-        acceptorChannel = null;
+        acceptorChannels = null;
+        memoryAccountant = null;
+        quotas = null;
+        metadataResponses = null;
+        coordinatorResponses = null;
+        filterExecutor = null;
+        hotPartitions = null;
+        frameCapture = null;
+        trafficRecorder = null;
+        requestTracing = null;
+        tenantMetrics = null;
+        upstreamResolver = null;
         metricsChannel = null;
     }
 
     @Override
     public void close() throws Exception {
-        if (acceptorChannel != null) {
+        if (acceptorChannels != null) {
             shutdown();
         }
     }
@@ -0,0 +1,61 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+import io.kroxylicious.proxy.internal.TrafficRecording;
+import io.kroxylicious.proxy.internal.TrafficReplayer;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Spec;
+
+@Command(name = "kroxylicious-replay", mixinStandardHelpOptions = true, description = "Replays traffic recorded by the proxy, and reports the latencies")
+class TrafficReplay implements Callable<Integer> {
+
+    @Spec
+    private CommandSpec spec;
+
+    @Option(names = { "-r", "--recording" }, description = "the directory the traffic was recorded to", required = true)
+    private File recording;
+
+    @Option(names = { "-t", "--target" }, description = "the host:port of the proxy or broker to replay the traffic against", required = true)
+    private String target;
+
+    @Option(names = { "-s", "--speed" }, description = "how many times faster than recorded to replay the traffic (default: ${DEFAULT-VALUE})", defaultValue = "1")
+    private double speed;
+
+    @Option(names = { "--timeout" }, description = "the most seconds to wait for the replay to finish (default: ${DEFAULT-VALUE})", defaultValue = "3600")
+    private long timeoutSeconds;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!recording.isDirectory()) {
+            throw new ParameterException(spec.commandLine(), String.format("Given recording directory does not exist: %s", recording.toPath().toAbsolutePath()));
+        }
+        String[] targetParts = target.split(":");
+        if (targetParts.length != 2) {
+            throw new ParameterException(spec.commandLine(), String.format("Given target is not host:port: %s", target));
+        }
+
+        TrafficReplayer replayer = new TrafficReplayer(TrafficRecording.read(recording.toPath()), targetParts[0], Integer.parseInt(targetParts[1]), speed);
+        TrafficReplayer.Result result = replayer.replay(Duration.ofSeconds(timeoutSeconds));
+        spec.commandLine().getOut().print(result.report());
+        spec.commandLine().getOut().flush();
+        return result.failedSessions() == 0 ? 0 : 1;
+    }
+
+    public static void main(String... args) {
+        int exitCode = new CommandLine(new TrafficReplay()).execute(args);
+        System.exit(exitCode);
+    }
+}
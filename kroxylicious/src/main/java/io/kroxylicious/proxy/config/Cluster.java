@@ -5,20 +5,38 @@
  */
 package io.kroxylicious.proxy.config;
 
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Cluster {
 
     private final String bootstrapServers;
+    private final List<InetSocketAddress> bootstrapServerAddresses;
 
     public Cluster(@JsonProperty(value = "bootstrap_servers") String bootstrapServers) {
+        if (bootstrapServers == null || bootstrapServers.isBlank()) {
+            throw new IllegalArgumentException("bootstrap_servers must be given");
+        }
         this.bootstrapServers = bootstrapServers;
+        this.bootstrapServerAddresses = Arrays.stream(bootstrapServers.split(","))
+                .map(server -> HostPort.parse(server, -1, "bootstrap_servers"))
+                .toList();
     }
 
     public String bootstrapServers() {
         return bootstrapServers;
     }
 
+    /**
+     * @return The comma-separated {@link #bootstrapServers()}, as unresolved addresses, in the order they were given.
+     */
+    public List<InetSocketAddress> bootstrapServerAddresses() {
+        return bootstrapServerAddresses;
+    }
+
     @Override
     public String toString() {
         return "Cluster [bootstrapServers=" + bootstrapServers + "]";
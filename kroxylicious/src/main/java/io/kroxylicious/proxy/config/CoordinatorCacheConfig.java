@@ -0,0 +1,61 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.util.Optional;
+
+/**
+ * A cache of FindCoordinator and DescribeCluster responses, per virtual cluster, so that the lookups
+ * consumer groups and transactional producers make repeatedly are answered without a round trip to the brokers.
+ * A cached coordinator is forgotten as soon as a response says it is no longer the coordinator.
+ */
+public class CoordinatorCacheConfig {
+
+    static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final Long ttlMs;
+    private final int maxEntries;
+
+    public CoordinatorCacheConfig(Long ttlMs, Integer maxEntries) {
+        if (ttlMs != null && ttlMs <= 0) {
+            throw new IllegalArgumentException("ttlMs must be > 0, but was " + ttlMs);
+        }
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries == null ? DEFAULT_MAX_ENTRIES : maxEntries;
+        if (this.maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0, but was " + this.maxEntries);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given, which caches nothing.
+     */
+    public static CoordinatorCacheConfig defaults() {
+        return new CoordinatorCacheConfig(null, null);
+    }
+
+    /**
+     * @return true if responses should be cached.
+     */
+    public boolean enabled() {
+        return ttlMs != null;
+    }
+
+    /**
+     * @return How long a response may be served from the cache for, if responses should be cached.
+     */
+    public Optional<Long> ttlMs() {
+        return Optional.ofNullable(ttlMs);
+    }
+
+    /**
+     * @return The maximum number of distinct responses to cache.
+     * Further requests are sent to the brokers until cached responses have expired or been invalidated.
+     */
+    public int maxEntries() {
+        return maxEntries;
+    }
+}
@@ -13,16 +13,44 @@ public class DefaultProxyConfig implements ProxyConfig {
     private final boolean logNetwork;
     private final boolean logFrames;
     private final boolean useIoUring;
+    private final boolean useSoReusePort;
     private final Optional<String> keyStoreFile;
     private final Optional<String> keyPassword;
+    private final NetworkConfig network;
+    private final MemoryBudgetConfig memoryBudget;
+    private final QuotaConfig quotas;
+    private final MetadataCacheConfig metadataCache;
+    private final CoordinatorCacheConfig coordinatorCache;
+    private final FilterExecutorConfig filterExecutor;
+    private final HotPartitionsConfig hotPartitions;
+    private final FrameCaptureConfig frameCapture;
+    private final TrafficRecordingConfig recording;
+    private final TracingConfig tracing;
+    private final TenantMetricsConfig tenantMetrics;
 
-    public DefaultProxyConfig(String address, boolean logNetwork, boolean logFrames, boolean useIoUring, Optional<String> keyStoreFile, Optional<String> keyPassword) {
+    public DefaultProxyConfig(String address, boolean logNetwork, boolean logFrames, boolean useIoUring, boolean useSoReusePort, Optional<String> keyStoreFile,
+                              Optional<String> keyPassword, NetworkConfig network, MemoryBudgetConfig memoryBudget, QuotaConfig quotas,
+                              MetadataCacheConfig metadataCache, CoordinatorCacheConfig coordinatorCache, FilterExecutorConfig filterExecutor,
+                              HotPartitionsConfig hotPartitions, FrameCaptureConfig frameCapture, TrafficRecordingConfig recording,
+                              TracingConfig tracing, TenantMetricsConfig tenantMetrics) {
         this.address = address;
         this.logNetwork = logNetwork;
         this.logFrames = logFrames;
         this.useIoUring = useIoUring;
+        this.useSoReusePort = useSoReusePort;
         this.keyStoreFile = keyStoreFile;
         this.keyPassword = keyPassword;
+        this.network = network == null ? NetworkConfig.defaults() : network;
+        this.memoryBudget = memoryBudget == null ? MemoryBudgetConfig.defaults() : memoryBudget;
+        this.quotas = quotas == null ? QuotaConfig.defaults() : quotas;
+        this.metadataCache = metadataCache == null ? MetadataCacheConfig.defaults() : metadataCache;
+        this.coordinatorCache = coordinatorCache == null ? CoordinatorCacheConfig.defaults() : coordinatorCache;
+        this.filterExecutor = filterExecutor == null ? FilterExecutorConfig.defaults() : filterExecutor;
+        this.hotPartitions = hotPartitions == null ? HotPartitionsConfig.defaults() : hotPartitions;
+        this.frameCapture = frameCapture == null ? FrameCaptureConfig.defaults() : frameCapture;
+        this.recording = recording == null ? TrafficRecordingConfig.defaults() : recording;
+        this.tracing = tracing == null ? TracingConfig.defaults() : tracing;
+        this.tenantMetrics = tenantMetrics == null ? TenantMetricsConfig.defaults() : tenantMetrics;
     }
 
     @Override
@@ -42,6 +70,14 @@ public class DefaultProxyConfig implements ProxyConfig {
         return useIoUring;
     }
 
+    /**
+     * @return true if the proxy should bind one {@code SO_REUSEPORT} listening socket per worker event loop,
+     * rather than accepting all connections on a single boss thread.
+     */
+    public boolean useSoReusePort() {
+        return useSoReusePort;
+    }
+
     public Optional<String> keyStoreFile() {
         return keyStoreFile;
     }
@@ -49,4 +85,48 @@ public class DefaultProxyConfig implements ProxyConfig {
     public Optional<String> keyPassword() {
         return keyPassword;
     }
+
+    public NetworkConfig network() {
+        return network;
+    }
+
+    public MemoryBudgetConfig memoryBudget() {
+        return memoryBudget;
+    }
+
+    public QuotaConfig quotas() {
+        return quotas;
+    }
+
+    public MetadataCacheConfig metadataCache() {
+        return metadataCache;
+    }
+
+    public CoordinatorCacheConfig coordinatorCache() {
+        return coordinatorCache;
+    }
+
+    public FilterExecutorConfig filterExecutor() {
+        return filterExecutor;
+    }
+
+    public HotPartitionsConfig hotPartitions() {
+        return hotPartitions;
+    }
+
+    public FrameCaptureConfig frameCapture() {
+        return frameCapture;
+    }
+
+    public TrafficRecordingConfig recording() {
+        return recording;
+    }
+
+    public TracingConfig tracing() {
+        return tracing;
+    }
+
+    public TenantMetricsConfig tenantMetrics() {
+        return tenantMetrics;
+    }
 }
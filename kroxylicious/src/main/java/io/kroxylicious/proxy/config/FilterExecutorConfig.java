@@ -0,0 +1,50 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+/**
+ * The worker pools which run the methods of filters annotated with {@link io.kroxylicious.proxy.filter.Offload},
+ * and of {@link io.kroxylicious.proxy.filter.BlockingKrpcFilter}s, shared by all connections.
+ */
+public class FilterExecutorConfig {
+
+    public static final int DEFAULT_BLOCKING_CONCURRENCY = 256;
+
+    private final int threads;
+    private final int blockingConcurrency;
+
+    public FilterExecutorConfig(Integer threads, Integer blockingConcurrency) {
+        this.threads = threads == null ? Runtime.getRuntime().availableProcessors() : threads;
+        if (this.threads <= 0) {
+            throw new IllegalArgumentException("threads must be > 0, but was " + this.threads);
+        }
+        this.blockingConcurrency = blockingConcurrency == null ? DEFAULT_BLOCKING_CONCURRENCY : blockingConcurrency;
+        if (this.blockingConcurrency <= 0) {
+            throw new IllegalArgumentException("blockingConcurrency must be > 0, but was " + this.blockingConcurrency);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given.
+     */
+    public static FilterExecutorConfig defaults() {
+        return new FilterExecutorConfig(null, null);
+    }
+
+    /**
+     * @return The number of threads in the pool for {@code @Offload} filters, which defaults to the number of processors.
+     */
+    public int threads() {
+        return threads;
+    }
+
+    /**
+     * @return The most methods of blocking filters which may run at once, which defaults to {@value #DEFAULT_BLOCKING_CONCURRENCY}.
+     */
+    public int blockingConcurrency() {
+        return blockingConcurrency;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+
+/**
+ * Sampled capture of the frames exchanged with clients into a fixed-size, off-heap ring,
+ * which can be dumped from the admin endpoint. Unlike {@code logFrames}, it's cheap enough to leave enabled in production.
+ */
+public class FrameCaptureConfig {
+
+    public static final int DEFAULT_SLOTS = 4096;
+    public static final int DEFAULT_MAX_BYTES_PER_FRAME = 512;
+
+    private final Integer sampleOneIn;
+    private final Set<ApiKeys> apiKeys;
+    private final String clientId;
+    private final String sniHostname;
+    private final int slots;
+    private final int maxBytesPerFrame;
+
+    public FrameCaptureConfig(Integer sampleOneIn, Set<ApiKeys> apiKeys, String clientId, String sniHostname, Integer slots, Integer maxBytesPerFrame) {
+        if (sampleOneIn != null && sampleOneIn <= 0) {
+            throw new IllegalArgumentException("sampleOneIn must be > 0, but was " + sampleOneIn);
+        }
+        this.sampleOneIn = sampleOneIn;
+        this.apiKeys = apiKeys == null ? Set.of() : Set.copyOf(apiKeys);
+        this.clientId = clientId;
+        this.sniHostname = sniHostname;
+        this.slots = slots == null ? DEFAULT_SLOTS : slots;
+        if (this.slots <= 0) {
+            throw new IllegalArgumentException("slots must be > 0, but was " + this.slots);
+        }
+        this.maxBytesPerFrame = maxBytesPerFrame == null ? DEFAULT_MAX_BYTES_PER_FRAME : maxBytesPerFrame;
+        if (this.maxBytesPerFrame < 0) {
+            throw new IllegalArgumentException("maxBytesPerFrame must be >= 0, but was " + this.maxBytesPerFrame);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given, which captures nothing.
+     */
+    public static FrameCaptureConfig defaults() {
+        return new FrameCaptureConfig(null, null, null, null, null, null);
+    }
+
+    /**
+     * @return true if frames should be captured.
+     */
+    public boolean enabled() {
+        return sampleOneIn != null;
+    }
+
+    /**
+     * @return One in how many of the matching frames of each connection are captured, if frames should be captured.
+     */
+    public Optional<Integer> sampleOneIn() {
+        return Optional.ofNullable(sampleOneIn);
+    }
+
+    /**
+     * @return The API keys of the frames to capture, or empty to capture frames of every API key.
+     */
+    public Set<ApiKeys> apiKeys() {
+        return apiKeys;
+    }
+
+    /**
+     * @return The client id of the connections whose frames are captured, if only one client's should be.
+     */
+    public Optional<String> clientId() {
+        return Optional.ofNullable(clientId);
+    }
+
+    /**
+     * @return The SNI hostname of the connections whose frames are captured, if only one hostname's should be.
+     */
+    public Optional<String> sniHostname() {
+        return Optional.ofNullable(sniHostname);
+    }
+
+    /**
+     * @return The number of frames kept, which defaults to {@value #DEFAULT_SLOTS}. Older frames are overwritten by newer ones.
+     */
+    public int slots() {
+        return slots;
+    }
+
+    /**
+     * @return The most bytes of each frame kept, which defaults to {@value #DEFAULT_MAX_BYTES_PER_FRAME}.
+     * Longer frames are truncated.
+     */
+    public int maxBytesPerFrame() {
+        return maxBytesPerFrame;
+    }
+}
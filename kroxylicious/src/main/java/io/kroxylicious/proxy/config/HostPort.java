@@ -0,0 +1,48 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Parsing of {@code host:port} configuration values.
+ */
+final class HostPort {
+
+    private HostPort() {
+    }
+
+    /**
+     * Parses a {@code host[:port]} string, where an IPv6 literal host must be in brackets to be given a port.
+     * @param hostAndPort The string to parse.
+     * @param defaultPort The port if none is given, or -1 if one must be given.
+     * @param property The name of the property being parsed, for the exception message.
+     * @return An unresolved address.
+     * @throws IllegalArgumentException If the string isn't a valid address.
+     */
+    static InetSocketAddress parse(String hostAndPort, int defaultPort, String property) {
+        String host = hostAndPort.strip();
+        int port = defaultPort;
+        int colon = host.lastIndexOf(':');
+        if (colon > 0 && (host.indexOf(':') == colon || host.charAt(colon - 1) == ']')) {
+            try {
+                port = Integer.parseInt(host.substring(colon + 1));
+            }
+            catch (NumberFormatException e) {
+                port = -1;
+            }
+            host = host.substring(0, colon);
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        if (host.isEmpty() || port <= 0 || port > 65535) {
+            throw new IllegalArgumentException(property + " entries must be " + (defaultPort < 0 ? "host:port" : "host[:port]")
+                    + ", but was " + hostAndPort);
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.util.Optional;
+
+/**
+ * Sampling of the partitions produced to and fetched from, to find the partitions with the most traffic
+ * using memory which doesn't depend on the number of partitions.
+ */
+public class HotPartitionsConfig {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final long DEFAULT_WINDOW_MS = 60_000L;
+
+    private final Integer sampleOneIn;
+    private final int capacity;
+    private final long windowMs;
+
+    public HotPartitionsConfig(Integer sampleOneIn, Integer capacity, Long windowMs) {
+        if (sampleOneIn != null && sampleOneIn <= 0) {
+            throw new IllegalArgumentException("sampleOneIn must be > 0, but was " + sampleOneIn);
+        }
+        this.sampleOneIn = sampleOneIn;
+        this.capacity = capacity == null ? DEFAULT_CAPACITY : capacity;
+        if (this.capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0, but was " + this.capacity);
+        }
+        this.windowMs = windowMs == null ? DEFAULT_WINDOW_MS : windowMs;
+        if (this.windowMs <= 0) {
+            throw new IllegalArgumentException("windowMs must be > 0, but was " + this.windowMs);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given, which samples nothing.
+     */
+    public static HotPartitionsConfig defaults() {
+        return new HotPartitionsConfig(null, null, null);
+    }
+
+    /**
+     * @return true if partitions should be sampled.
+     */
+    public boolean enabled() {
+        return sampleOneIn != null;
+    }
+
+    /**
+     * @return One in how many produce requests and fetch responses of each connection are sampled, if partitions should be sampled.
+     */
+    public Optional<Integer> sampleOneIn() {
+        return Optional.ofNullable(sampleOneIn);
+    }
+
+    /**
+     * @return The number of partitions each event loop counts, per direction, which defaults to {@value #DEFAULT_CAPACITY}.
+     * Partitions with more traffic than the least of those counted are always found.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The length of the window the traffic is counted over, which defaults to {@value #DEFAULT_WINDOW_MS}ms.
+     */
+    public long windowMs() {
+        return windowMs;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Proxy-wide limit on the memory held for proxied connections.
+ * When the accounted memory reaches the high water mark the proxy stops reading from the heaviest connections,
+ * and from all connections if that doesn't help. Reads resume once the accounted memory falls below the low water mark.
+ */
+public class MemoryBudgetConfig {
+
+    static final double DEFAULT_HIGH_WATER_MARK_FRACTION = 0.75;
+    static final double DEFAULT_LOW_WATER_MARK_FRACTION = 0.5;
+    static final long DEFAULT_CHECK_INTERVAL_MS = 100;
+
+    private final boolean enabled;
+    private final long highWaterMarkBytes;
+    private final long lowWaterMarkBytes;
+    private final long checkIntervalMs;
+
+    public MemoryBudgetConfig(Boolean enabled, Long highWaterMarkBytes, Long lowWaterMarkBytes, Long checkIntervalMs) {
+        this.enabled = enabled != null && enabled;
+        // Default to fractions of the direct memory limit (-XX:MaxDirectMemorySize, or -Xmx if that's not set)
+        long maxDirectMemory = PlatformDependent.maxDirectMemory();
+        this.highWaterMarkBytes = highWaterMarkBytes == null ? (long) (maxDirectMemory * DEFAULT_HIGH_WATER_MARK_FRACTION) : highWaterMarkBytes;
+        this.lowWaterMarkBytes = lowWaterMarkBytes == null ? Math.min(this.highWaterMarkBytes, (long) (maxDirectMemory * DEFAULT_LOW_WATER_MARK_FRACTION))
+                : lowWaterMarkBytes;
+        this.checkIntervalMs = checkIntervalMs == null ? DEFAULT_CHECK_INTERVAL_MS : checkIntervalMs;
+        if (this.highWaterMarkBytes <= 0) {
+            throw new IllegalArgumentException("highWaterMarkBytes must be > 0, but was " + this.highWaterMarkBytes);
+        }
+        if (this.lowWaterMarkBytes < 0 || this.lowWaterMarkBytes > this.highWaterMarkBytes) {
+            throw new IllegalArgumentException("lowWaterMarkBytes must be between 0 and highWaterMarkBytes (" + this.highWaterMarkBytes
+                    + "), but was " + this.lowWaterMarkBytes);
+        }
+        if (this.checkIntervalMs <= 0) {
+            throw new IllegalArgumentException("checkIntervalMs must be > 0, but was " + this.checkIntervalMs);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given, which doesn't limit the memory.
+     */
+    public static MemoryBudgetConfig defaults() {
+        return new MemoryBudgetConfig(null, null, null, null);
+    }
+
+    /**
+     * @return true if the memory held for connections should be limited, which defaults to false.
+     */
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public long highWaterMarkBytes() {
+        return highWaterMarkBytes;
+    }
+
+    public long lowWaterMarkBytes() {
+        return lowWaterMarkBytes;
+    }
+
+    public long checkIntervalMs() {
+        return checkIntervalMs;
+    }
+}
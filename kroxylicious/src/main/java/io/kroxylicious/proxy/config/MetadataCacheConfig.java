@@ -0,0 +1,61 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.util.Optional;
+
+/**
+ * A cache of Metadata responses, so that many clients asking for the same metadata at about the same time,
+ * such as when they all reconnect after an outage, cause a single Metadata request to the brokers.
+ * Responses are cached as they are sent to the client, after all the filters have changed them.
+ */
+public class MetadataCacheConfig {
+
+    static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final Long ttlMs;
+    private final int maxEntries;
+
+    public MetadataCacheConfig(Long ttlMs, Integer maxEntries) {
+        if (ttlMs != null && ttlMs <= 0) {
+            throw new IllegalArgumentException("ttlMs must be > 0, but was " + ttlMs);
+        }
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries == null ? DEFAULT_MAX_ENTRIES : maxEntries;
+        if (this.maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0, but was " + this.maxEntries);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given, which caches nothing.
+     */
+    public static MetadataCacheConfig defaults() {
+        return new MetadataCacheConfig(null, null);
+    }
+
+    /**
+     * @return true if responses should be cached.
+     */
+    public boolean enabled() {
+        return ttlMs != null;
+    }
+
+    /**
+     * @return How long a response may be served from the cache for, if responses should be cached.
+     */
+    public Optional<Long> ttlMs() {
+        return Optional.ofNullable(ttlMs);
+    }
+
+    /**
+     * @return The maximum number of distinct responses to cache.
+     * Further requests are sent to the brokers until cached responses have expired.
+     */
+    public int maxEntries() {
+        return maxEntries;
+    }
+}
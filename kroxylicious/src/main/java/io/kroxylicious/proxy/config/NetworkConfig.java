@@ -0,0 +1,440 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Tuning for the proxy's event loops, buffers and sockets.
+ * Every property is optional; absent properties take Netty's (or the operating system's) defaults.
+ * The values are validated when the configuration is parsed, so a bad value stops the proxy starting.
+ */
+public class NetworkConfig {
+
+    /** Netty's default ioRatio. */
+    public static final int DEFAULT_IO_RATIO = 50;
+
+    /**
+     * The type of {@link io.netty.buffer.ByteBufAllocator} used for all proxied channels.
+     */
+    public enum AllocatorType {
+        /** Pooled, direct (off-heap) buffers. This is Netty's default. */
+        POOLED_DIRECT,
+        /** Pooled heap buffers. */
+        POOLED_HEAP
+    }
+
+    private final Integer workerThreads;
+    private final Integer ioRatio;
+    private final AllocatorType allocator;
+    private final ReceiveBufferAllocatorConfig receiveBufferAllocator;
+    private final SocketConfig downstream;
+    private final SocketConfig upstream;
+    private final Integer maxInFlightRequests;
+    private final Integer fairReadQuantum;
+    private final DnsConfig dns;
+    private final FailoverConfig failover;
+
+    public NetworkConfig(Integer workerThreads,
+                         Integer ioRatio,
+                         AllocatorType allocator,
+                         ReceiveBufferAllocatorConfig receiveBufferAllocator,
+                         SocketConfig downstream,
+                         SocketConfig upstream,
+                         Integer maxInFlightRequests,
+                         Integer fairReadQuantum,
+                         DnsConfig dns,
+                         FailoverConfig failover) {
+        if (workerThreads != null && workerThreads <= 0) {
+            throw new IllegalArgumentException("workerThreads must be > 0, but was " + workerThreads);
+        }
+        if (ioRatio != null && (ioRatio <= 0 || ioRatio > 100)) {
+            throw new IllegalArgumentException("ioRatio must be between 1 and 100, but was " + ioRatio);
+        }
+        if (maxInFlightRequests != null && maxInFlightRequests <= 0) {
+            throw new IllegalArgumentException("maxInFlightRequests must be > 0, but was " + maxInFlightRequests);
+        }
+        if (fairReadQuantum != null && fairReadQuantum <= 0) {
+            throw new IllegalArgumentException("fairReadQuantum must be > 0, but was " + fairReadQuantum);
+        }
+        this.workerThreads = workerThreads == null ? Runtime.getRuntime().availableProcessors() : workerThreads;
+        this.ioRatio = ioRatio;
+        this.allocator = allocator == null ? AllocatorType.POOLED_DIRECT : allocator;
+        this.receiveBufferAllocator = receiveBufferAllocator == null ? new ReceiveBufferAllocatorConfig(null, null, null) : receiveBufferAllocator;
+        this.downstream = downstream == null ? new SocketConfig(null, null, null, null) : downstream;
+        this.upstream = upstream == null ? new SocketConfig(null, null, null, null) : upstream;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.fairReadQuantum = fairReadQuantum;
+        this.dns = dns == null ? new DnsConfig(null, null, null, null, null, null, null, null) : dns;
+        this.failover = failover == null ? new FailoverConfig(null, null, null) : failover;
+    }
+
+    /**
+     * @return The configuration to use when none is given.
+     */
+    public static NetworkConfig defaults() {
+        return new NetworkConfig(null, null, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * @return The number of worker event loop threads. Defaults to the number of available processors.
+     */
+    public int workerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @return The percentage of event loop time to spend on I/O rather than on other tasks, if configured.
+     */
+    public Optional<Integer> ioRatio() {
+        return Optional.ofNullable(ioRatio);
+    }
+
+    public AllocatorType allocator() {
+        return allocator;
+    }
+
+    public ReceiveBufferAllocatorConfig receiveBufferAllocator() {
+        return receiveBufferAllocator;
+    }
+
+    /**
+     * @return The socket configuration for connections between clients and the proxy.
+     */
+    public SocketConfig downstream() {
+        return downstream;
+    }
+
+    /**
+     * @return The socket configuration for connections between the proxy and brokers.
+     */
+    public SocketConfig upstream() {
+        return upstream;
+    }
+
+    /**
+     * @return The maximum number of requests a client connection may have outstanding with the broker
+     * before the proxy stops reading from it, if limited.
+     */
+    public Optional<Integer> maxInFlightRequests() {
+        return Optional.ofNullable(maxInFlightRequests);
+    }
+
+    /**
+     * @return The number of requests a client connection may have read in one event loop turn before
+     * it has to give way to the other connections on the same event loop, if fair scheduling is enabled.
+     */
+    public Optional<Integer> fairReadQuantum() {
+        return Optional.ofNullable(fairReadQuantum);
+    }
+
+    /**
+     * @return How the addresses of brokers are resolved.
+     */
+    public DnsConfig dns() {
+        return dns;
+    }
+
+    /**
+     * @return How the proxy chooses between a cluster's bootstrap servers.
+     */
+    public FailoverConfig failover() {
+        return failover;
+    }
+
+    /**
+     * Bounds for the adaptive receive buffer allocator, which sizes each read buffer according to
+     * the size of recent reads.
+     */
+    public static class ReceiveBufferAllocatorConfig {
+
+        // Netty's AdaptiveRecvByteBufAllocator defaults
+        static final int DEFAULT_MINIMUM = 64;
+        static final int DEFAULT_INITIAL = 2048;
+        static final int DEFAULT_MAXIMUM = 65536;
+
+        private final int minimum;
+        private final int initial;
+        private final int maximum;
+
+        public ReceiveBufferAllocatorConfig(Integer minimum, Integer initial, Integer maximum) {
+            this.minimum = minimum == null ? DEFAULT_MINIMUM : minimum;
+            this.maximum = maximum == null ? Math.max(this.minimum, DEFAULT_MAXIMUM) : maximum;
+            this.initial = initial == null ? Math.min(Math.max(this.minimum, DEFAULT_INITIAL), this.maximum) : initial;
+            if (this.minimum <= 0) {
+                throw new IllegalArgumentException("receiveBufferAllocator.minimum must be > 0, but was " + this.minimum);
+            }
+            if (this.initial < this.minimum || this.maximum < this.initial) {
+                throw new IllegalArgumentException("receiveBufferAllocator must satisfy minimum <= initial <= maximum, but was "
+                        + this.minimum + " <= " + this.initial + " <= " + this.maximum);
+            }
+        }
+
+        public int minimum() {
+            return minimum;
+        }
+
+        public int initial() {
+            return initial;
+        }
+
+        public int maximum() {
+            return maximum;
+        }
+    }
+
+    /**
+     * Per-connection socket and buffering options.
+     * The water marks determine when a channel becomes unwritable, which is what
+     * drives the proxy's backpressure between the downstream and upstream connections.
+     */
+    public static class SocketConfig {
+
+        // Netty's WriteBufferWaterMark defaults
+        static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+        static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+
+        private final int writeBufferLowWaterMark;
+        private final int writeBufferHighWaterMark;
+        private final Integer sendBufferSize;
+        private final Integer receiveBufferSize;
+
+        public SocketConfig(Integer writeBufferLowWaterMark,
+                            Integer writeBufferHighWaterMark,
+                            Integer sendBufferSize,
+                            Integer receiveBufferSize) {
+            this.writeBufferLowWaterMark = writeBufferLowWaterMark == null ? DEFAULT_WRITE_BUFFER_LOW_WATER_MARK : writeBufferLowWaterMark;
+            this.writeBufferHighWaterMark = writeBufferHighWaterMark == null ? Math.max(this.writeBufferLowWaterMark, DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK)
+                    : writeBufferHighWaterMark;
+            if (this.writeBufferLowWaterMark < 0) {
+                throw new IllegalArgumentException("writeBufferLowWaterMark must be >= 0, but was " + this.writeBufferLowWaterMark);
+            }
+            if (this.writeBufferHighWaterMark < this.writeBufferLowWaterMark) {
+                throw new IllegalArgumentException("writeBufferHighWaterMark (" + this.writeBufferHighWaterMark
+                        + ") must be >= writeBufferLowWaterMark (" + this.writeBufferLowWaterMark + ")");
+            }
+            if (sendBufferSize != null && sendBufferSize <= 0) {
+                throw new IllegalArgumentException("sendBufferSize must be > 0, but was " + sendBufferSize);
+            }
+            if (receiveBufferSize != null && receiveBufferSize <= 0) {
+                throw new IllegalArgumentException("receiveBufferSize must be > 0, but was " + receiveBufferSize);
+            }
+            this.sendBufferSize = sendBufferSize;
+            this.receiveBufferSize = receiveBufferSize;
+        }
+
+        public int writeBufferLowWaterMark() {
+            return writeBufferLowWaterMark;
+        }
+
+        public int writeBufferHighWaterMark() {
+            return writeBufferHighWaterMark;
+        }
+
+        /**
+         * @return The {@code SO_SNDBUF} size, if configured. Otherwise the operating system's default applies.
+         */
+        public Optional<Integer> sendBufferSize() {
+            return Optional.ofNullable(sendBufferSize);
+        }
+
+        /**
+         * @return The {@code SO_RCVBUF} size, if configured. Otherwise the operating system's default applies.
+         */
+        public Optional<Integer> receiveBufferSize() {
+            return Optional.ofNullable(receiveBufferSize);
+        }
+    }
+
+    /**
+     * How the hostnames of brokers are resolved when connecting to them.
+     * By default they are resolved asynchronously on the event loops, with a cache shared by all the event loops
+     * which keeps each answer for as long as its TTL allows.
+     */
+    public static class DnsConfig {
+
+        static final int DEFAULT_PORT = 53;
+        // Netty's DnsNameResolver defaults
+        static final long DEFAULT_QUERY_TIMEOUT_MILLIS = 5000;
+        static final int DEFAULT_MIN_TTL_SECONDS = 0;
+        static final int DEFAULT_MAX_TTL_SECONDS = Integer.MAX_VALUE;
+        static final int DEFAULT_NEGATIVE_TTL_SECONDS = 0;
+        // RFC 8305's recommended Connection Attempt Delay
+        static final long DEFAULT_CONNECTION_ATTEMPT_DELAY_MILLIS = 250;
+
+        private final boolean async;
+        private final List<InetSocketAddress> nameServers;
+        private final int minTtlSeconds;
+        private final int maxTtlSeconds;
+        private final int negativeTtlSeconds;
+        private final long queryTimeoutMillis;
+        private final boolean happyEyeballs;
+        private final long connectionAttemptDelayMillis;
+
+        public DnsConfig(Boolean async,
+                         List<String> nameServers,
+                         Integer minTtlSeconds,
+                         Integer maxTtlSeconds,
+                         Integer negativeTtlSeconds,
+                         Long queryTimeoutMillis,
+                         Boolean happyEyeballs,
+                         Long connectionAttemptDelayMillis) {
+            this.async = async == null || async;
+            this.nameServers = nameServers == null ? List.of() : nameServers.stream().map(DnsConfig::nameServer).toList();
+            this.minTtlSeconds = minTtlSeconds == null ? DEFAULT_MIN_TTL_SECONDS : minTtlSeconds;
+            this.maxTtlSeconds = maxTtlSeconds == null ? Math.max(this.minTtlSeconds, DEFAULT_MAX_TTL_SECONDS) : maxTtlSeconds;
+            this.negativeTtlSeconds = negativeTtlSeconds == null ? DEFAULT_NEGATIVE_TTL_SECONDS : negativeTtlSeconds;
+            this.queryTimeoutMillis = queryTimeoutMillis == null ? DEFAULT_QUERY_TIMEOUT_MILLIS : queryTimeoutMillis;
+            this.happyEyeballs = happyEyeballs != null && happyEyeballs;
+            this.connectionAttemptDelayMillis = connectionAttemptDelayMillis == null ? DEFAULT_CONNECTION_ATTEMPT_DELAY_MILLIS
+                    : connectionAttemptDelayMillis;
+            if (this.minTtlSeconds < 0) {
+                throw new IllegalArgumentException("dns.minTtlSeconds must be >= 0, but was " + this.minTtlSeconds);
+            }
+            if (this.maxTtlSeconds <= 0) {
+                throw new IllegalArgumentException("dns.maxTtlSeconds must be > 0, but was " + this.maxTtlSeconds);
+            }
+            if (this.maxTtlSeconds < this.minTtlSeconds) {
+                throw new IllegalArgumentException("dns.maxTtlSeconds (" + this.maxTtlSeconds
+                        + ") must be >= dns.minTtlSeconds (" + this.minTtlSeconds + ")");
+            }
+            if (this.negativeTtlSeconds < 0) {
+                throw new IllegalArgumentException("dns.negativeTtlSeconds must be >= 0, but was " + this.negativeTtlSeconds);
+            }
+            if (this.queryTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("dns.queryTimeoutMillis must be > 0, but was " + this.queryTimeoutMillis);
+            }
+            if (this.connectionAttemptDelayMillis < 0) {
+                throw new IllegalArgumentException("dns.connectionAttemptDelayMillis must be >= 0, but was " + this.connectionAttemptDelayMillis);
+            }
+            if (!this.async && (!this.nameServers.isEmpty() || this.happyEyeballs)) {
+                throw new IllegalArgumentException("dns.nameServers and dns.happyEyeballs require dns.async");
+            }
+        }
+
+        private static InetSocketAddress nameServer(String hostAndPort) {
+            InetSocketAddress address = HostPort.parse(hostAndPort, DEFAULT_PORT, "dns.nameServers");
+            // Name servers are given as IP addresses, which resolve without a lookup
+            return new InetSocketAddress(address.getHostString(), address.getPort());
+        }
+
+        /**
+         * @return true if hostnames are resolved asynchronously by Netty, rather than by the JDK's
+         * blocking resolver on the event loop. Defaults to true.
+         */
+        public boolean async() {
+            return async;
+        }
+
+        /**
+         * @return The DNS servers to query, in order of preference. If empty, which is the default,
+         * those of the operating system (e.g. from {@code /etc/resolv.conf}) are used.
+         */
+        public List<InetSocketAddress> nameServers() {
+            return nameServers;
+        }
+
+        /**
+         * @return The least time an answer is cached for, whatever its TTL. Defaults to 0.
+         */
+        public int minTtlSeconds() {
+            return minTtlSeconds;
+        }
+
+        /**
+         * @return The most time an answer is cached for, whatever its TTL. Defaults to no limit.
+         */
+        public int maxTtlSeconds() {
+            return maxTtlSeconds;
+        }
+
+        /**
+         * @return How long a failure to resolve a hostname is cached for. Defaults to 0, which doesn't cache failures.
+         */
+        public int negativeTtlSeconds() {
+            return negativeTtlSeconds;
+        }
+
+        /**
+         * @return How long to wait for a DNS server to answer a query. Defaults to 5 seconds.
+         */
+        public long queryTimeoutMillis() {
+            return queryTimeoutMillis;
+        }
+
+        /**
+         * @return true if every address of a broker's hostname is tried, racing connection attempts in the way of
+         * <a href="https://www.rfc-editor.org/rfc/rfc8305">RFC 8305</a>, rather than only the first. Defaults to false.
+         */
+        public boolean happyEyeballs() {
+            return happyEyeballs;
+        }
+
+        /**
+         * @return How long to wait for a connection attempt before starting one to the next address, when
+         * {@link #happyEyeballs()} is enabled. Defaults to 250 milliseconds.
+         */
+        public long connectionAttemptDelayMillis() {
+            return connectionAttemptDelayMillis;
+        }
+    }
+
+    /**
+     * How the proxy chooses between a cluster's bootstrap servers when connecting to it.
+     * Servers are tried in order of their health, each attempt being given a while to succeed
+     * before the next server is tried alongside it. A server which keeps failing is skipped for a while.
+     */
+    public static class FailoverConfig {
+
+        static final long DEFAULT_ATTEMPT_DELAY_MILLIS = 500;
+        static final int DEFAULT_FAILURE_THRESHOLD = 3;
+        static final long DEFAULT_OPEN_MILLIS = 30000;
+
+        private final long attemptDelayMillis;
+        private final int failureThreshold;
+        private final long openMillis;
+
+        public FailoverConfig(Long attemptDelayMillis, Integer failureThreshold, Long openMillis) {
+            this.attemptDelayMillis = attemptDelayMillis == null ? DEFAULT_ATTEMPT_DELAY_MILLIS : attemptDelayMillis;
+            this.failureThreshold = failureThreshold == null ? DEFAULT_FAILURE_THRESHOLD : failureThreshold;
+            this.openMillis = openMillis == null ? DEFAULT_OPEN_MILLIS : openMillis;
+            if (this.attemptDelayMillis < 0) {
+                throw new IllegalArgumentException("failover.attemptDelayMillis must be >= 0, but was " + this.attemptDelayMillis);
+            }
+            if (this.failureThreshold <= 0) {
+                throw new IllegalArgumentException("failover.failureThreshold must be > 0, but was " + this.failureThreshold);
+            }
+            if (this.openMillis <= 0) {
+                throw new IllegalArgumentException("failover.openMillis must be > 0, but was " + this.openMillis);
+            }
+        }
+
+        /**
+         * @return How long a connection attempt is given before one to the next server is started alongside it.
+         * 0 tries every server at once. Defaults to 500 milliseconds.
+         */
+        public long attemptDelayMillis() {
+            return attemptDelayMillis;
+        }
+
+        /**
+         * @return How many connection attempts in a row must fail for a server to be skipped. Defaults to 3.
+         */
+        public int failureThreshold() {
+            return failureThreshold;
+        }
+
+        /**
+         * @return How long a server is skipped for, after which one connection attempt decides whether it is
+         * used again or skipped for another period. Defaults to 30 seconds.
+         */
+        public long openMillis() {
+            return openMillis;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.util.Optional;
+
+/**
+ * Produce and fetch byte-rate quotas, enforced by the proxy before requests reach the brokers.
+ * Each quota is a token bucket shared by all the connections with the same {@link QuotaKey key}.
+ * A connection which exceeds its quota is throttled in the same way a broker would throttle it:
+ * the proxy stops reading from it for the throttle time, and tells the client the throttle time
+ * in its produce and fetch responses.
+ */
+public class QuotaConfig {
+
+    static final long DEFAULT_BURST_MS = 1000;
+    static final long DEFAULT_MAX_THROTTLE_MS = 30_000;
+
+    /**
+     * What the connections sharing a quota have in common.
+     */
+    public enum QuotaKey {
+        /** The {@code client.id} in the client's request headers. */
+        CLIENT_ID,
+        /** The SNI hostname the client used during the TLS handshake, which identifies the tenant. */
+        SNI_HOSTNAME,
+        /** The id the client authenticated as. */
+        AUTHORIZED_ID
+    }
+
+    private final QuotaKey key;
+    private final Long produceBytesPerSecond;
+    private final Long fetchBytesPerSecond;
+    private final long burstMs;
+    private final long maxThrottleMs;
+
+    public QuotaConfig(QuotaKey key, Long produceBytesPerSecond, Long fetchBytesPerSecond, Long burstMs, Long maxThrottleMs) {
+        if (produceBytesPerSecond != null && produceBytesPerSecond <= 0) {
+            throw new IllegalArgumentException("produceBytesPerSecond must be > 0, but was " + produceBytesPerSecond);
+        }
+        if (fetchBytesPerSecond != null && fetchBytesPerSecond <= 0) {
+            throw new IllegalArgumentException("fetchBytesPerSecond must be > 0, but was " + fetchBytesPerSecond);
+        }
+        this.key = key == null ? QuotaKey.CLIENT_ID : key;
+        this.produceBytesPerSecond = produceBytesPerSecond;
+        this.fetchBytesPerSecond = fetchBytesPerSecond;
+        this.burstMs = burstMs == null ? DEFAULT_BURST_MS : burstMs;
+        this.maxThrottleMs = maxThrottleMs == null ? DEFAULT_MAX_THROTTLE_MS : maxThrottleMs;
+        if (this.burstMs <= 0) {
+            throw new IllegalArgumentException("burstMs must be > 0, but was " + this.burstMs);
+        }
+        if (this.maxThrottleMs <= 0 || this.maxThrottleMs > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxThrottleMs must be between 1 and " + Integer.MAX_VALUE + ", but was " + this.maxThrottleMs);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given, which enforces no quotas.
+     */
+    public static QuotaConfig defaults() {
+        return new QuotaConfig(null, null, null, null, null);
+    }
+
+    /**
+     * @return true if either quota is configured.
+     */
+    public boolean enabled() {
+        return produceBytesPerSecond != null || fetchBytesPerSecond != null;
+    }
+
+    public QuotaKey key() {
+        return key;
+    }
+
+    /**
+     * @return The rate at which produce request bytes may be sent to the brokers, if limited.
+     */
+    public Optional<Long> produceBytesPerSecond() {
+        return Optional.ofNullable(produceBytesPerSecond);
+    }
+
+    /**
+     * @return The rate at which fetch response bytes may be received from the brokers, if limited.
+     */
+    public Optional<Long> fetchBytesPerSecond() {
+        return Optional.ofNullable(fetchBytesPerSecond);
+    }
+
+    /**
+     * @return How many milliseconds worth of bytes may be sent in a burst, at the start of a period within the quota.
+     */
+    public long burstMs() {
+        return burstMs;
+    }
+
+    /**
+     * @return The upper bound on the time a connection is throttled for in one go.
+     */
+    public long maxThrottleMs() {
+        return maxThrottleMs;
+    }
+}
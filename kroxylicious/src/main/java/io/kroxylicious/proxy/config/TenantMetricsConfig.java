@@ -0,0 +1,47 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+/**
+ * Counting of the bytes, requests and connections of each tenant, the tenant being the first component
+ * of the SNI hostname a client connected with.
+ */
+public class TenantMetricsConfig {
+
+    public static final int DEFAULT_TOP_K = 20;
+
+    private final boolean enabled;
+    private final int topK;
+
+    public TenantMetricsConfig(Boolean enabled, Integer topK) {
+        this.enabled = enabled != null && enabled;
+        this.topK = topK == null ? DEFAULT_TOP_K : topK;
+        if (this.topK <= 0) {
+            throw new IllegalArgumentException("topK must be > 0, but was " + this.topK);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given, which counts nothing.
+     */
+    public static TenantMetricsConfig defaults() {
+        return new TenantMetricsConfig(null, null);
+    }
+
+    /**
+     * @return true if the traffic of each tenant should be counted.
+     */
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * @return How many of the busiest tenants have their own time series, which defaults to {@value #DEFAULT_TOP_K}.
+     */
+    public int topK() {
+        return topK;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.util.Optional;
+
+/**
+ * OpenTelemetry tracing of a sample of the requests clients send, exported over OTLP.
+ */
+public class TracingConfig {
+
+    public static final String DEFAULT_ENDPOINT = "http://localhost:4317";
+    public static final String DEFAULT_SERVICE_NAME = "kroxylicious";
+
+    /**
+     * The OTLP transports spans can be exported with.
+     */
+    public enum Protocol {
+        GRPC,
+        HTTP
+    }
+
+    private final Integer sampleOneIn;
+    private final String endpoint;
+    private final Protocol protocol;
+    private final String serviceName;
+
+    public TracingConfig(Integer sampleOneIn, String endpoint, Protocol protocol, String serviceName) {
+        if (sampleOneIn != null && sampleOneIn <= 0) {
+            throw new IllegalArgumentException("sampleOneIn must be > 0, but was " + sampleOneIn);
+        }
+        this.sampleOneIn = sampleOneIn;
+        this.endpoint = endpoint == null ? DEFAULT_ENDPOINT : endpoint;
+        this.protocol = protocol == null ? Protocol.GRPC : protocol;
+        this.serviceName = serviceName == null ? DEFAULT_SERVICE_NAME : serviceName;
+    }
+
+    /**
+     * @return The configuration to use when none is given, which traces nothing.
+     */
+    public static TracingConfig defaults() {
+        return new TracingConfig(null, null, null, null);
+    }
+
+    /**
+     * @return true if requests should be traced.
+     */
+    public boolean enabled() {
+        return sampleOneIn != null;
+    }
+
+    /**
+     * @return One in how many of the requests of each connection are traced, if requests should be traced.
+     */
+    public Optional<Integer> sampleOneIn() {
+        return Optional.ofNullable(sampleOneIn);
+    }
+
+    /**
+     * @return The URL of the OTLP collector, which defaults to {@value #DEFAULT_ENDPOINT}.
+     * With the {@link Protocol#HTTP HTTP} protocol this is the full URL, ending {@code /v1/traces}.
+     */
+    public String endpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return How spans are sent to the collector, which defaults to {@link Protocol#GRPC gRPC}.
+     */
+    public Protocol protocol() {
+        return protocol;
+    }
+
+    /**
+     * @return The {@code service.name} of the spans, which defaults to {@value #DEFAULT_SERVICE_NAME}.
+     */
+    public String serviceName() {
+        return serviceName;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.util.Optional;
+
+/**
+ * Recording of the requests clients send, with their timing, to memory-mapped segment files,
+ * so that the traffic can be replayed later for benchmarking.
+ */
+public class TrafficRecordingConfig {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private final String directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+
+    public TrafficRecordingConfig(String directory, Integer segmentBytes, Long maxBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes == null ? DEFAULT_SEGMENT_BYTES : segmentBytes;
+        if (this.segmentBytes <= 0) {
+            throw new IllegalArgumentException("segmentBytes must be > 0, but was " + this.segmentBytes);
+        }
+        this.maxBytes = maxBytes == null ? DEFAULT_MAX_BYTES : maxBytes;
+        if (this.maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be > 0, but was " + this.maxBytes);
+        }
+    }
+
+    /**
+     * @return The configuration to use when none is given, which records nothing.
+     */
+    public static TrafficRecordingConfig defaults() {
+        return new TrafficRecordingConfig(null, null, null);
+    }
+
+    /**
+     * @return true if traffic should be recorded.
+     */
+    public boolean enabled() {
+        return directory != null;
+    }
+
+    /**
+     * @return The directory the segment files are written to, if traffic should be recorded.
+     * It's created if need be, and must not already hold a recording.
+     */
+    public Optional<String> directory() {
+        return Optional.ofNullable(directory);
+    }
+
+    /**
+     * @return The size of each segment file, which defaults to {@value #DEFAULT_SEGMENT_BYTES}.
+     * Each event loop writes its own segments.
+     */
+    public int segmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * @return The most bytes recorded, across all segments, which defaults to {@value #DEFAULT_MAX_BYTES}.
+     * Once they're used up, recording stops.
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+}
@@ -13,7 +13,7 @@ public class AdminHttpConfiguration {
     public AdminHttpConfiguration(String host, Integer port, EndpointsConfiguration endpoints) {
         this.host = host == null ? "0.0.0.0" : host;
         this.port = port == null ? 9193 : port;
-        this.endpoints = endpoints == null ? new EndpointsConfiguration(null) : endpoints;
+        this.endpoints = endpoints == null ? new EndpointsConfiguration(null, null) : endpoints;
     }
 
     public EndpointsConfiguration getEndpoints() {
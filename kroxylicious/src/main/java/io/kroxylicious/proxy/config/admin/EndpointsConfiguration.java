@@ -9,12 +9,25 @@ import java.util.Optional;
 
 public class EndpointsConfiguration {
     private final PrometheusMetricsConfig prometheus;
+    private final NetworkEndpointConfig network;
 
-    public EndpointsConfiguration(PrometheusMetricsConfig prometheus) {
+    public EndpointsConfiguration(PrometheusMetricsConfig prometheus, NetworkEndpointConfig network) {
         this.prometheus = prometheus;
+        this.network = network;
     }
 
     public Optional<PrometheusMetricsConfig> maybePrometheus() {
         return Optional.ofNullable(prometheus);
     }
+
+    public Optional<NetworkEndpointConfig> maybeNetwork() {
+        return Optional.ofNullable(network);
+    }
+
+    /**
+     * @return true if at least one endpoint is enabled.
+     */
+    public boolean anyEnabled() {
+        return prometheus != null || network != null;
+    }
 }
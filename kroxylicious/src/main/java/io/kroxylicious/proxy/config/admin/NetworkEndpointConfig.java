@@ -0,0 +1,14 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config.admin;
+
+public class NetworkEndpointConfig {
+
+    public NetworkEndpointConfig() {
+
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.example.topicencryption;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.crypto.SecretKey;
+
+/**
+ * <p>Caches data encryption keys, so that the {@link Kms} is called once per key rather than once per batch.</p>
+ *
+ * <p>Each KEK has a current DEK for encrypting, which is replaced by a newly generated one once it's older than the TTL,
+ * or has encrypted {@value #MAX_ENCRYPTIONS} records, which keeps the chance of an AES-GCM IV being reused negligible.
+ * Unwrapped DEKs for decrypting are kept in an LRU map, keyed by the wrapped key, and are unwrapped again
+ * once they're older than the TTL, so that revoking access to a KEK takes effect.</p>
+ *
+ * <p>Keys are returned as stages, which are already complete when the key was cached. The KMS is only called
+ * once a key's entry has been updated, never while holding a lock, and the callers needing a DEK which is
+ * being generated all wait for the same KMS call.</p>
+ *
+ * <p>A cache is shared by all the connections using the same filter configuration. It is thread-safe.</p>
+ */
+class DekCache {
+
+    static final long MAX_ENCRYPTIONS = 1L << 31;
+
+    private static final class EncryptionKey {
+        private final CompletableFuture<Kms.DataKey> dataKey = new CompletableFuture<>();
+        private final long expiresAtNanos;
+        private long encryptions;
+
+        private EncryptionKey(long expiresAtNanos) {
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private record DecryptionKey(SecretKey key, long expiresAtNanos) {
+    }
+
+    private final Kms kms;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+    private final Map<String, EncryptionKey> encryptionKeys = new ConcurrentHashMap<>();
+    private final LinkedHashMap<ByteBuffer, DecryptionKey> decryptionKeys;
+
+    DekCache(Kms kms, long ttlMs, int maxSize) {
+        this(kms, ttlMs, maxSize, System::nanoTime);
+    }
+
+    DekCache(Kms kms, long ttlMs, int maxSize, LongSupplier nanoTime) {
+        this.kms = kms;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.nanoTime = nanoTime;
+        this.decryptionKeys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, DecryptionKey> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param kekId The KEK whose current DEK to get.
+     * @param records The number of records which will be encrypted with it.
+     * @return The DEK with which to encrypt the records, or a stage failed with the KMS's error.
+     */
+    CompletableFuture<Kms.DataKey> encryptionKey(String kekId, int records) {
+        long now = nanoTime.getAsLong();
+        EncryptionKey[] generating = new EncryptionKey[1];
+        EncryptionKey key = encryptionKeys.compute(kekId, (id, current) -> {
+            if (current == null || now - current.expiresAtNanos >= 0 || current.encryptions + records > MAX_ENCRYPTIONS) {
+                current = new EncryptionKey(now + ttlNanos);
+                generating[0] = current;
+            }
+            current.encryptions += records;
+            return current;
+        });
+        if (generating[0] != null) {
+            call(() -> kms.generateKey(kekId)).whenComplete((generated, error) -> {
+                if (error != null) {
+                    // So that the next caller tries again
+                    encryptionKeys.remove(kekId, key);
+                    key.dataKey.completeExceptionally(error);
+                }
+                else {
+                    cacheDecryptionKey(ByteBuffer.wrap(generated.wrapped()), generated.key(), now);
+                    key.dataKey.complete(generated);
+                }
+            });
+        }
+        return key.dataKey;
+    }
+
+    /**
+     * @param wrapped A wrapped DEK, from its position to its limit. It isn't retained, and can be a view of a record value.
+     * @return The unwrapped DEK, if it's cached, or otherwise null.
+     */
+    SecretKey cachedDecryptionKey(ByteBuffer wrapped) {
+        long now = nanoTime.getAsLong();
+        DecryptionKey key;
+        synchronized (decryptionKeys) {
+            key = decryptionKeys.get(wrapped);
+        }
+        return key != null && now - key.expiresAtNanos < 0 ? key.key() : null;
+    }
+
+    /**
+     * @param wrapped A wrapped DEK, from its position to its limit. It isn't retained, and can be a view of a record value.
+     * @return The unwrapped DEK, or a stage failed with the KMS's error.
+     */
+    CompletableFuture<SecretKey> decryptionKey(ByteBuffer wrapped) {
+        SecretKey cached = cachedDecryptionKey(wrapped);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        // Concurrent misses for the same key may each call the KMS, but that's no worse than making them wait on each other
+        long now = nanoTime.getAsLong();
+        byte[] copy = new byte[wrapped.remaining()];
+        wrapped.duplicate().get(copy);
+        return call(() -> kms.unwrap(ByteBuffer.wrap(copy).asReadOnlyBuffer())).thenApply(unwrapped -> {
+            cacheDecryptionKey(ByteBuffer.wrap(copy), unwrapped, now);
+            return unwrapped;
+        });
+    }
+
+    /**
+     * @return The KMS's stage as a future, which has failed if the KMS threw rather than returning a failed stage.
+     */
+    private static <T> CompletableFuture<T> call(Supplier<CompletionStage<T>> kmsCall) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            kmsCall.get().whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                }
+                else {
+                    result.complete(value);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void cacheDecryptionKey(ByteBuffer wrapped, SecretKey key, long now) {
+        synchronized (decryptionKeys) {
+            decryptionKeys.put(wrapped, new DecryptionKey(key, now + ttlNanos));
+        }
+    }
+
+    int size() {
+        synchronized (decryptionKeys) {
+            return decryptionKeys.size();
+        }
+    }
+}
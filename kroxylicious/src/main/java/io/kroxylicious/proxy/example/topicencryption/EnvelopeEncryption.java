@@ -0,0 +1,251 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.example.topicencryption;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.utils.BufferSupplier;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.kroxylicious.proxy.internal.filter.RecordBatchTransformation;
+import io.kroxylicious.proxy.internal.filter.RecordTransformer;
+
+/**
+ * <p>Encrypts and decrypts record values with AES-GCM, using the JCE, whose AES-GCM implementation
+ * the JVM accelerates with AES-NI (and CLMUL) where the CPU has them.</p>
+ *
+ * <p>An encrypted value is: the 4 byte {@link #MAGIC}, a version byte, the length of the wrapped DEK as a short,
+ * the wrapped DEK, a random 12 byte IV, and the encrypted value followed by the 16 byte tag.
+ * The topic name is the additional authenticated data, so a value can't be moved to another topic undetected.
+ * Keys, headers, offsets and timestamps aren't encrypted, and tombstones stay tombstones.</p>
+ *
+ * <p>A topic may hold values written before it was encrypted, some of which may happen to start like an encrypted value.
+ * So a value is only decrypted if it has the magic and version, and is long enough for the wrapped DEK it claims
+ * to have. A value whose DEK can't be unwrapped, or which fails authentication, is logged and returned as it is,
+ * rather than failing the whole response, which would leave the partition impossible to consume.</p>
+ */
+class EnvelopeEncryption {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EnvelopeEncryption.class);
+
+    /** Starts every encrypted value, being unlikely to start a plaintext value, with its leading zeros */
+    static final byte[] MAGIC = { 0, 0, 'K', 'E' };
+    static final byte VERSION = 1;
+    private static final int HEADER_BYTES = MAGIC.length + 1 + Short.BYTES;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_BYTES = TAG_BITS / 8;
+
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    });
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private final Map<String, String> topicKeks;
+    private final DekCache keys;
+
+    /**
+     * @param topicKeks The id of the KEK for each topic to encrypt.
+     * @param keys The DEKs.
+     */
+    EnvelopeEncryption(Map<String, String> topicKeks, DekCache keys) {
+        this.topicKeks = topicKeks;
+        this.keys = keys;
+    }
+
+    /**
+     * Gets the DEKs with which to encrypt the given partitions, one per KEK.
+     * @param partitions The partitions to encrypt, each of a topic which has a KEK.
+     * @return A future, which is already complete if the DEKs were cached, of the transformation which encrypts the values
+     * of the partitions' batches, or which has failed if a DEK couldn't be generated.
+     */
+    CompletableFuture<RecordBatchTransformation> encryption(List<RecordTransformer.Partition> partitions) {
+        Map<String, Integer> recordsByKek = new HashMap<>();
+        for (RecordTransformer.Partition partition : partitions) {
+            int records = 0;
+            for (RecordBatch batch : partition.records().batches()) {
+                Integer count = batch.countOrNull();
+                records += count == null ? 1 : count;
+            }
+            recordsByKek.merge(topicKeks.get(partition.topicName()), records, Integer::sum);
+        }
+        Map<String, CompletableFuture<Kms.DataKey>> dataKeys = new HashMap<>();
+        recordsByKek.forEach((kekId, records) -> dataKeys.put(kekId, keys.encryptionKey(kekId, records)));
+        return CompletableFuture.allOf(dataKeys.values().toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            Map<String, Kms.DataKey> byKek = new HashMap<>();
+            dataKeys.forEach((kekId, dataKey) -> byKek.put(kekId, dataKey.join()));
+            return (topicName, batch, output) -> encrypt(byKek.get(topicKeks.get(topicName)), topicName, batch, output);
+        });
+    }
+
+    /**
+     * <p>Unwraps the DEKs with which the given partitions were encrypted.</p>
+     *
+     * <p>This only reads the first record with a value of each batch, since a batch is encrypted with a single DEK.
+     * A record encrypted with a DEK which wasn't unwrapped, and isn't cached, is returned as it is.</p>
+     *
+     * @param partitions The partitions to decrypt.
+     * @return A future, which is already complete if the DEKs were cached, of the transformation which decrypts the
+     * encrypted values of the partitions' batches. Values which weren't encrypted are kept as they are.
+     */
+    CompletableFuture<RecordBatchTransformation> decryption(List<RecordTransformer.Partition> partitions) {
+        Map<ByteBuffer, CompletableFuture<SecretKey>> unwrapped = new HashMap<>();
+        for (RecordTransformer.Partition partition : partitions) {
+            for (MutableRecordBatch batch : partition.records().batches()) {
+                ByteBuffer wrapped = batch.isControlBatch() ? null : firstWrappedKey(batch);
+                if (wrapped != null && !unwrapped.containsKey(wrapped)) {
+                    byte[] copy = new byte[wrapped.remaining()];
+                    wrapped.duplicate().get(copy);
+                    unwrapped.put(ByteBuffer.wrap(copy), keys.decryptionKey(wrapped).exceptionally(e -> {
+                        LOGGER.warn("Couldn't unwrap a key of topic {}, so returning the records encrypted with it as they are", partition.topicName(), e);
+                        return null;
+                    }));
+                }
+            }
+        }
+        return CompletableFuture.allOf(unwrapped.values().toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            // Null for the keys which couldn't be unwrapped
+            Map<ByteBuffer, SecretKey> byWrapped = new HashMap<>();
+            unwrapped.forEach((wrapped, key) -> byWrapped.put(wrapped, key.join()));
+            return (topicName, batch, output) -> decrypt(byWrapped, topicName, batch, output);
+        });
+    }
+
+    private static ByteBuffer firstWrappedKey(RecordBatch batch) {
+        try (CloseableIterator<Record> records = batch.streamingIterator(BufferSupplier.NO_CACHING)) {
+            while (records.hasNext()) {
+                Record record = records.next();
+                if (record.hasValue()) {
+                    return wrappedKey(record.value());
+                }
+            }
+        }
+        return null;
+    }
+
+    private void encrypt(Kms.DataKey dataKey, String topicName, RecordBatch batch, RecordBatchTransformation.Output output) {
+        byte[] wrapped = dataKey.wrapped();
+        byte[] aad = topicName.getBytes(StandardCharsets.UTF_8);
+        Cipher cipher = CIPHER.get();
+        SecureRandom random = RANDOM.get();
+        byte[] iv = new byte[IV_BYTES];
+        for (Record record : batch) {
+            ByteBuffer value = record.value();
+            if (value == null) {
+                output.append(record);
+                continue;
+            }
+            ByteBuffer encrypted = output.valueBuffer(HEADER_BYTES + wrapped.length + IV_BYTES + value.remaining() + TAG_BYTES);
+            random.nextBytes(iv);
+            encrypted.put(MAGIC).put(VERSION).putShort((short) wrapped.length).put(wrapped).put(iv);
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, dataKey.key(), new GCMParameterSpec(TAG_BITS, iv));
+                cipher.updateAAD(aad);
+                cipher.doFinal(value, encrypted);
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Couldn't encrypt record at offset " + record.offset() + " of topic " + topicName, e);
+            }
+            output.append(record, encrypted.flip());
+        }
+    }
+
+    private void decrypt(Map<ByteBuffer, SecretKey> unwrapped, String topicName, RecordBatch batch, RecordBatchTransformation.Output output) {
+        byte[] aad = topicName.getBytes(StandardCharsets.UTF_8);
+        Cipher cipher = CIPHER.get();
+        byte[] iv = new byte[IV_BYTES];
+        // The records of a batch were normally all encrypted with the same DEK
+        ByteBuffer lastWrapped = null;
+        SecretKey lastKey = null;
+        for (Record record : batch) {
+            ByteBuffer value = record.value();
+            ByteBuffer wrapped = value == null ? null : wrappedKey(value);
+            if (wrapped == null) {
+                output.append(record);
+                continue;
+            }
+            if (!wrapped.equals(lastWrapped)) {
+                if (unwrapped.containsKey(wrapped)) {
+                    // Null if it couldn't be unwrapped, which has been logged
+                    lastKey = unwrapped.get(wrapped);
+                }
+                else {
+                    // The batch's records weren't all encrypted with the DEK of its first record, which this filter doesn't do
+                    lastKey = keys.cachedDecryptionKey(wrapped);
+                    if (lastKey == null) {
+                        LOGGER.warn("The key of record at offset {} of topic {} wasn't unwrapped, so returning it as it is", record.offset(), topicName);
+                    }
+                }
+                lastWrapped = wrapped;
+            }
+            if (lastKey == null) {
+                output.append(record);
+                continue;
+            }
+            int position = wrapped.limit();
+            value.get(position, iv);
+            ByteBuffer ciphertext = value.duplicate().position(position + IV_BYTES);
+            ByteBuffer decrypted = output.valueBuffer(ciphertext.remaining());
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, lastKey, new GCMParameterSpec(TAG_BITS, iv));
+                cipher.updateAAD(aad);
+                cipher.doFinal(ciphertext, decrypted);
+            }
+            catch (GeneralSecurityException e) {
+                LOGGER.warn("Couldn't decrypt record at offset {} of topic {}, so returning it as it is", record.offset(), topicName, e);
+                output.append(record);
+                continue;
+            }
+            output.append(record, decrypted.flip());
+        }
+    }
+
+    /**
+     * @param value A record value.
+     * @return A view of the wrapped DEK of the value, if it's an encrypted value, or otherwise null.
+     */
+    static ByteBuffer wrappedKey(ByteBuffer value) {
+        int position = value.position();
+        if (value.remaining() < HEADER_BYTES) {
+            return null;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (value.get(position + i) != MAGIC[i]) {
+                return null;
+            }
+        }
+        if (value.get(position + MAGIC.length) != VERSION) {
+            return null;
+        }
+        int wrappedLength = value.getShort(position + MAGIC.length + 1) & 0xffff;
+        if (wrappedLength == 0 || value.remaining() < HEADER_BYTES + wrappedLength + IV_BYTES + TAG_BYTES) {
+            return null;
+        }
+        int start = position + HEADER_BYTES;
+        return value.duplicate().position(start).limit(start + wrappedLength);
+    }
+}
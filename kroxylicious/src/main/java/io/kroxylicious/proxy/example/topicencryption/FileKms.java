@@ -0,0 +1,133 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.example.topicencryption;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * <p>A {@link Kms} whose key encryption keys are read from a local properties file,
+ * mapping each KEK id to a base64 encoded 128, 192 or 256 bit AES key, for development and testing.
+ * The file is named by the {@code path} of the {@code kmsConfig}.</p>
+ *
+ * <p>Data encryption keys are 256 bit AES keys, wrapped with AES-GCM. A wrapped key is
+ * the length of the KEK id, the KEK id in UTF-8, a 12 byte IV, and the encrypted key followed by the tag.
+ * Since the keys are local, the stages it returns are already complete.</p>
+ */
+public class FileKms implements Kms {
+
+    private static final String AES_GCM = "AES/GCM/NoPadding";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int DEK_BITS = 256;
+
+    private final Map<String, SecretKey> keks;
+    private final SecureRandom random = new SecureRandom();
+
+    public FileKms(Map<String, String> kmsConfig) {
+        this(readKeks(kmsConfig));
+    }
+
+    FileKms(Properties keks) {
+        this.keks = new HashMap<>();
+        for (String kekId : keks.stringPropertyNames()) {
+            byte[] key = Base64.getDecoder().decode(keks.getProperty(kekId).trim());
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalArgumentException("KEK " + kekId + " must be a 128, 192 or 256 bit key, but was " + key.length * 8 + " bits");
+            }
+            this.keks.put(kekId, new SecretKeySpec(key, "AES"));
+        }
+    }
+
+    private static Properties readKeks(Map<String, String> kmsConfig) {
+        String path = kmsConfig == null ? null : kmsConfig.get("path");
+        if (path == null) {
+            throw new IllegalArgumentException("kmsConfig must have the path of the KEK file");
+        }
+        var keks = new Properties();
+        try (Reader reader = Files.newBufferedReader(Path.of(path), StandardCharsets.UTF_8)) {
+            keks.load(reader);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read KEK file " + path, e);
+        }
+        return keks;
+    }
+
+    @Override
+    public CompletionStage<DataKey> generateKey(String kekId) {
+        try {
+            SecretKey kek = kek(kekId);
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(DEK_BITS, random);
+            SecretKey dek = generator.generateKey();
+
+            byte[] id = kekId.getBytes(StandardCharsets.UTF_8);
+            byte[] iv = new byte[IV_BYTES];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(Cipher.ENCRYPT_MODE, kek, new GCMParameterSpec(TAG_BITS, iv));
+            byte[] encrypted = cipher.doFinal(dek.getEncoded());
+
+            ByteBuffer wrapped = ByteBuffer.allocate(1 + id.length + IV_BYTES + encrypted.length);
+            wrapped.put((byte) id.length).put(id).put(iv).put(encrypted);
+            return CompletableFuture.completedFuture(new DataKey(dek, wrapped.array()));
+        }
+        catch (GeneralSecurityException e) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Couldn't generate a key wrapped by KEK " + kekId, e));
+        }
+        catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletionStage<SecretKey> unwrap(ByteBuffer wrapped) {
+        ByteBuffer in = wrapped.duplicate();
+        try {
+            byte[] id = new byte[in.get() & 0xff];
+            in.get(id);
+            String kekId = new String(id, StandardCharsets.UTF_8);
+            byte[] iv = new byte[IV_BYTES];
+            in.get(iv);
+            Cipher cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, kek(kekId), new GCMParameterSpec(TAG_BITS, iv));
+            byte[] dek = new byte[cipher.getOutputSize(in.remaining())];
+            int length = cipher.doFinal(in, ByteBuffer.wrap(dek));
+            return CompletableFuture.completedFuture(new SecretKeySpec(dek, 0, length, "AES"));
+        }
+        catch (GeneralSecurityException | RuntimeException e) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Couldn't unwrap key", e));
+        }
+    }
+
+    private SecretKey kek(String kekId) {
+        SecretKey kek = keks.get(kekId);
+        if (kek == null) {
+            throw new IllegalArgumentException("Unknown KEK " + kekId);
+        }
+        return kek;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.example.topicencryption;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+
+import javax.crypto.SecretKey;
+
+/**
+ * <p>A key management service, which holds the key encryption keys (KEKs) that wrap the data encryption keys (DEKs)
+ * used by {@link TopicEncryption}.</p>
+ *
+ * <p>Implementations need a public constructor taking the {@code Map<String, String>} of {@code kmsConfig}
+ * from the filter's configuration, and must be thread-safe.
+ * They're called on the event loops, so must not block: a remote KMS should return a stage which its client completes
+ * once the KMS responds. The produce requests and fetch responses needing the key wait for it, but the event loop doesn't.</p>
+ */
+public interface Kms {
+
+    /**
+     * A data encryption key, along with the same key wrapped by a key encryption key.
+     * @param key The key.
+     * @param wrapped The key, encrypted by a key encryption key, which is stored alongside the data.
+     */
+    record DataKey(SecretKey key, byte[] wrapped) {
+    }
+
+    /**
+     * Generates a new data encryption key.
+     * @param kekId The id of the key encryption key with which to wrap it.
+     * @return The key, or a stage failed with an {@link IllegalArgumentException} if there's no such key encryption key.
+     */
+    CompletionStage<DataKey> generateKey(String kekId);
+
+    /**
+     * Unwraps a data encryption key.
+     * @param wrapped A key returned by {@link #generateKey(String)}, from its position to its limit.
+     * It's the caller's copy, so it can be kept until the stage completes, but mustn't be modified.
+     * @return The key, or a stage failed with an {@link IllegalArgumentException} if the key can't be unwrapped.
+     */
+    CompletionStage<SecretKey> unwrap(ByteBuffer wrapped);
+}
@@ -5,50 +5,211 @@
  */
 package io.kroxylicious.proxy.example.topicencryption;
 
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
 import org.apache.kafka.common.Uuid;
 import org.apache.kafka.common.message.FetchResponseData;
+import org.apache.kafka.common.message.FetchResponseData.FetchableTopicResponse;
+import org.apache.kafka.common.message.FetchResponseData.PartitionData;
 import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.ProduceRequestData.PartitionProduceData;
 import org.apache.kafka.common.message.RequestHeaderData;
 import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.record.MemoryRecords;
 
+import io.kroxylicious.proxy.config.BaseConfig;
 import io.kroxylicious.proxy.filter.FetchResponseFilter;
 import io.kroxylicious.proxy.filter.KrpcFilterContext;
 import io.kroxylicious.proxy.filter.ProduceRequestFilter;
+import io.kroxylicious.proxy.internal.filter.RecordBatchTransformation;
+import io.kroxylicious.proxy.internal.filter.RecordTransformer;
 
+/**
+ * <p>Encrypts the record values of the configured topics as they're produced, and decrypts them as they're fetched,
+ * using envelope encryption: values are encrypted with AES-GCM under a data encryption key (DEK),
+ * which is stored with them wrapped by a key encryption key (KEK) held by a {@link Kms}.</p>
+ *
+ * <p>The partitions of a request or response are encrypted or decrypted in parallel, when they add up to more
+ * than {@code parallelThresholdBytes}, or when their DEKs weren't cached, so that the records aren't transformed
+ * on the thread which completed the KMS call. See {@link EnvelopeEncryption} for the format of encrypted values.</p>
+ */
 public class TopicEncryption implements ProduceRequestFilter, FetchResponseFilter {
 
-    // TODO to support topic ids in fetch requests we need metadata
-    // but other filters will be interested in keeping track of metadata
+    public static class TopicEncryptionConfig extends BaseConfig {
+
+        public static final long DEFAULT_DEK_TTL_MS = 60 * 60 * 1000L;
+        public static final int DEFAULT_DEK_CACHE_SIZE = 1000;
+
+        private final Map<String, String> topics;
+        private final String kms;
+        private final Map<String, String> kmsConfig;
+        private final long dekTtlMs;
+        private final int dekCacheSize;
+        private final int parallelThresholdBytes;
+        private EnvelopeEncryption encryption;
+
+        public TopicEncryptionConfig(Map<String, String> topics, String kms, Map<String, String> kmsConfig, Long dekTtlMs, Integer dekCacheSize,
+                                     Integer parallelThresholdBytes) {
+            if (topics == null || topics.isEmpty()) {
+                throw new IllegalArgumentException("topics must map at least one topic to the id of its KEK");
+            }
+            this.topics = Map.copyOf(topics);
+            this.kms = kms == null ? FileKms.class.getName() : kms;
+            this.kmsConfig = kmsConfig == null ? Map.of() : Map.copyOf(kmsConfig);
+            this.dekTtlMs = dekTtlMs == null ? DEFAULT_DEK_TTL_MS : dekTtlMs;
+            if (this.dekTtlMs <= 0) {
+                throw new IllegalArgumentException("dekTtlMs must be > 0, but was " + this.dekTtlMs);
+            }
+            this.dekCacheSize = dekCacheSize == null ? DEFAULT_DEK_CACHE_SIZE : dekCacheSize;
+            if (this.dekCacheSize <= 0) {
+                throw new IllegalArgumentException("dekCacheSize must be > 0, but was " + this.dekCacheSize);
+            }
+            this.parallelThresholdBytes = parallelThresholdBytes == null ? RecordTransformer.DEFAULT_PARALLEL_THRESHOLD_BYTES : parallelThresholdBytes;
+        }
+
+        /**
+         * @return The topics to encrypt, each mapped to the id of the KEK which wraps its DEKs.
+         */
+        public Map<String, String> topics() {
+            return topics;
+        }
+
+        /**
+         * @return The name of the {@link Kms} class, which defaults to {@link FileKms}.
+         */
+        public String kms() {
+            return kms;
+        }
+
+        /**
+         * @return The configuration given to the {@link Kms}'s constructor.
+         */
+        public Map<String, String> kmsConfig() {
+            return kmsConfig;
+        }
+
+        /**
+         * @return How long a DEK is used to encrypt, and an unwrapped DEK is cached, which defaults to an hour.
+         */
+        public long dekTtlMs() {
+            return dekTtlMs;
+        }
+
+        /**
+         * @return The most unwrapped DEKs to cache, which defaults to {@value #DEFAULT_DEK_CACHE_SIZE}.
+         */
+        public int dekCacheSize() {
+            return dekCacheSize;
+        }
+
+        /**
+         * @return The size of a request's or response's records above which its partitions are encrypted or decrypted in parallel.
+         */
+        public int parallelThresholdBytes() {
+            return parallelThresholdBytes;
+        }
+
+        /**
+         * @return The encryption, with its KMS and DEK cache, shared by all the connections using this configuration.
+         */
+        synchronized EnvelopeEncryption encryption() {
+            if (encryption == null) {
+                Kms instance;
+                try {
+                    instance = (Kms) Class.forName(kms).getConstructor(Map.class).newInstance(kmsConfig);
+                }
+                catch (InvocationTargetException e) {
+                    throw new IllegalArgumentException("Couldn't instantiate KMS class: " + kms, e.getCause());
+                }
+                catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Couldn't instantiate KMS class: " + kms, e);
+                }
+                encryption = new EnvelopeEncryption(topics, new DekCache(instance, dekTtlMs, dekCacheSize));
+            }
+            return encryption;
+        }
+    }
+
+    private final Map<String, String> topics;
+    private final EnvelopeEncryption encryption;
+    private final int parallelThresholdBytes;
+
+    public TopicEncryption(TopicEncryptionConfig config) {
+        this.topics = config.topics();
+        this.encryption = config.encryption();
+        this.parallelThresholdBytes = config.parallelThresholdBytes();
+    }
 
     @Override
     public void onProduceRequest(RequestHeaderData header, ProduceRequestData request, KrpcFilterContext context) {
-        boolean fragmented = false;
-        if (fragmented) {
-            // TODO forward the fragments
-            // TODO context.forwardRequest();
-            // drop the original message
-            return;
+        List<RecordTransformer.Partition> partitions = new ArrayList<>();
+        for (var topicData : request.topicData()) {
+            if (topics.containsKey(topicData.name())) {
+                for (PartitionProduceData partitionData : topicData.partitionData()) {
+                    MemoryRecords records = (MemoryRecords) partitionData.records();
+                    partitions.add(new RecordTransformer.Partition(topicData.name(), records,
+                            context.createByteBufferOutputStream(records.sizeInBytes() + records.sizeInBytes() / 2), partitionData::setRecords));
+                }
+            }
         }
-        else {
+        CompletableFuture<Void> encrypted = transform(encryption.encryption(partitions), partitions);
+        if (encrypted.isDone()) {
+            encrypted.join();
             context.forwardRequest(request);
         }
+        else {
+            context.forwardWhenComplete(encrypted, request);
+        }
     }
 
     @Override
     public void onFetchResponse(ResponseHeaderData header, FetchResponseData response, KrpcFilterContext context) {
-        for (var topicResponse : response.responses()) {
-            String topicName = topicResponse.topic();
-            if (topicName == null) {
-                topicName = lookupTopic(topicResponse.topicId());
+        Set<Uuid> topicIds = response.responses().stream()
+                .filter(t -> t.topic().isEmpty())
+                .map(FetchableTopicResponse::topicId)
+                .collect(Collectors.toSet());
+        if (!topicIds.isEmpty()) {
+            // Fetch responses identify topics only by id from version 13
+            var decrypted = context.topicMetadata().topicNames(topicIds)
+                    .thenCompose(topicNames -> decrypt(context, response, topicNames));
+            context.forwardWhenComplete(decrypted, response);
+        }
+        else {
+            CompletableFuture<Void> decrypted = decrypt(context, response, Map.of());
+            if (decrypted.isDone()) {
+                decrypted.join();
+                context.forwardResponse(response);
+            }
+            else {
+                context.forwardWhenComplete(decrypted, response);
             }
-            // TODO the rest of it
         }
-        context.forwardResponse(response);
     }
 
-    private String lookupTopic(Uuid topicId) {
-        // TODO look up the topic name from the TopicNameFilter
-        return null;
+    private CompletableFuture<Void> decrypt(KrpcFilterContext context, FetchResponseData response, Map<Uuid, String> topicNames) {
+        List<RecordTransformer.Partition> partitions = new ArrayList<>();
+        for (FetchableTopicResponse topicData : response.responses()) {
+            String topicName = topicData.topic().isEmpty() ? topicNames.get(topicData.topicId()) : topicData.topic();
+            if (topicName != null && topics.containsKey(topicName)) {
+                for (PartitionData partitionData : topicData.partitions()) {
+                    MemoryRecords records = (MemoryRecords) partitionData.records();
+                    partitions.add(new RecordTransformer.Partition(topicName, records, context.createByteBufferOutputStream(records.sizeInBytes()),
+                            partitionData::setRecords));
+                }
+            }
+        }
+        return transform(encryption.decryption(partitions), partitions);
     }
 
+    private CompletableFuture<Void> transform(CompletableFuture<RecordBatchTransformation> transformation, List<RecordTransformer.Partition> partitions) {
+        // A transformation which had to wait for the KMS is completed on the KMS's thread, so is moved to the pool
+        int thresholdBytes = transformation.isDone() ? parallelThresholdBytes : 0;
+        return transformation.thenCompose(batchTransformation -> new RecordTransformer(batchTransformation, thresholdBytes).transform(partitions));
+    }
 }
@@ -20,7 +20,9 @@ import io.kroxylicious.proxy.filter.KrpcFilterContext;
 import io.kroxylicious.proxy.filter.MetadataResponseFilter;
 
 /**
- * Maintains a local mapping of topic id to topic name
+ * Maintains a local mapping of topic id to topic name.
+ * This is an example of tracking state from responses: filters which just need topic names
+ * should use the proxy's shared {@link KrpcFilterContext#topicMetadata()}, which is maintained in the same way.
  */
 public class TopicNameFilter
         implements MetadataResponseFilter, DeleteTopicsResponseFilter, CreateTopicsResponseFilter {
@@ -34,8 +36,6 @@ public class TopicNameFilter
                 topicNames.put(topic.topicId(), topic.name());
             }
         }
-        // TODO how can we expose this state to other filters?
-        // TODO filterContext.put("topicNames", topicNames);
         context.forwardResponse(response);
     }
 
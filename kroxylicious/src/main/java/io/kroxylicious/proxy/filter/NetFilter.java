@@ -5,7 +5,9 @@
  */
 package io.kroxylicious.proxy.filter;
 
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.List;
 
 /**
  * Abstracts some policy/logic for how an upstream connection for a given client connection
@@ -74,6 +76,41 @@ public interface NetFilter {
          */
         void initiateConnect(String host, int port, KrpcFilter[] filters);
 
+        /**
+         * Connect to whichever of the given Kafka servers accepts a connection first,
+         * using the given protocol filters.
+         * The servers are tried in the given order. Each attempt is given {@code attemptDelayMillis}
+         * before an attempt to the next server is started alongside it, and an attempt which fails
+         * starts the next one straight away.
+         * If none of the servers accept a connection the client's connection is closed.
+         * @param servers The servers, in order of preference
+         * @param attemptDelayMillis How long each attempt is given before the next is started
+         * @param listener Told the outcome of each attempt, or null
+         * @param filters The filters
+         */
+        void initiateConnect(List<InetSocketAddress> servers, long attemptDelayMillis, ConnectListener listener, KrpcFilter[] filters);
+
         // TODO add API for delayed responses
     }
+
+    /**
+     * Told the outcome of the attempts made by {@link NetFilterContext#initiateConnect(List, long, ConnectListener, KrpcFilter[])}.
+     * Attempts abandoned because another attempt succeeded first are not reported.
+     * Methods are called on the client connection's event loop.
+     */
+    interface ConnectListener {
+
+        /**
+         * @param server The server connected to
+         * @param durationNanos How long the attempt took
+         */
+        void connected(InetSocketAddress server, long durationNanos);
+
+        /**
+         * @param server The server which couldn't be connected to
+         * @param durationNanos How long the attempt took
+         * @param cause Why the attempt failed
+         */
+        void failed(InetSocketAddress server, long durationNanos, Throwable cause);
+    }
 }
@@ -42,15 +42,17 @@ public abstract class DecodedFrame<H extends ApiMessage, B extends ApiMessage>
     protected final H header;
     protected final B body;
 
+    private final int decodedLength;
     private final List<ByteBuf> buffers;
     private int headerAndBodyEncodedLength;
     private ObjectSerializationCache serializationCache;
 
-    DecodedFrame(short apiVersion, int correlationId, H header, B body) {
+    DecodedFrame(short apiVersion, int correlationId, H header, B body, int decodedLength) {
         this.apiVersion = apiVersion;
         this.correlationId = correlationId;
         this.header = header;
         this.body = body;
+        this.decodedLength = decodedLength;
         this.buffers = new ArrayList<>();
         this.headerAndBodyEncodedLength = -1;
     }
@@ -78,6 +80,15 @@ public abstract class DecodedFrame<H extends ApiMessage, B extends ApiMessage>
         return apiVersion;
     }
 
+    /**
+     * @return The length of the frame, excluding the frame size, as it was decoded,
+     * or -1 if the frame wasn't decoded from the network.
+     * It doesn't change when the header or body do.
+     */
+    public int decodedLength() {
+        return decodedLength;
+    }
+
     @Override
     public final int estimateEncodedSize() {
         if (headerAndBodyEncodedLength != -1) {
@@ -22,7 +22,19 @@ public class DecodedRequestFrame<B extends ApiMessage>
                                boolean decodeResponse,
                                RequestHeaderData header,
                                B body) {
-        super(apiVersion, correlationId, header, body);
+        this(apiVersion, correlationId, decodeResponse, header, body, -1);
+    }
+
+    /**
+     * @param decodedLength The length of the frame, excluding the frame size, as it was decoded.
+     */
+    public DecodedRequestFrame(short apiVersion,
+                               int correlationId,
+                               boolean decodeResponse,
+                               RequestHeaderData header,
+                               B body,
+                               int decodedLength) {
+        super(apiVersion, correlationId, header, body, decodedLength);
         this.decodeResponse = decodeResponse;
     }
 
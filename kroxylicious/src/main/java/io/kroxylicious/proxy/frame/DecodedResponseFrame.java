@@ -16,7 +16,14 @@ public class DecodedResponseFrame<B extends ApiMessage>
         implements ResponseFrame {
 
     public DecodedResponseFrame(short apiVersion, int correlationId, ResponseHeaderData header, B body) {
-        super(apiVersion, correlationId, header, body);
+        this(apiVersion, correlationId, header, body, -1);
+    }
+
+    /**
+     * @param decodedLength The length of the frame, excluding the frame size, as it was decoded.
+     */
+    public DecodedResponseFrame(short apiVersion, int correlationId, ResponseHeaderData header, B body, int decodedLength) {
+        super(apiVersion, correlationId, header, body, decodedLength);
     }
 
     public short headerVersion() {
@@ -10,8 +10,6 @@ import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
 
-import io.kroxylicious.proxy.tag.VisibleForTesting;
-
 /**
  * A frame in the Kafka protocol which has not been decoded.
  * The wrapped buffer <strong>does not</strong> include the frame size prefix.
@@ -49,6 +47,13 @@ public abstract class OpaqueFrame implements Frame {
         return correlationId;
     }
 
+    /**
+     * @return The length of the frame, excluding the frame size.
+     */
+    public int length() {
+        return length;
+    }
+
     @Override
     public int estimateEncodedSize() {
         return FRAME_SIZE_LENGTH + length;
@@ -66,7 +71,17 @@ public abstract class OpaqueFrame implements Frame {
         buf.release();
     }
 
-    @VisibleForTesting
+    /**
+     * Releases the frame's buffer, for a frame which won't be encoded.
+     */
+    public void release() {
+        buf.release();
+    }
+
+    /**
+     * @return The read-only message buffer, from the start of the header.
+     * Callers which read it must not move its reader index, for example by reading from a {@link ByteBuf#duplicate()}.
+     */
     public ByteBuf buf() {
         return buf;
     }
@@ -5,10 +5,14 @@
  */
 package io.kroxylicious.proxy.frame;
 
+import java.nio.charset.StandardCharsets;
+
 import org.apache.kafka.common.protocol.ApiKeys;
 
 import io.netty.buffer.ByteBuf;
 
+import io.kroxylicious.proxy.internal.codec.KafkaRequestEncoder;
+
 public class OpaqueRequestFrame extends OpaqueFrame implements RequestFrame {
 
     private final boolean decodeResponse;
@@ -32,6 +36,47 @@ public class OpaqueRequestFrame extends OpaqueFrame implements RequestFrame {
         return decodeResponse;
     }
 
+    /**
+     * @return The API key, read from the request header without decoding the frame.
+     */
+    public short apiKeyId() {
+        return buf.getShort(buf.readerIndex());
+    }
+
+    /**
+     * @return The API version, read from the request header without decoding the frame.
+     */
+    public short apiVersion() {
+        return buf.getShort(buf.readerIndex() + Short.BYTES);
+    }
+
+    /**
+     * @return The acks of a produce request, read without decoding the frame.
+     */
+    public short acks() {
+        ByteBuf in = buf.duplicate();
+        in.skipBytes(Short.BYTES + Short.BYTES);
+        return KafkaRequestEncoder.readAcks(in, in.readerIndex(), apiKeyId(), apiVersion());
+    }
+
+    /**
+     * @return The client id, read from the request header without decoding the frame,
+     * or null if the client didn't send one (or the header version has no client id).
+     */
+    public String clientId() {
+        ApiKeys apiKey = ApiKeys.forId(apiKeyId());
+        if (apiKey.requestHeaderVersion(apiVersion()) < 1) {
+            return null;
+        }
+        // api key, api version and correlation id precede the client id, which is a nullable (non-compact) string
+        int index = buf.readerIndex() + Short.BYTES + Short.BYTES + Integer.BYTES;
+        short clientIdLength = buf.getShort(index);
+        if (clientIdLength < 0) {
+            return null;
+        }
+        return buf.toString(index + Short.BYTES, clientIdLength, StandardCharsets.UTF_8);
+    }
+
     @Override
     public String toString() {
         int index = buf.readerIndex();
@@ -5,11 +5,113 @@
  */
 package io.kroxylicious.proxy.frame;
 
+import org.apache.kafka.common.protocol.ApiKeys;
+
 import io.netty.buffer.ByteBuf;
 
 public class OpaqueResponseFrame extends OpaqueFrame implements ResponseFrame {
-    public OpaqueResponseFrame(ByteBuf buf, int correlationId, int length) {
+
+    private final short apiKeyId;
+    private final short apiVersion;
+    /** The offset of the throttle_time_ms field to overwrite when encoding, or -1 to encode the buffer unchanged. */
+    private int throttleTimeMsOffset = -1;
+    private int throttleTimeMs;
+
+    /**
+     * @param buf The message buffer (excluding the frame size)
+     * @param correlationId The correlation id
+     * @param length The length of the frame within {@code buf}.
+     * @param apiKeyId The API key of the request this is a response to.
+     * @param apiVersion The API version of the request this is a response to.
+     */
+    public OpaqueResponseFrame(ByteBuf buf, int correlationId, int length, short apiKeyId, short apiVersion) {
         super(buf, correlationId, length);
+        this.apiKeyId = apiKeyId;
+        this.apiVersion = apiVersion;
+    }
+
+    public short apiKeyId() {
+        return apiKeyId;
+    }
+
+    public short apiVersion() {
+        return apiVersion;
+    }
+
+    /**
+     * Raises the response's {@code throttle_time_ms} to at least the given value, without decoding the frame.
+     * This is only possible for responses where the field is at a fixed position: fetch responses (version 1 and later)
+     * and non-flexible produce responses (versions 1 to 8).
+     * @param throttleTimeMs The throttle time.
+     * @return true if the throttle time could be set.
+     */
+    public boolean raiseThrottleTimeMs(int throttleTimeMs) {
+        int offset = throttleTimeMsOffset();
+        if (offset < 0) {
+            return false;
+        }
+        this.throttleTimeMsOffset = offset;
+        this.throttleTimeMs = Math.max(throttleTimeMs, buf.getInt(buf.readerIndex() + offset));
+        return true;
+    }
+
+    private int throttleTimeMsOffset() {
+        if (apiVersion < 1) {
+            return -1;
+        }
+        ApiKeys apiKey = ApiKeys.forId(apiKeyId);
+        boolean flexible = apiKey.responseHeaderVersion(apiVersion) >= 1;
+        if (apiKey == ApiKeys.FETCH) {
+            // throttle_time_ms is the first field of the body, after the header
+            int offset = Integer.BYTES;
+            if (flexible) {
+                offset = skipTaggedFields(buf.readerIndex() + offset) - buf.readerIndex();
+            }
+            return offset;
+        }
+        else if (apiKey == ApiKeys.PRODUCE && !flexible) {
+            // throttle_time_ms is the last field of the body
+            return length - Integer.BYTES;
+        }
+        return -1;
+    }
+
+    private int skipTaggedFields(int index) {
+        int[] next = { index };
+        int numTaggedFields = readUnsignedVarint(next);
+        for (int i = 0; i < numTaggedFields; i++) {
+            readUnsignedVarint(next); // tag
+            int size = readUnsignedVarint(next);
+            next[0] += size;
+        }
+        return next[0];
+    }
+
+    private int readUnsignedVarint(int[] index) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.getByte(index[0]++);
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public void encode(ByteBufAccessor out) {
+        if (throttleTimeMsOffset < 0) {
+            super.encode(out);
+            return;
+        }
+        out.ensureWritable(estimateEncodedSize());
+        out.writeInt(length);
+        out.writeBytes(buf, throttleTimeMsOffset);
+        buf.skipBytes(Integer.BYTES);
+        out.writeInt(throttleTimeMs);
+        out.writeBytes(buf, length - throttleTimeMsOffset - Integer.BYTES);
+        buf.release();
     }
 
     @Override
@@ -0,0 +1,203 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.message.FetchResponseData;
+import org.apache.kafka.common.message.ProduceResponseData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.SniCompletionEvent;
+
+import io.kroxylicious.proxy.config.QuotaConfig.QuotaKey;
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.frame.RequestFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+
+/**
+ * <p>Enforces the {@link ByteRateQuotas} for one client connection.</p>
+ *
+ * <p>Produce requests are charged their frame size as they are read from the client, and fetch responses
+ * as they are written to it. Neither needs decoding: opaque frames know their size, and the few header fields needed are read
+ * directly from the frame's buffer.</p>
+ *
+ * <p>When a charge exceeds the quota the connection is throttled as a broker would throttle it:
+ * reads from the client are paused until the throttle time has passed, and produce and fetch responses written
+ * in the meantime carry the remaining throttle time in their {@code throttle_time_ms}, so that well-behaved clients
+ * hold back too.</p>
+ */
+class ByteRateQuotaHandler extends ChannelDuplexHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ByteRateQuotaHandler.class);
+
+    private final ByteRateQuotas quotas;
+    private final QuotaKey quotaKey;
+    private final Runnable pauseReads;
+    private final Runnable resumeReads;
+
+    private String clientId;
+    private String sniHostname;
+    private String authorizedId;
+    private boolean throttled;
+    private long throttledUntilNanos;
+
+    /**
+     * @param quotas The proxy-wide quotas.
+     * @param pauseReads Stops reading from the client.
+     * @param resumeReads Allows reading from the client again.
+     */
+    ByteRateQuotaHandler(ByteRateQuotas quotas, Runnable pauseReads, Runnable resumeReads) {
+        this.quotas = quotas;
+        this.quotaKey = quotas.config().key();
+        this.pauseReads = pauseReads;
+        this.resumeReads = resumeReads;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+        if (event instanceof SniCompletionEvent && ((SniCompletionEvent) event).isSuccess()) {
+            sniHostname = ((SniCompletionEvent) event).hostname();
+        }
+        else if (event instanceof AuthenticationEvent) {
+            authorizedId = ((AuthenticationEvent) event).authorizationId();
+        }
+        super.userEventTriggered(ctx, event);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof RequestFrame) {
+            RequestFrame frame = (RequestFrame) msg;
+            if (quotaKey == QuotaKey.CLIENT_ID && clientId == null) {
+                // Clients use the same client id for all their requests on a connection
+                clientId = clientId(frame);
+            }
+            if (quotas.hasProduceQuota() && apiKeyId(frame) == ApiKeys.PRODUCE.id) {
+                long nowNanos = System.nanoTime();
+                throttle(ctx, quotas.chargeProduce(key(), frame.estimateEncodedSize(), nowNanos), nowNanos);
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ResponseFrame) {
+            ResponseFrame frame = (ResponseFrame) msg;
+            short apiKeyId = apiKeyId(frame);
+            if (apiKeyId == ApiKeys.FETCH.id || apiKeyId == ApiKeys.PRODUCE.id) {
+                long nowNanos = System.nanoTime();
+                if (apiKeyId == ApiKeys.FETCH.id && quotas.hasFetchQuota()) {
+                    throttle(ctx, quotas.chargeFetch(key(), frame.estimateEncodedSize(), nowNanos), nowNanos);
+                }
+                long remainingNanos = throttledUntilNanos - nowNanos;
+                if (throttled && remainingNanos > 0) {
+                    raiseThrottleTimeMs(frame, (int) TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+                }
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    private String key() {
+        switch (quotaKey) {
+            case SNI_HOSTNAME:
+                return sniHostname;
+            case AUTHORIZED_ID:
+                return authorizedId;
+            default:
+                return clientId;
+        }
+    }
+
+    private void throttle(ChannelHandlerContext ctx, long throttleNanos, long nowNanos) {
+        if (throttleNanos <= 0) {
+            return;
+        }
+        long untilNanos = nowNanos + throttleNanos;
+        if (throttled && untilNanos - throttledUntilNanos <= 0) {
+            return;
+        }
+        throttledUntilNanos = untilNanos;
+        if (!throttled) {
+            LOGGER.debug("{}: Throttling for {}ns", ctx.channel(), throttleNanos);
+            throttled = true;
+            pauseReads.run();
+            ctx.executor().schedule(() -> maybeUnthrottle(ctx), throttleNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void maybeUnthrottle(ChannelHandlerContext ctx) {
+        long remainingNanos = throttledUntilNanos - System.nanoTime();
+        if (remainingNanos > 0) {
+            // The throttle was extended after this was scheduled
+            ctx.executor().schedule(() -> maybeUnthrottle(ctx), remainingNanos, TimeUnit.NANOSECONDS);
+        }
+        else {
+            LOGGER.debug("{}: No longer throttled", ctx.channel());
+            throttled = false;
+            resumeReads.run();
+        }
+    }
+
+    static short apiKeyId(RequestFrame frame) {
+        if (frame instanceof DecodedRequestFrame) {
+            return ((DecodedRequestFrame<?>) frame).apiKey().id;
+        }
+        else if (frame instanceof OpaqueRequestFrame) {
+            return ((OpaqueRequestFrame) frame).apiKeyId();
+        }
+        return -1;
+    }
+
+    static short apiKeyId(ResponseFrame frame) {
+        if (frame instanceof DecodedResponseFrame) {
+            return ((DecodedResponseFrame<?>) frame).apiKey().id;
+        }
+        else if (frame instanceof OpaqueResponseFrame) {
+            return ((OpaqueResponseFrame) frame).apiKeyId();
+        }
+        return -1;
+    }
+
+    static String clientId(RequestFrame frame) {
+        if (frame instanceof DecodedRequestFrame) {
+            return ((DecodedRequestFrame<?>) frame).header().clientId();
+        }
+        else if (frame instanceof OpaqueRequestFrame) {
+            return ((OpaqueRequestFrame) frame).clientId();
+        }
+        return null;
+    }
+
+    private static void raiseThrottleTimeMs(ResponseFrame frame, int throttleTimeMs) {
+        if (frame instanceof DecodedResponseFrame) {
+            var body = ((DecodedResponseFrame<?>) frame).body();
+            if (body instanceof ProduceResponseData) {
+                var produceResponse = (ProduceResponseData) body;
+                produceResponse.setThrottleTimeMs(Math.max(produceResponse.throttleTimeMs(), throttleTimeMs));
+            }
+            else if (body instanceof FetchResponseData) {
+                var fetchResponse = (FetchResponseData) body;
+                fetchResponse.setThrottleTimeMs(Math.max(fetchResponse.throttleTimeMs(), throttleTimeMs));
+            }
+        }
+        else if (frame instanceof OpaqueResponseFrame) {
+            // Flexible produce responses have tagged fields after the throttle time, so can't be changed without decoding them.
+            // Such clients are still throttled by the paused reads.
+            ((OpaqueResponseFrame) frame).raiseThrottleTimeMs(throttleTimeMs);
+        }
+    }
+}
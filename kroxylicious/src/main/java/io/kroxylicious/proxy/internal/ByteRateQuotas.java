@@ -0,0 +1,117 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import io.kroxylicious.proxy.config.QuotaConfig;
+import io.kroxylicious.proxy.tag.VisibleForTesting;
+
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_QUOTA_THROTTLES;
+
+/**
+ * <p>The proxy-wide produce and fetch byte-rate quotas.
+ * There is one {@link TokenBucket} per quota per {@link QuotaConfig.QuotaKey key}, shared by every connection
+ * with that key, whichever event loop it is on.</p>
+ *
+ * <p>Buckets which have filled up again are removed periodically, so that keys which are no longer in use
+ * don't accumulate.</p>
+ */
+public class ByteRateQuotas {
+
+    static final long EXPIRY_INTERVAL_MS = 60_000;
+
+    private final QuotaConfig config;
+    private final long burstNanos;
+    private final ConcurrentHashMap<String, TokenBucket> produceBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> fetchBuckets = new ConcurrentHashMap<>();
+    private final Counter produceThrottles;
+    private final Counter fetchThrottles;
+    private ScheduledFuture<?> expiryTask;
+
+    public ByteRateQuotas(QuotaConfig config) {
+        this.config = config;
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(config.burstMs());
+        this.produceThrottles = Metrics.counter(KROXYLICIOUS_QUOTA_THROTTLES, "quota", "produce");
+        this.fetchThrottles = Metrics.counter(KROXYLICIOUS_QUOTA_THROTTLES, "quota", "fetch");
+    }
+
+    /**
+     * Starts periodically removing idle buckets.
+     * @param executor The executor to remove them on.
+     */
+    public void start(ScheduledExecutorService executor) {
+        if (expiryTask != null) {
+            throw new IllegalStateException("Already started");
+        }
+        expiryTask = executor.scheduleAtFixedRate(() -> removeFullBuckets(System.nanoTime()),
+                EXPIRY_INTERVAL_MS, EXPIRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (expiryTask != null) {
+            expiryTask.cancel(false);
+            expiryTask = null;
+        }
+    }
+
+    QuotaConfig config() {
+        return config;
+    }
+
+    boolean hasProduceQuota() {
+        return config.produceBytesPerSecond().isPresent();
+    }
+
+    boolean hasFetchQuota() {
+        return config.fetchBytesPerSecond().isPresent();
+    }
+
+    /**
+     * Charges produce request bytes to the quota for the given key.
+     * @return The number of nanoseconds the connection should be throttled for, or 0.
+     */
+    long chargeProduce(String key, int bytes, long nowNanos) {
+        return charge(produceBuckets, config.produceBytesPerSecond().orElseThrow(), produceThrottles, key, bytes, nowNanos);
+    }
+
+    /**
+     * Charges fetch response bytes to the quota for the given key.
+     * @return The number of nanoseconds the connection should be throttled for, or 0.
+     */
+    long chargeFetch(String key, int bytes, long nowNanos) {
+        return charge(fetchBuckets, config.fetchBytesPerSecond().orElseThrow(), fetchThrottles, key, bytes, nowNanos);
+    }
+
+    private long charge(ConcurrentHashMap<String, TokenBucket> buckets, long bytesPerSecond, Counter throttles,
+                        String key, int bytes, long nowNanos) {
+        // Connections without a key share a quota
+        TokenBucket bucket = buckets.computeIfAbsent(key == null ? "" : key, k -> new TokenBucket(bytesPerSecond, burstNanos, nowNanos));
+        long throttleNanos = Math.min(bucket.charge(bytes, nowNanos), TimeUnit.MILLISECONDS.toNanos(config.maxThrottleMs()));
+        if (throttleNanos > 0) {
+            throttles.increment();
+        }
+        return throttleNanos;
+    }
+
+    @VisibleForTesting
+    void removeFullBuckets(long nowNanos) {
+        // A charge racing with the removal of its bucket can be forgotten, which at worst lets through one extra burst
+        produceBuckets.values().removeIf(bucket -> bucket.isFull(nowNanos));
+        fetchBuckets.values().removeIf(bucket -> bucket.isFull(nowNanos));
+    }
+
+    @VisibleForTesting
+    int buckets() {
+        return produceBuckets.size() + fetchBuckets.size();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import io.kroxylicious.proxy.filter.NetFilter;
+
+/**
+ * Connection attempts to a list of addresses, of which the first to connect wins.
+ * The addresses are tried in order, each attempt being given a delay before the next one
+ * starts alongside it, or less if it fails sooner. The channels of the losing attempts are closed.
+ * Only accessed on the event loop.
+ */
+final class ConnectRace {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectRace.class);
+
+    /** The handler of a connection attempt, until it has won the race and gets the real pipeline. */
+    private static final ChannelHandler NO_HANDLER = new ChannelInitializer<>() {
+        @Override
+        protected void initChannel(Channel ch) {
+            // Removes itself
+        }
+    };
+
+    private final Bootstrap bootstrap;
+    private final EventLoop eventLoop;
+    private final List<InetSocketAddress> addresses;
+    private final long attemptDelayMillis;
+    private final NetFilter.ConnectListener listener;
+    private final Promise<Channel> promise;
+    private final Set<Channel> attempts = new HashSet<>();
+    private int next;
+    private ScheduledFuture<?> nextAttempt;
+    private Throwable lastFailure;
+
+    private ConnectRace(Bootstrap bootstrap,
+                        EventLoop eventLoop,
+                        List<InetSocketAddress> addresses,
+                        long attemptDelayMillis,
+                        NetFilter.ConnectListener listener) {
+        this.bootstrap = bootstrap.clone().handler(NO_HANDLER);
+        this.eventLoop = eventLoop;
+        this.addresses = addresses;
+        this.attemptDelayMillis = attemptDelayMillis;
+        this.listener = listener;
+        this.promise = eventLoop.newPromise();
+    }
+
+    /**
+     * Starts connecting. Must be called on the event loop.
+     * @param bootstrap The bootstrap for the connection, whose handler is only added to the winning channel
+     * once the returned future has completed.
+     * @param addresses The addresses to try, in order. Unresolved addresses are resolved with the bootstrap's resolver.
+     * @param listener Told the outcome of each attempt which isn't abandoned, or null.
+     * @return The connected channel. It has been active since before the future completed,
+     * but its handlers have not been told so.
+     */
+    static Future<Channel> start(Bootstrap bootstrap,
+                                 EventLoop eventLoop,
+                                 List<InetSocketAddress> addresses,
+                                 long attemptDelayMillis,
+                                 NetFilter.ConnectListener listener) {
+        if (addresses.isEmpty()) {
+            return eventLoop.newFailedFuture(new IllegalArgumentException("No addresses to connect to"));
+        }
+        var race = new ConnectRace(bootstrap, eventLoop, addresses, attemptDelayMillis, listener);
+        race.next();
+        return race.promise;
+    }
+
+    private void next() {
+        nextAttempt = null;
+        if (promise.isDone() || next == addresses.size()) {
+            return;
+        }
+        InetSocketAddress address = addresses.get(next++);
+        LOGGER.trace("Attempting connection to {}", address);
+        long startNanos = System.nanoTime();
+        ChannelFuture attempt = bootstrap.connect(address);
+        attempts.add(attempt.channel());
+        if (next < addresses.size()) {
+            nextAttempt = eventLoop.schedule(this::next, attemptDelayMillis, TimeUnit.MILLISECONDS);
+        }
+        attempt.addListener((ChannelFuture future) -> onAttemptComplete(address, future, System.nanoTime() - startNanos));
+    }
+
+    private void onAttemptComplete(InetSocketAddress address, ChannelFuture attempt, long durationNanos) {
+        Channel channel = attempt.channel();
+        attempts.remove(channel);
+        if (promise.isDone()) {
+            // Lost the race, or was abandoned by the winner
+            channel.close();
+        }
+        else if (attempt.isSuccess()) {
+            LOGGER.trace("Connected to {}", address);
+            if (listener != null) {
+                listener.connected(address, durationNanos);
+            }
+            promise.setSuccess(channel);
+            if (nextAttempt != null) {
+                nextAttempt.cancel(false);
+            }
+            attempts.forEach(Channel::close);
+            attempts.clear();
+        }
+        else {
+            LOGGER.trace("Connection attempt to {} failed", address, attempt.cause());
+            if (listener != null) {
+                listener.failed(address, durationNanos, attempt.cause());
+            }
+            lastFailure = attempt.cause();
+            // Don't wait out the delay for an attempt that has already failed
+            if (nextAttempt != null && nextAttempt.cancel(false)) {
+                next();
+            }
+            if (attempts.isEmpty() && next == addresses.size()) {
+                promise.tryFailure(lastFailure);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+
+import io.kroxylicious.proxy.internal.codec.KafkaMessageDecoder;
+
+/**
+ * The memory held on behalf of one proxied connection, i.e. a downstream channel and its upstream channel.
+ * The channels' event loop publishes the figures that make up the account, and the {@link MemoryAccountant}
+ * reads them from its own thread.
+ */
+class ConnectionMemoryAccount {
+
+    private final Channel downstream;
+    private final KafkaMessageDecoder downstreamDecoder;
+    private final Runnable pauseReads;
+    private final Runnable resumeReads;
+    private volatile Channel upstream;
+    private volatile KafkaMessageDecoder upstreamDecoder;
+    private volatile int heldFrameBytes;
+
+    // Only accessed by the accountant
+    private boolean paused;
+
+    /**
+     * @param downstream The downstream channel
+     * @param downstreamDecoder The downstream channel's decoder, if any
+     * @param pauseReads Stops reading from both channels. Run on the downstream channel's event loop.
+     * @param resumeReads Resumes reading from both channels. Run on the downstream channel's event loop.
+     */
+    ConnectionMemoryAccount(Channel downstream, KafkaMessageDecoder downstreamDecoder, Runnable pauseReads, Runnable resumeReads) {
+        this.downstream = downstream;
+        this.downstreamDecoder = downstreamDecoder;
+        this.pauseReads = pauseReads;
+        this.resumeReads = resumeReads;
+    }
+
+    void upstream(Channel upstream, KafkaMessageDecoder upstreamDecoder) {
+        this.upstream = upstream;
+        this.upstreamDecoder = upstreamDecoder;
+    }
+
+    /**
+     * Records the size of frames that have been decoded but are held by the proxy
+     * rather than queued for writing (for example while the upstream connection is being made).
+     */
+    void heldFrameBytes(int bytes) {
+        this.heldFrameBytes = bytes;
+    }
+
+    /**
+     * @return The bytes currently held for this connection: partially received frames in both decoders,
+     * frames held by the proxy, and encoded frames queued for writing on both channels.
+     */
+    long usedBytes() {
+        return bufferedBytes(downstreamDecoder)
+                + bufferedBytes(upstreamDecoder)
+                + heldFrameBytes
+                + pendingWriteBytes(downstream)
+                + pendingWriteBytes(upstream);
+    }
+
+    private static long bufferedBytes(KafkaMessageDecoder decoder) {
+        return decoder == null ? 0 : decoder.bufferedBytes();
+    }
+
+    private static long pendingWriteBytes(Channel channel) {
+        if (channel == null) {
+            return 0;
+        }
+        ChannelOutboundBuffer outboundBuffer = channel.unsafe().outboundBuffer();
+        // null once the channel is closed
+        return outboundBuffer == null ? 0 : outboundBuffer.totalPendingWriteBytes();
+    }
+
+    boolean isPaused() {
+        return paused;
+    }
+
+    void pause() {
+        if (!paused) {
+            paused = true;
+            downstream.eventLoop().execute(pauseReads);
+        }
+    }
+
+    void resume() {
+        if (paused) {
+            paused = false;
+            downstream.eventLoop().execute(resumeReads);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionMemoryAccount{downstream=" + downstream + ", upstream=" + upstream + "}";
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.kafka.common.message.AddOffsetsToTxnRequestData;
+import org.apache.kafka.common.message.AddOffsetsToTxnResponseData;
+import org.apache.kafka.common.message.AddPartitionsToTxnRequestData;
+import org.apache.kafka.common.message.AddPartitionsToTxnResponseData;
+import org.apache.kafka.common.message.EndTxnRequestData;
+import org.apache.kafka.common.message.EndTxnResponseData;
+import org.apache.kafka.common.message.FindCoordinatorRequestData;
+import org.apache.kafka.common.message.HeartbeatRequestData;
+import org.apache.kafka.common.message.HeartbeatResponseData;
+import org.apache.kafka.common.message.InitProducerIdRequestData;
+import org.apache.kafka.common.message.InitProducerIdResponseData;
+import org.apache.kafka.common.message.JoinGroupRequestData;
+import org.apache.kafka.common.message.JoinGroupResponseData;
+import org.apache.kafka.common.message.LeaveGroupRequestData;
+import org.apache.kafka.common.message.LeaveGroupResponseData;
+import org.apache.kafka.common.message.OffsetCommitRequestData;
+import org.apache.kafka.common.message.OffsetCommitResponseData;
+import org.apache.kafka.common.message.OffsetFetchRequestData;
+import org.apache.kafka.common.message.OffsetFetchResponseData;
+import org.apache.kafka.common.message.SyncGroupRequestData;
+import org.apache.kafka.common.message.SyncGroupResponseData;
+import org.apache.kafka.common.message.TxnOffsetCommitRequestData;
+import org.apache.kafka.common.message.TxnOffsetCommitResponseData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.FindCoordinatorRequest.CoordinatorType;
+
+/**
+ * The key of a coordinator lookup: a consumer group id or a transactional id.
+ * Requests to a coordinator identify the key, and a response to one which says the broker is no longer
+ * the coordinator means that cached FindCoordinator responses for that key are out of date.
+ * @param keyType The {@link CoordinatorType#id()}.
+ * @param key The group or transactional id.
+ */
+record CoordinatorKey(byte keyType, String key) {
+
+    /**
+     * The APIs which are sent to a coordinator, and so are decoded when the coordinator cache is enabled.
+     */
+    static final Set<ApiKeys> COORDINATOR_APIS = EnumSet.of(
+            ApiKeys.JOIN_GROUP, ApiKeys.SYNC_GROUP, ApiKeys.HEARTBEAT, ApiKeys.LEAVE_GROUP,
+            ApiKeys.OFFSET_COMMIT, ApiKeys.OFFSET_FETCH, ApiKeys.TXN_OFFSET_COMMIT,
+            ApiKeys.INIT_PRODUCER_ID, ApiKeys.ADD_PARTITIONS_TO_TXN, ApiKeys.ADD_OFFSETS_TO_TXN, ApiKeys.END_TXN);
+
+    private static CoordinatorKey group(String groupId) {
+        return new CoordinatorKey(CoordinatorType.GROUP.id(), groupId);
+    }
+
+    private static CoordinatorKey transaction(String transactionalId) {
+        return new CoordinatorKey(CoordinatorType.TRANSACTION.id(), transactionalId);
+    }
+
+    /**
+     * @return The keys of the coordinators the given request is for, which is empty if it's not a request to a coordinator.
+     */
+    static List<CoordinatorKey> of(ApiMessage request) {
+        switch (ApiKeys.forId(request.apiKey())) {
+            case JOIN_GROUP:
+                return List.of(group(((JoinGroupRequestData) request).groupId()));
+            case SYNC_GROUP:
+                return List.of(group(((SyncGroupRequestData) request).groupId()));
+            case HEARTBEAT:
+                return List.of(group(((HeartbeatRequestData) request).groupId()));
+            case LEAVE_GROUP:
+                return List.of(group(((LeaveGroupRequestData) request).groupId()));
+            case OFFSET_COMMIT:
+                return List.of(group(((OffsetCommitRequestData) request).groupId()));
+            case TXN_OFFSET_COMMIT:
+                return List.of(group(((TxnOffsetCommitRequestData) request).groupId()));
+            case OFFSET_FETCH:
+                var offsetFetch = (OffsetFetchRequestData) request;
+                if (offsetFetch.groups().isEmpty()) {
+                    return List.of(group(offsetFetch.groupId()));
+                }
+                var keys = new ArrayList<CoordinatorKey>(offsetFetch.groups().size());
+                for (var group : offsetFetch.groups()) {
+                    keys.add(group(group.groupId()));
+                }
+                return keys;
+            case INIT_PRODUCER_ID:
+                // Idempotent producers without a transactional id don't use a coordinator
+                String transactionalId = ((InitProducerIdRequestData) request).transactionalId();
+                return transactionalId == null ? List.of() : List.of(transaction(transactionalId));
+            case ADD_PARTITIONS_TO_TXN:
+                return List.of(transaction(((AddPartitionsToTxnRequestData) request).transactionalId()));
+            case ADD_OFFSETS_TO_TXN:
+                return List.of(transaction(((AddOffsetsToTxnRequestData) request).transactionalId()));
+            case END_TXN:
+                return List.of(transaction(((EndTxnRequestData) request).transactionalId()));
+            default:
+                return List.of();
+        }
+    }
+
+    /**
+     * @return true if the given response to a request to a coordinator says the broker is not, or not yet, the coordinator.
+     */
+    static boolean isNotCoordinator(ApiMessage response) {
+        switch (ApiKeys.forId(response.apiKey())) {
+            case JOIN_GROUP:
+                return isNotCoordinator(((JoinGroupResponseData) response).errorCode());
+            case SYNC_GROUP:
+                return isNotCoordinator(((SyncGroupResponseData) response).errorCode());
+            case HEARTBEAT:
+                return isNotCoordinator(((HeartbeatResponseData) response).errorCode());
+            case LEAVE_GROUP:
+                return isNotCoordinator(((LeaveGroupResponseData) response).errorCode());
+            case OFFSET_COMMIT:
+                for (var topic : ((OffsetCommitResponseData) response).topics()) {
+                    for (var partition : topic.partitions()) {
+                        if (isNotCoordinator(partition.errorCode())) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            case TXN_OFFSET_COMMIT:
+                for (var topic : ((TxnOffsetCommitResponseData) response).topics()) {
+                    for (var partition : topic.partitions()) {
+                        if (isNotCoordinator(partition.errorCode())) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            case OFFSET_FETCH:
+                var offsetFetch = (OffsetFetchResponseData) response;
+                if (isNotCoordinator(offsetFetch.errorCode())) {
+                    return true;
+                }
+                for (var group : offsetFetch.groups()) {
+                    if (isNotCoordinator(group.errorCode())) {
+                        return true;
+                    }
+                }
+                return false;
+            case INIT_PRODUCER_ID:
+                return isNotCoordinator(((InitProducerIdResponseData) response).errorCode());
+            case ADD_PARTITIONS_TO_TXN:
+                for (var topic : ((AddPartitionsToTxnResponseData) response).results()) {
+                    for (var partition : topic.results()) {
+                        if (isNotCoordinator(partition.errorCode())) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            case ADD_OFFSETS_TO_TXN:
+                return isNotCoordinator(((AddOffsetsToTxnResponseData) response).errorCode());
+            case END_TXN:
+                return isNotCoordinator(((EndTxnResponseData) response).errorCode());
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isNotCoordinator(short errorCode) {
+        return errorCode == Errors.NOT_COORDINATOR.code() || errorCode == Errors.COORDINATOR_NOT_AVAILABLE.code();
+    }
+
+    /**
+     * @return true if the given FindCoordinator request looks up this key.
+     */
+    boolean isLookedUpBy(FindCoordinatorRequestData request) {
+        return request.keyType() == keyType
+                && (key.equals(request.key()) || request.coordinatorKeys().contains(key));
+    }
+}
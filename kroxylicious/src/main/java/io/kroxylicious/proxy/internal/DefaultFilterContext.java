@@ -6,7 +6,9 @@
 package io.kroxylicious.proxy.internal;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.kafka.common.errors.TimeoutException;
@@ -21,11 +23,15 @@ import org.slf4j.LoggerFactory;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.opentelemetry.api.trace.Span;
 
 import io.kroxylicious.proxy.filter.KrpcFilter;
 import io.kroxylicious.proxy.filter.KrpcFilterContext;
+import io.kroxylicious.proxy.filter.TopicMetadataCache;
 import io.kroxylicious.proxy.frame.DecodedFrame;
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
 import io.kroxylicious.proxy.future.InternalCompletionStage;
+import io.kroxylicious.proxy.internal.jfr.FilterSendRequestEvent;
 import io.kroxylicious.proxy.internal.util.ByteBufOutputStream;
 
 /**
@@ -41,19 +47,36 @@ class DefaultFilterContext implements KrpcFilterContext {
     private final KrpcFilter filter;
     private final long timeoutMs;
     private final String sniHostname;
+    private final SharedTopicMetadataCache topicMetadata;
+    private final RequestTracing.Trace trace;
+    /** true while the filter has asked to forward the frame later, and hasn't yet */
+    private boolean awaitingForward;
+    private Runnable forwardListener;
 
     DefaultFilterContext(KrpcFilter filter,
                          ChannelHandlerContext channelContext,
                          DecodedFrame<?, ?> decodedFrame,
                          ChannelPromise promise,
                          long timeoutMs,
-                         String sniHostname) {
+                         String sniHostname,
+                         SharedTopicMetadataCache topicMetadata,
+                         RequestTracing.Trace trace) {
         this.filter = filter;
         this.channelContext = channelContext;
         this.decodedFrame = decodedFrame;
         this.promise = promise;
         this.timeoutMs = timeoutMs;
         this.sniHostname = sniHostname;
+        this.topicMetadata = topicMetadata;
+        this.trace = trace;
+    }
+
+    /**
+     * @return The trace of the client's request this context is handling (or the request whose response it's handling),
+     * if it was sampled.
+     */
+    RequestTracing.Trace trace() {
+        return trace;
     }
 
     /**
@@ -83,6 +106,11 @@ class DefaultFilterContext implements KrpcFilterContext {
         return sniHostname;
     }
 
+    @Override
+    public TopicMetadataCache topicMetadata() {
+        return topicMetadata.forContext(this, channelContext.executor());
+    }
+
     /**
      * Forward a request to the next filter in the chain
      * (or to the upstream broker).
@@ -90,6 +118,10 @@ class DefaultFilterContext implements KrpcFilterContext {
      */
     @Override
     public void forwardRequest(ApiMessage message) {
+        if (!channelContext.executor().inEventLoop()) {
+            channelContext.executor().execute(() -> forwardRequest(message));
+            return;
+        }
         if (decodedFrame.body() != message) {
             throw new IllegalStateException();
         }
@@ -122,6 +154,15 @@ class DefaultFilterContext implements KrpcFilterContext {
                 || ((ProduceRequestData) message).acks() != 0;
         var filterPromise = new CompletableFuture<T>();
         var filterStage = new InternalCompletionStage<>(filterPromise);
+        if (trace != null) {
+            Span span = trace.startSendRequest(filter, apiKey);
+            filterPromise.whenComplete((response, failure) -> RequestTracing.end(span, failure));
+        }
+        FilterSendRequestEvent event = new FilterSendRequestEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            filterPromise.whenComplete((response, failure) -> event.commit(channelContext.channel(), filter, key, failure));
+        }
         var frame = new InternalRequestFrame<>(
                 apiVersion, -1, hasResponse,
                 filter, filterPromise, header, message);
@@ -159,6 +200,35 @@ class DefaultFilterContext implements KrpcFilterContext {
         return filterStage;
     }
 
+    @Override
+    public <T extends ApiMessage> T sendRequestAndWait(short apiVersion, ApiMessage request) {
+        if (channelContext.executor().inEventLoop()) {
+            throw new IllegalStateException("sendRequestAndWait would block the event loop, use sendRequest instead");
+        }
+        var response = new CompletableFuture<T>();
+        this.<T> sendRequest(apiVersion, request).whenComplete((result, error) -> {
+            if (error != null) {
+                response.completeExceptionally(error);
+            }
+            else {
+                response.complete(result);
+            }
+        });
+        try {
+            return response.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
     /**
      * Forward a request to the next filter in the chain
      * (or to the downstream client).
@@ -166,6 +236,10 @@ class DefaultFilterContext implements KrpcFilterContext {
      */
     @Override
     public void forwardResponse(ApiMessage response) {
+        if (!channelContext.executor().inEventLoop()) {
+            channelContext.executor().execute(() -> forwardResponse(response));
+            return;
+        }
         // check it's a response
         String name = response.getClass().getName();
         if (!name.endsWith("ResponseData")) {
@@ -179,4 +253,50 @@ class DefaultFilterContext implements KrpcFilterContext {
         channelContext.fireChannelRead(decodedFrame);
     }
 
+    @Override
+    public void forwardWhenComplete(CompletionStage<?> stage, ApiMessage message) {
+        awaitingForward = true;
+        stage.whenComplete((ignored, error) -> {
+            if (channelContext.executor().inEventLoop()) {
+                completeForward(message, error);
+            }
+            else {
+                channelContext.executor().execute(() -> completeForward(message, error));
+            }
+        });
+    }
+
+    private void completeForward(ApiMessage message, Throwable error) {
+        if (error != null) {
+            LOGGER.warn("{}: Filter {} failed to complete {}, closing connection", channelDescriptor(), filter.getClass().getSimpleName(), decodedFrame, error);
+            decodedFrame.release();
+            // The connection is closing, so the frames held back behind this one are released rather than forwarded
+            channelContext.fireExceptionCaught(error);
+            return;
+        }
+        if (decodedFrame instanceof DecodedRequestFrame) {
+            forwardRequest(message);
+        }
+        else {
+            forwardResponse(message);
+        }
+        awaitingForward = false;
+        if (forwardListener != null) {
+            forwardListener.run();
+        }
+    }
+
+    /**
+     * @return true if the filter has asked to forward the frame once some work has completed, and it hasn't yet completed.
+     */
+    boolean isAwaitingForward() {
+        return awaitingForward;
+    }
+
+    /**
+     * @param listener Called, on the event loop, when a frame which was {@linkplain #isAwaitingForward() awaiting forwarding} has been forwarded.
+     */
+    void onForwarded(Runnable listener) {
+        this.forwardListener = listener;
+    }
 }
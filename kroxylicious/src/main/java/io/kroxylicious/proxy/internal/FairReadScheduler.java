@@ -0,0 +1,108 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.SingleThreadEventLoop;
+
+/**
+ * <p>Deficit round-robin scheduling of reads across the client connections of one event loop.</p>
+ *
+ * <p>Netty lets a channel read (and so decode and forward) as much as it can each time it is selected,
+ * so a client pipelining many requests can take most of its event loop's time from the other clients on it.
+ * Each connection may read {@code quantum} requests per turn. A connection that read more than that gives way:
+ * it stops reading and accumulates a deficit of the excess. At the end of each event loop iteration every waiting
+ * connection is credited another quantum, in the order they started waiting, and resumes reading once
+ * its deficit is paid off.</p>
+ *
+ * <p>All methods must be called on the scheduler's event loop.</p>
+ */
+class FairReadScheduler {
+
+    private static class Waiter {
+        private final Runnable resume;
+        private long deficit;
+
+        Waiter(Runnable resume, long deficit) {
+            this.resume = resume;
+            this.deficit = deficit;
+        }
+    }
+
+    private final EventLoop eventLoop;
+    private final int quantum;
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private boolean turnScheduled;
+
+    FairReadScheduler(EventLoop eventLoop, int quantum) {
+        this.eventLoop = eventLoop;
+        this.quantum = quantum;
+    }
+
+    int quantum() {
+        return quantum;
+    }
+
+    int waiting() {
+        return waiters.size();
+    }
+
+    /**
+     * Called when a connection has read more than its quantum of requests and has stopped reading.
+     * @param requestsRead The number of requests read since the connection was last scheduled.
+     * @param resume Run when the connection may read again.
+     */
+    void giveWay(int requestsRead, Runnable resume) {
+        waiters.add(new Waiter(resume, (long) requestsRead - quantum));
+        scheduleTurn();
+    }
+
+    private void scheduleTurn() {
+        if (turnScheduled) {
+            return;
+        }
+        turnScheduled = true;
+        try {
+            if (eventLoop instanceof SingleThreadEventLoop) {
+                ((SingleThreadEventLoop) eventLoop).executeAfterEventLoopIteration(this::turn);
+            }
+            else {
+                eventLoop.execute(this::turn);
+            }
+        }
+        catch (RejectedExecutionException e) {
+            // The event loop is shutting down
+            turnScheduled = false;
+        }
+    }
+
+    private void turn() {
+        turnScheduled = false;
+        for (int i = waiters.size(); i > 0; i--) {
+            Waiter waiter = waiters.poll();
+            waiter.deficit -= quantum;
+            if (waiter.deficit <= 0) {
+                waiter.resume.run();
+            }
+            else {
+                waiters.add(waiter);
+            }
+        }
+        if (!waiters.isEmpty()) {
+            // Schedule the next turn from an ordinary task, so that it happens at the end of the
+            // next event loop iteration, rather than being run again at the end of this one.
+            try {
+                eventLoop.execute(this::scheduleTurn);
+            }
+            catch (RejectedExecutionException e) {
+                // The event loop is shutting down
+            }
+        }
+    }
+}
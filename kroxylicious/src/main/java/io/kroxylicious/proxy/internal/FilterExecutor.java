@@ -0,0 +1,163 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+
+import io.kroxylicious.proxy.config.FilterExecutorConfig;
+import io.kroxylicious.proxy.filter.BlockingKrpcFilter;
+import io.kroxylicious.proxy.filter.KrpcFilter;
+import io.kroxylicious.proxy.filter.Offload;
+
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_FILTER_BLOCKING_LATENCY;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_FILTER_BLOCKING_QUEUE_DEPTH;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_FILTER_OFFLOAD_LATENCY;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_FILTER_OFFLOAD_QUEUE_DEPTH;
+
+/**
+ * <p>The worker pools which run the methods of filters annotated with {@link Offload},
+ * and of {@link BlockingKrpcFilter}s, shared by all connections.</p>
+ *
+ * <p>Offloaded filters run on a fork-join pool with a thread per processor.
+ * Blocking filters each run on a thread of their own: a virtual thread, when the proxy runs on Java 21 or later,
+ * or else a thread from a pool as large as the configured concurrency.
+ * Either way, no more than the configured number of blocking filter methods run at once.</p>
+ *
+ * <p>Each pool reports how many filter methods are waiting for a thread, and the latency it adds to each:
+ * the time waiting for a thread plus the time waiting to get back onto the event loop.</p>
+ */
+public class FilterExecutor {
+
+    private final Pool offload;
+    private final Pool blocking;
+
+    public FilterExecutor(FilterExecutorConfig config) {
+        this(new ForkJoinPool(config.threads(),
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("kroxylicious-filter-" + thread.getPoolIndex());
+                    return thread;
+                },
+                null, true),
+                blockingPool(config.blockingConcurrency()),
+                new Semaphore(config.blockingConcurrency()));
+    }
+
+    FilterExecutor(Executor pool) {
+        this(pool, pool, null);
+    }
+
+    FilterExecutor(Executor offloadPool, Executor blockingPool, Semaphore blockingPermits) {
+        this.offload = new Pool(offloadPool, null, KROXYLICIOUS_FILTER_OFFLOAD_QUEUE_DEPTH, KROXYLICIOUS_FILTER_OFFLOAD_LATENCY);
+        this.blocking = new Pool(blockingPool, blockingPermits, KROXYLICIOUS_FILTER_BLOCKING_QUEUE_DEPTH, KROXYLICIOUS_FILTER_BLOCKING_LATENCY);
+    }
+
+    /**
+     * @return A thread per task executor, using virtual threads if the JVM has them.
+     */
+    private static ExecutorService blockingPool(int concurrency) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException e) {
+            return Executors.newFixedThreadPool(concurrency, new DefaultThreadFactory("kroxylicious-blocking", true));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * @return The pool on which to invoke the methods of the given filter, or null if they should be invoked on the event loop.
+     */
+    Pool poolFor(KrpcFilter filter) {
+        if (filter instanceof BlockingKrpcFilter) {
+            return blocking;
+        }
+        return filter.getClass().isAnnotationPresent(Offload.class) ? offload : null;
+    }
+
+    /**
+     * Stops the pools' threads once the methods already submitted have run.
+     */
+    public void shutdown() {
+        offload.shutdown();
+        blocking.shutdown();
+    }
+
+    int queued() {
+        return offload.queued.get() + blocking.queued.get();
+    }
+
+    static final class Pool {
+        private final Executor executor;
+        private final Semaphore permits;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final Timer latency;
+
+        private Pool(Executor executor, Semaphore permits, String queueDepthMetric, String latencyMetric) {
+            this.executor = executor;
+            this.permits = permits;
+            this.latency = Metrics.timer(latencyMetric);
+            Metrics.gauge(queueDepthMetric, queued);
+        }
+
+        /**
+         * Runs the given filter method on the pool, and then the continuation on the given event loop.
+         * @param eventLoop The event loop of the filter's channel.
+         * @param method The filter method.
+         * @param continuation Given the exception the method threw, or null if it returned normally.
+         */
+        void execute(EventExecutor eventLoop, Runnable method, Consumer<Throwable> continuation) {
+            long submittedNanos = System.nanoTime();
+            queued.incrementAndGet();
+            executor.execute(() -> {
+                if (permits != null) {
+                    permits.acquireUninterruptibly();
+                }
+                long startedNanos = System.nanoTime();
+                queued.decrementAndGet();
+                Throwable failure = null;
+                try {
+                    method.run();
+                }
+                catch (Throwable t) {
+                    failure = t;
+                }
+                finally {
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+                long finishedNanos = System.nanoTime();
+                Throwable result = failure;
+                eventLoop.execute(() -> {
+                    latency.record((startedNanos - submittedNanos) + (System.nanoTime() - finishedNanos), TimeUnit.NANOSECONDS);
+                    continuation.accept(result);
+                });
+            });
+        }
+
+        private void shutdown() {
+            if (executor instanceof ExecutorService) {
+                ((ExecutorService) executor).shutdown();
+            }
+        }
+    }
+}
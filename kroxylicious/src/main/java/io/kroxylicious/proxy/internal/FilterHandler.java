@@ -5,6 +5,7 @@
  */
 package io.kroxylicious.proxy.internal;
 
+import java.util.ArrayDeque;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
@@ -16,17 +17,31 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
 
+import io.kroxylicious.proxy.filter.BlockingKrpcFilter;
 import io.kroxylicious.proxy.filter.KrpcFilter;
+import io.kroxylicious.proxy.filter.Offload;
 import io.kroxylicious.proxy.frame.DecodedRequestFrame;
 import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueFrame;
 import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
 import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.internal.jfr.FilterDispatchEvent;
 import io.kroxylicious.proxy.internal.util.Assertions;
 
 /**
- * A {@code ChannelInboundHandler} (for handling requests from downstream)
- * that applies a single {@link KrpcFilter}.
+ * <p>A {@code ChannelInboundHandler} (for handling requests from downstream)
+ * that applies a single {@link KrpcFilter}.</p>
+ *
+ * <p>While the filter has a request (or response) it will {@linkplain io.kroxylicious.proxy.filter.KrpcFilterContext#forwardWhenComplete forward later},
+ * the requests (or responses) following it are held back, so they don't overtake it.
+ * Requests sent, and responses received, by filters themselves are never held back, since the client doesn't see them.</p>
+ *
+ * <p>The methods of filters annotated with {@link Offload}, and of {@link BlockingKrpcFilter}s, are invoked on
+ * the {@link FilterExecutor}, one at a time.
+ * The requests (or responses) following one being handled there are held back in the same way,
+ * until the filter has forwarded it, or dropped it.</p>
  */
 public class FilterHandler
         extends ChannelDuplexHandler {
@@ -35,11 +50,40 @@ public class FilterHandler
     private final KrpcFilter filter;
     private final long timeoutMs;
     private final String sniHostname;
+    private final SharedTopicMetadataCache topicMetadata;
+    private final FilterExecutor.Pool pool;
+    private final RequestTracingHandler tracing;
+
+    private record HeldWrite(Object msg, ChannelPromise promise) {
+    }
 
-    public FilterHandler(KrpcFilter filter, long timeoutMs, String sniHostname) {
+    private boolean requestPending;
+    private final ArrayDeque<HeldWrite> heldRequests = new ArrayDeque<>();
+    private boolean responsePending;
+    private final ArrayDeque<Object> heldResponses = new ArrayDeque<>();
+    /** The filter methods waiting for the previous one to have run on the filter executor */
+    private final ArrayDeque<Runnable> offloadQueue = new ArrayDeque<>();
+    private boolean offloading;
+
+    /**
+     * @param filterExecutor Where to invoke the methods of filters annotated with {@link Offload},
+     * and of {@link BlockingKrpcFilter}s, or null to invoke them on the event loop.
+     */
+    public FilterHandler(KrpcFilter filter, long timeoutMs, String sniHostname, SharedTopicMetadataCache topicMetadata, FilterExecutor filterExecutor) {
+        this(filter, timeoutMs, sniHostname, topicMetadata, filterExecutor, null);
+    }
+
+    /**
+     * @param tracing The client connection's tracing of sampled requests, or null if requests aren't traced.
+     */
+    FilterHandler(KrpcFilter filter, long timeoutMs, String sniHostname, SharedTopicMetadataCache topicMetadata, FilterExecutor filterExecutor,
+                  RequestTracingHandler tracing) {
         this.filter = Objects.requireNonNull(filter);
         this.timeoutMs = Assertions.requireStrictlyPositive(timeoutMs, "timeout");
         this.sniHostname = sniHostname;
+        this.topicMetadata = Objects.requireNonNull(topicMetadata);
+        this.pool = filterExecutor == null ? null : filterExecutor.poolFor(filter);
+        this.tracing = tracing;
     }
 
     String filterDescriptor() {
@@ -48,16 +92,31 @@ public class FilterHandler
 
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (requestPending && !(msg instanceof InternalRequestFrame)) {
+            heldRequests.add(new HeldWrite(msg, promise));
+            return;
+        }
         if (msg instanceof DecodedRequestFrame) {
             DecodedRequestFrame<?> decodedFrame = (DecodedRequestFrame<?>) msg;
             // Guard against invoking the filter unexpectedly
             if (filter.shouldDeserializeRequest(decodedFrame.apiKey(), decodedFrame.apiVersion())) {
-                var filterContext = new DefaultFilterContext(filter, ctx, decodedFrame, promise, timeoutMs, sniHostname);
+                var filterContext = new DefaultFilterContext(filter, ctx, decodedFrame, promise, timeoutMs, sniHostname, topicMetadata,
+                        trace(decodedFrame.correlationId(), msg instanceof InternalRequestFrame));
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("{}: Dispatching downstream {} request to filter{}: {}",
                             ctx.channel(), decodedFrame.apiKey(), filterDescriptor(), msg);
                 }
-                filter.onRequest(decodedFrame.apiKey(), decodedFrame.header(), decodedFrame.body(), filterContext);
+                Runnable method = () -> onRequest(ctx, decodedFrame, filterContext);
+                if (msg instanceof InternalRequestFrame) {
+                    // Filters' own requests are never held back, nor hold back others
+                    invoke(ctx, method, () -> {
+                    });
+                }
+                else {
+                    // Hold back later requests while this one is on the filter executor
+                    requestPending |= pool != null;
+                    invoke(ctx, method, () -> requestHandled(ctx, filterContext));
+                }
             }
             else {
                 ctx.write(msg, promise);
@@ -74,8 +133,71 @@ public class FilterHandler
         }
     }
 
+    /**
+     * @return The trace of the client's request with the given correlation id, if it was sampled.
+     */
+    private RequestTracing.Trace trace(int correlationId, boolean internal) {
+        return tracing == null || internal ? null : tracing.trace(correlationId);
+    }
+
+    private void onRequest(ChannelHandlerContext ctx, DecodedRequestFrame<?> decodedFrame, DefaultFilterContext filterContext) {
+        if (filterContext.trace() != null) {
+            filterContext.trace().filterEvent("filter.request", filter);
+        }
+        FilterDispatchEvent event = new FilterDispatchEvent();
+        event.begin();
+        try {
+            filter.onRequest(decodedFrame.apiKey(), decodedFrame.header(), decodedFrame.body(), filterContext);
+        }
+        finally {
+            event.commit(ctx.channel(), filter, true, decodedFrame.apiKey());
+        }
+    }
+
+    private void onResponse(ChannelHandlerContext ctx, DecodedResponseFrame<?> decodedFrame, DefaultFilterContext filterContext) {
+        if (filterContext.trace() != null) {
+            filterContext.trace().filterEvent("filter.response", filter);
+        }
+        FilterDispatchEvent event = new FilterDispatchEvent();
+        event.begin();
+        try {
+            filter.onResponse(decodedFrame.apiKey(), decodedFrame.header(), decodedFrame.body(), filterContext);
+        }
+        finally {
+            event.commit(ctx.channel(), filter, false, decodedFrame.apiKey());
+        }
+    }
+
+    private void requestHandled(ChannelHandlerContext ctx, DefaultFilterContext filterContext) {
+        if (filterContext.isAwaitingForward()) {
+            requestPending = true;
+            filterContext.onForwarded(() -> releaseHeldRequests(ctx));
+        }
+        else if (requestPending) {
+            releaseHeldRequests(ctx);
+        }
+    }
+
+    private void releaseHeldRequests(ChannelHandlerContext ctx) {
+        requestPending = false;
+        while (!requestPending && !heldRequests.isEmpty()) {
+            HeldWrite held = heldRequests.poll();
+            try {
+                write(ctx, held.msg(), held.promise());
+            }
+            catch (Exception e) {
+                ctx.fireExceptionCaught(e);
+            }
+        }
+        ctx.flush();
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (responsePending && !(msg instanceof InternalResponseFrame)) {
+            heldResponses.add(msg);
+            return;
+        }
         if (msg instanceof DecodedResponseFrame) {
             DecodedResponseFrame<?> decodedFrame = (DecodedResponseFrame<?>) msg;
             if (decodedFrame instanceof InternalResponseFrame) {
@@ -97,12 +219,15 @@ public class FilterHandler
                 }
             }
             else if (filter.shouldDeserializeResponse(decodedFrame.apiKey(), decodedFrame.apiVersion())) {
-                var filterContext = new DefaultFilterContext(filter, ctx, decodedFrame, null, timeoutMs, sniHostname);
+                var filterContext = new DefaultFilterContext(filter, ctx, decodedFrame, null, timeoutMs, sniHostname, topicMetadata,
+                        trace(decodedFrame.correlationId(), false));
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("{}: Dispatching upstream {} response to filter {}: {}",
                             ctx.channel(), decodedFrame.apiKey(), filterDescriptor(), msg);
                 }
-                filter.onResponse(decodedFrame.apiKey(), decodedFrame.header(), decodedFrame.body(), filterContext);
+                responsePending |= pool != null;
+                invoke(ctx, () -> onResponse(ctx, decodedFrame, filterContext),
+                        () -> responseHandled(ctx, filterContext));
             }
             else {
                 ctx.fireChannelRead(msg);
@@ -116,4 +241,79 @@ public class FilterHandler
         }
     }
 
+    private void responseHandled(ChannelHandlerContext ctx, DefaultFilterContext filterContext) {
+        if (filterContext.isAwaitingForward()) {
+            responsePending = true;
+            filterContext.onForwarded(() -> releaseHeldResponses(ctx));
+        }
+        else if (responsePending) {
+            releaseHeldResponses(ctx);
+        }
+    }
+
+    private void releaseHeldResponses(ChannelHandlerContext ctx) {
+        responsePending = false;
+        while (!responsePending && !heldResponses.isEmpty()) {
+            try {
+                channelRead(ctx, heldResponses.poll());
+            }
+            catch (Exception e) {
+                ctx.fireExceptionCaught(e);
+            }
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    /**
+     * Invokes a method of the filter, and then, on the event loop, the given continuation.
+     * Offloaded methods are queued until the filter's previous method has run.
+     */
+    private void invoke(ChannelHandlerContext ctx, Runnable method, Runnable handled) {
+        if (pool == null) {
+            method.run();
+            handled.run();
+            return;
+        }
+        offloadQueue.add(() -> pool.execute(ctx.executor(), method, failure -> {
+            offloading = false;
+            if (failure != null) {
+                ctx.fireExceptionCaught(failure);
+            }
+            else {
+                handled.run();
+            }
+            offloadNext();
+        }));
+        offloadNext();
+    }
+
+    private void offloadNext() {
+        if (!offloading && !offloadQueue.isEmpty()) {
+            offloading = true;
+            offloadQueue.poll().run();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        heldRequests.forEach(held -> {
+            release(held.msg());
+            if (!held.promise().isVoid()) {
+                held.promise().tryFailure(new IllegalStateException("Connection closed"));
+            }
+        });
+        heldRequests.clear();
+        heldResponses.forEach(FilterHandler::release);
+        heldResponses.clear();
+        super.channelInactive(ctx);
+    }
+
+    private static void release(Object msg) {
+        if (msg instanceof OpaqueFrame) {
+            ((OpaqueFrame) msg).release();
+        }
+        else {
+            ReferenceCountUtil.release(msg);
+        }
+    }
 }
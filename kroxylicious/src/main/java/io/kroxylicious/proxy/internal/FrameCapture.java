@@ -0,0 +1,307 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+
+import io.netty.buffer.ByteBuf;
+
+import io.kroxylicious.proxy.config.FrameCaptureConfig;
+
+/**
+ * <p>A fixed-size ring of captured frames, held off-heap so that it adds nothing to the heap the GC has to trace,
+ * and written by the event loops without taking a lock.</p>
+ *
+ * <p>The ring has {@link FrameCaptureConfig#slots()} slots of the same size, each holding one frame's metadata and up to
+ * {@link FrameCaptureConfig#maxBytesPerFrame()} bytes of it. A writer claims the next sequence number, which chooses
+ * its slot, overwriting the oldest frame. Each slot starts with the sequence number of the frame it holds,
+ * which the writer swaps for a negative number while it writes the rest of the slot. If another writer is still
+ * writing the slot, having been lapped, the frame is dropped rather than waited for.
+ * A reader copies a slot and then reads its sequence number again, keeping the copy only if the sequence number
+ * was the same non-negative number both times. So a reader never blocks a writer, and never sees a frame which was half written.</p>
+ */
+public class FrameCapture {
+
+    /**
+     * Which way a frame was going.
+     */
+    public enum Direction {
+        /** A request read from a client. */
+        REQUEST,
+        /** A response written to a client. */
+        RESPONSE
+    }
+
+    /**
+     * A copy of a frame in the ring.
+     */
+    static final class CapturedFrame {
+        private final long sequence;
+        private final long timestampMs;
+        private final String connection;
+        private final Direction direction;
+        private final short apiKey;
+        private final short apiVersion;
+        private final int correlationId;
+        private final int frameLength;
+        private final byte[] bytes;
+
+        CapturedFrame(long sequence, long timestampMs, String connection, Direction direction, short apiKey, short apiVersion, int correlationId,
+                      int frameLength, byte[] bytes) {
+            this.sequence = sequence;
+            this.timestampMs = timestampMs;
+            this.connection = connection;
+            this.direction = direction;
+            this.apiKey = apiKey;
+            this.apiVersion = apiVersion;
+            this.correlationId = correlationId;
+            this.frameLength = frameLength;
+            this.bytes = bytes;
+        }
+
+        long sequence() {
+            return sequence;
+        }
+
+        Direction direction() {
+            return direction;
+        }
+
+        short apiKey() {
+            return apiKey;
+        }
+
+        int correlationId() {
+            return correlationId;
+        }
+
+        int frameLength() {
+            return frameLength;
+        }
+
+        /**
+         * @return The first bytes of the frame, starting at its header and excluding the frame size.
+         */
+        byte[] bytes() {
+            return bytes;
+        }
+
+        boolean truncated() {
+            return bytes.length < frameLength;
+        }
+    }
+
+    private static final VarHandle SLOT_SEQUENCE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int CONNECTION_BYTES = 8;
+
+    // The layout of a slot
+    private static final int SEQUENCE = 0;
+    private static final int TIMESTAMP = 8;
+    private static final int CORRELATION_ID = 16;
+    private static final int FRAME_LENGTH = 20;
+    private static final int CAPTURED_LENGTH = 24;
+    private static final int API_KEY = 28;
+    private static final int API_VERSION = 30;
+    private static final int DIRECTION = 32;
+    private static final int CONNECTION = 33;
+    private static final int HEADER_SIZE = 48;
+
+    private final int sampleOneIn;
+    private final boolean[] apiKeys;
+    private final String clientId;
+    private final String sniHostname;
+    private final int slots;
+    private final int slotSize;
+    private final int maxBytesPerFrame;
+    private final ByteBuffer ring;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * @param config The configuration, which must be {@link FrameCaptureConfig#enabled() enabled}.
+     */
+    public FrameCapture(FrameCaptureConfig config) {
+        this.sampleOneIn = config.sampleOneIn().orElseThrow(() -> new IllegalArgumentException("Frame capture is not enabled"));
+        if (config.apiKeys().isEmpty()) {
+            this.apiKeys = null;
+        }
+        else {
+            int maxId = 0;
+            for (ApiKeys apiKey : ApiKeys.values()) {
+                maxId = Math.max(maxId, apiKey.id);
+            }
+            this.apiKeys = new boolean[maxId + 1];
+            for (ApiKeys apiKey : config.apiKeys()) {
+                this.apiKeys[apiKey.id] = true;
+            }
+        }
+        this.clientId = config.clientId().orElse(null);
+        this.sniHostname = config.sniHostname().orElse(null);
+        this.slots = config.slots();
+        this.maxBytesPerFrame = config.maxBytesPerFrame();
+        // Keep each slot's sequence number 8-byte aligned, so it can be accessed atomically
+        this.slotSize = (HEADER_SIZE + maxBytesPerFrame + 7) & ~7;
+        long capacity = (long) slots * slotSize;
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("slots * maxBytesPerFrame must be < 2GiB, but was " + capacity + " bytes");
+        }
+        this.ring = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.nativeOrder());
+        for (int slot = 0; slot < slots; slot++) {
+            SLOT_SEQUENCE.setVolatile(ring, slot * slotSize + SEQUENCE, EMPTY);
+        }
+    }
+
+    int sampleOneIn() {
+        return sampleOneIn;
+    }
+
+    /**
+     * @param apiKeyId The API key of a frame.
+     * @param clientId The client id of the frame's connection, if known.
+     * @param sniHostname The SNI hostname of the frame's connection, if any.
+     * @return true if the frame matches the configured API keys, client id and SNI hostname.
+     */
+    boolean matches(short apiKeyId, String clientId, String sniHostname) {
+        if (apiKeys != null && (apiKeyId < 0 || apiKeyId >= apiKeys.length || !apiKeys[apiKeyId])) {
+            return false;
+        }
+        if (this.clientId != null && !this.clientId.equals(clientId)) {
+            return false;
+        }
+        return this.sniHostname == null || this.sniHostname.equals(sniHostname);
+    }
+
+    /**
+     * Copies a frame into the next slot, which may be called from any thread.
+     * @param connection The id of the frame's connection. Only its first 8 ASCII characters are kept.
+     * @param direction Which way the frame was going.
+     * @param apiKey The frame's API key.
+     * @param apiVersion The frame's API version.
+     * @param correlationId The frame's correlation id.
+     * @param frame The frame, from its header up to the end of its body. Its indexes aren't changed.
+     */
+    void capture(String connection, Direction direction, short apiKey, short apiVersion, int correlationId, ByteBuf frame) {
+        long sequence = nextSequence.getAndIncrement();
+        int offset = (int) (sequence % slots) * slotSize;
+        long previous = (long) SLOT_SEQUENCE.getVolatile(ring, offset + SEQUENCE);
+        if ((previous < 0 && previous != EMPTY)
+                || !SLOT_SEQUENCE.compareAndSet(ring, offset + SEQUENCE, previous, -sequence - 1)) {
+            // Another writer is still writing this slot
+            return;
+        }
+        VarHandle.storeStoreFence();
+        int frameLength = frame.readableBytes();
+        int capturedLength = Math.min(frameLength, maxBytesPerFrame);
+        ring.putLong(offset + TIMESTAMP, System.currentTimeMillis());
+        ring.putInt(offset + CORRELATION_ID, correlationId);
+        ring.putInt(offset + FRAME_LENGTH, frameLength);
+        ring.putInt(offset + CAPTURED_LENGTH, capturedLength);
+        ring.putShort(offset + API_KEY, apiKey);
+        ring.putShort(offset + API_VERSION, apiVersion);
+        ring.put(offset + DIRECTION, (byte) direction.ordinal());
+        for (int i = 0; i < CONNECTION_BYTES; i++) {
+            ring.put(offset + CONNECTION + i, i < connection.length() ? (byte) connection.charAt(i) : 0);
+        }
+        frame.getBytes(frame.readerIndex(), ring.slice(offset + HEADER_SIZE, capturedLength));
+        SLOT_SEQUENCE.setRelease(ring, offset + SEQUENCE, sequence);
+    }
+
+    /**
+     * @return Copies of the frames in the ring, oldest first. Frames being written while they're copied are left out.
+     */
+    List<CapturedFrame> frames() {
+        List<CapturedFrame> frames = new ArrayList<>();
+        for (int slot = 0; slot < slots; slot++) {
+            int offset = slot * slotSize;
+            long sequence = (long) SLOT_SEQUENCE.getAcquire(ring, offset + SEQUENCE);
+            if (sequence < 0) {
+                continue;
+            }
+            long timestampMs = ring.getLong(offset + TIMESTAMP);
+            int correlationId = ring.getInt(offset + CORRELATION_ID);
+            int frameLength = ring.getInt(offset + FRAME_LENGTH);
+            int capturedLength = ring.getInt(offset + CAPTURED_LENGTH);
+            short apiKey = ring.getShort(offset + API_KEY);
+            short apiVersion = ring.getShort(offset + API_VERSION);
+            byte direction = ring.get(offset + DIRECTION);
+            byte[] connection = new byte[CONNECTION_BYTES];
+            ring.get(offset + CONNECTION, connection);
+            if (capturedLength < 0 || capturedLength > maxBytesPerFrame || direction < 0 || direction >= Direction.values().length) {
+                // Overwritten while being read
+                continue;
+            }
+            byte[] bytes = new byte[capturedLength];
+            ring.get(offset + HEADER_SIZE, bytes);
+            VarHandle.loadLoadFence();
+            if ((long) SLOT_SEQUENCE.getVolatile(ring, offset + SEQUENCE) != sequence) {
+                continue;
+            }
+            int connectionLength = 0;
+            while (connectionLength < CONNECTION_BYTES && connection[connectionLength] != 0) {
+                connectionLength++;
+            }
+            frames.add(new CapturedFrame(sequence, timestampMs, new String(connection, 0, connectionLength, StandardCharsets.US_ASCII),
+                    Direction.values()[direction], apiKey, apiVersion, correlationId, frameLength, bytes));
+        }
+        frames.sort(Comparator.comparingLong(CapturedFrame::sequence));
+        return frames;
+    }
+
+    /**
+     * @return The frames in the ring, oldest first, each with its metadata and its captured bytes, base64 encoded.
+     */
+    public List<Map<String, Object>> dump() {
+        List<Map<String, Object>> dump = new ArrayList<>();
+        for (CapturedFrame frame : frames()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("sequence", frame.sequence);
+            entry.put("timestampMs", frame.timestampMs);
+            entry.put("connection", frame.connection);
+            entry.put("direction", frame.direction.name());
+            entry.put("apiKey", ApiKeys.hasId(frame.apiKey) ? ApiKeys.forId(frame.apiKey).name() : String.valueOf(frame.apiKey));
+            entry.put("apiVersion", frame.apiVersion);
+            entry.put("correlationId", frame.correlationId);
+            entry.put("length", frame.frameLength);
+            entry.put("truncated", frame.truncated());
+            entry.put("bytes", Base64.getEncoder().encodeToString(frame.bytes));
+            dump.add(entry);
+        }
+        return dump;
+    }
+
+    /**
+     * @param direction Which frames to dump.
+     * @return The complete frames in the ring going in the given direction, oldest first, as they were on the wire:
+     * each is preceded by its size. Truncated frames are left out, since they couldn't be decoded.
+     */
+    public byte[] dumpWire(Direction direction) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (CapturedFrame frame : frames()) {
+            if (frame.direction == direction && !frame.truncated()) {
+                out.write(frame.frameLength >>> 24);
+                out.write(frame.frameLength >>> 16);
+                out.write(frame.frameLength >>> 8);
+                out.write(frame.frameLength);
+                out.writeBytes(frame.bytes);
+            }
+        }
+        return out.toByteArray();
+    }
+}
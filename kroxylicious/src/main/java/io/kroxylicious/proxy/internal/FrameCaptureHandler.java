@@ -0,0 +1,146 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.SniCompletionEvent;
+
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+import io.kroxylicious.proxy.internal.FrameCapture.Direction;
+import io.kroxylicious.proxy.internal.codec.FrameTap;
+
+/**
+ * <p>Captures one in every {@link FrameCapture#sampleOneIn()} of the requests read from the client which
+ * {@link FrameCapture#matches(short, String, String) match}, and the responses to them, into the {@link FrameCapture} ring.</p>
+ *
+ * <p>Requests are captured from the bytes the {@link io.kroxylicious.proxy.internal.codec.KafkaRequestDecoder} delimits,
+ * as its {@link FrameTap}, so they're copied rather than encoded afresh whether or not they're then decoded.
+ * Opaque responses are copied straight from their buffers. Decoded responses aren't captured, since encoding them
+ * would cost as much as writing them, on the event loop.</p>
+ *
+ * <p>Authentication is never captured, whatever the configuration: not {@code SaslHandshake} or {@code SaslAuthenticate}
+ * requests, which carry the mechanism's tokens, and nothing on a connection after a version 0 {@code SaslHandshake},
+ * whose tokens follow it unframed.</p>
+ */
+class FrameCaptureHandler extends ChannelDuplexHandler implements FrameTap {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrameCaptureHandler.class);
+
+    /**
+     * More requests than a client would have in flight, so that the correlation ids of requests which never get a
+     * response, such as produce requests with {@code acks=0}, can't accumulate.
+     */
+    private static final int MAX_SAMPLED_IN_FLIGHT = 1024;
+
+    private final FrameCapture capture;
+    private final Set<Integer> sampledCorrelationIds = new HashSet<>();
+    private String connection;
+    private String clientId;
+    private String sniHostname;
+    private int requestsUntilSample;
+    /** Whether the connection has had a version 0 {@code SaslHandshake}, after which its tokens can't be told from requests */
+    private boolean unframedAuthentication;
+
+    FrameCaptureHandler(FrameCapture capture) {
+        this.capture = capture;
+        // Sample the first, so that a connection sending fewer requests than the sampling interval is still seen
+        this.requestsUntilSample = 1;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        connection = ctx.channel().id().asShortText();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+        if (event instanceof SniCompletionEvent && ((SniCompletionEvent) event).isSuccess()) {
+            sniHostname = ((SniCompletionEvent) event).hostname();
+        }
+        super.userEventTriggered(ctx, event);
+    }
+
+    @Override
+    public void frame(ByteBuf frame) {
+        if (unframedAuthentication) {
+            return;
+        }
+        try {
+            int index = frame.readerIndex();
+            short apiKeyId = frame.getShort(index);
+            short apiVersion = frame.getShort(index + Short.BYTES);
+            if (apiKeyId == ApiKeys.SASL_HANDSHAKE.id || apiKeyId == ApiKeys.SASL_AUTHENTICATE.id) {
+                unframedAuthentication = apiKeyId == ApiKeys.SASL_HANDSHAKE.id && apiVersion == 0;
+                return;
+            }
+            if (!ApiKeys.hasId(apiKeyId)) {
+                return;
+            }
+            int correlationId = frame.getInt(index + Short.BYTES + Short.BYTES);
+            String frameClientId = clientId(frame, ApiKeys.forId(apiKeyId), apiVersion);
+            if (frameClientId != null) {
+                clientId = frameClientId;
+            }
+            if (capture.matches(apiKeyId, clientId, sniHostname) && --requestsUntilSample == 0) {
+                requestsUntilSample = capture.sampleOneIn();
+                capture.capture(connection, Direction.REQUEST, apiKeyId, apiVersion, correlationId, frame);
+                if (sampledCorrelationIds.size() >= MAX_SAMPLED_IN_FLIGHT) {
+                    sampledCorrelationIds.clear();
+                }
+                sampledCorrelationIds.add(correlationId);
+            }
+        }
+        catch (RuntimeException e) {
+            // The request is forwarded regardless, and the broker will reject it if it's malformed
+            LOGGER.debug("{}: Failed to capture request", connection, e);
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof OpaqueResponseFrame && sampledCorrelationIds.remove(((OpaqueResponseFrame) msg).correlationId())) {
+            var opaque = (OpaqueResponseFrame) msg;
+            try {
+                capture.capture(connection, Direction.RESPONSE, opaque.apiKeyId(), opaque.apiVersion(), opaque.correlationId(), opaque.buf());
+            }
+            catch (RuntimeException e) {
+                LOGGER.debug("{}: Failed to capture response", ctx.channel(), e);
+            }
+        }
+        else if (msg instanceof ResponseFrame) {
+            sampledCorrelationIds.remove(((ResponseFrame) msg).correlationId());
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    /**
+     * @return The client id of a request frame, as {@link io.kroxylicious.proxy.frame.OpaqueRequestFrame#clientId()} reads it.
+     */
+    private static String clientId(ByteBuf frame, ApiKeys apiKey, short apiVersion) {
+        if (apiKey.requestHeaderVersion(apiVersion) < 1) {
+            return null;
+        }
+        // api key, api version and correlation id precede the client id, which is a nullable (non-compact) string
+        int index = frame.readerIndex() + Short.BYTES + Short.BYTES + Integer.BYTES;
+        short clientIdLength = frame.getShort(index);
+        if (clientIdLength < 0) {
+            return null;
+        }
+        return frame.toString(index + Short.BYTES, clientIdLength, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.kafka.common.Uuid;
+
+import io.netty.channel.EventLoop;
+
+import io.kroxylicious.proxy.config.HotPartitionsConfig;
+import io.kroxylicious.proxy.filter.TopicMetadata;
+import io.kroxylicious.proxy.internal.SpaceSavingSketch.Summary;
+
+/**
+ * <p>Finds the partitions with the most bytes produced and fetched through the proxy.</p>
+ *
+ * <p>Each event loop has a pair of {@link SpaceSavingSketch}es, for produce and fetch, which only that event loop updates,
+ * so sampling needs no synchronization. At the end of each window an event loop publishes summaries of its sketches
+ * and starts counting afresh. The top partitions are found by merging the event loops' latest summaries.
+ * So memory is bounded by the sketches' capacity, however many partitions there are, and what's reported
+ * is the traffic of the last complete window.</p>
+ */
+public class HotPartitions {
+
+    /**
+     * A partition, identified by its topic name where known, or otherwise its topic id.
+     */
+    record Partition(String topicName, Uuid topicId, int partition) {
+    }
+
+    /**
+     * The sketches of one event loop.
+     */
+    final class EventLoopSketches {
+        private final SpaceSavingSketch<Partition> produced = new SpaceSavingSketch<>(config.capacity());
+        private final SpaceSavingSketch<Partition> fetched = new SpaceSavingSketch<>(config.capacity());
+        private volatile Summary<Partition> lastProduced = Summary.empty();
+        private volatile Summary<Partition> lastFetched = Summary.empty();
+        private ScheduledFuture<?> windowTask;
+
+        /**
+         * Counts the bytes of a sampled produce request partition.
+         * @param topicMetadata The topic metadata of the connection's cluster, or null if it isn't known.
+         */
+        void produced(String topicName, Uuid topicId, int partition, int bytes, SharedTopicMetadataCache topicMetadata) {
+            produced.add(partition(topicName, topicId, partition, topicMetadata), (long) bytes * sampleOneIn);
+        }
+
+        /**
+         * Counts the bytes of a sampled fetch response partition.
+         * @param topicMetadata The topic metadata of the connection's cluster, or null if it isn't known.
+         */
+        void fetched(String topicName, Uuid topicId, int partition, int bytes, SharedTopicMetadataCache topicMetadata) {
+            fetched.add(partition(topicName, topicId, partition, topicMetadata), (long) bytes * sampleOneIn);
+        }
+
+        private void endWindow() {
+            lastProduced = produced.summary();
+            produced.clear();
+            lastFetched = fetched.summary();
+            fetched.clear();
+        }
+    }
+
+    private final HotPartitionsConfig config;
+    private final int sampleOneIn;
+    private final Map<EventLoop, EventLoopSketches> sketches = new ConcurrentHashMap<>();
+
+    /**
+     * @param config The configuration, which must be {@link HotPartitionsConfig#enabled() enabled}.
+     */
+    public HotPartitions(HotPartitionsConfig config) {
+        this.config = config;
+        this.sampleOneIn = config.sampleOneIn().orElseThrow(() -> new IllegalArgumentException("Hot partitions are not enabled"));
+    }
+
+    int sampleOneIn() {
+        return sampleOneIn;
+    }
+
+    public long windowMs() {
+        return config.windowMs();
+    }
+
+    /**
+     * @param eventLoop An event loop.
+     * @return The event loop's sketches, which must only be updated on that event loop.
+     */
+    EventLoopSketches forEventLoop(EventLoop eventLoop) {
+        return sketches.computeIfAbsent(eventLoop, loop -> {
+            var loopSketches = new EventLoopSketches();
+            loopSketches.windowTask = loop.scheduleAtFixedRate(loopSketches::endWindow, config.windowMs(), config.windowMs(), TimeUnit.MILLISECONDS);
+            return loopSketches;
+        });
+    }
+
+    public void stop() {
+        for (EventLoopSketches loopSketches : sketches.values()) {
+            loopSketches.windowTask.cancel(false);
+        }
+        sketches.clear();
+    }
+
+    /**
+     * @param n The number of partitions to report, per direction.
+     * @return The partitions with the most bytes produced and fetched in the last complete window, most bytes first.
+     * Each has its {@code topic} (or, if the name isn't known, its {@code topicId}), {@code partition},
+     * {@code bytes}, and {@code error}, the most by which {@code bytes} may be an overestimate.
+     */
+    public Map<String, Object> top(int n) {
+        Map<String, Object> top = new LinkedHashMap<>();
+        top.put("windowMs", config.windowMs());
+        top.put("sampleOneIn", sampleOneIn);
+        top.put("produce", top(n, loopSketches -> loopSketches.lastProduced));
+        top.put("fetch", top(n, loopSketches -> loopSketches.lastFetched));
+        return top;
+    }
+
+    private List<Map<String, Object>> top(int n, Function<EventLoopSketches, Summary<Partition>> summary) {
+        List<Summary<Partition>> summaries = new ArrayList<>(sketches.size());
+        for (EventLoopSketches loopSketches : sketches.values()) {
+            summaries.add(summary.apply(loopSketches));
+        }
+        List<Map<String, Object>> partitions = new ArrayList<>();
+        for (var entry : SpaceSavingSketch.merge(summaries, n).entries()) {
+            Map<String, Object> partition = new LinkedHashMap<>();
+            if (entry.key().topicName() != null) {
+                partition.put("topic", entry.key().topicName());
+            }
+            else {
+                partition.put("topicId", entry.key().topicId().toString());
+            }
+            partition.put("partition", entry.key().partition());
+            partition.put("bytes", entry.count());
+            partition.put("error", entry.error());
+            partitions.add(partition);
+        }
+        return partitions;
+    }
+
+    private static Partition partition(String topicName, Uuid topicId, int partition, SharedTopicMetadataCache topicMetadata) {
+        if (topicName == null && topicMetadata != null) {
+            // So that a partition fetched by id and by name is counted once
+            topicName = topicMetadata.topic(topicId).map(TopicMetadata::name).orElse(null);
+        }
+        return new Partition(topicName, topicName == null ? topicId : null, partition);
+    }
+}
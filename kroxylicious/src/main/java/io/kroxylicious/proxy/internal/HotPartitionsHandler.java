@@ -0,0 +1,88 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.function.Supplier;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import io.kroxylicious.proxy.frame.RequestFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+
+/**
+ * Samples one in every {@link HotPartitions#sampleOneIn()} produce requests read from the client, and fetch responses written
+ * to it, counting the bytes of each partition in the {@link HotPartitions} sketches of the connection's event loop.
+ */
+class HotPartitionsHandler extends ChannelDuplexHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotPartitionsHandler.class);
+
+    private final HotPartitions hotPartitions;
+    private final Supplier<SharedTopicMetadataCache> topicMetadata;
+    private HotPartitions.EventLoopSketches sketches;
+    private int produceRequestsUntilSample;
+    private int fetchResponsesUntilSample;
+
+    /**
+     * @param hotPartitions The proxy's hot partitions.
+     * @param topicMetadata Supplies the topic metadata of the connection's cluster, in which the names of topics identified by id are looked up.
+     */
+    HotPartitionsHandler(HotPartitions hotPartitions, Supplier<SharedTopicMetadataCache> topicMetadata) {
+        this.hotPartitions = hotPartitions;
+        this.topicMetadata = topicMetadata;
+        // Sample the first of each, so that a connection sending fewer requests than the sampling interval is still seen
+        this.produceRequestsUntilSample = 1;
+        this.fetchResponsesUntilSample = 1;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        sketches = hotPartitions.forEventLoop(ctx.channel().eventLoop());
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof RequestFrame
+                && ByteRateQuotaHandler.apiKeyId((RequestFrame) msg) == ApiKeys.PRODUCE.id
+                && --produceRequestsUntilSample == 0) {
+            produceRequestsUntilSample = hotPartitions.sampleOneIn();
+            try {
+                var cache = topicMetadata.get();
+                PartitionBytesReader.readProduceRequest((RequestFrame) msg,
+                        (topicName, topicId, partition, bytes) -> sketches.produced(topicName, topicId, partition, bytes, cache));
+            }
+            catch (RuntimeException e) {
+                // The request is forwarded regardless, and the broker will reject it if it's malformed
+                LOGGER.debug("{}: Failed to sample produce request", ctx.channel(), e);
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ResponseFrame
+                && ByteRateQuotaHandler.apiKeyId((ResponseFrame) msg) == ApiKeys.FETCH.id
+                && --fetchResponsesUntilSample == 0) {
+            fetchResponsesUntilSample = hotPartitions.sampleOneIn();
+            try {
+                var cache = topicMetadata.get();
+                PartitionBytesReader.readFetchResponse((ResponseFrame) msg,
+                        (topicName, topicId, partition, bytes) -> sketches.fetched(topicName, topicId, partition, bytes, cache));
+            }
+            catch (RuntimeException e) {
+                LOGGER.debug("{}: Failed to sample fetch response", ctx.channel(), e);
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+}
@@ -12,6 +12,8 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 
+import io.kroxylicious.proxy.internal.jfr.AutoReadEvent;
+
 import static java.util.Objects.requireNonNull;
 
 public class KafkaProxyBackendHandler extends ChannelInboundHandlerAdapter {
@@ -20,6 +22,7 @@ public class KafkaProxyBackendHandler extends ChannelInboundHandlerAdapter {
 
     private final KafkaProxyFrontendHandler frontendHandler;
     private final ChannelHandlerContext inboundCtx;
+    private ChannelHandlerContext outboundCtx;
     private ChannelHandlerContext blockedOutboundCtx;
     private boolean unflushedWrites;
 
@@ -36,10 +39,22 @@ public class KafkaProxyBackendHandler extends ChannelInboundHandlerAdapter {
 
     public void inboundChannelWritabilityChanged(ChannelHandlerContext inboundCtx) {
         assert inboundCtx == this.inboundCtx;
-        final ChannelHandlerContext outboundCtx = blockedOutboundCtx;
-        if (outboundCtx != null && inboundCtx.channel().isWritable()) {
+        final ChannelHandlerContext blockedCtx = blockedOutboundCtx;
+        if (blockedCtx != null && inboundCtx.channel().isWritable()) {
             blockedOutboundCtx = null;
-            outboundCtx.channel().config().setAutoRead(true);
+            if (!frontendHandler.isMemoryPaused()) {
+                AutoReadEvent.setAutoRead(blockedCtx.channel(), true, true, "downstream writable");
+            }
+        }
+    }
+
+    /**
+     * Resumes reading from the outbound channel after a pause by the {@link MemoryAccountant},
+     * unless the inbound channel's writability is also blocking it.
+     */
+    void resumeReads() {
+        if (blockedOutboundCtx == null && outboundCtx != null) {
+            AutoReadEvent.setAutoRead(outboundCtx.channel(), true, true, "memory");
         }
     }
 
@@ -47,6 +62,7 @@ public class KafkaProxyBackendHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         LOGGER.trace("Channel active {}", ctx);
+        this.outboundCtx = ctx;
         super.channelActive(ctx);
         this.frontendHandler.outboundChannelActive(ctx);
     }
@@ -75,9 +91,10 @@ public class KafkaProxyBackendHandler extends ChannelInboundHandlerAdapter {
             inboundChannel.flush();
         }
         if (!inboundChannel.isWritable()) {
-            ctx.channel().config().setAutoRead(false);
+            AutoReadEvent.setAutoRead(ctx.channel(), true, false, "downstream unwritable");
             this.blockedOutboundCtx = ctx;
         }
+        frontendHandler.outboundReadComplete();
     }
 
     @Override
@@ -10,6 +10,7 @@ import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.kafka.common.message.ApiVersionsRequestData;
 import org.apache.kafka.common.message.ApiVersionsResponseData;
@@ -30,10 +31,13 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.handler.codec.haproxy.HAProxyMessage;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SniCompletionEvent;
+import io.netty.util.concurrent.Future;
 
+import io.kroxylicious.proxy.config.NetworkConfig;
 import io.kroxylicious.proxy.filter.KrpcFilter;
 import io.kroxylicious.proxy.filter.NetFilter;
 import io.kroxylicious.proxy.frame.DecodedRequestFrame;
@@ -41,8 +45,11 @@ import io.kroxylicious.proxy.frame.DecodedResponseFrame;
 import io.kroxylicious.proxy.frame.RequestFrame;
 import io.kroxylicious.proxy.internal.codec.CorrelationManager;
 import io.kroxylicious.proxy.internal.codec.DecodePredicate;
+import io.kroxylicious.proxy.internal.codec.KafkaRequestDecoder;
 import io.kroxylicious.proxy.internal.codec.KafkaRequestEncoder;
 import io.kroxylicious.proxy.internal.codec.KafkaResponseDecoder;
+import io.kroxylicious.proxy.internal.jfr.AutoReadEvent;
+import io.kroxylicious.proxy.internal.jfr.UpstreamConnectEvent;
 import io.kroxylicious.proxy.tag.VisibleForTesting;
 
 public class KafkaProxyFrontendHandler
@@ -65,6 +72,23 @@ public class KafkaProxyFrontendHandler
 
     private final boolean logNetwork;
     private final boolean logFrames;
+    private final NetworkConfig.SocketConfig upstreamSocketConfig;
+    private final MemoryAccountant memoryAccountant;
+    private ConnectionMemoryAccount memoryAccount;
+    /** Whether reads are paused by the {@link MemoryAccountant} */
+    private boolean memoryPaused;
+    private final int maxInFlightRequests;
+    /** Whether reads are paused because {@link #maxInFlightRequests} requests are awaiting responses */
+    private boolean inFlightBlocked;
+    /** The scheduler for this connection's event loop, or null if fair scheduling is disabled */
+    private final FairReadScheduler readScheduler;
+    /** Whether reads are paused by the {@link #readScheduler} */
+    private boolean schedulerPaused;
+    private int requestsSinceScheduled;
+    /** Whether reads are paused because the client has exceeded its {@link ByteRateQuotas quota} */
+    private boolean quotaThrottled;
+    private boolean responsePending;
+    private CorrelationManager correlationManager;
 
     private ChannelHandlerContext outboundCtx;
     private KafkaProxyBackendHandler backendHandler;
@@ -72,12 +96,20 @@ public class KafkaProxyFrontendHandler
 
     private final NetFilter filter;
     private final SaslDecodePredicate dp;
+    private final TopicMetadataCaches topicMetadataCaches;
+    private final FilterExecutor filterExecutor;
+    /** The resolver of broker hostnames, or null to use Netty's default, blocking, resolver */
+    private final UpstreamResolver upstreamResolver;
 
     private AuthenticationEvent authentication;
 
     private String clientSoftwareName;
     private String clientSoftwareVersion;
     private String sniHostname;
+    /** The topic metadata of the upstream cluster, once it's known */
+    private SharedTopicMetadataCache topicMetadata;
+    // Releases the topic metadata cache when the client's connection closes
+    private Runnable releaseTopicMetadata;
 
     private ChannelHandlerContext inboundCtx;
     // The message buffered while we connect to the outbound cluster
@@ -127,11 +159,24 @@ public class KafkaProxyFrontendHandler
     KafkaProxyFrontendHandler(NetFilter filter,
                               SaslDecodePredicate dp,
                               boolean logNetwork,
-                              boolean logFrames) {
+                              boolean logFrames,
+                              NetworkConfig networkConfig,
+                              MemoryAccountant memoryAccountant,
+                              FairReadScheduler readScheduler,
+                              TopicMetadataCaches topicMetadataCaches,
+                              FilterExecutor filterExecutor,
+                              UpstreamResolver upstreamResolver) {
         this.filter = filter;
         this.dp = dp;
         this.logNetwork = logNetwork;
         this.logFrames = logFrames;
+        this.upstreamSocketConfig = networkConfig.upstream();
+        this.maxInFlightRequests = networkConfig.maxInFlightRequests().orElse(Integer.MAX_VALUE);
+        this.memoryAccountant = memoryAccountant;
+        this.readScheduler = readScheduler;
+        this.topicMetadataCaches = topicMetadataCaches;
+        this.filterExecutor = filterExecutor;
+        this.upstreamResolver = upstreamResolver;
     }
 
     private IllegalStateException illegalState(String msg) {
@@ -154,6 +199,7 @@ public class KafkaProxyFrontendHandler
         // connection is complete, so first forward the buffered message
         forwardOutbound(ctx, bufferedMsg);
         bufferedMsg = null; // don't pin in memory once we no longer need it
+        memoryAccount.heldFrameBytes(0);
         if (pendingReadComplete) {
             pendingReadComplete = false;
             channelReadComplete(ctx);
@@ -162,7 +208,12 @@ public class KafkaProxyFrontendHandler
 
         var inboundChannel = this.inboundCtx.channel();
         // once buffered message has been forwarded we enable auto-read to start accepting further messages
-        inboundChannel.config().setAutoRead(true);
+        // (unless something else has paused this connection in the meantime)
+        isInboundBlocked = false;
+        AutoReadEvent.setAutoRead(inboundChannel, false, canReadInbound(), "outbound active");
+        if (memoryPaused) {
+            AutoReadEvent.setAutoRead(ctx.channel(), true, false, "memory");
+        }
     }
 
     @Override
@@ -177,6 +228,7 @@ public class KafkaProxyFrontendHandler
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (state == State.OUTBOUND_ACTIVE) { // post-backend connection
+            requestsSinceScheduled++;
             forwardOutbound(ctx, msg);
         }
         else { // pre-backend connection
@@ -208,6 +260,7 @@ public class KafkaProxyFrontendHandler
                 // (for which we need to ask the filter which cluster to connect to
                 // and with what filters)
                 this.bufferedMsg = msg;
+                memoryAccount.heldFrameBytes(((RequestFrame) msg).estimateEncodedSize());
                 // TODO ensure that the filter makes exactly one upstream connection?
                 // Or not for the topic routing case
 
@@ -221,15 +274,29 @@ public class KafkaProxyFrontendHandler
     }
 
     @Override
-    public void initiateConnect(String remoteHost, int remotePort, KrpcFilter[] filters) {
+    public void initiateConnect(String remoteHost, int remotePort, KrpcFilter[] netFilterFilters) {
+        initiateConnect(List.of(InetSocketAddress.createUnresolved(remoteHost, remotePort)), 0, null, netFilterFilters);
+    }
+
+    @Override
+    public void initiateConnect(List<InetSocketAddress> servers, long attemptDelayMillis, NetFilter.ConnectListener listener, KrpcFilter[] netFilterFilters) {
         if (backendHandler != null) {
             throw new IllegalStateException();
         }
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("No servers to connect to");
+        }
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("{}: Connecting to backend broker {}:{} using filters {}",
-                    inboundCtx.channel().id(), remoteHost, remotePort, Arrays.toString(filters));
+            LOGGER.debug("{}: Connecting to backend broker {} using filters {}",
+                    inboundCtx.channel().id(), servers, Arrays.toString(netFilterFilters));
         }
-        var correlationManager = new CorrelationManager();
+        // The last filter is the one closest to the broker
+        KrpcFilter[] filters = Arrays.copyOf(netFilterFilters, netFilterFilters.length + 1);
+        topicMetadata = topicMetadataCaches.forCluster(sniHostname, servers);
+        String cacheSniHostname = sniHostname;
+        releaseTopicMetadata = () -> topicMetadataCaches.release(cacheSniHostname, servers);
+        filters[netFilterFilters.length] = new TopicMetadataCacheFilter(topicMetadata);
+        correlationManager = new CorrelationManager();
 
         final Channel inboundChannel = inboundCtx.channel();
 
@@ -240,38 +307,122 @@ public class KafkaProxyFrontendHandler
                 .channel(inboundChannel.getClass())
                 .handler(backendHandler)
                 .option(ChannelOption.AUTO_READ, true)
-                .option(ChannelOption.TCP_NODELAY, true);
+                .option(ChannelOption.TCP_NODELAY, true)
+                // Share the downstream channel's buffer allocation strategy
+                .option(ChannelOption.ALLOCATOR, inboundChannel.config().getAllocator())
+                .option(ChannelOption.RCVBUF_ALLOCATOR, inboundChannel.config().getRecvByteBufAllocator())
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        upstreamSocketConfig.writeBufferLowWaterMark(), upstreamSocketConfig.writeBufferHighWaterMark()));
+        upstreamSocketConfig.sendBufferSize().ifPresent(size -> b.option(ChannelOption.SO_SNDBUF, size));
+        upstreamSocketConfig.receiveBufferSize().ifPresent(size -> b.option(ChannelOption.SO_RCVBUF, size));
+        if (upstreamResolver != null) {
+            b.resolver(upstreamResolver.group());
+        }
 
-        LOGGER.trace("Connecting to outbound {}:{}", remoteHost, remotePort);
+        LOGGER.trace("Connecting to outbound {}", servers);
+        UpstreamConnectEvent connectEvent = new UpstreamConnectEvent();
+        connectEvent.begin();
+        if (servers.size() > 1) {
+            // Each server is tried at the first address its hostname resolves to
+            ConnectRace.start(b, inboundChannel.eventLoop(), servers, attemptDelayMillis, listener).addListener((Future<Channel> future) -> {
+                SocketAddress server = future.isSuccess() ? future.getNow().remoteAddress() : servers.get(0);
+                onRaceComplete(future, (InetSocketAddress) server, filters, connectEvent);
+            });
+            return;
+        }
+        InetSocketAddress server = servers.get(0);
+        String remoteHost = server.getHostString();
+        int remotePort = server.getPort();
+        long startNanos = System.nanoTime();
+        if (upstreamResolver != null && upstreamResolver.happyEyeballs()) {
+            upstreamResolver.connectToAny(b, inboundChannel.eventLoop(), remoteHost, remotePort).addListener((Future<Channel> future) -> {
+                notifyConnectListener(listener, server, startNanos, future.cause());
+                onRaceComplete(future, server, filters, connectEvent);
+            });
+            return;
+        }
         ChannelFuture connectFuture = initConnection(remoteHost, remotePort, b);
-        Channel outboundChannel = connectFuture.channel();
-        ChannelPipeline pipeline = outboundChannel.pipeline();
+        initOutboundPipeline(connectFuture.channel(), filters);
+
+        connectFuture.addListener(future -> {
+            notifyConnectListener(listener, server, startNanos, future.cause());
+            connectEvent.commit(inboundChannel, remoteHost, remotePort, future.cause());
+            if (future.isSuccess()) {
+                outboundConnected(filters);
+            }
+            else {
+                outboundConnectFailed(future.cause());
+            }
+        });
+    }
+
+    private static void notifyConnectListener(NetFilter.ConnectListener listener, InetSocketAddress server, long startNanos, Throwable cause) {
+        if (listener != null) {
+            long durationNanos = System.nanoTime() - startNanos;
+            if (cause == null) {
+                listener.connected(server, durationNanos);
+            }
+            else {
+                listener.failed(server, durationNanos, cause);
+            }
+        }
+    }
 
+    /**
+     * Completes a connection made by racing attempts, whose winning channel doesn't have its pipeline yet.
+     */
+    private void onRaceComplete(Future<Channel> future, InetSocketAddress server, KrpcFilter[] filters, UpstreamConnectEvent connectEvent) {
+        Channel inboundChannel = inboundCtx.channel();
+        connectEvent.commit(inboundChannel, server.getHostString(), server.getPort(), future.cause());
+        if (future.isSuccess() && !inboundChannel.isActive()) {
+            // The client went away while the attempts were racing
+            future.getNow().close();
+        }
+        else if (future.isSuccess()) {
+            Channel outboundChannel = future.getNow();
+            outboundChannel.pipeline().addLast(backendHandler);
+            initOutboundPipeline(outboundChannel, filters);
+            outboundConnected(filters);
+            // The winning channel became active before it had this pipeline
+            outboundChannel.pipeline().fireChannelActive();
+        }
+        else {
+            outboundConnectFailed(future.cause());
+        }
+    }
+
+    private void initOutboundPipeline(Channel outboundChannel, KrpcFilter[] filters) {
+        ChannelPipeline pipeline = outboundChannel.pipeline();
         if (logFrames) {
             pipeline.addFirst("frameLogger", new LoggingHandler("io.kroxylicious.proxy.internal.UpstreamFrameLogger"));
         }
-        addFiltersToPipeline(filters, pipeline);
-        pipeline.addFirst("responseDecoder", new KafkaResponseDecoder(correlationManager));
+        RequestTracingHandler tracing = inboundCtx.pipeline().get(RequestTracingHandler.class);
+        addFiltersToPipeline(filters, pipeline, tracing);
+        if (tracing != null) {
+            pipeline.addFirst("requestTracing", tracing.upstreamHandler());
+        }
+        KafkaResponseDecoder responseDecoder = new KafkaResponseDecoder(correlationManager);
+        pipeline.addFirst("responseDecoder", responseDecoder);
+        memoryAccount.upstream(outboundChannel, responseDecoder);
         pipeline.addFirst("requestEncoder", new KafkaRequestEncoder(correlationManager));
         if (logNetwork) {
             pipeline.addFirst("networkLogger", new LoggingHandler("io.kroxylicious.proxy.internal.UpstreamNetworkLogger"));
         }
+    }
 
-        connectFuture.addListener(future -> {
-            if (future.isSuccess()) {
-                state = State.CONNECTED;
-                LOGGER.trace("{}: Outbound connected", inboundCtx.channel().id());
-                // Now we know which filters are to be used we need to update the DecodePredicate
-                // so that the decoder starts decoding the messages that the filters want to intercept
-                dp.setDelegate(DecodePredicate.forFilters(filters));
-            }
-            else {
-                state = State.FAILED;
-                // Close the connection if the connection attempt has failed.
-                LOGGER.trace("Outbound connect error, closing inbound channel", future.cause());
-                inboundChannel.close();
-            }
-        });
+    private void outboundConnected(KrpcFilter[] filters) {
+        state = State.CONNECTED;
+        LOGGER.trace("{}: Outbound connected", inboundCtx.channel().id());
+        // Now we know which filters are to be used we need to update the DecodePredicate
+        // so that the decoder starts decoding the messages that the filters want to intercept
+        dp.setDelegate(DecodePredicate.forFilters(filters));
+    }
+
+    private void outboundConnectFailed(Throwable cause) {
+        state = State.FAILED;
+        // Close the connection if the connection attempt has failed.
+        LOGGER.trace("Outbound connect error, closing inbound channel", cause);
+        inboundCtx.channel().close();
     }
 
     @VisibleForTesting
@@ -279,10 +430,10 @@ public class KafkaProxyFrontendHandler
         return b.connect(remoteHost, remotePort);
     }
 
-    private void addFiltersToPipeline(KrpcFilter[] filters, ChannelPipeline pipeline) {
+    private void addFiltersToPipeline(KrpcFilter[] filters, ChannelPipeline pipeline, RequestTracingHandler tracing) {
         for (var filter : filters) {
             // TODO configurable timeout
-            pipeline.addFirst(filter.toString(), new FilterHandler(filter, 20000, sniHostname));
+            pipeline.addFirst(filter.toString(), new FilterHandler(filter, 20000, sniHostname, topicMetadata, filterExecutor, tracing));
         }
     }
 
@@ -308,6 +459,12 @@ public class KafkaProxyFrontendHandler
             outboundChannel.writeAndFlush(msg, outboundCtx.voidPromise());
             pendingFlushes = false;
         }
+        // The request encoder has registered the correlation by now (unless a filter is holding the request)
+        if (!inFlightBlocked && correlationManager.inFlight() >= maxInFlightRequests) {
+            LOGGER.trace("{}: {} requests in flight, pausing reads", inboundCtx.channel(), correlationManager.inFlight());
+            inFlightBlocked = true;
+            AutoReadEvent.setAutoRead(inboundCtx.channel(), false, false, "in-flight requests");
+        }
         LOGGER.trace("/READ");
     }
 
@@ -337,10 +494,110 @@ public class KafkaProxyFrontendHandler
         }
         if (isInboundBlocked && outboundCtx.channel().isWritable()) {
             isInboundBlocked = false;
-            inboundCtx.channel().config().setAutoRead(true);
+            maybeResumeInboundReads();
         }
     }
 
+    /**
+     * Called on the outbound channel's read complete, by which time responses have been matched to their requests.
+     */
+    void outboundReadComplete() {
+        if (inFlightBlocked && correlationManager.inFlight() < maxInFlightRequests) {
+            inFlightBlocked = false;
+            maybeResumeInboundReads();
+        }
+    }
+
+    /**
+     * @return true if nothing is preventing reading from the inbound channel.
+     */
+    private boolean canReadInbound() {
+        return state == State.OUTBOUND_ACTIVE
+                && !isInboundBlocked
+                && !memoryPaused
+                && !inFlightBlocked
+                && !schedulerPaused
+                && !quotaThrottled
+                && !responsePending;
+    }
+
+    private void maybeResumeInboundReads() {
+        if (canReadInbound()) {
+            AutoReadEvent.setAutoRead(inboundCtx.channel(), false, true, "unblocked");
+        }
+    }
+
+    private void resumeFromScheduler() {
+        schedulerPaused = false;
+        maybeResumeInboundReads();
+    }
+
+    /**
+     * Called by the {@link ByteRateQuotaHandler} when the client has exceeded its quota.
+     */
+    void throttleReads() {
+        quotaThrottled = true;
+        AutoReadEvent.setAutoRead(inboundCtx.channel(), false, false, "quota");
+    }
+
+    /**
+     * Called by the {@link ByteRateQuotaHandler} once the client's throttle time has passed.
+     */
+    void unthrottleReads() {
+        quotaThrottled = false;
+        maybeResumeInboundReads();
+    }
+
+    /**
+     * Called by the {@link ResponseCacheHandler} while it waits for a response requested by another connection.
+     */
+    void pauseReadsForResponse() {
+        responsePending = true;
+        AutoReadEvent.setAutoRead(inboundCtx.channel(), false, false, "response cache");
+    }
+
+    /**
+     * Called by the {@link ResponseCacheHandler} once it has answered a request itself,
+     * which this handler therefore never saw.
+     */
+    void resumeReadsAfterResponse() {
+        responsePending = false;
+        if (state == State.START || state == State.HA_PROXY || state == State.API_VERSIONS) {
+            // Until there's a backend connection requests are read one at a time
+            inboundCtx.channel().read();
+        }
+        else {
+            maybeResumeInboundReads();
+        }
+    }
+
+    /**
+     * Called on this connection's event loop when the {@link MemoryAccountant} wants it to stop reading.
+     */
+    void pauseReads() {
+        memoryPaused = true;
+        AutoReadEvent.setAutoRead(inboundCtx.channel(), false, false, "memory");
+        if (outboundCtx != null) {
+            AutoReadEvent.setAutoRead(outboundCtx.channel(), true, false, "memory");
+        }
+    }
+
+    /**
+     * Called on this connection's event loop when the {@link MemoryAccountant} allows it to read again.
+     * Reading resumes only on those channels which are not also blocked by their peer being unwritable.
+     */
+    void resumeReads() {
+        memoryPaused = false;
+        maybeResumeInboundReads();
+        if (backendHandler != null) {
+            backendHandler.resumeReads();
+        }
+    }
+
+    boolean isMemoryPaused() {
+        return memoryPaused;
+    }
+
     @Override
     public void channelReadComplete(final ChannelHandlerContext ctx) {
         if (outboundCtx == null) {
@@ -360,15 +617,29 @@ public class KafkaProxyFrontendHandler
             outboundChannel.flush();
         }
         if (!outboundChannel.isWritable()) {
-            ctx.channel().config().setAutoRead(false);
+            AutoReadEvent.setAutoRead(ctx.channel(), false, false, "upstream unwritable");
             isInboundBlocked = true;
         }
+        if (readScheduler != null && requestsSinceScheduled > readScheduler.quantum() && !schedulerPaused) {
+            // Give way to the other connections on this event loop
+            schedulerPaused = true;
+            AutoReadEvent.setAutoRead(ctx.channel(), false, false, "scheduler");
+            readScheduler.giveWay(requestsSinceScheduled, this::resumeFromScheduler);
+        }
+        requestsSinceScheduled = 0;
 
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         LOGGER.trace("INACTIVE on inbound {}", ctx.channel());
+        if (memoryAccount != null) {
+            memoryAccountant.deregister(memoryAccount);
+        }
+        if (releaseTopicMetadata != null) {
+            releaseTopicMetadata.run();
+            releaseTopicMetadata = null;
+        }
         if (outboundCtx == null) {
             return;
         }
@@ -465,10 +736,20 @@ public class KafkaProxyFrontendHandler
         return sniHostname;
     }
 
+    /**
+     * @return The topic metadata of the upstream cluster, or null if the proxy hasn't yet started connecting to it.
+     */
+    SharedTopicMetadataCache topicMetadata() {
+        return topicMetadata;
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         this.inboundCtx = ctx;
         LOGGER.trace("{}: channelActive", inboundCtx.channel().id());
+        this.memoryAccount = new ConnectionMemoryAccount(ctx.channel(), ctx.pipeline().get(KafkaRequestDecoder.class),
+                this::pauseReads, this::resumeReads);
+        memoryAccountant.register(memoryAccount);
         // Initially the channel is not auto reading, so read the first batch of requests
         ctx.channel().config().setAutoRead(false);
         ctx.channel().read();
@@ -7,6 +7,7 @@ package io.kroxylicious.proxy.internal;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.kafka.common.security.auth.AuthenticateCallbackHandler;
 import org.slf4j.Logger;
@@ -14,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
 import io.netty.handler.logging.LogLevel;
@@ -22,7 +24,9 @@ import io.netty.handler.ssl.SniHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.util.DomainWildcardMappingBuilder;
 
+import io.kroxylicious.proxy.config.NetworkConfig;
 import io.kroxylicious.proxy.filter.NetFilter;
+import io.kroxylicious.proxy.internal.codec.FrameTap;
 import io.kroxylicious.proxy.internal.codec.KafkaRequestDecoder;
 import io.kroxylicious.proxy.internal.codec.KafkaResponseEncoder;
 
@@ -36,19 +40,59 @@ public class KafkaProxyInitializer extends ChannelInitializer<SocketChannel> {
     private final Map<KafkaAuthnHandler.SaslMechanism, AuthenticateCallbackHandler> authnHandlers;
     private final NetFilter netFilter;
     private final Optional<SslContext> sslContext;
+    private final NetworkConfig networkConfig;
+    private final Map<EventLoop, FairReadScheduler> readSchedulers = new ConcurrentHashMap<>();
+    private final MemoryAccountant memoryAccountant;
+    private final ByteRateQuotas quotas;
+    private final TopicMetadataCaches topicMetadata;
+    private final ResponseCache metadataResponses;
+    private final ResponseCache coordinatorResponses;
+    private final FilterExecutor filterExecutor;
+    private final HotPartitions hotPartitions;
+    private final FrameCapture frameCapture;
+    private final TrafficRecorder trafficRecorder;
+    private final RequestTracing requestTracing;
+    private final TenantMetrics tenantMetrics;
+    private final UpstreamResolver upstreamResolver;
 
     public KafkaProxyInitializer(boolean haproxyProtocol,
                                  Map<KafkaAuthnHandler.SaslMechanism, AuthenticateCallbackHandler> authnMechanismHandlers,
                                  NetFilter netFilter,
                                  boolean logNetwork,
                                  boolean logFrames,
-                                 Optional<SslContext> sslContext) {
+                                 Optional<SslContext> sslContext,
+                                 NetworkConfig networkConfig,
+                                 MemoryAccountant memoryAccountant,
+                                 ByteRateQuotas quotas,
+                                 TopicMetadataCaches topicMetadata,
+                                 ResponseCache metadataResponses,
+                                 ResponseCache coordinatorResponses,
+                                 FilterExecutor filterExecutor,
+                                 HotPartitions hotPartitions,
+                                 FrameCapture frameCapture,
+                                 TrafficRecorder trafficRecorder,
+                                 RequestTracing requestTracing,
+                                 TenantMetrics tenantMetrics,
+                                 UpstreamResolver upstreamResolver) {
         this.haproxyProtocol = haproxyProtocol;
         this.authnHandlers = authnMechanismHandlers != null ? authnMechanismHandlers : Map.of();
         this.netFilter = netFilter;
         this.logNetwork = logNetwork;
         this.logFrames = logFrames;
         this.sslContext = sslContext;
+        this.networkConfig = networkConfig;
+        this.memoryAccountant = memoryAccountant;
+        this.quotas = quotas;
+        this.topicMetadata = topicMetadata;
+        this.metadataResponses = metadataResponses;
+        this.coordinatorResponses = coordinatorResponses;
+        this.filterExecutor = filterExecutor;
+        this.hotPartitions = hotPartitions;
+        this.frameCapture = frameCapture;
+        this.trafficRecorder = trafficRecorder;
+        this.requestTracing = requestTracing;
+        this.tenantMetrics = tenantMetrics;
+        this.upstreamResolver = upstreamResolver;
     }
 
     @Override
@@ -73,13 +117,19 @@ public class KafkaProxyInitializer extends ChannelInitializer<SocketChannel> {
             pipeline.addLast("HAProxyMessageDecoder", new HAProxyMessageDecoder());
         }
 
-        var dp = new SaslDecodePredicate(!authnHandlers.isEmpty());
+        var dp = new SaslDecodePredicate(!authnHandlers.isEmpty(),
+                ResponseCacheHandler.decodedApis(metadataResponses != null, coordinatorResponses != null));
         // The decoder, this only cares about the filters
         // because it needs to know whether to decode requests
-        KafkaRequestDecoder decoder = new KafkaRequestDecoder(dp);
+        // The recorder and frame capture see the requests as the decoder delimits them, before they're decoded
+        FrameTap recorderTap = trafficRecorder == null ? null : trafficRecorder.connection(ch);
+        FrameCaptureHandler frameCaptureHandler = frameCapture == null ? null : new FrameCaptureHandler(frameCapture);
+        FrameTap frameTap = frameCaptureHandler == null ? recorderTap : frameCaptureHandler.andThen(recorderTap);
+        KafkaRequestDecoder decoder = new KafkaRequestDecoder(dp, frameTap);
         pipeline.addLast("requestDecoder", decoder);
 
         pipeline.addLast("responseEncoder", new KafkaResponseEncoder());
+        pipeline.addLast("responseOrderer", new ResponseOrderer());
         if (logFrames) {
             pipeline.addLast("frameLogger", new LoggingHandler("io.kroxylicious.proxy.internal.DownstreamFrameLogger", LogLevel.INFO));
         }
@@ -89,7 +139,33 @@ public class KafkaProxyInitializer extends ChannelInitializer<SocketChannel> {
             pipeline.addLast(new KafkaAuthnHandler(ch, authnHandlers));
         }
 
-        pipeline.addLast("netHandler", new KafkaProxyFrontendHandler(netFilter, dp, logNetwork, logFrames));
+        if (tenantMetrics != null) {
+            // Ahead of the response cache, which answers some requests without passing them on
+            pipeline.addLast("tenantMetricsHandler", new TenantMetricsHandler(tenantMetrics));
+        }
+
+        FairReadScheduler readScheduler = networkConfig.fairReadQuantum()
+                .map(quantum -> readSchedulers.computeIfAbsent(ch.eventLoop(), eventLoop -> new FairReadScheduler(eventLoop, quantum)))
+                .orElse(null);
+        var frontendHandler = new KafkaProxyFrontendHandler(netFilter, dp, logNetwork, logFrames, networkConfig, memoryAccountant, readScheduler,
+                topicMetadata, filterExecutor, upstreamResolver);
+        if (metadataResponses != null || coordinatorResponses != null) {
+            pipeline.addLast("responseCacheHandler", new ResponseCacheHandler(metadataResponses, coordinatorResponses,
+                    frontendHandler::pauseReadsForResponse, frontendHandler::resumeReadsAfterResponse));
+        }
+        if (quotas != null) {
+            pipeline.addLast("quotaHandler", new ByteRateQuotaHandler(quotas, frontendHandler::throttleReads, frontendHandler::unthrottleReads));
+        }
+        if (hotPartitions != null) {
+            pipeline.addLast("hotPartitionsHandler", new HotPartitionsHandler(hotPartitions, frontendHandler::topicMetadata));
+        }
+        if (frameCaptureHandler != null) {
+            pipeline.addLast("frameCaptureHandler", frameCaptureHandler);
+        }
+        if (requestTracing != null) {
+            pipeline.addLast("requestTracingHandler", new RequestTracingHandler(requestTracing));
+        }
+        pipeline.addLast("netHandler", frontendHandler);
         LOGGER.debug("{}: Initial pipeline: {}", ch, pipeline);
     }
 
@@ -0,0 +1,220 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import io.kroxylicious.proxy.config.MemoryBudgetConfig;
+import io.kroxylicious.proxy.tag.VisibleForTesting;
+
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_MEMORY_BACKPRESSURE_STATE;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_MEMORY_CONNECTION_PAUSES;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_MEMORY_HIGH_WATER_MARK_BYTES;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_MEMORY_LOW_WATER_MARK_BYTES;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_MEMORY_PAUSED_CONNECTIONS;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_MEMORY_USED_BYTES;
+
+/**
+ * <p>Proxy-wide backpressure based on the memory held for all connections.</p>
+ *
+ * <p>The per-connection backpressure in {@link KafkaProxyFrontendHandler} and {@link KafkaProxyBackendHandler}
+ * only considers one pair of channels at a time, so many slow clients can each stay under their water marks
+ * while together exhausting direct memory. The accountant periodically sums the {@link ConnectionMemoryAccount}s
+ * of all connections and, when the total reaches the high water mark, stops reading from the heaviest connections.
+ * If the total is still at or above the high water mark and not falling on a later check it stops reading
+ * from all connections. Reads resume once the total falls below the low water mark.</p>
+ *
+ * <p>Its metrics are registered when it is started, and removed when it is stopped, so that they
+ * never outlive it in a registry shared with another proxy.</p>
+ */
+public class MemoryAccountant {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryAccountant.class);
+
+    enum State {
+        /** Below the high water mark, or recovering to the low water mark without having paused anything */
+        NORMAL,
+        /** The heaviest connections are paused */
+        SHEDDING,
+        /** All connections are paused */
+        PAUSED_ALL
+    }
+
+    private final long highWaterMark;
+    private final long lowWaterMark;
+    private final long checkIntervalMs;
+    private final Set<ConnectionMemoryAccount> accounts = ConcurrentHashMap.newKeySet();
+    private final MeterRegistry registry;
+    private final LongAdder pauses = new LongAdder();
+    private final List<Meter> meters = new ArrayList<>();
+
+    private volatile State state = State.NORMAL;
+    private volatile long usedBytes;
+    private volatile int pausedConnections;
+    private ScheduledFuture<?> checkTask;
+
+    /**
+     * @param config The budget.
+     * @param registry The registry to publish the accountant's metrics to while it is started.
+     */
+    public MemoryAccountant(MemoryBudgetConfig config, MeterRegistry registry) {
+        this.highWaterMark = config.highWaterMarkBytes();
+        this.lowWaterMark = config.lowWaterMarkBytes();
+        this.checkIntervalMs = config.checkIntervalMs();
+        this.registry = registry;
+    }
+
+    /**
+     * Starts periodically checking the accounts, and publishing the metrics.
+     * @param executor The executor to run the checks on.
+     */
+    public void start(ScheduledExecutorService executor) {
+        if (checkTask != null) {
+            throw new IllegalStateException("Already started");
+        }
+        meters.add(FunctionCounter.builder(KROXYLICIOUS_MEMORY_CONNECTION_PAUSES, pauses, LongAdder::sum).register(registry));
+        meters.add(Gauge.builder(KROXYLICIOUS_MEMORY_USED_BYTES, this, MemoryAccountant::usedBytes).register(registry));
+        meters.add(Gauge.builder(KROXYLICIOUS_MEMORY_HIGH_WATER_MARK_BYTES, this, a -> a.highWaterMark).register(registry));
+        meters.add(Gauge.builder(KROXYLICIOUS_MEMORY_LOW_WATER_MARK_BYTES, this, a -> a.lowWaterMark).register(registry));
+        meters.add(Gauge.builder(KROXYLICIOUS_MEMORY_PAUSED_CONNECTIONS, this, MemoryAccountant::pausedConnections).register(registry));
+        meters.add(Gauge.builder(KROXYLICIOUS_MEMORY_BACKPRESSURE_STATE, this, a -> a.state().ordinal()).register(registry));
+        checkTask = executor.scheduleAtFixedRate(this::check, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops checking the accounts, and removes the metrics from the registry.
+     */
+    public void stop() {
+        if (checkTask != null) {
+            checkTask.cancel(false);
+            checkTask = null;
+        }
+        meters.forEach(registry::remove);
+        meters.clear();
+    }
+
+    void register(ConnectionMemoryAccount account) {
+        accounts.add(account);
+    }
+
+    void deregister(ConnectionMemoryAccount account) {
+        accounts.remove(account);
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    int pausedConnections() {
+        return pausedConnections;
+    }
+
+    State state() {
+        return state;
+    }
+
+    @VisibleForTesting
+    void check() {
+        try {
+            List<Usage> usages = new ArrayList<>(accounts.size());
+            long total = 0;
+            for (ConnectionMemoryAccount account : accounts) {
+                long used = account.usedBytes();
+                usages.add(new Usage(account, used));
+                total += used;
+            }
+            long previousTotal = usedBytes;
+            usedBytes = total;
+
+            if (total >= highWaterMark) {
+                if (state == State.NORMAL) {
+                    shedHeaviest(usages, total);
+                    state = State.SHEDDING;
+                }
+                else if (state == State.SHEDDING && total >= previousTotal) {
+                    LOGGER.warn("Accounted memory {} bytes is still above the high water mark {} bytes, pausing reads on all {} connections",
+                            total, highWaterMark, usages.size());
+                    pauseAll(usages);
+                    state = State.PAUSED_ALL;
+                }
+            }
+            else if (total < lowWaterMark && state != State.NORMAL) {
+                LOGGER.info("Accounted memory {} bytes is below the low water mark {} bytes, resuming reads", total, lowWaterMark);
+                for (Usage usage : usages) {
+                    usage.account.resume();
+                }
+                state = State.NORMAL;
+            }
+
+            if (state == State.PAUSED_ALL) {
+                // connections accepted since everything was paused
+                pauseAll(usages);
+            }
+            int paused = 0;
+            for (Usage usage : usages) {
+                if (usage.account.isPaused()) {
+                    paused++;
+                }
+            }
+            pausedConnections = paused;
+        }
+        catch (RuntimeException e) {
+            // Don't let an exception cancel the periodic check
+            LOGGER.error("Error checking memory accounts", e);
+        }
+    }
+
+    /**
+     * Pause the heaviest connections until the bytes they hold would, once drained, take the total below the low water mark.
+     */
+    private void shedHeaviest(List<Usage> usages, long total) {
+        usages.sort(Comparator.comparingLong(Usage::used).reversed());
+        long toShed = total - lowWaterMark;
+        int count = 0;
+        for (Usage usage : usages) {
+            if (toShed <= 0) {
+                break;
+            }
+            pause(usage.account);
+            toShed -= usage.used;
+            count++;
+        }
+        LOGGER.warn("Accounted memory {} bytes reached the high water mark {} bytes, pausing reads on the {} heaviest connections",
+                total, highWaterMark, count);
+    }
+
+    private void pauseAll(List<Usage> usages) {
+        for (Usage usage : usages) {
+            pause(usage.account);
+        }
+    }
+
+    private void pause(ConnectionMemoryAccount account) {
+        if (!account.isPaused()) {
+            account.pause();
+            pauses.increment();
+        }
+    }
+
+    private record Usage(ConnectionMemoryAccount account, long used) {
+    }
+}
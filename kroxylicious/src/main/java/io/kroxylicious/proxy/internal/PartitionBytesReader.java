@@ -0,0 +1,258 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.message.FetchResponseData;
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.record.BaseRecords;
+
+import io.netty.buffer.ByteBuf;
+
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.frame.RequestFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
+
+/**
+ * <p>Reads the size of the records of each partition in produce requests and fetch responses.</p>
+ *
+ * <p>Opaque frames are read in place: the reader walks the topic and partition arrays and skips over
+ * everything else, including the records themselves, so nothing is decoded or copied except the topic names.
+ * Decoded frames are read from their body.</p>
+ */
+final class PartitionBytesReader {
+
+    /**
+     * Receives the size of the records of each partition of a frame.
+     */
+    interface PartitionBytes {
+        /**
+         * @param topicName The topic name, or null if the frame identifies the topic by id.
+         * @param topicId The topic id, or null if the frame identifies the topic by name.
+         * @param partition The partition index.
+         * @param bytes The size of the partition's records.
+         */
+        void accept(String topicName, Uuid topicId, int partition, int bytes);
+    }
+
+    /** The first flexible version of produce requests */
+    private static final short PRODUCE_FLEXIBLE_VERSION = 9;
+    /** The first flexible version of fetch responses */
+    private static final short FETCH_FLEXIBLE_VERSION = 12;
+    /** The first version of fetch responses which identify topics by id */
+    private static final short FETCH_TOPIC_ID_VERSION = 13;
+
+    private PartitionBytesReader() {
+    }
+
+    /**
+     * @param frame A request frame.
+     * @param consumer Receives the size of each partition's records, if the frame is a produce request.
+     */
+    static void readProduceRequest(RequestFrame frame, PartitionBytes consumer) {
+        if (frame instanceof DecodedRequestFrame) {
+            ApiMessage body = ((DecodedRequestFrame<?>) frame).body();
+            if (body instanceof ProduceRequestData) {
+                for (var topic : ((ProduceRequestData) body).topicData()) {
+                    for (var partition : topic.partitionData()) {
+                        consumer.accept(topic.name(), null, partition.index(), sizeInBytes(partition.records()));
+                    }
+                }
+            }
+        }
+        else if (frame instanceof OpaqueRequestFrame) {
+            var opaque = (OpaqueRequestFrame) frame;
+            if (opaque.apiKeyId() == ApiKeys.PRODUCE.id) {
+                readProduceRequest(opaque.buf(), opaque.apiVersion(), consumer);
+            }
+        }
+    }
+
+    /**
+     * @param frame A response frame.
+     * @param consumer Receives the size of each partition's records, if the frame is a fetch response.
+     */
+    static void readFetchResponse(ResponseFrame frame, PartitionBytes consumer) {
+        if (frame instanceof DecodedResponseFrame) {
+            ApiMessage body = ((DecodedResponseFrame<?>) frame).body();
+            if (body instanceof FetchResponseData) {
+                for (var topic : ((FetchResponseData) body).responses()) {
+                    boolean byId = ((DecodedResponseFrame<?>) frame).apiVersion() >= FETCH_TOPIC_ID_VERSION;
+                    for (var partition : topic.partitions()) {
+                        consumer.accept(byId ? null : topic.topic(), byId ? topic.topicId() : null, partition.partitionIndex(), sizeInBytes(partition.records()));
+                    }
+                }
+            }
+        }
+        else if (frame instanceof OpaqueResponseFrame) {
+            var opaque = (OpaqueResponseFrame) frame;
+            if (opaque.apiKeyId() == ApiKeys.FETCH.id) {
+                readFetchResponse(opaque.buf(), opaque.apiVersion(), consumer);
+            }
+        }
+    }
+
+    /**
+     * @param buf The request, from the start of its header, which is left unread.
+     * @param apiVersion The version of the request.
+     * @param consumer Receives the size of each partition's records.
+     */
+    static void readProduceRequest(ByteBuf buf, short apiVersion, PartitionBytes consumer) {
+        ByteBuf in = buf.duplicate();
+        boolean flexible = apiVersion >= PRODUCE_FLEXIBLE_VERSION;
+        // api key, api version and correlation id, then the client id, which is always a non-compact string
+        in.skipBytes(Short.BYTES + Short.BYTES + Integer.BYTES);
+        skipBytes(in, in.readShort());
+        if (flexible) {
+            skipTaggedFields(in);
+        }
+        if (apiVersion >= 3) {
+            // transactional id
+            skipBytes(in, flexible ? ByteBufAccessorImpl.readUnsignedVarint(in) - 1 : in.readShort());
+        }
+        // acks and timeout
+        in.skipBytes(Short.BYTES + Integer.BYTES);
+        int topics = arrayLength(in, flexible);
+        for (int i = 0; i < topics; i++) {
+            String topicName = readString(in, flexible);
+            int partitions = arrayLength(in, flexible);
+            for (int j = 0; j < partitions; j++) {
+                int partition = in.readInt();
+                int bytes = Math.max(0, bytesLength(in, flexible));
+                in.skipBytes(bytes);
+                if (flexible) {
+                    skipTaggedFields(in);
+                }
+                consumer.accept(topicName, null, partition, bytes);
+            }
+            if (flexible) {
+                skipTaggedFields(in);
+            }
+        }
+    }
+
+    /**
+     * @param buf The response, from the start of its header, which is left unread.
+     * @param apiVersion The version of the request the response is to.
+     * @param consumer Receives the size of each partition's records.
+     */
+    static void readFetchResponse(ByteBuf buf, short apiVersion, PartitionBytes consumer) {
+        ByteBuf in = buf.duplicate();
+        boolean flexible = apiVersion >= FETCH_FLEXIBLE_VERSION;
+        // correlation id
+        in.skipBytes(Integer.BYTES);
+        if (flexible) {
+            skipTaggedFields(in);
+        }
+        if (apiVersion >= 1) {
+            // throttle time
+            in.skipBytes(Integer.BYTES);
+        }
+        if (apiVersion >= 7) {
+            // error code and session id
+            in.skipBytes(Short.BYTES + Integer.BYTES);
+        }
+        int topics = arrayLength(in, flexible);
+        for (int i = 0; i < topics; i++) {
+            String topicName = null;
+            Uuid topicId = null;
+            if (apiVersion >= FETCH_TOPIC_ID_VERSION) {
+                topicId = new Uuid(in.readLong(), in.readLong());
+            }
+            else {
+                topicName = readString(in, flexible);
+            }
+            int partitions = arrayLength(in, flexible);
+            for (int j = 0; j < partitions; j++) {
+                int partition = in.readInt();
+                // error code and high watermark
+                in.skipBytes(Short.BYTES + Long.BYTES);
+                if (apiVersion >= 4) {
+                    // last stable offset
+                    in.skipBytes(Long.BYTES);
+                }
+                if (apiVersion >= 5) {
+                    // log start offset
+                    in.skipBytes(Long.BYTES);
+                }
+                if (apiVersion >= 4) {
+                    int abortedTransactions = arrayLength(in, flexible);
+                    for (int k = 0; k < abortedTransactions; k++) {
+                        // producer id and first offset
+                        in.skipBytes(Long.BYTES + Long.BYTES);
+                        if (flexible) {
+                            skipTaggedFields(in);
+                        }
+                    }
+                }
+                if (apiVersion >= 11) {
+                    // preferred read replica
+                    in.skipBytes(Integer.BYTES);
+                }
+                int bytes = Math.max(0, bytesLength(in, flexible));
+                in.skipBytes(bytes);
+                if (flexible) {
+                    skipTaggedFields(in);
+                }
+                consumer.accept(topicName, topicId, partition, bytes);
+            }
+            if (flexible) {
+                skipTaggedFields(in);
+            }
+        }
+    }
+
+    private static int sizeInBytes(BaseRecords records) {
+        return records == null ? 0 : records.sizeInBytes();
+    }
+
+    /**
+     * @return The length of an array, or a negative number for a null array.
+     */
+    private static int arrayLength(ByteBuf in, boolean flexible) {
+        return flexible ? ByteBufAccessorImpl.readUnsignedVarint(in) - 1 : in.readInt();
+    }
+
+    /**
+     * @return The length of a records or bytes field, or a negative number if it's null.
+     */
+    private static int bytesLength(ByteBuf in, boolean flexible) {
+        return flexible ? ByteBufAccessorImpl.readUnsignedVarint(in) - 1 : in.readInt();
+    }
+
+    private static String readString(ByteBuf in, boolean flexible) {
+        int length = flexible ? ByteBufAccessorImpl.readUnsignedVarint(in) - 1 : in.readShort();
+        if (length < 0) {
+            return null;
+        }
+        String string = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return string;
+    }
+
+    private static void skipBytes(ByteBuf in, int length) {
+        // A null string or bytes has a negative length, and no content
+        if (length > 0) {
+            in.skipBytes(length);
+        }
+    }
+
+    private static void skipTaggedFields(ByteBuf in) {
+        int numTaggedFields = ByteBufAccessorImpl.readUnsignedVarint(in);
+        for (int i = 0; i < numTaggedFields; i++) {
+            ByteBufAccessorImpl.readUnsignedVarint(in); // tag
+            in.skipBytes(ByteBufAccessorImpl.readUnsignedVarint(in));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.exporter.otlp.http.trace.OtlpHttpSpanExporter;
+import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import io.kroxylicious.proxy.config.TracingConfig;
+
+/**
+ * OpenTelemetry tracing of a sample of the requests clients send.
+ * Whether a request is traced is decided by a per-connection {@link RequestTracingHandler}
+ * before anything is allocated for it, so every span this creates is recorded and exported.
+ */
+public class RequestTracing {
+
+    static final String INSTRUMENTATION_SCOPE = "io.kroxylicious.proxy";
+    static final AttributeKey<String> SERVICE_NAME = AttributeKey.stringKey("service.name");
+    static final AttributeKey<String> API_KEY = AttributeKey.stringKey("kafka.api_key");
+    static final AttributeKey<Long> API_VERSION = AttributeKey.longKey("kafka.api_version");
+    static final AttributeKey<Long> CORRELATION_ID = AttributeKey.longKey("kafka.correlation_id");
+    static final AttributeKey<String> CLIENT_ID = AttributeKey.stringKey("kafka.client_id");
+    static final AttributeKey<String> CHANNEL = AttributeKey.stringKey("kroxylicious.channel");
+    static final AttributeKey<String> FILTER = AttributeKey.stringKey("kroxylicious.filter");
+
+    private final int sampleOneIn;
+    private final SdkTracerProvider tracerProvider;
+    private final Tracer tracer;
+
+    public RequestTracing(TracingConfig config) {
+        this(config.sampleOneIn().orElseThrow(() -> new IllegalArgumentException("Tracing is not enabled")),
+                BatchSpanProcessor.builder(exporter(config)).build(),
+                config.serviceName());
+    }
+
+    RequestTracing(int sampleOneIn, SpanProcessor spanProcessor, String serviceName) {
+        this.sampleOneIn = sampleOneIn;
+        this.tracerProvider = SdkTracerProvider.builder()
+                .setResource(Resource.getDefault().merge(Resource.create(Attributes.of(SERVICE_NAME, serviceName))))
+                .addSpanProcessor(spanProcessor)
+                .build();
+        this.tracer = tracerProvider.get(INSTRUMENTATION_SCOPE);
+    }
+
+    private static SpanExporter exporter(TracingConfig config) {
+        switch (config.protocol()) {
+            case GRPC:
+                return OtlpGrpcSpanExporter.builder().setEndpoint(config.endpoint()).build();
+            case HTTP:
+                return OtlpHttpSpanExporter.builder().setEndpoint(config.endpoint()).build();
+            default:
+                throw new IllegalArgumentException("Unsupported protocol " + config.protocol());
+        }
+    }
+
+    /**
+     * @return One in how many of the requests of each connection are traced.
+     */
+    int sampleOneIn() {
+        return sampleOneIn;
+    }
+
+    /**
+     * Starts tracing a request read from a client.
+     */
+    Trace start(String channel, short apiKeyId, short apiVersion, int correlationId, String clientId, boolean hasResponse) {
+        String apiKey = ApiKeys.hasId(apiKeyId) ? ApiKeys.forId(apiKeyId).name : Short.toString(apiKeyId);
+        var builder = tracer.spanBuilder(apiKey)
+                .setNoParent()
+                .setSpanKind(SpanKind.SERVER)
+                .setAttribute(CHANNEL, channel)
+                .setAttribute(API_KEY, apiKey)
+                .setAttribute(API_VERSION, (long) apiVersion)
+                .setAttribute(CORRELATION_ID, (long) correlationId);
+        if (clientId != null) {
+            builder.setAttribute(CLIENT_ID, clientId);
+        }
+        return new Trace(builder.startSpan(), hasResponse);
+    }
+
+    /**
+     * Flushes the spans not yet exported, and stops exporting.
+     */
+    public void stop() {
+        tracerProvider.shutdown().join(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The trace of one sampled request, from being read from the client until its response has been written to the client.
+     * Other than creating and ending it, which happen on the connection's event loop, its methods may be called from
+     * any thread, since filters may be invoked on the {@link FilterExecutor}.
+     */
+    final class Trace {
+
+        private final Span span;
+        private final boolean hasResponse;
+
+        private Trace(Span span, boolean hasResponse) {
+            this.span = span;
+            this.hasResponse = hasResponse;
+        }
+
+        Span span() {
+            return span;
+        }
+
+        /**
+         * @return false if the client expects no response, as for produce requests with {@code acks=0}.
+         */
+        boolean hasResponse() {
+            return hasResponse;
+        }
+
+        void event(String name) {
+            span.addEvent(name);
+        }
+
+        void filterEvent(String name, Object filter) {
+            span.addEvent(name, Attributes.of(FILTER, filter.getClass().getName()));
+        }
+
+        /**
+         * Starts a child span for a request sent by a filter.
+         */
+        Span startSendRequest(Object filter, ApiKeys apiKey) {
+            return tracer.spanBuilder("sendRequest " + apiKey.name)
+                    .setParent(Context.root().with(span))
+                    .setSpanKind(SpanKind.CLIENT)
+                    .setAttribute(FILTER, filter.getClass().getName())
+                    .setAttribute(API_KEY, apiKey.name)
+                    .startSpan();
+        }
+
+        /**
+         * @param failure Why the request failed, or null if its response was written.
+         */
+        void end(Throwable failure) {
+            RequestTracing.end(span, failure);
+        }
+    }
+
+    static void end(Span span, Throwable failure) {
+        if (failure != null) {
+            span.recordException(failure);
+            span.setStatus(StatusCode.ERROR);
+        }
+        span.end();
+    }
+}
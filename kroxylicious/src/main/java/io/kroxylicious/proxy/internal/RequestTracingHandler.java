@@ -0,0 +1,155 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.io.IOException;
+
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.collection.IntObjectHashMap;
+
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.RequestFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+
+/**
+ * Traces one in every {@link RequestTracing#sampleOneIn()} of the requests read from the client,
+ * until the response to it has been written to the client.
+ * The {@link #upstreamHandler() upstream handler} records when a traced request is written to the broker,
+ * and when its response arrives, and the {@link FilterHandler}s record the filters it passes through.
+ * Requests which aren't sampled cost a decrement and a comparison.
+ */
+class RequestTracingHandler extends ChannelDuplexHandler {
+
+    private final RequestTracing tracing;
+    /** The traces of the sampled requests, by their correlation id with the client. Only accessed on the event loop. */
+    private final IntObjectHashMap<RequestTracing.Trace> traces = new IntObjectHashMap<>();
+    private String channel;
+    private int requestsUntilSample;
+
+    RequestTracingHandler(RequestTracing tracing) {
+        this.tracing = tracing;
+        // Sample the first, so that a connection sending fewer requests than the sampling interval is still seen
+        this.requestsUntilSample = 1;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        channel = ctx.channel().id().asShortText();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof RequestFrame && --requestsUntilSample == 0) {
+            requestsUntilSample = tracing.sampleOneIn();
+            RequestFrame frame = (RequestFrame) msg;
+            traces.put(frame.correlationId(), tracing.start(channel,
+                    ByteRateQuotaHandler.apiKeyId(frame),
+                    apiVersion(frame),
+                    frame.correlationId(),
+                    ByteRateQuotaHandler.clientId(frame),
+                    hasResponse(frame)));
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    private static short apiVersion(RequestFrame frame) {
+        if (frame instanceof DecodedRequestFrame) {
+            return ((DecodedRequestFrame<?>) frame).apiVersion();
+        }
+        else if (frame instanceof OpaqueRequestFrame) {
+            return ((OpaqueRequestFrame) frame).apiVersion();
+        }
+        return -1;
+    }
+
+    private static boolean hasResponse(RequestFrame frame) {
+        if (frame instanceof DecodedRequestFrame) {
+            DecodedRequestFrame<?> decoded = (DecodedRequestFrame<?>) frame;
+            return decoded.apiKey() != ApiKeys.PRODUCE || ((ProduceRequestData) decoded.body()).acks() != 0;
+        }
+        else if (frame instanceof OpaqueRequestFrame) {
+            OpaqueRequestFrame opaque = (OpaqueRequestFrame) frame;
+            return opaque.apiKeyId() != ApiKeys.PRODUCE.id || opaque.acks() != 0;
+        }
+        return true;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ResponseFrame && !traces.isEmpty()) {
+            RequestTracing.Trace trace = traces.remove(((ResponseFrame) msg).correlationId());
+            if (trace != null) {
+                promise = endOnWritten(trace, promise);
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    private static ChannelPromise endOnWritten(RequestTracing.Trace trace, ChannelPromise promise) {
+        ChannelPromise unvoided = promise.unvoid();
+        unvoided.addListener(future -> trace.end(future.cause()));
+        return unvoided;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (!traces.isEmpty()) {
+            var closed = new IOException("Connection closed");
+            traces.values().forEach(trace -> trace.end(closed));
+            traces.clear();
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * @return The trace of a request read from the client, if it was sampled. Must be called on the event loop.
+     */
+    RequestTracing.Trace trace(int correlationId) {
+        return traces.isEmpty() ? null : traces.get(correlationId);
+    }
+
+    /**
+     * @return A handler for the connection to the broker, to go between its filters and its codec.
+     */
+    ChannelHandler upstreamHandler() {
+        return new ChannelDuplexHandler() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                if (msg instanceof RequestFrame && !(msg instanceof InternalRequestFrame)) {
+                    int correlationId = ((RequestFrame) msg).correlationId();
+                    RequestTracing.Trace trace = trace(correlationId);
+                    if (trace != null) {
+                        trace.event("upstream.write");
+                        if (!trace.hasResponse()) {
+                            // The client won't be sent anything, so this is as far as the request goes
+                            traces.remove(correlationId);
+                            promise = endOnWritten(trace, promise);
+                        }
+                    }
+                }
+                super.write(ctx, msg, promise);
+            }
+
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                if (msg instanceof ResponseFrame && !(msg instanceof InternalResponseFrame)) {
+                    RequestTracing.Trace trace = trace(((ResponseFrame) msg).correlationId());
+                    if (trace != null) {
+                        trace.event("upstream.response");
+                    }
+                }
+                super.channelRead(ctx, msg);
+            }
+        };
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.apache.kafka.common.message.FindCoordinatorRequestData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.protocol.ApiMessage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import io.kroxylicious.proxy.config.CoordinatorCacheConfig;
+import io.kroxylicious.proxy.config.MetadataCacheConfig;
+import io.kroxylicious.proxy.tag.VisibleForTesting;
+
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_COORDINATOR_CACHE_HIT_RATIO;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_COORDINATOR_CACHE_INVALIDATIONS;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_COORDINATOR_CACHE_REQUESTS;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_METADATA_CACHE_HIT_RATIO;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_METADATA_CACHE_REQUESTS;
+
+/**
+ * <p>A proxy-wide cache of responses, shared by the {@link ResponseCacheHandler}s of all connections.
+ * The proxy has one for Metadata responses, and one for FindCoordinator and DescribeCluster responses.</p>
+ *
+ * <p>Responses are cached encoded, as the bytes following the correlation id, so serving one
+ * from the cache costs a copy rather than decoding, filtering and encoding.
+ * The bytes are on the heap and never released explicitly, so entries can be replaced, expired or invalidated
+ * while other connections are still writing them.</p>
+ *
+ * <p>An entry is created when the first connection asks for a response which isn't cached.
+ * Connections asking for the same response while that connection's request is in flight
+ * wait for its response rather than sending their own request.</p>
+ */
+public class ResponseCache {
+
+    static final long EXPIRY_INTERVAL_MS = 10_000;
+
+    /**
+     * The key for a response: a response depends on the request, on the virtual cluster or tenant
+     * the client is connected to (identified by its SNI hostname) and on what the client is authorized to see.
+     * The authorization id is only known when the proxy authenticated the client, and is null for unauthenticated
+     * clients, so {@link ResponseCacheHandler} doesn't use the cache for clients which authenticate with the broker.
+     */
+    record Key(String sniHostname, String authorizedId, short apiVersion, ApiMessage request) {
+    }
+
+    /**
+     * A cached, or soon-to-be cached, response.
+     */
+    static final class Entry {
+        private final CompletableFuture<byte[]> response = new CompletableFuture<>();
+        private volatile long expiresAtNanos;
+
+        CompletableFuture<byte[]> response() {
+            return response;
+        }
+
+        private boolean isExpired(long nowNanos) {
+            // In-flight entries don't expire
+            return response.isDone() && nowNanos - expiresAtNanos >= 0;
+        }
+    }
+
+    /**
+     * The result of looking up a response.
+     * @param entry The entry.
+     * @param leader true if the caller created the entry, so must send the request and {@link #complete} the entry with the response.
+     */
+    record Lookup(Entry entry, boolean leader) {
+    }
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter coalesced;
+    private final Counter misses;
+    private final Counter bypassed;
+    private final Counter invalidations;
+    private ScheduledFuture<?> expiryTask;
+
+    private ResponseCache(long ttlMs, int maxEntries, String requestsMetric, String hitRatioMetric, Counter invalidations) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.maxEntries = maxEntries;
+        this.hits = Metrics.counter(requestsMetric, "result", "hit");
+        this.coalesced = Metrics.counter(requestsMetric, "result", "coalesced");
+        this.misses = Metrics.counter(requestsMetric, "result", "miss");
+        this.bypassed = Metrics.counter(requestsMetric, "result", "bypassed");
+        this.invalidations = invalidations;
+        Metrics.gauge(hitRatioMetric, this, ResponseCache::hitRatio);
+    }
+
+    /**
+     * @return A cache for Metadata responses.
+     */
+    public static ResponseCache forMetadata(MetadataCacheConfig config) {
+        return new ResponseCache(config.ttlMs().orElseThrow(), config.maxEntries(),
+                KROXYLICIOUS_METADATA_CACHE_REQUESTS, KROXYLICIOUS_METADATA_CACHE_HIT_RATIO, null);
+    }
+
+    /**
+     * @return A cache for FindCoordinator and DescribeCluster responses.
+     */
+    public static ResponseCache forCoordinators(CoordinatorCacheConfig config) {
+        return new ResponseCache(config.ttlMs().orElseThrow(), config.maxEntries(),
+                KROXYLICIOUS_COORDINATOR_CACHE_REQUESTS, KROXYLICIOUS_COORDINATOR_CACHE_HIT_RATIO,
+                Metrics.counter(KROXYLICIOUS_COORDINATOR_CACHE_INVALIDATIONS));
+    }
+
+    /**
+     * Starts periodically removing expired entries.
+     * @param executor The executor to remove them on.
+     */
+    public void start(ScheduledExecutorService executor) {
+        if (expiryTask != null) {
+            throw new IllegalStateException("Already started");
+        }
+        expiryTask = executor.scheduleAtFixedRate(() -> removeExpired(System.nanoTime()),
+                EXPIRY_INTERVAL_MS, EXPIRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (expiryTask != null) {
+            expiryTask.cancel(false);
+            expiryTask = null;
+        }
+    }
+
+    static Key key(String sniHostname, String authorizedId, short apiVersion, ApiMessage request) {
+        ApiMessage normalized = request;
+        // Clients ask for the same things in different orders
+        if (request instanceof MetadataRequestData) {
+            var metadataRequest = (MetadataRequestData) request;
+            if (metadataRequest.topics() != null && metadataRequest.topics().size() > 1) {
+                var sorted = metadataRequest.duplicate();
+                sorted.topics().sort(Comparator.comparing(MetadataRequestData.MetadataRequestTopic::name, Comparator.nullsFirst(Comparator.naturalOrder()))
+                        .thenComparing(MetadataRequestData.MetadataRequestTopic::topicId));
+                normalized = sorted;
+            }
+        }
+        else if (request instanceof FindCoordinatorRequestData) {
+            var findCoordinatorRequest = (FindCoordinatorRequestData) request;
+            if (findCoordinatorRequest.coordinatorKeys().size() > 1) {
+                var sorted = findCoordinatorRequest.duplicate();
+                sorted.coordinatorKeys().sort(Comparator.naturalOrder());
+                normalized = sorted;
+            }
+        }
+        return new Key(sniHostname, authorizedId, apiVersion, normalized);
+    }
+
+    /**
+     * Looks up the response for the given key, creating an entry for it if there's none.
+     * @return The lookup, or null if the cache is full and the caller should just send its request.
+     */
+    Lookup lookup(Key key, long nowNanos) {
+        var candidate = new Entry();
+        Entry entry = entries.compute(key, (k, existing) -> existing == null || existing.isExpired(nowNanos) ? candidate : existing);
+        if (entry != candidate) {
+            (entry.response.isDone() ? hits : coalesced).increment();
+            return new Lookup(entry, false);
+        }
+        if (entries.size() > maxEntries) {
+            entries.remove(key, candidate);
+            bypassed.increment();
+            return null;
+        }
+        misses.increment();
+        return new Lookup(candidate, true);
+    }
+
+    /**
+     * Completes an entry created by {@link #lookup}, making the response available to the connections waiting for it.
+     * @param response The response, following the correlation id.
+     * @param cacheable Whether the response may be served to later requests, as well as those waiting for it.
+     */
+    void complete(Key key, Entry entry, byte[] response, boolean cacheable, long nowNanos) {
+        entry.expiresAtNanos = nowNanos + ttlNanos;
+        if (!cacheable) {
+            entries.remove(key, entry);
+        }
+        entry.response.complete(response);
+    }
+
+    /**
+     * Abandons an entry created by {@link #lookup} when the response won't be received.
+     * Connections waiting for it will send their own requests.
+     */
+    void abandon(Key key, Entry entry) {
+        entries.remove(key, entry);
+        entry.response.completeExceptionally(new IllegalStateException("Request abandoned"));
+    }
+
+    /**
+     * Removes the responses whose keys match, because they're known to be out of date.
+     * Connections already waiting for an in-flight response still receive it.
+     */
+    void invalidate(Predicate<Key> stale) {
+        for (Key key : entries.keySet()) {
+            if (stale.test(key) && entries.remove(key) != null && invalidations != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * @return The fraction of lookups answered without a request of their own, since the proxy started.
+     */
+    private double hitRatio() {
+        double answered = hits.count() + coalesced.count();
+        double total = answered + misses.count() + bypassed.count();
+        return total == 0 ? 0 : answered / total;
+    }
+
+    @VisibleForTesting
+    void removeExpired(long nowNanos) {
+        entries.values().removeIf(entry -> entry.isExpired(nowNanos));
+    }
+
+    @VisibleForTesting
+    int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.kafka.common.message.DescribeClusterResponseData;
+import org.apache.kafka.common.message.FindCoordinatorRequestData;
+import org.apache.kafka.common.message.FindCoordinatorResponseData;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.protocol.Errors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.SniCompletionEvent;
+import io.netty.util.ReferenceCountUtil;
+
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueFrame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.frame.RequestFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+import io.kroxylicious.proxy.internal.ResponseCache.Key;
+import io.kroxylicious.proxy.internal.ResponseCache.Lookup;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
+
+/**
+ * <p>Serves a client's Metadata, FindCoordinator and DescribeCluster requests from the proxy's {@link ResponseCache}s.
+ * It sits between the client and the filters, so the responses it caches and serves have already been
+ * changed by all the filters, and a request served from the cache never reaches the filters or the broker.</p>
+ *
+ * <p>Kafka clients expect responses in the order they sent their requests, so a request is only served
+ * from the cache when all the connection's earlier requests have been answered.
+ * While the connection waits for a response another connection has requested, reads from the client are paused
+ * and any requests already read are held back, much as a broker handles one request per connection at a time.</p>
+ *
+ * <p>Responses depend on what the client is authorized to see, which the proxy only knows when it
+ * authenticated the client itself. Once a client starts SASL authentication with the broker,
+ * its connection stops using the caches, so it is never served a response the broker filtered
+ * for a different principal, nor puts one in the cache for others.</p>
+ *
+ * <p>Cached coordinators are invalidated when a response to a request sent to a coordinator,
+ * such as a Heartbeat or an OffsetCommit, says the broker is not the coordinator any more.
+ * Clients look the coordinator up again when that happens, and must not be given the old one.</p>
+ */
+class ResponseCacheHandler extends ChannelDuplexHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCacheHandler.class);
+
+    /** The size of the frame size and correlation id which precede a cached response */
+    private static final int CACHED_RESPONSE_OFFSET = Integer.BYTES + Integer.BYTES;
+
+    private record Lead(ResponseCache cache, Key key, ResponseCache.Entry entry) {
+    }
+
+    private final ResponseCache metadata;
+    private final ResponseCache coordinators;
+    private final Runnable pauseReads;
+    private final Runnable resumeReads;
+
+    private String sniHostname;
+    private String authorizedId;
+    /** true once the client has started authenticating with the broker rather than the proxy */
+    private boolean authenticatingWithBroker;
+    /** The number of requests read from the client which it's still expecting a response to */
+    private int outstanding;
+    /** true while waiting for a response another connection has requested */
+    private boolean waiting;
+    private final ArrayDeque<Object> deferred = new ArrayDeque<>();
+    /** The cache entries this connection has to complete, by correlation id */
+    private final Map<Integer, Lead> leads = new HashMap<>();
+    /** The coordinators the requests awaiting a response were sent to, by correlation id */
+    private final Map<Integer, List<CoordinatorKey>> coordinatorKeys = new HashMap<>();
+
+    /**
+     * @param metadata The proxy-wide cache of Metadata responses, or null if they aren't cached.
+     * @param coordinators The proxy-wide cache of FindCoordinator and DescribeCluster responses, or null if they aren't cached.
+     * @param pauseReads Stops reading from the client.
+     * @param resumeReads Asks for the client's next request.
+     */
+    ResponseCacheHandler(ResponseCache metadata, ResponseCache coordinators, Runnable pauseReads, Runnable resumeReads) {
+        this.metadata = metadata;
+        this.coordinators = coordinators;
+        this.pauseReads = pauseReads;
+        this.resumeReads = resumeReads;
+    }
+
+    /**
+     * @return The APIs whose requests and responses need to be decoded for the given caches.
+     */
+    static Set<ApiKeys> decodedApis(boolean metadata, boolean coordinators) {
+        Set<ApiKeys> apis = EnumSet.noneOf(ApiKeys.class);
+        if (metadata) {
+            apis.add(ApiKeys.METADATA);
+        }
+        if (coordinators) {
+            apis.add(ApiKeys.FIND_COORDINATOR);
+            apis.add(ApiKeys.DESCRIBE_CLUSTER);
+            apis.addAll(CoordinatorKey.COORDINATOR_APIS);
+        }
+        return apis;
+    }
+
+    private ResponseCache cacheFor(ApiKeys apiKey) {
+        switch (apiKey) {
+            case METADATA:
+                return metadata;
+            case FIND_COORDINATOR:
+            case DESCRIBE_CLUSTER:
+                return coordinators;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+        if (event instanceof SniCompletionEvent && ((SniCompletionEvent) event).isSuccess()) {
+            sniHostname = ((SniCompletionEvent) event).hostname();
+        }
+        else if (event instanceof AuthenticationEvent) {
+            authorizedId = ((AuthenticationEvent) event).authorizationId();
+        }
+        super.userEventTriggered(ctx, event);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (waiting) {
+            deferred.add(msg);
+            return;
+        }
+        if (msg instanceof RequestFrame) {
+            RequestFrame frame = (RequestFrame) msg;
+            if (!authenticatingWithBroker && isSasl(frame)) {
+                LOGGER.debug("{}: Client is authenticating with the broker, not caching its responses", ctx.channel());
+                authenticatingWithBroker = true;
+            }
+            if (frame instanceof DecodedRequestFrame) {
+                var decoded = (DecodedRequestFrame<?>) frame;
+                ResponseCache cache = authenticatingWithBroker ? null : cacheFor(decoded.apiKey());
+                if (cache != null && outstanding == 0 && serveFromCache(ctx, cache, decoded)) {
+                    return;
+                }
+                if (coordinators != null) {
+                    rememberCoordinatorKeys(decoded);
+                }
+            }
+            if (expectsResponse(frame)) {
+                outstanding++;
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    /**
+     * @return true if the request has been, or will be, answered from the cache.
+     */
+    private boolean serveFromCache(ChannelHandlerContext ctx, ResponseCache cache, DecodedRequestFrame<?> frame) {
+        Key key = ResponseCache.key(sniHostname, authorizedId, frame.apiVersion(), frame.body());
+        Lookup lookup = cache.lookup(key, System.nanoTime());
+        if (lookup == null) {
+            return false;
+        }
+        if (lookup.leader()) {
+            leads.put(frame.correlationId(), new Lead(cache, key, lookup.entry()));
+            return false;
+        }
+        var response = lookup.entry().response();
+        if (response.isDone() && !response.isCompletedExceptionally()) {
+            LOGGER.trace("{}: Serving {} response from cache", ctx.channel(), frame.apiKey());
+            writeCached(ctx, frame, response.join());
+            resumeReads.run();
+        }
+        else {
+            LOGGER.trace("{}: Waiting for {} response requested by another connection", ctx.channel(), frame.apiKey());
+            waiting = true;
+            pauseReads.run();
+            response.whenComplete((bytes, error) -> ctx.executor().execute(() -> onCoalescedResponse(ctx, frame, bytes)));
+        }
+        return true;
+    }
+
+    private void onCoalescedResponse(ChannelHandlerContext ctx, DecodedRequestFrame<?> frame, byte[] bytes) {
+        waiting = false;
+        if (!ctx.channel().isActive()) {
+            frame.release();
+            return;
+        }
+        if (bytes != null) {
+            writeCached(ctx, frame, bytes);
+        }
+        else {
+            // The connection which requested the response has gone, so ask the broker
+            outstanding++;
+            if (coordinators != null) {
+                rememberCoordinatorKeys(frame);
+            }
+            ctx.fireChannelRead(frame);
+        }
+        while (!waiting && !deferred.isEmpty()) {
+            try {
+                channelRead(ctx, deferred.poll());
+            }
+            catch (Exception e) {
+                ctx.fireExceptionCaught(e);
+            }
+        }
+        if (!waiting) {
+            resumeReads.run();
+        }
+    }
+
+    private static void writeCached(ChannelHandlerContext ctx, DecodedRequestFrame<?> request, byte[] bytes) {
+        ByteBuf correlationId = Unpooled.buffer(Integer.BYTES).writeInt(request.correlationId());
+        ByteBuf buf = Unpooled.wrappedBuffer(correlationId, Unpooled.wrappedBuffer(bytes));
+        ctx.writeAndFlush(new OpaqueResponseFrame(buf, request.correlationId(), buf.readableBytes(), request.apiKey().id, request.apiVersion()));
+        request.release();
+    }
+
+    private void rememberCoordinatorKeys(DecodedRequestFrame<?> frame) {
+        if (CoordinatorKey.COORDINATOR_APIS.contains(frame.apiKey())) {
+            List<CoordinatorKey> keys = CoordinatorKey.of(frame.body());
+            if (!keys.isEmpty()) {
+                coordinatorKeys.put(frame.correlationId(), keys);
+            }
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ResponseFrame) {
+            ResponseFrame frame = (ResponseFrame) msg;
+            outstanding--;
+            List<CoordinatorKey> keys = coordinatorKeys.isEmpty() ? null : coordinatorKeys.remove(frame.correlationId());
+            if (keys != null && frame instanceof DecodedResponseFrame) {
+                maybeInvalidateCoordinators(keys, ((DecodedResponseFrame<?>) frame).body());
+            }
+            Lead lead = leads.isEmpty() ? null : leads.remove(frame.correlationId());
+            if (lead != null) {
+                msg = cacheResponse(lead, frame);
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    /**
+     * Puts the response in the cache, and replaces the frame with the cached bytes, so it's only encoded once.
+     */
+    private ResponseFrame cacheResponse(Lead lead, ResponseFrame frame) {
+        short apiKeyId = lead.key().request().apiKey();
+        short apiVersion;
+        boolean cacheable;
+        if (frame instanceof DecodedResponseFrame && ((DecodedResponseFrame<?>) frame).apiKey().id == apiKeyId) {
+            apiVersion = ((DecodedResponseFrame<?>) frame).apiVersion();
+            cacheable = isCacheable(((DecodedResponseFrame<?>) frame).body());
+        }
+        else if (frame instanceof OpaqueResponseFrame && ((OpaqueResponseFrame) frame).apiKeyId() == apiKeyId) {
+            apiVersion = ((OpaqueResponseFrame) frame).apiVersion();
+            cacheable = false;
+        }
+        else {
+            lead.cache().abandon(lead.key(), lead.entry());
+            return frame;
+        }
+        ByteBuf buf = Unpooled.buffer(frame.estimateEncodedSize());
+        frame.encode(new ByteBufAccessorImpl(buf));
+        ReferenceCountUtil.release(frame);
+        byte[] bytes = new byte[buf.readableBytes() - CACHED_RESPONSE_OFFSET];
+        buf.getBytes(CACHED_RESPONSE_OFFSET, bytes);
+        lead.cache().complete(lead.key(), lead.entry(), bytes, cacheable, System.nanoTime());
+
+        buf.readerIndex(Integer.BYTES);
+        return new OpaqueResponseFrame(buf, frame.correlationId(), buf.readableBytes(), apiKeyId, apiVersion);
+    }
+
+    /**
+     * Responses with errors, such as a topic with no leader yet or a coordinator which is still loading,
+     * are likely to be different soon, so aren't cached.
+     */
+    private static boolean isCacheable(ApiMessage response) {
+        if (response instanceof MetadataResponseData) {
+            return isCacheable((MetadataResponseData) response);
+        }
+        else if (response instanceof FindCoordinatorResponseData) {
+            var findCoordinator = (FindCoordinatorResponseData) response;
+            if (findCoordinator.errorCode() != Errors.NONE.code()) {
+                return false;
+            }
+            for (var coordinator : findCoordinator.coordinators()) {
+                if (coordinator.errorCode() != Errors.NONE.code()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else if (response instanceof DescribeClusterResponseData) {
+            return ((DescribeClusterResponseData) response).errorCode() == Errors.NONE.code();
+        }
+        return false;
+    }
+
+    private static boolean isCacheable(MetadataResponseData response) {
+        for (var topic : response.topics()) {
+            if (topic.errorCode() != Errors.NONE.code()) {
+                return false;
+            }
+            for (var partition : topic.partitions()) {
+                if (partition.errorCode() != Errors.NONE.code()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void maybeInvalidateCoordinators(List<CoordinatorKey> keys, ApiMessage response) {
+        if (CoordinatorKey.isNotCoordinator(response)) {
+            LOGGER.debug("Coordinator for {} has moved, invalidating cached lookups", keys);
+            coordinators.invalidate(key -> Objects.equals(key.sniHostname(), sniHostname)
+                    && key.request() instanceof FindCoordinatorRequestData
+                    && keys.stream().anyMatch(k -> k.isLookedUpBy((FindCoordinatorRequestData) key.request())));
+        }
+    }
+
+    /**
+     * The proxy's own authentication handler consumes the SASL requests it handles,
+     * so one reaching this handler is on its way to the broker.
+     */
+    private static boolean isSasl(RequestFrame frame) {
+        short apiKeyId;
+        if (frame instanceof DecodedRequestFrame) {
+            apiKeyId = ((DecodedRequestFrame<?>) frame).apiKey().id;
+        }
+        else if (frame instanceof OpaqueRequestFrame) {
+            apiKeyId = ((OpaqueRequestFrame) frame).apiKeyId();
+        }
+        else {
+            return false;
+        }
+        return apiKeyId == ApiKeys.SASL_HANDSHAKE.id || apiKeyId == ApiKeys.SASL_AUTHENTICATE.id;
+    }
+
+    private static boolean expectsResponse(RequestFrame frame) {
+        if (frame instanceof DecodedRequestFrame) {
+            var decoded = (DecodedRequestFrame<?>) frame;
+            return decoded.apiKey() != ApiKeys.PRODUCE || ((ProduceRequestData) decoded.body()).acks() != 0;
+        }
+        else if (frame instanceof OpaqueRequestFrame) {
+            return ((OpaqueRequestFrame) frame).apiKeyId() != ApiKeys.PRODUCE.id || ((OpaqueRequestFrame) frame).acks() != 0;
+        }
+        return true;
+    }
+
+    private static void release(Object msg) {
+        if (msg instanceof OpaqueFrame) {
+            ((OpaqueFrame) msg).release();
+        }
+        else {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // Let other connections waiting for our responses ask for themselves
+        leads.values().forEach(lead -> lead.cache().abandon(lead.key(), lead.entry()));
+        leads.clear();
+        coordinatorKeys.clear();
+        deferred.forEach(ResponseCacheHandler::release);
+        deferred.clear();
+        super.channelInactive(ctx);
+    }
+}
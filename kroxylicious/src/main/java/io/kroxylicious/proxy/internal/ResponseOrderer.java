@@ -0,0 +1,370 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueFrame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.frame.RequestFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+import io.kroxylicious.proxy.tag.VisibleForTesting;
+
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_RESPONSE_HEAD_OF_LINE_BLOCKING;
+
+/**
+ * <p>Writes responses to the client in the order it sent the requests, as Kafka clients require,
+ * however the filters and handlers between it and the brokers deliver them.</p>
+ *
+ * <p>Each request which will have a response is given the next sequence number as it's read.
+ * A response for the oldest request awaiting one is written straight away, along with any responses
+ * which arrived earlier for the requests after it. Other responses are held in a ring, indexed by the sequence number
+ * of their request, until the responses before them have been written.
+ * A response finds its request's sequence number through a hash index by correlation id, so the work per response
+ * doesn't grow with the number of requests in flight.</p>
+ *
+ * <p>A request which never gets a response, such as one dropped by a filter, would block the responses behind it for ever.
+ * So if the oldest held response has waited for {@value #MAX_BLOCKED_MS}ms, which is the default {@code request.timeout.ms}
+ * of Kafka clients, the missing responses before it are given up on.</p>
+ */
+public class ResponseOrderer extends ChannelDuplexHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseOrderer.class);
+
+    static final long MAX_BLOCKED_MS = 30_000;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long maxBlockedNanos;
+    private final Timer blocked;
+
+    private int[] correlationIds = new int[INITIAL_CAPACITY];
+    private Object[] responses = new Object[INITIAL_CAPACITY];
+    private ChannelPromise[] promises = new ChannelPromise[INITIAL_CAPACITY];
+    private long[] heldAtNanos = new long[INITIAL_CAPACITY];
+    /** The sequence number of the oldest request awaiting its response, by correlation id */
+    private final SequenceIndex index = new SequenceIndex(INITIAL_CAPACITY);
+    /** The number of requests awaiting a response which aren't in the index, because an older one has the same correlation id */
+    private int unindexed;
+    /** The sequence number of the oldest request awaiting its response */
+    private long head;
+    /** The sequence number the next request will be given */
+    private long tail;
+    private int held;
+    private ScheduledFuture<?> giveUpTask;
+
+    public ResponseOrderer() {
+        this(MAX_BLOCKED_MS);
+    }
+
+    @VisibleForTesting
+    ResponseOrderer(long maxBlockedMs) {
+        this.maxBlockedNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockedMs);
+        this.blocked = Metrics.timer(KROXYLICIOUS_RESPONSE_HEAD_OF_LINE_BLOCKING);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof DecodedRequestFrame || msg instanceof OpaqueRequestFrame) {
+            if (hasResponse(msg)) {
+                if (tail - head == correlationIds.length) {
+                    grow();
+                }
+                int correlationId = ((RequestFrame) msg).correlationId();
+                correlationIds[slot(tail)] = correlationId;
+                // Clients don't reuse a correlation id while it's in flight, but if one does, its responses are matched oldest first
+                if (!index.putIfAbsent(correlationId, tail)) {
+                    unindexed++;
+                }
+                tail++;
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    private static boolean hasResponse(Object request) {
+        if (request instanceof DecodedRequestFrame) {
+            var frame = (DecodedRequestFrame<?>) request;
+            return frame.apiKey() != ApiKeys.PRODUCE || ((ProduceRequestData) frame.body()).acks() != 0;
+        }
+        var frame = (OpaqueRequestFrame) request;
+        return frame.apiKeyId() != ApiKeys.PRODUCE.id || frame.acks() != 0;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof DecodedResponseFrame || msg instanceof OpaqueResponseFrame)) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+        long sequence = sequenceOf(((ResponseFrame) msg).correlationId());
+        if (sequence < 0) {
+            // Not a response the client is waiting for, so there's no order to keep
+            super.write(ctx, msg, promise);
+        }
+        else if (sequence == head) {
+            head++;
+            super.write(ctx, msg, promise);
+            writeReleased(ctx);
+        }
+        else {
+            int slot = slot(sequence);
+            responses[slot] = msg;
+            promises[slot] = promise;
+            heldAtNanos[slot] = System.nanoTime();
+            held++;
+            if (giveUpTask == null) {
+                giveUpTask = ctx.executor().schedule(() -> giveUp(ctx), maxBlockedNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest request with the given correlation id which is awaiting its response from the index.
+     * @return Its sequence number, or -1 if there's none.
+     */
+    private long sequenceOf(int correlationId) {
+        long sequence = index.remove(correlationId);
+        if (sequence >= 0 && unindexed > 0) {
+            // Index the next request with the same correlation id, if there is one
+            for (long next = sequence + 1; next < tail; next++) {
+                int slot = slot(next);
+                if (correlationIds[slot] == correlationId && responses[slot] == null) {
+                    index.putIfAbsent(correlationId, next);
+                    unindexed--;
+                    break;
+                }
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Writes the held responses which are now at the head.
+     */
+    private void writeReleased(ChannelHandlerContext ctx) {
+        long nowNanos = System.nanoTime();
+        while (head < tail && responses[slot(head)] != null) {
+            int slot = slot(head++);
+            Object response = responses[slot];
+            ChannelPromise promise = promises[slot];
+            responses[slot] = null;
+            promises[slot] = null;
+            held--;
+            blocked.record(nowNanos - heldAtNanos[slot], TimeUnit.NANOSECONDS);
+            ctx.write(response, promise);
+        }
+        if (held == 0 && giveUpTask != null) {
+            giveUpTask.cancel(false);
+            giveUpTask = null;
+        }
+    }
+
+    private void giveUp(ChannelHandlerContext ctx) {
+        giveUpTask = null;
+        if (held == 0) {
+            return;
+        }
+        long oldestHeldAtNanos = Long.MAX_VALUE;
+        for (long sequence = head; sequence < tail; sequence++) {
+            int slot = slot(sequence);
+            if (responses[slot] != null) {
+                oldestHeldAtNanos = Math.min(oldestHeldAtNanos, heldAtNanos[slot]);
+            }
+        }
+        long waitedNanos = System.nanoTime() - oldestHeldAtNanos;
+        if (waitedNanos < maxBlockedNanos) {
+            giveUpTask = ctx.executor().schedule(() -> giveUp(ctx), maxBlockedNanos - waitedNanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+        long skipped = 0;
+        while (responses[slot(head)] == null) {
+            LOGGER.warn("{}: No response to request with correlation id {} after {}ms, writing the responses behind it",
+                    ctx.channel(), correlationIds[slot(head)], TimeUnit.NANOSECONDS.toMillis(waitedNanos));
+            // It's the oldest request awaiting a response, so the one indexed for its correlation id
+            sequenceOf(correlationIds[slot(head)]);
+            head++;
+            skipped++;
+        }
+        LOGGER.debug("{}: Gave up on {} responses", ctx.channel(), skipped);
+        writeReleased(ctx);
+        ctx.flush();
+        if (held > 0) {
+            giveUpTask = ctx.executor().schedule(() -> giveUp(ctx), maxBlockedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseHeld();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releaseHeld();
+        super.handlerRemoved(ctx);
+    }
+
+    private void releaseHeld() {
+        if (giveUpTask != null) {
+            giveUpTask.cancel(false);
+            giveUpTask = null;
+        }
+        for (int slot = 0; slot < responses.length; slot++) {
+            Object response = responses[slot];
+            if (response != null) {
+                if (response instanceof OpaqueFrame) {
+                    ((OpaqueFrame) response).release();
+                }
+                else {
+                    ReferenceCountUtil.release(response);
+                }
+                if (!promises[slot].isVoid()) {
+                    promises[slot].tryFailure(new IllegalStateException("Connection closed"));
+                }
+                responses[slot] = null;
+                promises[slot] = null;
+            }
+        }
+        held = 0;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence & (correlationIds.length - 1));
+    }
+
+    private void grow() {
+        int capacity = correlationIds.length * 2;
+        int[] newCorrelationIds = new int[capacity];
+        Object[] newResponses = new Object[capacity];
+        ChannelPromise[] newPromises = new ChannelPromise[capacity];
+        long[] newHeldAtNanos = new long[capacity];
+        for (long sequence = head; sequence < tail; sequence++) {
+            int from = slot(sequence);
+            int to = (int) (sequence & (capacity - 1));
+            newCorrelationIds[to] = correlationIds[from];
+            newResponses[to] = responses[from];
+            newPromises[to] = promises[from];
+            newHeldAtNanos[to] = heldAtNanos[from];
+        }
+        correlationIds = newCorrelationIds;
+        responses = newResponses;
+        promises = newPromises;
+        heldAtNanos = newHeldAtNanos;
+    }
+
+    /**
+     * An open addressing hash map from int correlation ids to long sequence numbers, which doesn't box them.
+     * Only accessed on the event loop.
+     */
+    private static final class SequenceIndex {
+
+        private static final long ABSENT = -1;
+
+        private int[] keys;
+        private long[] values;
+        private int size;
+
+        private SequenceIndex(int capacity) {
+            keys = new int[capacity];
+            values = new long[capacity];
+            Arrays.fill(values, ABSENT);
+        }
+
+        private int home(int key) {
+            int hash = key * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & (keys.length - 1);
+        }
+
+        /**
+         * @return false if the key was already present, in which case its value is unchanged.
+         */
+        boolean putIfAbsent(int key, long value) {
+            int mask = keys.length - 1;
+            for (int i = home(key);; i = (i + 1) & mask) {
+                if (values[i] == ABSENT) {
+                    keys[i] = key;
+                    values[i] = value;
+                    if (++size * 2 > keys.length) {
+                        rehash(keys.length * 2);
+                    }
+                    return true;
+                }
+                if (keys[i] == key) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * @return The key's value, or -1 if it wasn't present.
+         */
+        long remove(int key) {
+            int mask = keys.length - 1;
+            int i = home(key);
+            while (values[i] != ABSENT && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            long value = values[i];
+            if (value == ABSENT) {
+                return ABSENT;
+            }
+            // Shift back the entries after it which would otherwise be unreachable
+            int gap = i;
+            for (int j = (i + 1) & mask; values[j] != ABSENT; j = (j + 1) & mask) {
+                if (((j - home(keys[j])) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            values[gap] = ABSENT;
+            size--;
+            return value;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new int[capacity];
+            values = new long[capacity];
+            Arrays.fill(values, ABSENT);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != ABSENT) {
+                    putIfAbsent(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int held() {
+        return held;
+    }
+
+    @VisibleForTesting
+    int awaitingResponse() {
+        return (int) (tail - head);
+    }
+}
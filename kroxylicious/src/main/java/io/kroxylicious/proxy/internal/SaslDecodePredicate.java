@@ -5,6 +5,8 @@
  */
 package io.kroxylicious.proxy.internal;
 
+import java.util.Set;
+
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,10 +18,20 @@ class SaslDecodePredicate implements DecodePredicate {
     private static final Logger LOGGER = LoggerFactory.getLogger(SaslDecodePredicate.class);
 
     private final boolean handleSasl;
+    private final Set<ApiKeys> proxyApis;
     private DecodePredicate delegate = null;
 
     SaslDecodePredicate(boolean handleSasl) {
+        this(handleSasl, Set.of());
+    }
+
+    /**
+     * @param handleSasl Whether the proxy handles SASL authentication itself.
+     * @param proxyApis The APIs whose requests and responses the proxy needs to see itself, such as those it serves from its caches.
+     */
+    SaslDecodePredicate(boolean handleSasl, Set<ApiKeys> proxyApis) {
         this.handleSasl = handleSasl;
+        this.proxyApis = proxyApis;
     }
 
     public void setDelegate(DecodePredicate delegate) {
@@ -54,6 +66,9 @@ class SaslDecodePredicate implements DecodePredicate {
                 || apiKey == ApiKeys.SASL_AUTHENTICATE) {
             result = handleSasl;
         }
+        else if (proxyApis.contains(apiKey)) {
+            result = true;
+        }
         else {
             result = delegate == null || delegate.shouldDecodeRequest(apiKey, apiVersion);
         }
@@ -62,7 +77,7 @@ class SaslDecodePredicate implements DecodePredicate {
 
     @Override
     public boolean shouldDecodeResponse(ApiKeys apiKey, short apiVersion) {
-        return delegate == null || delegate.shouldDecodeResponse(apiKey, apiVersion);
+        return delegate == null || proxyApis.contains(apiKey) || delegate.shouldDecodeResponse(apiKey, apiVersion);
     }
 
     @Override
@@ -0,0 +1,236 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.message.CreateTopicsResponseData;
+import org.apache.kafka.common.message.DeleteTopicsResponseData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.protocol.Errors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.kroxylicious.proxy.filter.KrpcFilterContext;
+import io.kroxylicious.proxy.filter.TopicMetadata;
+import io.kroxylicious.proxy.filter.TopicMetadataCache;
+import io.kroxylicious.proxy.future.InternalCompletionStage;
+import io.kroxylicious.proxy.tag.VisibleForTesting;
+
+/**
+ * <p>The {@link TopicMetadataCache} shared by the connections to one upstream cluster with one SNI hostname,
+ * as handed out by {@link TopicMetadataCaches}.
+ * It's fed by a {@link TopicMetadataCacheFilter} on each of those connections, so it is read and written from all event loops.
+ * Reads are lock-free map lookups; topic ids and names change rarely, so writes are rare.</p>
+ *
+ * <p>It holds the topic names from the broker's responses, before any filter has rewritten or removed them,
+ * so it may name topics which the clients of the connections aren't allowed to know about.
+ * Its contents are for filters, and must not be exposed to clients.</p>
+ *
+ * <p>Filters see it through {@link #forContext(KrpcFilterContext, Executor)}, which binds it to the filter's
+ * context so that lookups of uncached topics can be sent on the filter's connection.
+ * There is at most one lookup in flight per topic id, whichever connection asked first.</p>
+ */
+public class SharedTopicMetadataCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedTopicMetadataCache.class);
+
+    /** The first version which can look up topics by id */
+    @VisibleForTesting
+    static final short METADATA_BY_ID_VERSION = 12;
+
+    private final ConcurrentHashMap<Uuid, TopicMetadata> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TopicMetadata> byName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Uuid, CompletableFuture<TopicMetadata>> pendingLookups = new ConcurrentHashMap<>();
+
+    Optional<TopicMetadata> topic(Uuid topicId) {
+        return Optional.ofNullable(byId.get(topicId));
+    }
+
+    Optional<TopicMetadata> topic(String topicName) {
+        return Optional.ofNullable(byName.get(topicName));
+    }
+
+    void update(MetadataResponseData response) {
+        for (var topic : response.topics()) {
+            if (topic.errorCode() == Errors.NONE.code()) {
+                if (topic.name() != null && !topic.name().isEmpty() && !Uuid.ZERO_UUID.equals(topic.topicId())) {
+                    Map<Integer, Integer> leaders = new HashMap<>();
+                    for (var partition : topic.partitions()) {
+                        leaders.put(partition.partitionIndex(), partition.leaderId());
+                    }
+                    put(new TopicMetadata(topic.topicId(), topic.name(), leaders));
+                }
+            }
+            else if (topic.errorCode() == Errors.UNKNOWN_TOPIC_ID.code()
+                    || topic.errorCode() == Errors.UNKNOWN_TOPIC_OR_PARTITION.code()) {
+                remove(topic.topicId(), topic.name());
+            }
+        }
+    }
+
+    void update(CreateTopicsResponseData response) {
+        for (var topic : response.topics()) {
+            if (topic.errorCode() == Errors.NONE.code() && !Uuid.ZERO_UUID.equals(topic.topicId())) {
+                // Partition leaders are not known until the topic appears in a Metadata response
+                Map<Integer, Integer> leaders = new HashMap<>();
+                for (int i = 0; i < topic.numPartitions(); i++) {
+                    leaders.put(i, -1);
+                }
+                put(new TopicMetadata(topic.topicId(), topic.name(), leaders));
+            }
+        }
+    }
+
+    void update(DeleteTopicsResponseData response) {
+        for (var topic : response.responses()) {
+            if (topic.errorCode() == Errors.NONE.code()) {
+                remove(topic.topicId(), topic.name());
+            }
+        }
+    }
+
+    private void put(TopicMetadata topic) {
+        TopicMetadata previous = byName.put(topic.name(), topic);
+        if (previous != null && !previous.topicId().equals(topic.topicId())) {
+            // The topic has been deleted and recreated
+            byId.remove(previous.topicId(), previous);
+        }
+        byId.put(topic.topicId(), topic);
+        var pending = pendingLookups.remove(topic.topicId());
+        if (pending != null) {
+            pending.complete(topic);
+        }
+    }
+
+    private void remove(Uuid topicId, String topicName) {
+        if (topicId != null && !Uuid.ZERO_UUID.equals(topicId)) {
+            TopicMetadata removed = byId.remove(topicId);
+            if (removed != null) {
+                byName.remove(removed.name(), removed);
+            }
+        }
+        if (topicName != null && !topicName.isEmpty()) {
+            TopicMetadata removed = byName.remove(topicName);
+            if (removed != null) {
+                byId.remove(removed.topicId(), removed);
+            }
+        }
+    }
+
+    /**
+     * @param context The context of the filter using the cache.
+     * @param executor The filter's event loop.
+     * @return A view of this cache which sends lookups on the filter's connection.
+     */
+    TopicMetadataCache forContext(KrpcFilterContext context, Executor executor) {
+        return new TopicMetadataCache() {
+            @Override
+            public Optional<TopicMetadata> topic(Uuid topicId) {
+                return SharedTopicMetadataCache.this.topic(topicId);
+            }
+
+            @Override
+            public Optional<TopicMetadata> topic(String topicName) {
+                return SharedTopicMetadataCache.this.topic(topicName);
+            }
+
+            @Override
+            public CompletionStage<Map<Uuid, String>> topicNames(Collection<Uuid> topicIds) {
+                return SharedTopicMetadataCache.this.topicNames(topicIds, context, executor);
+            }
+        };
+    }
+
+    private CompletionStage<Map<Uuid, String>> topicNames(Collection<Uuid> topicIds, KrpcFilterContext context, Executor executor) {
+        Map<Uuid, String> names = new HashMap<>();
+        Map<Uuid, CompletableFuture<TopicMetadata>> waiting = new HashMap<>();
+        Map<Uuid, CompletableFuture<TopicMetadata>> lookups = new HashMap<>();
+        for (Uuid topicId : topicIds) {
+            TopicMetadata topic = byId.get(topicId);
+            if (topic != null) {
+                names.put(topicId, topic.name());
+            }
+            else if (!waiting.containsKey(topicId)) {
+                var lookup = new CompletableFuture<TopicMetadata>();
+                var existing = pendingLookups.putIfAbsent(topicId, lookup);
+                if (existing == null) {
+                    lookups.put(topicId, lookup);
+                    waiting.put(topicId, lookup);
+                }
+                else {
+                    waiting.put(topicId, existing);
+                }
+            }
+        }
+        if (waiting.isEmpty()) {
+            return new InternalCompletionStage<>(CompletableFuture.completedFuture(names));
+        }
+        if (!lookups.isEmpty()) {
+            lookup(lookups, context);
+        }
+        CompletableFuture<Map<Uuid, String>> result = CompletableFuture.allOf(waiting.values().toArray(CompletableFuture[]::new))
+                .thenApplyAsync(ignored -> {
+                    waiting.forEach((topicId, lookup) -> {
+                        TopicMetadata topic = lookup.join();
+                        if (topic != null) {
+                            names.put(topicId, topic.name());
+                        }
+                    });
+                    return names;
+                }, executor);
+        return new InternalCompletionStage<>(result);
+    }
+
+    private void lookup(Map<Uuid, CompletableFuture<TopicMetadata>> lookups, KrpcFilterContext context) {
+        List<MetadataRequestData.MetadataRequestTopic> requestTopics = new ArrayList<>(lookups.size());
+        for (Uuid topicId : lookups.keySet()) {
+            requestTopics.add(new MetadataRequestData.MetadataRequestTopic().setName(null).setTopicId(topicId));
+        }
+        LOGGER.debug("{}: Looking up {} uncached topic ids via Metadata request: {}", context.channelDescriptor(), lookups.size(), lookups.keySet());
+        context.<MetadataResponseData> sendRequest(METADATA_BY_ID_VERSION,
+                new MetadataRequestData()
+                        .setTopics(requestTopics)
+                        .setAllowAutoTopicCreation(false))
+                .whenComplete((response, error) -> {
+                    if (response != null) {
+                        update(response);
+                    }
+                    lookups.forEach((topicId, lookup) -> {
+                        pendingLookups.remove(topicId, lookup);
+                        if (error != null) {
+                            lookup.completeExceptionally(error);
+                        }
+                        else {
+                            // A topic which wasn't in the response doesn't exist
+                            lookup.complete(null);
+                        }
+                    });
+                });
+    }
+
+    @VisibleForTesting
+    Map<Uuid, String> topicNames() {
+        return byId.values().stream().collect(Collectors.toMap(TopicMetadata::topicId, TopicMetadata::name));
+    }
+
+    @VisibleForTesting
+    int pendingLookups() {
+        return pendingLookups.size();
+    }
+}
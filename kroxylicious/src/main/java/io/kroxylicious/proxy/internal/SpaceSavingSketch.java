@@ -0,0 +1,288 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>A Space-Saving sketch (Metwally, Agrawal and El Abbadi), which finds the keys with the largest total weight
+ * in a stream using at most {@code capacity} counters, however many distinct keys the stream has.</p>
+ *
+ * <p>When a key without a counter arrives and all the counters are in use, the counter with the smallest count
+ * is given to the new key, keeping its count, which becomes the new key's error. So a key's count
+ * overestimates its true weight by at most its error, and any key whose true weight exceeds the smallest count has a counter.
+ * The counters are kept in a min-heap, so that an update is O(log capacity).</p>
+ *
+ * <p>It isn't thread-safe: a sketch is updated by a single event loop, and what other threads see are its {@link Summary summaries}.</p>
+ * @param <K> The type of key.
+ */
+final class SpaceSavingSketch<K> {
+
+    /**
+     * A key's count.
+     * @param <K> The type of key.
+     */
+    static final class Entry<K> {
+        private final K key;
+        private final long count;
+        private final long error;
+
+        /**
+         * @param key The key.
+         * @param count An upper bound on the key's total weight.
+         * @param error The most by which {@code count} overestimates the key's total weight.
+         */
+        Entry(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        K key() {
+            return key;
+        }
+
+        long count() {
+            return count;
+        }
+
+        long error() {
+            return error;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Entry<?> entry = (Entry<?>) o;
+            return count == entry.count && error == entry.error && Objects.equals(key, entry.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, count, error);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry(key=" + key + ", count=" + count + ", error=" + error + ")";
+        }
+    }
+
+    /**
+     * An immutable copy of a sketch's counters.
+     * @param <K> The type of key.
+     */
+    static final class Summary<K> {
+        private static final Summary<?> EMPTY = new Summary<>(List.of(), 0);
+
+        private final List<Entry<K>> entries;
+        private final long floor;
+
+        /**
+         * @param entries The entries, largest count first.
+         * @param floor An upper bound on the total weight of any key without an entry:
+         * the smallest count if all the counters were in use, otherwise 0.
+         */
+        Summary(List<Entry<K>> entries, long floor) {
+            this.entries = List.copyOf(entries);
+            this.floor = floor;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <K> Summary<K> empty() {
+            return (Summary<K>) EMPTY;
+        }
+
+        List<Entry<K>> entries() {
+            return entries;
+        }
+
+        long floor() {
+            return floor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Summary<?> summary = (Summary<?>) o;
+            return floor == summary.floor && entries.equals(summary.entries);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entries, floor);
+        }
+
+        @Override
+        public String toString() {
+            return "Summary(entries=" + entries + ", floor=" + floor + ")";
+        }
+    }
+
+    private static final class Counter<K> {
+        private final K key;
+        private long count;
+        private long error;
+        private int index;
+
+        private Counter(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    private final int capacity;
+    private final Map<K, Counter<K>> counters;
+    private final List<Counter<K>> heap;
+
+    SpaceSavingSketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0, but was " + capacity);
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = new ArrayList<>(capacity);
+    }
+
+    /**
+     * @param key The key.
+     * @param weight The weight to add to the key's count, which must not be negative.
+     */
+    void add(K key, long weight) {
+        Counter<K> counter = counters.get(key);
+        if (counter != null) {
+            counter.count += weight;
+            siftDown(counter.index);
+        }
+        else if (heap.size() < capacity) {
+            counter = new Counter<>(key, weight, 0);
+            counter.index = heap.size();
+            heap.add(counter);
+            counters.put(key, counter);
+            siftUp(counter.index);
+        }
+        else {
+            Counter<K> smallest = heap.get(0);
+            counters.remove(smallest.key);
+            counter = new Counter<>(key, smallest.count + weight, smallest.count);
+            counter.index = 0;
+            heap.set(0, counter);
+            counters.put(key, counter);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return A copy of the counters.
+     */
+    Summary<K> summary() {
+        List<Entry<K>> entries = new ArrayList<>(heap.size());
+        for (Counter<K> counter : heap) {
+            entries.add(new Entry<>(counter.key, counter.count, counter.error));
+        }
+        entries.sort(Comparator.comparingLong((Entry<K> entry) -> entry.count).reversed());
+        return new Summary<>(entries, heap.size() < capacity ? 0 : heap.get(0).count);
+    }
+
+    /**
+     * Forgets all the keys.
+     */
+    void clear() {
+        counters.clear();
+        heap.clear();
+    }
+
+    /**
+     * Merges the summaries of sketches of disjoint streams, as if the streams had been counted by one sketch.
+     * A key missing from a summary may still have had up to that summary's {@link Summary#floor() floor} of weight
+     * in its stream, so that floor is added to both its count and its error.
+     * @param summaries The summaries.
+     * @param capacity The most entries to keep.
+     * @return The merged summary.
+     */
+    static <K> Summary<K> merge(Collection<Summary<K>> summaries, int capacity) {
+        Map<K, long[]> merged = new HashMap<>();
+        long floors = 0;
+        for (Summary<K> summary : summaries) {
+            floors += summary.floor();
+        }
+        for (Summary<K> summary : summaries) {
+            for (Entry<K> entry : summary.entries()) {
+                long[] countAndError = merged.computeIfAbsent(entry.key(), key -> new long[2]);
+                // Start from the other summaries' floors, and take this summary's own floor back out when it has the key
+                countAndError[0] += entry.count() - summary.floor();
+                countAndError[1] += entry.error() - summary.floor();
+            }
+        }
+        List<Entry<K>> entries = new ArrayList<>(merged.size());
+        for (Map.Entry<K, long[]> entry : merged.entrySet()) {
+            long[] countAndError = entry.getValue();
+            entries.add(new Entry<>(entry.getKey(), countAndError[0] + floors, countAndError[1] + floors));
+        }
+        entries.sort(Comparator.comparingLong((Entry<K> entry) -> entry.count).reversed());
+        if (entries.size() <= capacity) {
+            return new Summary<>(entries, floors);
+        }
+        return new Summary<>(entries.subList(0, capacity), Math.max(floors, entries.get(capacity).count()));
+    }
+
+    private void siftUp(int index) {
+        Counter<K> counter = heap.get(index);
+        while (index > 0) {
+            int parentIndex = (index - 1) / 2;
+            Counter<K> parent = heap.get(parentIndex);
+            if (parent.count <= counter.count) {
+                break;
+            }
+            place(parent, index);
+            index = parentIndex;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter<K> counter = heap.get(index);
+        int size = heap.size();
+        while (true) {
+            int childIndex = 2 * index + 1;
+            if (childIndex >= size) {
+                break;
+            }
+            if (childIndex + 1 < size && heap.get(childIndex + 1).count < heap.get(childIndex).count) {
+                childIndex++;
+            }
+            Counter<K> child = heap.get(childIndex);
+            if (counter.count <= child.count) {
+                break;
+            }
+            place(child, index);
+            index = childIndex;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter<K> counter, int index) {
+        heap.set(index, counter);
+        counter.index = index;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * <p>Counts the bytes in and out, the requests by API key, and the active connections of each tenant.</p>
+ *
+ * <p>The counts are kept in {@link LongAdder}s, so that the connections of a tenant on different event loops
+ * don't contend. Only the {@code topK} tenants with the most bytes in and out have their own meters,
+ * and the rest are added up under the tenant {@value #OTHER_TENANTS}, which keeps the number of time series bounded
+ * however many tenants there are. The top tenants are chosen again every {@value #PUBLISH_INTERVAL_MS}ms,
+ * by the first connection to record something after the interval.</p>
+ *
+ * <p>The {@value #OTHER_TENANTS} counters never go down, which Prometheus would take for a counter reset.
+ * What a tenant added to them while it wasn't a top tenant stays in them after it joins the top tenants,
+ * and a top tenant's counters count all its traffic, so the two overlap.
+ * A tenant which leaves the top tenants adds to them what it does from then on.</p>
+ *
+ * <p>At most {@value #MAX_TRACKED_TENANTS} tenants are counted individually, since a tenant is whatever
+ * SNI hostname a client sends. Tenants beyond those, and clients which didn't use SNI, are only counted under {@value #OTHER_TENANTS}.
+ * It is shared by all the proxy's connections, which count through a {@link TenantMetricsHandler}, so it is thread-safe.</p>
+ */
+public class TenantMetrics {
+
+    static final String KROXYLICIOUS_TENANT_BYTES = "kroxylicious_tenant_bytes";
+    static final String KROXYLICIOUS_TENANT_REQUESTS = "kroxylicious_tenant_requests";
+    static final String KROXYLICIOUS_TENANT_ACTIVE_CONNECTIONS = "kroxylicious_tenant_active_connections";
+    // Tenants are named by a DNS label, which can't contain an underscore
+    static final String OTHER_TENANTS = "_other";
+    static final int MAX_TRACKED_TENANTS = 10_000;
+    static final long PUBLISH_INTERVAL_MS = 10_000;
+
+    private static final int API_KEYS = Arrays.stream(ApiKeys.values()).mapToInt(apiKey -> apiKey.id).max().orElse(0) + 1;
+    // The indexes of the counts, as returned by Counters.count(int)
+    private static final int BYTES_IN = 0;
+    private static final int BYTES_OUT = 1;
+    private static final int REQUESTS = 2;
+    private static final int COUNTS = REQUESTS + API_KEYS;
+
+    /**
+     * The counts of a tenant.
+     */
+    static final class Counters {
+        private final String tenant;
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder[] requests = new LongAdder[API_KEYS];
+        private final LongAdder connections = new LongAdder();
+
+        private Counters(String tenant) {
+            this.tenant = tenant;
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = new LongAdder();
+            }
+        }
+
+        void connected() {
+            connections.increment();
+        }
+
+        void disconnected() {
+            connections.decrement();
+        }
+
+        void request(ApiKeys apiKey, int bytes) {
+            request(apiKey.id, bytes);
+        }
+
+        /**
+         * @param apiKeyId The request's API key, or -1 for authentication bytes sent outside a Kafka request.
+         */
+        void request(short apiKeyId, int bytes) {
+            if (apiKeyId >= 0 && apiKeyId < requests.length) {
+                requests[apiKeyId].increment();
+            }
+            bytesIn.add(bytes);
+        }
+
+        void response(int bytes) {
+            bytesOut.add(bytes);
+        }
+
+        private long bytes() {
+            return bytesIn.sum() + bytesOut.sum();
+        }
+
+        private long count(int index) {
+            switch (index) {
+                case BYTES_IN:
+                    return bytesIn.sum();
+                case BYTES_OUT:
+                    return bytesOut.sum();
+                default:
+                    return requests[index - REQUESTS].sum();
+            }
+        }
+
+        private long[] counts() {
+            long[] counts = new long[COUNTS];
+            for (int i = 0; i < COUNTS; i++) {
+                counts[i] = count(i);
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * What is counted under {@value #OTHER_TENANTS}, as of the last time the top tenants were chosen.
+     * @param top The top tenants.
+     * @param base The counts of the tenants which have since joined the top tenants, from while they weren't top tenants.
+     * @param marks The counts of the tenants which have left the top tenants, as of when they left.
+     */
+    private record Others(Set<String> top, long[] base, Map<String, long[]> marks) {
+        long count(Counters counters, int index) {
+            if (top.contains(counters.tenant)) {
+                return 0;
+            }
+            long[] mark = marks.get(counters.tenant);
+            return counters.count(index) - (mark == null ? 0 : mark[index]);
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final int topK;
+    private final long publishIntervalNanos;
+    private final LongSupplier nanoTime;
+    private final Map<String, Counters> tenants = new ConcurrentHashMap<>();
+    private final Counters untracked = new Counters(OTHER_TENANTS);
+    private final AtomicLong nextPublishNanos;
+    // Guarded by this
+    private final Map<String, List<Meter>> meters = new HashMap<>();
+    private volatile Others others = new Others(Set.of(), new long[COUNTS], Map.of());
+    // The highest of each count reported under OTHER_TENANTS, which hides the traffic counted while the top tenants change
+    private final AtomicLongArray reported = new AtomicLongArray(COUNTS);
+
+    public TenantMetrics(MeterRegistry registry, int topK) {
+        this(registry, topK, System::nanoTime);
+    }
+
+    TenantMetrics(MeterRegistry registry, int topK, LongSupplier nanoTime) {
+        this.registry = registry;
+        this.topK = topK;
+        this.publishIntervalNanos = TimeUnit.MILLISECONDS.toNanos(PUBLISH_INTERVAL_MS);
+        this.nanoTime = nanoTime;
+        this.nextPublishNanos = new AtomicLong(nanoTime.getAsLong());
+        synchronized (this) {
+            meters.put(OTHER_TENANTS, register(OTHER_TENANTS, this::otherBytesIn, this::otherBytesOut, this::otherConnections));
+        }
+    }
+
+    /**
+     * @param sniHostname The SNI hostname a client connected with, or null if it didn't use SNI.
+     * @return The tenant, which is the first component of the hostname, or null if there's none.
+     */
+    static String tenant(String sniHostname) {
+        if (sniHostname == null) {
+            return null;
+        }
+        int dot = sniHostname.indexOf('.');
+        return dot < 1 ? null : sniHostname.substring(0, dot);
+    }
+
+    /**
+     * @param tenant The name of a tenant, or null if the client has no tenant.
+     * @return The tenant's counters, which a connection can keep for its lifetime.
+     */
+    Counters counters(String tenant) {
+        if (tenant == null) {
+            return untracked;
+        }
+        Counters counters = tenants.get(tenant);
+        if (counters != null) {
+            return counters;
+        }
+        if (tenants.size() >= MAX_TRACKED_TENANTS) {
+            return untracked;
+        }
+        return tenants.computeIfAbsent(tenant, Counters::new);
+    }
+
+    /**
+     * Chooses the top tenants again, if they were last chosen more than the publish interval ago.
+     */
+    void maybePublish() {
+        long now = nanoTime.getAsLong();
+        long next = nextPublishNanos.get();
+        if (now - next >= 0 && nextPublishNanos.compareAndSet(next, now + publishIntervalNanos)) {
+            publish();
+        }
+    }
+
+    synchronized void publish() {
+        List<Counters> ranked = new ArrayList<>(tenants.values());
+        ranked.sort(Comparator.comparingLong(Counters::bytes).reversed());
+        Set<String> top = new HashSet<>();
+        for (Counters counters : ranked.subList(0, Math.min(topK, ranked.size()))) {
+            top.add(counters.tenant);
+            meters.computeIfAbsent(counters.tenant,
+                    tenant -> register(tenant, c -> counters.bytesIn.sum(), c -> counters.bytesOut.sum(), c -> counters.connections.sum()));
+            registerRequests(counters.tenant, apiKey -> counters.requests[apiKey.id].sum());
+        }
+        var demoted = meters.entrySet().iterator();
+        while (demoted.hasNext()) {
+            var entry = demoted.next();
+            if (!top.contains(entry.getKey()) && !entry.getKey().equals(OTHER_TENANTS)) {
+                entry.getValue().forEach(registry::remove);
+                demoted.remove();
+            }
+        }
+        others = others(Set.copyOf(top));
+        registerRequests(OTHER_TENANTS, this::otherRequests);
+    }
+
+    /**
+     * Removes the meters from the registry, so that they don't outlive the proxy.
+     */
+    public synchronized void stop() {
+        meters.values().forEach(registered -> registered.forEach(registry::remove));
+        meters.clear();
+    }
+
+    private List<Meter> register(String tenant, ToLongFunction<Object> bytesIn, ToLongFunction<Object> bytesOut, ToLongFunction<Object> connections) {
+        List<Meter> registered = new ArrayList<>();
+        registered.add(FunctionCounter.builder(KROXYLICIOUS_TENANT_BYTES, this, bytesIn::applyAsLong)
+                .tags("tenant", tenant, "direction", "in").register(registry));
+        registered.add(FunctionCounter.builder(KROXYLICIOUS_TENANT_BYTES, this, bytesOut::applyAsLong)
+                .tags("tenant", tenant, "direction", "out").register(registry));
+        registered.add(Gauge.builder(KROXYLICIOUS_TENANT_ACTIVE_CONNECTIONS, this, connections::applyAsLong)
+                .tags("tenant", tenant).register(registry));
+        return registered;
+    }
+
+    private void registerRequests(String tenant, ToLongFunction<ApiKeys> requests) {
+        // Only the API keys a tenant has used get a time series
+        List<Meter> registered = meters.get(tenant);
+        for (ApiKeys apiKey : ApiKeys.values()) {
+            if (requests.applyAsLong(apiKey) > 0) {
+                Meter meter = FunctionCounter.builder(KROXYLICIOUS_TENANT_REQUESTS, apiKey, requests::applyAsLong)
+                        .tags("tenant", tenant, "ApiKey", apiKey.name()).register(registry);
+                if (!registered.contains(meter)) {
+                    registered.add(meter);
+                }
+            }
+        }
+    }
+
+    private Others others(Set<String> top) {
+        Others previous = others;
+        long[] base = previous.base().clone();
+        Map<String, long[]> marks = new HashMap<>(previous.marks());
+        for (Counters counters : tenants.values()) {
+            boolean wasTop = previous.top().contains(counters.tenant);
+            boolean isTop = top.contains(counters.tenant);
+            if (!wasTop && isTop) {
+                // Keep what it added while it wasn't a top tenant
+                for (int i = 0; i < COUNTS; i++) {
+                    base[i] += previous.count(counters, i);
+                }
+                marks.remove(counters.tenant);
+            }
+            else if (wasTop && !isTop) {
+                marks.put(counters.tenant, counters.counts());
+            }
+        }
+        return new Others(top, base, marks);
+    }
+
+    private long other(int index) {
+        Others current = others;
+        long sum = current.base()[index] + untracked.count(index);
+        for (Counters counters : tenants.values()) {
+            sum += current.count(counters, index);
+        }
+        return reported.accumulateAndGet(index, sum, Math::max);
+    }
+
+    private long otherBytesIn(Object unused) {
+        return other(BYTES_IN);
+    }
+
+    private long otherBytesOut(Object unused) {
+        return other(BYTES_OUT);
+    }
+
+    private long otherConnections(Object unused) {
+        // A gauge, which can go down
+        Set<String> top = others.top();
+        long sum = untracked.connections.sum();
+        for (Counters counters : tenants.values()) {
+            if (!top.contains(counters.tenant)) {
+                sum += counters.connections.sum();
+            }
+        }
+        return sum;
+    }
+
+    private long otherRequests(ApiKeys apiKey) {
+        return other(REQUESTS + apiKey.id);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.SniCompletionEvent;
+
+import io.kroxylicious.proxy.frame.DecodedFrame;
+import io.kroxylicious.proxy.frame.RequestFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+
+/**
+ * <p>Counts the bytes, requests and connection of one client connection into the {@link TenantMetrics}
+ * of the tenant named by the connection's SNI hostname.</p>
+ *
+ * <p>Requests are counted as the client sent them, by the length of the frame the decoder read, so counting them
+ * never needs a request encoded. Responses are counted as they are written to the client. The encoder reuses
+ * the size of a decoded response, so sizing it here costs nothing extra.</p>
+ */
+class TenantMetricsHandler extends ChannelDuplexHandler {
+
+    private final TenantMetrics metrics;
+
+    private String sniHostname;
+    // Resolved by the first request, by which time the SNI hostname is known
+    private TenantMetrics.Counters counters;
+
+    TenantMetricsHandler(TenantMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+        if (event instanceof SniCompletionEvent && ((SniCompletionEvent) event).isSuccess()) {
+            sniHostname = ((SniCompletionEvent) event).hostname();
+        }
+        super.userEventTriggered(ctx, event);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof RequestFrame) {
+            RequestFrame frame = (RequestFrame) msg;
+            if (counters == null) {
+                counters = metrics.counters(TenantMetrics.tenant(sniHostname));
+                counters.connected();
+            }
+            counters.request(ByteRateQuotaHandler.apiKeyId(frame), requestSize(frame));
+            metrics.maybePublish();
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    private static int requestSize(RequestFrame frame) {
+        if (frame instanceof DecodedFrame) {
+            // Sizing a decoded request would cache a size which the filters' changes to it would make wrong
+            return Integer.BYTES + Math.max(((DecodedFrame<?, ?>) frame).decodedLength(), 0);
+        }
+        return frame.estimateEncodedSize();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ResponseFrame && counters != null) {
+            counters.response(((ResponseFrame) msg).estimateEncodedSize());
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (counters != null) {
+            counters.disconnected();
+        }
+        super.channelInactive(ctx);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A lock-free token bucket, which may be charged from any thread.</p>
+ *
+ * <p>Rather than a token count which has to be refilled, the bucket holds a single timestamp:
+ * the time at which it would be full again if nothing else were charged to it
+ * (this is the "theoretical arrival time" of the generic cell rate algorithm).
+ * Charging moves that time forward by the time it takes to earn the bytes at the bucket's rate,
+ * so a charge is a single compare-and-set.</p>
+ *
+ * <p>Charges are never refused. Bytes beyond the burst put the bucket into debt, and the charge returns how long
+ * the caller should wait before the bucket is back within its burst.</p>
+ */
+class TokenBucket {
+
+    private final double nanosPerByte;
+    private final long burstNanos;
+    private final AtomicLong fullAtNanos;
+
+    /**
+     * @param bytesPerSecond The rate at which bytes are earned.
+     * @param burstNanos How long's worth of bytes may be charged in one go, when the bucket is full.
+     * @param nowNanos The current {@link System#nanoTime()}.
+     */
+    TokenBucket(long bytesPerSecond, long burstNanos, long nowNanos) {
+        this.nanosPerByte = 1_000_000_000.0 / bytesPerSecond;
+        this.burstNanos = burstNanos;
+        this.fullAtNanos = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Charges the given bytes to this bucket.
+     * @param bytes The number of bytes.
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return The number of nanoseconds the caller should wait before charging more bytes, or 0 if it need not wait.
+     */
+    long charge(long bytes, long nowNanos) {
+        long cost = (long) (bytes * nanosPerByte);
+        while (true) {
+            long fullAt = fullAtNanos.get();
+            // A bucket which filled up in the past cannot be more than full
+            long newFullAt = (fullAt - nowNanos < 0 ? nowNanos : fullAt) + cost;
+            if (fullAtNanos.compareAndSet(fullAt, newFullAt)) {
+                return Math.max(0, newFullAt - nowNanos - burstNanos);
+            }
+        }
+    }
+
+    /**
+     * @param nowNanos The current {@link System#nanoTime()}.
+     * @return true if the bucket is full, in which case it is indistinguishable from a new bucket.
+     */
+    boolean isFull(long nowNanos) {
+        return fullAtNanos.get() - nowNanos <= 0;
+    }
+}
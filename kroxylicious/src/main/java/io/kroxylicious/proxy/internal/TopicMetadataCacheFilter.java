@@ -0,0 +1,49 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import org.apache.kafka.common.message.CreateTopicsResponseData;
+import org.apache.kafka.common.message.DeleteTopicsResponseData;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+
+import io.kroxylicious.proxy.filter.CreateTopicsResponseFilter;
+import io.kroxylicious.proxy.filter.DeleteTopicsResponseFilter;
+import io.kroxylicious.proxy.filter.KrpcFilterContext;
+import io.kroxylicious.proxy.filter.MetadataResponseFilter;
+
+/**
+ * Feeds the {@link SharedTopicMetadataCache} from the responses passing through a connection.
+ * It's always the filter closest to the broker, so the cache sees the broker's view of the topics
+ * before any other filter has changed it.
+ */
+class TopicMetadataCacheFilter
+        implements MetadataResponseFilter, CreateTopicsResponseFilter, DeleteTopicsResponseFilter {
+
+    private final SharedTopicMetadataCache cache;
+
+    TopicMetadataCacheFilter(SharedTopicMetadataCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public void onMetadataResponse(ResponseHeaderData header, MetadataResponseData response, KrpcFilterContext context) {
+        cache.update(response);
+        context.forwardResponse(response);
+    }
+
+    @Override
+    public void onCreateTopicsResponse(ResponseHeaderData header, CreateTopicsResponseData response, KrpcFilterContext context) {
+        cache.update(response);
+        context.forwardResponse(response);
+    }
+
+    @Override
+    public void onDeleteTopicsResponse(ResponseHeaderData header, DeleteTopicsResponseData response, KrpcFilterContext context) {
+        cache.update(response);
+        context.forwardResponse(response);
+    }
+}
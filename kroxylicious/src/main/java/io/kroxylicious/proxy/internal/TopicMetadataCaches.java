@@ -0,0 +1,75 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import io.kroxylicious.proxy.tag.VisibleForTesting;
+
+/**
+ * <p>The proxy's {@link SharedTopicMetadataCache}s, one per upstream cluster and SNI hostname.</p>
+ *
+ * <p>A cache holds the topic names as the broker knows them, before any filter has rewritten them,
+ * so connections must only ever see the cache of the cluster they're connected to.
+ * Keying by the SNI hostname as well as the cluster keeps apart the virtual clusters (or tenants)
+ * which share an upstream cluster, but which a filter such as the multi-tenant one only allows to see
+ * some of its topics.</p>
+ *
+ * <p>Since the SNI hostname is chosen by the client, a cache is only kept while connections are using it:
+ * each connection {@linkplain #release(String, List) releases} the cache it was given when it closes,
+ * and the cache is dropped once the last of its connections has released it.</p>
+ */
+public class TopicMetadataCaches {
+
+    private static final class Entry {
+        private final SharedTopicMetadataCache cache = new SharedTopicMetadataCache();
+        // Guarded by the map's compute
+        private int connections;
+    }
+
+    private final ConcurrentHashMap<String, Entry> caches = new ConcurrentHashMap<>();
+
+    /**
+     * @param sniHostname The SNI hostname the client connected with, or null if it didn't use SNI.
+     * @param servers The upstream cluster's bootstrap servers, in any order.
+     * @return The cache of the connections to the given cluster with the given SNI hostname,
+     * which the connection must {@linkplain #release(String, List) release} when it closes.
+     */
+    SharedTopicMetadataCache forCluster(String sniHostname, List<InetSocketAddress> servers) {
+        return caches.compute(key(sniHostname, servers), (key, entry) -> {
+            Entry result = entry == null ? new Entry() : entry;
+            result.connections++;
+            return result;
+        }).cache;
+    }
+
+    /**
+     * Releases a cache got from {@link #forCluster(String, List)}, dropping it if no other connection is using it.
+     * @param sniHostname The SNI hostname the cache was got with.
+     * @param servers The bootstrap servers the cache was got with.
+     */
+    void release(String sniHostname, List<InetSocketAddress> servers) {
+        caches.computeIfPresent(key(sniHostname, servers), (key, entry) -> --entry.connections == 0 ? null : entry);
+    }
+
+    @VisibleForTesting
+    static String key(String sniHostname, List<InetSocketAddress> servers) {
+        // Sorted, since the candidates are reordered as brokers fail and recover
+        String cluster = servers.stream()
+                .map(server -> server.getHostString() + ":" + server.getPort())
+                .sorted()
+                .collect(Collectors.joining(","));
+        return (sniHostname == null ? "" : sniHostname) + "@" + cluster;
+    }
+
+    @VisibleForTesting
+    int size() {
+        return caches.size();
+    }
+}
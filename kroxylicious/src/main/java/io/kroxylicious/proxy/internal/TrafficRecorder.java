@@ -0,0 +1,203 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.util.internal.PlatformDependent;
+
+import io.kroxylicious.proxy.config.TrafficRecordingConfig;
+import io.kroxylicious.proxy.internal.codec.FrameTap;
+
+/**
+ * <p>Records the requests clients send, with when they were sent and which connection they were sent on,
+ * so that the traffic can be replayed with a {@link TrafficReplayer}.</p>
+ *
+ * <p>Each event loop appends to segment files of its own, mapped into memory with {@link FileChannel#map},
+ * so recording a request is a copy into the page cache, with no locking and no system call.
+ * When the next segment is started, and when recording stops, a segment is unmapped and then truncated to what was written.
+ * A file can't be truncated while it is mapped on some platforms, and the mapping would otherwise last until
+ * the buffer is garbage collected.</p>
+ *
+ * <p>A segment starts with a header of the magic number {@value #MAGIC}, the format version,
+ * two bytes of padding, and the wall clock time the recording started, in milliseconds since the epoch.
+ * Records follow, each with its type ({@link #CONNECT}, {@link #REQUEST} or {@link #CLOSE}),
+ * the nanoseconds since the recording started, the connection id, the length of what follows,
+ * and, for a request, its frame, excluding the frame size. A type of {@link #END} or the end of the file ends the segment.</p>
+ *
+ * <p>{@link ApiKeys#SASL_AUTHENTICATE} requests aren't recorded, since they carry credentials.</p>
+ */
+public class TrafficRecorder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    static final int MAGIC = 0x4B524543;
+    static final short VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 21;
+    static final String SEGMENT_SUFFIX = ".rec";
+
+    static final byte END = 0;
+    static final byte CONNECT = 1;
+    static final byte REQUEST = 2;
+    static final byte CLOSE = 3;
+
+    /**
+     * The segments of one event loop.
+     */
+    private final class SegmentWriter {
+        private final int writerIndex;
+        private int segmentIndex;
+        private FileChannel channel;
+        private MappedByteBuffer segment;
+        private boolean full;
+
+        private SegmentWriter(int writerIndex) {
+            this.writerIndex = writerIndex;
+        }
+
+        void append(byte type, long connectionId, ByteBuf frame) {
+            if (full) {
+                return;
+            }
+            int length = frame == null ? 0 : frame.readableBytes();
+            if ((segment == null || segment.remaining() < RECORD_HEADER_BYTES + length) && !roll(RECORD_HEADER_BYTES + length)) {
+                return;
+            }
+            segment.put(type)
+                    .putLong(System.nanoTime() - startNanos)
+                    .putLong(connectionId)
+                    .putInt(length);
+            if (frame != null) {
+                int position = segment.position();
+                frame.getBytes(frame.readerIndex(), segment.slice(position, length));
+                segment.position(position + length);
+            }
+        }
+
+        private boolean roll(int recordBytes) {
+            closeSegment();
+            long size = Math.max(segmentBytes, (long) SEGMENT_HEADER_BYTES + recordBytes);
+            if (size > Integer.MAX_VALUE || remainingBytes.addAndGet(-size) < 0) {
+                remainingBytes.addAndGet(size);
+                full = true;
+                LOGGER.warn("Traffic recording has used its {} bytes, so has stopped on this event loop", maxBytes);
+                return false;
+            }
+            Path path = directory.resolve(String.format("%03d-%06d%s", writerIndex, segmentIndex++, SEGMENT_SUFFIX));
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            catch (IOException e) {
+                LOGGER.warn("Failed to create traffic recording segment {}, so recording has stopped on this event loop", path, e);
+                remainingBytes.addAndGet(size);
+                full = true;
+                return false;
+            }
+            segment.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(startEpochMillis);
+            return true;
+        }
+
+        private void closeSegment() {
+            if (segment == null) {
+                return;
+            }
+            int written = segment.position();
+            remainingBytes.addAndGet(segment.capacity() - written);
+            MappedByteBuffer mapped = segment;
+            segment = null;
+            // Nothing may touch the buffer once it's unmapped
+            PlatformDependent.freeDirectBuffer(mapped);
+            try (FileChannel closing = channel) {
+                channel = null;
+                closing.truncate(written);
+            }
+            catch (IOException e) {
+                LOGGER.warn("Failed to truncate traffic recording segment", e);
+            }
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final AtomicLong remainingBytes;
+    private final long startNanos;
+    private final long startEpochMillis;
+    private final Map<EventLoop, SegmentWriter> writers = new ConcurrentHashMap<>();
+    private final AtomicInteger nextWriterIndex = new AtomicInteger();
+    private final AtomicLong nextConnectionId = new AtomicLong();
+
+    /**
+     * @param config The configuration, which must be {@link TrafficRecordingConfig#enabled() enabled}.
+     */
+    public TrafficRecorder(TrafficRecordingConfig config) {
+        this.directory = Paths.get(config.directory().orElseThrow(() -> new IllegalArgumentException("Traffic recording is not enabled")));
+        this.segmentBytes = config.segmentBytes();
+        this.maxBytes = config.maxBytes();
+        this.remainingBytes = new AtomicLong(maxBytes);
+        this.startNanos = System.nanoTime();
+        this.startEpochMillis = System.currentTimeMillis();
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                if (segments.iterator().hasNext()) {
+                    throw new IllegalArgumentException("Traffic recording directory " + directory + " already holds a recording");
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts recording a connection, which must be called on the connection's event loop.
+     * @param channel The connection.
+     * @return What records the connection's requests, to be given to its {@link io.kroxylicious.proxy.internal.codec.KafkaRequestDecoder}.
+     */
+    FrameTap connection(Channel channel) {
+        SegmentWriter writer = writers.computeIfAbsent(channel.eventLoop(), loop -> new SegmentWriter(nextWriterIndex.getAndIncrement()));
+        long connectionId = nextConnectionId.incrementAndGet();
+        writer.append(CONNECT, connectionId, null);
+        channel.closeFuture().addListener(future -> writer.append(CLOSE, connectionId, null));
+        return frame -> {
+            if (frame.getShort(frame.readerIndex()) != ApiKeys.SASL_AUTHENTICATE.id) {
+                writer.append(REQUEST, connectionId, frame);
+            }
+        };
+    }
+
+    /**
+     * Truncates the segments being written. This must only be called once the event loops have terminated.
+     */
+    public void stop() {
+        for (SegmentWriter writer : writers.values()) {
+            writer.closeSegment();
+            writer.full = true;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A recording written by a {@link TrafficRecorder}, read back from its segment files.
+ * The segments are mapped into memory, and the requests are views of them, so a recording needn't fit in the heap.
+ */
+public class TrafficRecording {
+
+    /**
+     * A recorded request.
+     */
+    public static final class Request {
+        private final long nanos;
+        private final ByteBuffer frame;
+
+        Request(long nanos, ByteBuffer frame) {
+            this.nanos = nanos;
+            this.frame = frame;
+        }
+
+        /**
+         * @return The nanoseconds since the recording started when the request was read.
+         */
+        public long nanos() {
+            return nanos;
+        }
+
+        /**
+         * @return A read-only view of the request's frame, from its header to the end of its body, excluding the frame size.
+         */
+        public ByteBuffer frame() {
+            return frame.duplicate();
+        }
+    }
+
+    /**
+     * The requests of one recorded connection.
+     */
+    public static final class Session {
+        private final long connectionId;
+        private final long connectNanos;
+        private final List<Request> requests = new ArrayList<>();
+
+        Session(long connectionId, long connectNanos) {
+            this.connectionId = connectionId;
+            this.connectNanos = connectNanos;
+        }
+
+        public long connectionId() {
+            return connectionId;
+        }
+
+        /**
+         * @return The nanoseconds since the recording started when the connection was accepted.
+         */
+        public long connectNanos() {
+            return connectNanos;
+        }
+
+        /**
+         * @return The requests, in the order they were read.
+         */
+        public List<Request> requests() {
+            return Collections.unmodifiableList(requests);
+        }
+    }
+
+    private final long startEpochMillis;
+    private final List<Session> sessions;
+
+    private TrafficRecording(long startEpochMillis, List<Session> sessions) {
+        this.startEpochMillis = startEpochMillis;
+        this.sessions = sessions;
+    }
+
+    /**
+     * @param directory The directory the recording was written to.
+     * @return The recording.
+     * @throws IOException If the segments can't be read.
+     * @throws IllegalArgumentException If the directory doesn't hold exactly one recording.
+     */
+    public static TrafficRecording read(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*" + TrafficRecorder.SEGMENT_SUFFIX)) {
+            segments.forEach(paths::add);
+        }
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("No traffic recording in " + directory);
+        }
+        // The names order each event loop's segments by when they were written
+        Collections.sort(paths);
+        Long startEpochMillis = null;
+        Map<Long, Session> sessions = new LinkedHashMap<>();
+        for (Path path : paths) {
+            ByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (segment.remaining() < TrafficRecorder.SEGMENT_HEADER_BYTES
+                    || segment.getInt() != TrafficRecorder.MAGIC
+                    || segment.getShort() != TrafficRecorder.VERSION) {
+                throw new IllegalArgumentException(path + " is not a traffic recording segment");
+            }
+            segment.getShort();
+            long segmentStartEpochMillis = segment.getLong();
+            if (startEpochMillis == null) {
+                startEpochMillis = segmentStartEpochMillis;
+            }
+            else if (startEpochMillis != segmentStartEpochMillis) {
+                throw new IllegalArgumentException(directory + " holds segments of more than one recording");
+            }
+            readRecords(path, segment, sessions);
+        }
+        List<Session> ordered = new ArrayList<>(sessions.values());
+        ordered.sort(Comparator.comparingLong(Session::connectNanos));
+        return new TrafficRecording(startEpochMillis, ordered);
+    }
+
+    private static void readRecords(Path path, ByteBuffer segment, Map<Long, Session> sessions) {
+        while (segment.remaining() >= TrafficRecorder.RECORD_HEADER_BYTES) {
+            byte type = segment.get();
+            if (type == TrafficRecorder.END) {
+                break;
+            }
+            long nanos = segment.getLong();
+            long connectionId = segment.getLong();
+            int length = segment.getInt();
+            if (length < 0 || length > segment.remaining()) {
+                throw new IllegalArgumentException(path + " has a truncated record at " + (segment.position() - TrafficRecorder.RECORD_HEADER_BYTES));
+            }
+            if (type == TrafficRecorder.CONNECT) {
+                sessions.put(connectionId, new Session(connectionId, nanos));
+            }
+            else if (type == TrafficRecorder.REQUEST) {
+                Session session = sessions.get(connectionId);
+                if (session != null) {
+                    session.requests.add(new Request(nanos, segment.slice(segment.position(), length).asReadOnlyBuffer()));
+                }
+            }
+            segment.position(segment.position() + length);
+        }
+    }
+
+    /**
+     * @return The wall clock time the recording started, in milliseconds since the epoch.
+     */
+    public long startEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * @return The recorded connections, in the order they were accepted.
+     */
+    public List<Session> sessions() {
+        return Collections.unmodifiableList(sessions);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+
+/**
+ * <p>Replays a {@link TrafficRecording} against a proxy or broker, and measures the latency of each request.</p>
+ *
+ * <p>Each recorded session gets a connection of its own, opened and sent its requests at the same times,
+ * relative to the start of the replay, as they were recorded, divided by the speed.
+ * A connection is closed once all its requests have been answered.
+ * Responses are matched to requests in the order they were sent, as Kafka answers the requests on a connection in order.</p>
+ */
+public class TrafficReplayer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficReplayer.class);
+
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /**
+     * The outcome of a replay.
+     */
+    public static final class Result {
+        private final int sessions;
+        private final long failedSessions;
+        private final long requests;
+        private final long unanswered;
+        private final long mismatched;
+        private final Map<ApiKeys, HistogramSnapshot> latencies;
+
+        Result(int sessions, long failedSessions, long requests, long unanswered, long mismatched, Map<ApiKeys, HistogramSnapshot> latencies) {
+            this.sessions = sessions;
+            this.failedSessions = failedSessions;
+            this.requests = requests;
+            this.unanswered = unanswered;
+            this.mismatched = mismatched;
+            this.latencies = latencies;
+        }
+
+        public int sessions() {
+            return sessions;
+        }
+
+        /**
+         * @return The number of sessions which couldn't connect, or didn't finish before the timeout.
+         */
+        public long failedSessions() {
+            return failedSessions;
+        }
+
+        /**
+         * @return The number of requests sent.
+         */
+        public long requests() {
+            return requests;
+        }
+
+        /**
+         * @return The number of requests which expected a response but didn't get one.
+         */
+        public long unanswered() {
+            return unanswered;
+        }
+
+        /**
+         * @return The number of responses whose correlation id wasn't that of the request they were matched to.
+         */
+        public long mismatched() {
+            return mismatched;
+        }
+
+        /**
+         * @return The latency histogram of each API key's requests.
+         */
+        public Map<ApiKeys, HistogramSnapshot> latencies() {
+            return latencies;
+        }
+
+        /**
+         * @return A table of the latencies, in milliseconds, and the counts.
+         */
+        public String report() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.ROOT, "%-28s %10s %10s %10s %10s %10s %10s %10s%n",
+                    "API key", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+            for (Map.Entry<ApiKeys, HistogramSnapshot> entry : latencies.entrySet()) {
+                HistogramSnapshot snapshot = entry.getValue();
+                report.append(String.format(Locale.ROOT, "%-28s %10d %10.3f", entry.getKey().name(), snapshot.count(), snapshot.mean(TimeUnit.MILLISECONDS)));
+                for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                    report.append(String.format(Locale.ROOT, " %10.3f", percentile.value(TimeUnit.MILLISECONDS)));
+                }
+                report.append(String.format(Locale.ROOT, " %10.3f%n", snapshot.max(TimeUnit.MILLISECONDS)));
+            }
+            report.append(String.format(Locale.ROOT, "sessions: %d (%d failed), requests: %d, unanswered: %d, mismatched: %d%n",
+                    sessions, failedSessions, requests, unanswered, mismatched));
+            return report.toString();
+        }
+    }
+
+    private static final class Pending {
+        private final ApiKeys apiKey;
+        private final int correlationId;
+        private final long sentNanos;
+
+        private Pending(ApiKeys apiKey, int correlationId, long sentNanos) {
+            this.apiKey = apiKey;
+            this.correlationId = correlationId;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    /**
+     * Drives one session's connection, on its event loop.
+     */
+    private final class SessionHandler extends ChannelInboundHandlerAdapter {
+        private final TrafficRecording.Session session;
+        private final CountDownLatch done;
+        private final Deque<Pending> pending = new ArrayDeque<>();
+        private int next;
+        private boolean finished;
+
+        private SessionHandler(TrafficRecording.Session session, CountDownLatch done) {
+            this.session = session;
+            this.done = done;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            sendDue(ctx);
+        }
+
+        private void sendDue(ChannelHandlerContext ctx) {
+            List<TrafficRecording.Request> requests = session.requests();
+            while (next < requests.size()) {
+                TrafficRecording.Request request = requests.get(next);
+                long delayNanos = dueNanos(request.nanos()) - System.nanoTime();
+                if (delayNanos > 0) {
+                    ctx.executor().schedule(() -> sendDue(ctx), delayNanos, TimeUnit.NANOSECONDS);
+                    ctx.flush();
+                    return;
+                }
+                send(ctx, request.frame());
+                next++;
+            }
+            ctx.flush();
+            maybeClose(ctx);
+        }
+
+        private void send(ChannelHandlerContext ctx, ByteBuffer frame) {
+            // The recorded header tells us which API it is, and whether a response is expected
+            ByteBuf recorded = Unpooled.wrappedBuffer(frame.duplicate());
+            var opaque = new OpaqueRequestFrame(recorded, 0, false, recorded.readableBytes());
+            ApiKeys apiKey = ApiKeys.forId(opaque.apiKeyId());
+            int correlationId = recorded.getInt(Short.BYTES + Short.BYTES);
+            if (apiKey != ApiKeys.PRODUCE || opaque.acks() != 0) {
+                pending.add(new Pending(apiKey, correlationId, System.nanoTime()));
+            }
+            ByteBuf buf = ctx.alloc().buffer(Integer.BYTES + frame.remaining());
+            buf.writeInt(frame.remaining());
+            buf.writeBytes(frame);
+            requests.incrementAndGet();
+            ctx.write(buf);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf response = (ByteBuf) msg;
+            try {
+                Pending request = pending.poll();
+                if (request == null) {
+                    mismatched.incrementAndGet();
+                    return;
+                }
+                latency(request.apiKey).record(System.nanoTime() - request.sentNanos, TimeUnit.NANOSECONDS);
+                if (response.getInt(response.readerIndex()) != request.correlationId) {
+                    mismatched.incrementAndGet();
+                }
+            }
+            finally {
+                response.release();
+            }
+            maybeClose(ctx);
+        }
+
+        private void maybeClose(ChannelHandlerContext ctx) {
+            if (next == session.requests().size() && pending.isEmpty()) {
+                ctx.close();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (next < session.requests().size()) {
+                failedSessions.incrementAndGet();
+            }
+            finish();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.warn("Session {} failed", session.connectionId(), cause);
+            ctx.close();
+        }
+
+        private void finish() {
+            if (!finished) {
+                finished = true;
+                unanswered.addAndGet(pending.size());
+                done.countDown();
+            }
+        }
+    }
+
+    private final TrafficRecording recording;
+    private final String host;
+    private final int port;
+    private final double speed;
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Map<ApiKeys, Timer> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failedSessions = new AtomicLong();
+    private final AtomicLong unanswered = new AtomicLong();
+    private final AtomicLong mismatched = new AtomicLong();
+    private long startNanos;
+    private long recordingStartNanos;
+
+    /**
+     * @param recording The recording to replay.
+     * @param host The host of the proxy or broker to send the requests to.
+     * @param port Its port.
+     * @param speed How many times faster than it was recorded to replay the traffic: 1 replays it at the recorded pace.
+     */
+    public TrafficReplayer(TrafficRecording recording, String host, int port, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be > 0, but was " + speed);
+        }
+        this.recording = recording;
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the recording, returning once every session has finished, or the timeout has elapsed.
+     * @param timeout How long to wait for the sessions to finish.
+     * @return The outcome.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Result replay(Duration timeout) throws InterruptedException {
+        List<TrafficRecording.Session> sessions = recording.sessions();
+        CountDownLatch done = new CountDownLatch(sessions.size());
+        EventLoopGroup group = new NioEventLoopGroup();
+        try {
+            recordingStartNanos = sessions.stream().mapToLong(TrafficRecording.Session::connectNanos).min().orElse(0);
+            startNanos = System.nanoTime();
+            for (TrafficRecording.Session session : sessions) {
+                long delayNanos = dueNanos(session.connectNanos()) - System.nanoTime();
+                group.next().schedule(() -> connect(group, session, done), Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+            }
+            if (!done.await(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                failedSessions.addAndGet(done.getCount());
+            }
+        }
+        finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+        Map<ApiKeys, HistogramSnapshot> snapshots = new TreeMap<>(Comparator.comparing(ApiKeys::name));
+        latencies.forEach((apiKey, timer) -> snapshots.put(apiKey, timer.takeSnapshot()));
+        return new Result(sessions.size(), failedSessions.get(), requests.get(), unanswered.get(), mismatched.get(), snapshots);
+    }
+
+    private void connect(EventLoopGroup group, TrafficRecording.Session session, CountDownLatch done) {
+        var handler = new SessionHandler(session, done);
+        new Bootstrap().group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, Integer.BYTES, 0, Integer.BYTES));
+                        ch.pipeline().addLast(handler);
+                    }
+                })
+                .connect(host, port)
+                .addListener(future -> {
+                    if (!future.isSuccess()) {
+                        LOGGER.warn("Session {} failed to connect to {}:{}", session.connectionId(), host, port, future.cause());
+                        failedSessions.incrementAndGet();
+                        handler.finish();
+                    }
+                });
+    }
+
+    private long dueNanos(long recordedNanos) {
+        return startNanos + (long) ((recordedNanos - recordingStartNanos) / speed);
+    }
+
+    private Timer latency(ApiKeys apiKey) {
+        return latencies.computeIfAbsent(apiKey, key -> Timer.builder("kroxylicious_replay_latency")
+                .tag("ApiKey", key.name())
+                .publishPercentiles(PERCENTILES)
+                .percentilePrecision(2)
+                // Percentiles over the whole replay, rather than a recent window
+                .distributionStatisticExpiry(Duration.ofDays(1))
+                .distributionStatisticBufferLength(1)
+                .register(registry));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import io.kroxylicious.proxy.config.NetworkConfig;
+import io.kroxylicious.proxy.filter.NetFilter;
+
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_UPSTREAM_CIRCUIT_OPEN;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_UPSTREAM_CONNECT_FAILURES;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_UPSTREAM_CONNECT_LATENCY;
+
+/**
+ * The health of a cluster's bootstrap servers, from the outcomes of the proxy's connection attempts to them,
+ * which decides the order in which they are tried.
+ * <p>Each server has a health score, a moving average of the success of recent attempts, and a circuit breaker.
+ * Servers are tried healthiest first, and of equally healthy servers the one most recently connected to first.
+ * After {@link NetworkConfig.FailoverConfig#failureThreshold()} failed attempts in a row a server's circuit opens,
+ * and it isn't tried for {@link NetworkConfig.FailoverConfig#openMillis()}. After that the circuit is half open,
+ * and the next caller of {@link #candidates()} is given the server to try after the servers with closed circuits.
+ * The outcome of that trial closes the circuit or opens it again. Until it is reported the server is left out of
+ * other callers' candidates, for at most another {@code openMillis}, since a trial which is never started, because
+ * a healthier server connected first, isn't reported.
+ * If there's no server with a closed circuit or a trial to give, all the servers are tried anyway,
+ * since refusing the client wouldn't help.</p>
+ * <p>Attempts are reported from the event loops, so the state of each server is guarded by its own lock.</p>
+ */
+public class UpstreamBrokers implements NetFilter.ConnectListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpstreamBrokers.class);
+
+    /** The weight of the latest attempt in a server's health score. */
+    static final double SCORE_WEIGHT = 0.3;
+
+    private final List<Broker> brokers;
+    private final long attemptDelayMillis;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoTime;
+
+    public UpstreamBrokers(List<InetSocketAddress> servers, NetworkConfig.FailoverConfig config) {
+        this(servers, config, System::nanoTime);
+    }
+
+    UpstreamBrokers(List<InetSocketAddress> servers, NetworkConfig.FailoverConfig config, LongSupplier nanoTime) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("At least one server is required");
+        }
+        this.brokers = servers.stream().map(Broker::new).toList();
+        this.attemptDelayMillis = config.attemptDelayMillis();
+        this.failureThreshold = config.failureThreshold();
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(config.openMillis());
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @return How long each connection attempt is given before the next server is tried alongside it.
+     */
+    public long attemptDelayMillis() {
+        return attemptDelayMillis;
+    }
+
+    /**
+     * @return The servers to try, in the order to try them.
+     */
+    public List<InetSocketAddress> candidates() {
+        long now = nanoTime.getAsLong();
+        // Snapshots, so that the sort sees consistent values while attempts are being reported
+        List<Candidate> closed = new ArrayList<>(brokers.size());
+        List<Candidate> halfOpen = new ArrayList<>(brokers.size());
+        List<Candidate> open = new ArrayList<>(brokers.size());
+        List<Candidate> trialling = new ArrayList<>(brokers.size());
+        for (Broker broker : brokers) {
+            synchronized (broker) {
+                var candidate = new Candidate(broker.address,
+                        broker.score,
+                        broker.everConnected ? now - broker.lastSuccessNanos : Long.MAX_VALUE,
+                        broker.openUntilNanos - now);
+                if (!broker.open) {
+                    closed.add(candidate);
+                }
+                else if (candidate.untilHalfOpenNanos() <= 0) {
+                    if (!broker.trial || broker.trialUntilNanos - now <= 0) {
+                        // This caller makes the trial
+                        broker.trial = true;
+                        broker.trialUntilNanos = now + openNanos;
+                        halfOpen.add(candidate);
+                    }
+                    else {
+                        trialling.add(candidate);
+                    }
+                }
+                else {
+                    open.add(candidate);
+                }
+            }
+        }
+        List<InetSocketAddress> candidates = new ArrayList<>(brokers.size());
+        if (closed.isEmpty() && halfOpen.isEmpty()) {
+            open.stream()
+                    .sorted(Comparator.comparingLong(Candidate::untilHalfOpenNanos))
+                    .forEach(candidate -> candidates.add(candidate.address()));
+            trialling.forEach(candidate -> candidates.add(candidate.address()));
+            return candidates;
+        }
+        // The sort is stable, so the configured order breaks ties
+        closed.stream()
+                .sorted(Comparator.comparingDouble(Candidate::score).reversed()
+                        .thenComparingLong(Candidate::sinceLastSuccessNanos))
+                .forEach(candidate -> candidates.add(candidate.address()));
+        halfOpen.forEach(candidate -> candidates.add(candidate.address()));
+        return candidates;
+    }
+
+    private record Candidate(InetSocketAddress address, double score, long sinceLastSuccessNanos, long untilHalfOpenNanos) {
+    }
+
+    private Broker broker(InetSocketAddress server) {
+        for (Broker broker : brokers) {
+            if (broker.address.equals(server)) {
+                return broker;
+            }
+        }
+        throw new IllegalArgumentException("Unknown server " + server);
+    }
+
+    @Override
+    public void connected(InetSocketAddress server, long durationNanos) {
+        Broker broker = broker(server);
+        broker.connectLatency.record(durationNanos, TimeUnit.NANOSECONDS);
+        boolean wasOpen;
+        synchronized (broker) {
+            wasOpen = broker.open;
+            broker.score += SCORE_WEIGHT * (1 - broker.score);
+            broker.consecutiveFailures = 0;
+            broker.open = false;
+            broker.trial = false;
+            broker.lastSuccessNanos = nanoTime.getAsLong();
+            broker.everConnected = true;
+        }
+        if (wasOpen) {
+            LOGGER.info("Connected to bootstrap server {} again", server);
+        }
+    }
+
+    @Override
+    public void failed(InetSocketAddress server, long durationNanos, Throwable cause) {
+        Broker broker = broker(server);
+        broker.connectFailures.increment();
+        boolean opened = false;
+        synchronized (broker) {
+            broker.score -= SCORE_WEIGHT * broker.score;
+            broker.consecutiveFailures++;
+            broker.trial = false;
+            if (broker.consecutiveFailures >= failureThreshold) {
+                opened = !broker.open;
+                // A failed trial of a half-open circuit opens it for another period
+                broker.open = true;
+                broker.openUntilNanos = nanoTime.getAsLong() + openNanos;
+            }
+        }
+        if (opened) {
+            LOGGER.warn("Not connecting to bootstrap server {} for {}ms after {} failed attempts, the last because of: {}",
+                    server, TimeUnit.NANOSECONDS.toMillis(openNanos), failureThreshold, String.valueOf(cause));
+        }
+    }
+
+    private static final class Broker {
+
+        private final InetSocketAddress address;
+        private final Timer connectLatency;
+        private final Counter connectFailures;
+        /** A moving average of the success of recent attempts, between 0 and 1. Servers start out healthy. */
+        private double score = 1;
+        private int consecutiveFailures;
+        private boolean open;
+        private long openUntilNanos;
+        /** Whether a caller has been given the server to try while its circuit is half open, and is yet to report the outcome. */
+        private boolean trial;
+        private long trialUntilNanos;
+        private long lastSuccessNanos;
+        private boolean everConnected;
+
+        private Broker(InetSocketAddress address) {
+            this.address = address;
+            Tags tags = Tags.of("broker", address.getHostString() + ":" + address.getPort());
+            this.connectLatency = Metrics.timer(KROXYLICIOUS_UPSTREAM_CONNECT_LATENCY, tags);
+            this.connectFailures = Metrics.counter(KROXYLICIOUS_UPSTREAM_CONNECT_FAILURES, tags);
+            Metrics.gauge(KROXYLICIOUS_UPSTREAM_CIRCUIT_OPEN, tags, this, broker -> broker.isOpen() ? 1 : 0);
+        }
+
+        private synchronized boolean isOpen() {
+            return open;
+        }
+    }
+}
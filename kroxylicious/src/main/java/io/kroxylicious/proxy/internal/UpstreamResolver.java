@@ -0,0 +1,139 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.dns.DefaultDnsCache;
+import io.netty.resolver.dns.DefaultDnsCnameCache;
+import io.netty.resolver.dns.DnsAddressResolverGroup;
+import io.netty.resolver.dns.DnsCache;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.resolver.dns.SequentialDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
+
+import io.kroxylicious.proxy.config.NetworkConfig;
+import io.kroxylicious.proxy.tag.VisibleForTesting;
+
+/**
+ * Resolves the hostnames of brokers without blocking the event loops.
+ * Each event loop has its own Netty {@link io.netty.resolver.dns.DnsNameResolver}, but they all share
+ * one {@link DnsCache}, so a hostname is only looked up once per TTL however many event loops connect to it.
+ */
+public class UpstreamResolver {
+
+    private final DnsCache cache;
+    private final DnsAddressResolverGroup group;
+    private final boolean happyEyeballs;
+    private final long connectionAttemptDelayMillis;
+
+    /**
+     * @param config The DNS configuration.
+     * @param datagramChannelClass The type of UDP channel to query with, which must suit the event loops' transport.
+     */
+    public UpstreamResolver(NetworkConfig.DnsConfig config, Class<? extends DatagramChannel> datagramChannelClass) {
+        this.cache = new DefaultDnsCache(config.minTtlSeconds(), config.maxTtlSeconds(), config.negativeTtlSeconds());
+        var builder = new DnsNameResolverBuilder()
+                .channelType(datagramChannelClass)
+                .resolveCache(cache)
+                .cnameCache(new DefaultDnsCnameCache(config.minTtlSeconds(), config.maxTtlSeconds()))
+                .queryTimeoutMillis(config.queryTimeoutMillis())
+                .nameServerProvider(config.nameServers().isEmpty() ? DnsServerAddressStreamProviders.platformDefault()
+                        : new SequentialDnsServerAddressStreamProvider(config.nameServers()));
+        this.group = new DnsAddressResolverGroup(builder);
+        this.happyEyeballs = config.happyEyeballs();
+        this.connectionAttemptDelayMillis = config.connectionAttemptDelayMillis();
+    }
+
+    /**
+     * @return The resolvers, for {@link Bootstrap#resolver(AddressResolverGroup)}.
+     */
+    AddressResolverGroup<InetSocketAddress> group() {
+        return group;
+    }
+
+    @VisibleForTesting
+    DnsCache cache() {
+        return cache;
+    }
+
+    /**
+     * @return true if upstream connections should be made with {@link #connectToAny(Bootstrap, EventLoop, String, int)}.
+     */
+    boolean happyEyeballs() {
+        return happyEyeballs;
+    }
+
+    /**
+     * Connects to whichever address of the given host accepts a connection first, in the way of RFC 8305:
+     * the addresses are tried in the order the resolver returns them, but alternating between IPv6 and IPv4,
+     * with each attempt given {@link NetworkConfig.DnsConfig#connectionAttemptDelayMillis()} before the next one
+     * starts alongside it.
+     * @see ConnectRace#start(Bootstrap, EventLoop, List, long, io.kroxylicious.proxy.filter.NetFilter.ConnectListener)
+     */
+    Future<Channel> connectToAny(Bootstrap bootstrap, EventLoop eventLoop, String host, int port) {
+        Promise<Channel> promise = eventLoop.newPromise();
+        group.getResolver(eventLoop).resolveAll(InetSocketAddress.createUnresolved(host, port)).addListener((Future<List<InetSocketAddress>> resolved) -> {
+            if (resolved.isSuccess() && resolved.getNow().isEmpty()) {
+                promise.tryFailure(new UnknownHostException(host));
+            }
+            else if (resolved.isSuccess()) {
+                ConnectRace.start(bootstrap, eventLoop, interleave(resolved.getNow()), connectionAttemptDelayMillis, null)
+                        .addListener(new PromiseNotifier<>(promise));
+            }
+            else {
+                promise.tryFailure(resolved.cause());
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Reorders addresses to alternate between families, starting with the family of the first.
+     */
+    static List<InetSocketAddress> interleave(List<InetSocketAddress> addresses) {
+        if (addresses.isEmpty()) {
+            return addresses;
+        }
+        boolean firstIsV6 = addresses.get(0).getAddress() instanceof Inet6Address;
+        var first = new ArrayDeque<InetSocketAddress>();
+        var second = new ArrayDeque<InetSocketAddress>();
+        for (var address : addresses) {
+            ((address.getAddress() instanceof Inet6Address) == firstIsV6 ? first : second).add(address);
+        }
+        var interleaved = new ArrayList<InetSocketAddress>(addresses.size());
+        while (!first.isEmpty() || !second.isEmpty()) {
+            if (!first.isEmpty()) {
+                interleaved.add(first.poll());
+            }
+            if (!second.isEmpty()) {
+                interleaved.add(second.poll());
+            }
+        }
+        return interleaved;
+    }
+
+    /**
+     * Closes the resolvers. The cache is discarded.
+     */
+    public void close() {
+        group.close();
+        cache.clear();
+    }
+}
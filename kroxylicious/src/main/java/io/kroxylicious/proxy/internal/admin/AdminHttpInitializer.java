@@ -11,17 +11,29 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
 
+import io.kroxylicious.proxy.config.NetworkConfig;
 import io.kroxylicious.proxy.config.admin.AdminHttpConfiguration;
+import io.kroxylicious.proxy.internal.FrameCapture;
+import io.kroxylicious.proxy.internal.HotPartitions;
 import io.kroxylicious.proxy.internal.MeterRegistries;
 
 public class AdminHttpInitializer extends ChannelInitializer<SocketChannel> {
 
     private final MeterRegistries registries;
     private final AdminHttpConfiguration adminHttpConfiguration;
+    private final NetworkConfig networkConfig;
+    private final String transport;
+    private final HotPartitions hotPartitions;
+    private final FrameCapture frameCapture;
 
-    public AdminHttpInitializer(MeterRegistries registries, AdminHttpConfiguration adminHttpConfiguration) {
+    public AdminHttpInitializer(MeterRegistries registries, AdminHttpConfiguration adminHttpConfiguration, NetworkConfig networkConfig, String transport,
+                                HotPartitions hotPartitions, FrameCapture frameCapture) {
         this.registries = registries;
         this.adminHttpConfiguration = adminHttpConfiguration;
+        this.networkConfig = networkConfig;
+        this.transport = transport;
+        this.hotPartitions = hotPartitions;
+        this.frameCapture = frameCapture;
     }
 
     @Override
@@ -33,6 +45,15 @@ public class AdminHttpInitializer extends ChannelInitializer<SocketChannel> {
         adminHttpConfiguration.getEndpoints().maybePrometheus().ifPresent(prometheusMetricsConfig -> {
             builder.withRoute(PrometheusMetricsEndpoint.PATH, new PrometheusMetricsEndpoint(registries));
         });
+        adminHttpConfiguration.getEndpoints().maybeNetwork().ifPresent(networkEndpointConfig -> {
+            builder.withRoute(NetworkConfigEndpoint.PATH, new NetworkConfigEndpoint(networkConfig, transport));
+        });
+        if (hotPartitions != null) {
+            builder.withRoute(HotPartitionsEndpoint.PATH, new HotPartitionsEndpoint(hotPartitions));
+        }
+        if (frameCapture != null) {
+            builder.withRoute(FrameCaptureEndpoint.PATH, new FrameCaptureEndpoint(frameCapture));
+        }
         p.addLast(builder.build());
     }
 
@@ -0,0 +1,68 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.admin;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+import io.kroxylicious.proxy.internal.FrameCapture;
+
+import static io.netty.handler.codec.http.HttpHeaderValues.APPLICATION_JSON;
+import static io.netty.handler.codec.http.HttpHeaderValues.APPLICATION_OCTET_STREAM;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+
+/**
+ * Dumps the captured frames. The {@code format} query parameter chooses between {@code json} (the default), which lists every
+ * captured frame with its metadata, and {@code wire}, which returns the complete frames of the {@code direction}
+ * ({@code request}, the default, or {@code response}) in the Kafka wire format.
+ */
+public class FrameCaptureEndpoint implements Function<HttpRequest, HttpResponse> {
+
+    public static String PATH = "/frames";
+
+    private final FrameCapture frameCapture;
+    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public FrameCaptureEndpoint(FrameCapture frameCapture) {
+        this.frameCapture = frameCapture;
+    }
+
+    @Override
+    public HttpResponse apply(HttpRequest httpRequest) {
+        Map<String, List<String>> parameters = new QueryStringDecoder(httpRequest.uri()).parameters();
+        String format = parameters.getOrDefault("format", List.of("json")).get(0);
+        if (format.equals("json")) {
+            try {
+                return RoutingHttpServer.responseWithBody(httpRequest, OK, mapper.writeValueAsString(frameCapture.dump()), APPLICATION_JSON);
+            }
+            catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        else if (format.equals("wire")) {
+            FrameCapture.Direction direction;
+            try {
+                direction = FrameCapture.Direction.valueOf(parameters.getOrDefault("direction", List.of("request")).get(0).toUpperCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException e) {
+                return RoutingHttpServer.responseWithBody(httpRequest, BAD_REQUEST, "direction must be request or response");
+            }
+            return RoutingHttpServer.responseWithBody(httpRequest, OK, frameCapture.dumpWire(direction), APPLICATION_OCTET_STREAM);
+        }
+        return RoutingHttpServer.responseWithBody(httpRequest, BAD_REQUEST, "format must be json or wire");
+    }
+}
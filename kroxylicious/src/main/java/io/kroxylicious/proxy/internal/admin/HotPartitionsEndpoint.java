@@ -0,0 +1,61 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.admin;
+
+import java.util.List;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+import io.kroxylicious.proxy.internal.HotPartitions;
+
+import static io.netty.handler.codec.http.HttpHeaderValues.APPLICATION_JSON;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+
+/**
+ * Reports the partitions with the most bytes produced and fetched, as JSON.
+ * The number of partitions reported per direction is given by the {@code n} query parameter, which defaults to {@value #DEFAULT_N}.
+ */
+public class HotPartitionsEndpoint implements Function<HttpRequest, HttpResponse> {
+
+    public static String PATH = "/hot-partitions";
+
+    static final int DEFAULT_N = 20;
+
+    private final HotPartitions hotPartitions;
+    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public HotPartitionsEndpoint(HotPartitions hotPartitions) {
+        this.hotPartitions = hotPartitions;
+    }
+
+    @Override
+    public HttpResponse apply(HttpRequest httpRequest) {
+        int n;
+        try {
+            n = Integer.parseInt(new QueryStringDecoder(httpRequest.uri()).parameters().getOrDefault("n", List.of(String.valueOf(DEFAULT_N))).get(0));
+        }
+        catch (NumberFormatException e) {
+            n = -1;
+        }
+        if (n <= 0) {
+            return RoutingHttpServer.responseWithBody(httpRequest, BAD_REQUEST, "n must be a positive integer");
+        }
+        try {
+            return RoutingHttpServer.responseWithBody(httpRequest, OK, mapper.writeValueAsString(hotPartitions.top(n)), APPLICATION_JSON);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
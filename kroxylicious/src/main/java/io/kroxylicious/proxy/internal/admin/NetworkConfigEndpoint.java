@@ -0,0 +1,92 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.admin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+
+import io.kroxylicious.proxy.config.NetworkConfig;
+
+import static io.netty.handler.codec.http.HttpHeaderValues.APPLICATION_JSON;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+
+/**
+ * Reports the effective network settings, with defaults filled in, as JSON.
+ */
+public class NetworkConfigEndpoint implements Function<HttpRequest, HttpResponse> {
+
+    public static String PATH = "/network";
+
+    private final String body;
+
+    public NetworkConfigEndpoint(NetworkConfig network, String transport) {
+        Map<String, Object> effective = new LinkedHashMap<>();
+        effective.put("transport", transport);
+        effective.put("workerThreads", network.workerThreads());
+        effective.put("ioRatio", network.ioRatio().orElse(NetworkConfig.DEFAULT_IO_RATIO));
+        effective.put("allocator", network.allocator());
+        var receiveBufferAllocator = network.receiveBufferAllocator();
+        effective.put("receiveBufferAllocator", Map.of(
+                "minimum", receiveBufferAllocator.minimum(),
+                "initial", receiveBufferAllocator.initial(),
+                "maximum", receiveBufferAllocator.maximum()));
+        effective.put("downstream", socket(network.downstream()));
+        effective.put("upstream", socket(network.upstream()));
+        effective.put("dns", dns(network.dns()));
+        effective.put("failover", failover(network.failover()));
+        try {
+            this.body = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(effective);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, Object> socket(NetworkConfig.SocketConfig socketConfig) {
+        Map<String, Object> socket = new LinkedHashMap<>();
+        socket.put("writeBufferLowWaterMark", socketConfig.writeBufferLowWaterMark());
+        socket.put("writeBufferHighWaterMark", socketConfig.writeBufferHighWaterMark());
+        // null means the operating system's default
+        socket.put("sendBufferSize", socketConfig.sendBufferSize().orElse(null));
+        socket.put("receiveBufferSize", socketConfig.receiveBufferSize().orElse(null));
+        return socket;
+    }
+
+    private static Map<String, Object> dns(NetworkConfig.DnsConfig dnsConfig) {
+        Map<String, Object> dns = new LinkedHashMap<>();
+        dns.put("async", dnsConfig.async());
+        // Empty means the operating system's name servers
+        dns.put("nameServers", dnsConfig.nameServers().stream().map(address -> address.getHostString() + ":" + address.getPort()).toList());
+        dns.put("minTtlSeconds", dnsConfig.minTtlSeconds());
+        dns.put("maxTtlSeconds", dnsConfig.maxTtlSeconds());
+        dns.put("negativeTtlSeconds", dnsConfig.negativeTtlSeconds());
+        dns.put("queryTimeoutMillis", dnsConfig.queryTimeoutMillis());
+        dns.put("happyEyeballs", dnsConfig.happyEyeballs());
+        dns.put("connectionAttemptDelayMillis", dnsConfig.connectionAttemptDelayMillis());
+        return dns;
+    }
+
+    private static Map<String, Object> failover(NetworkConfig.FailoverConfig failoverConfig) {
+        Map<String, Object> failover = new LinkedHashMap<>();
+        failover.put("attemptDelayMillis", failoverConfig.attemptDelayMillis());
+        failover.put("failureThreshold", failoverConfig.failureThreshold());
+        failover.put("openMillis", failoverConfig.openMillis());
+        return failover;
+    }
+
+    @Override
+    public HttpResponse apply(HttpRequest httpRequest) {
+        return RoutingHttpServer.responseWithBody(httpRequest, OK, body, APPLICATION_JSON);
+    }
+}
@@ -25,6 +25,7 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.QueryStringDecoder;
 
 import static io.netty.handler.codec.http.HttpHeaderNames.CONNECTION;
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
@@ -80,12 +81,14 @@ public class RoutingHttpServer extends SimpleChannelInboundHandler<HttpObject> {
     }
 
     private HttpResponse getResponse(HttpRequest req) {
-        if (routes.containsKey(req.uri())) {
+        // Routes are matched on the path alone, so that endpoints can take query parameters
+        String path = new QueryStringDecoder(req.uri()).path();
+        if (routes.containsKey(path)) {
             try {
-                return routes.get(req.uri()).apply(req);
+                return routes.get(path).apply(req);
             }
             catch (Exception e) {
-                LOGGER.error("exception while invoking endpoint for route {}", req.uri(), e);
+                LOGGER.error("exception while invoking endpoint for route {}", path, e);
                 return responseWithStatus(req, INTERNAL_SERVER_ERROR);
             }
         }
@@ -99,10 +102,17 @@ public class RoutingHttpServer extends SimpleChannelInboundHandler<HttpObject> {
     }
 
     public static FullHttpResponse responseWithBody(HttpRequest req, HttpResponseStatus status, String content) {
-        FullHttpResponse response = new DefaultFullHttpResponse(req.protocolVersion(), status,
-                Unpooled.wrappedBuffer(content.getBytes(StandardCharsets.UTF_8)));
+        return responseWithBody(req, status, content, TEXT_PLAIN);
+    }
+
+    public static FullHttpResponse responseWithBody(HttpRequest req, HttpResponseStatus status, String content, CharSequence contentType) {
+        return responseWithBody(req, status, content.getBytes(StandardCharsets.UTF_8), contentType);
+    }
+
+    public static FullHttpResponse responseWithBody(HttpRequest req, HttpResponseStatus status, byte[] content, CharSequence contentType) {
+        FullHttpResponse response = new DefaultFullHttpResponse(req.protocolVersion(), status, Unpooled.wrappedBuffer(content));
         response.headers()
-                .set(CONTENT_TYPE, TEXT_PLAIN)
+                .set(CONTENT_TYPE, contentType)
                 .setInt(CONTENT_LENGTH, response.content().readableBytes());
         return response;
     }
@@ -79,6 +79,13 @@ public class CorrelationManager {
         return brokerRequests.remove(upstreamCorrelationId);
     }
 
+    /**
+     * @return The number of requests sent to the broker for which a response has not yet been received.
+     */
+    public int inFlight() {
+        return brokerRequests.size();
+    }
+
     /**
      * A record for which responses should be decoded, together with their
      * API key and version.
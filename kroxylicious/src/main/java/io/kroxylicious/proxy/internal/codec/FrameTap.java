@@ -0,0 +1,36 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.codec;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Sees the bytes of each frame a {@link KafkaMessageDecoder} has delimited, before the frame is decoded.
+ */
+@FunctionalInterface
+public interface FrameTap {
+
+    /**
+     * Called on the channel's event loop.
+     * @param frame The frame, from its header to the end of its body, excluding the frame size.
+     * Its indexes must not be changed, and it must not be retained beyond the call.
+     */
+    void frame(ByteBuf frame);
+
+    /**
+     * @param next Another tap, or null.
+     * @return A tap which passes each frame to this tap and then to the other.
+     */
+    default FrameTap andThen(FrameTap next) {
+        if (next == null) {
+            return this;
+        }
+        return frame -> {
+            frame(frame);
+            next.frame(frame);
+        };
+    }
+}
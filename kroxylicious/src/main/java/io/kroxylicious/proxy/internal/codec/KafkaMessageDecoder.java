@@ -14,6 +14,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 
 import io.kroxylicious.proxy.frame.Frame;
+import io.kroxylicious.proxy.internal.jfr.FrameDecodeEvent;
 
 /**
  * Abstraction for request and response decoders.
@@ -22,7 +23,34 @@ public abstract class KafkaMessageDecoder extends ByteToMessageDecoder {
 
     protected abstract Logger log();
 
+    /** Bytes of incomplete frames held in the cumulation buffer, published for memory accounting. */
+    private volatile int bufferedBytes;
+
+    private final FrameTap frameTap;
+
     public KafkaMessageDecoder() {
+        this(null);
+    }
+
+    /**
+     * @param frameTap Sees each frame before it's decoded, or null.
+     */
+    protected KafkaMessageDecoder(FrameTap frameTap) {
+        this.frameTap = frameTap;
+    }
+
+    /**
+     * @return The number of bytes of partially received frames this decoder is holding.
+     * Safe to call from any thread.
+     */
+    public int bufferedBytes() {
+        return bufferedBytes;
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        bufferedBytes = 0;
+        super.handlerRemoved0(ctx);
     }
 
     @Override
@@ -38,9 +66,15 @@ public abstract class KafkaMessageDecoder extends ByteToMessageDecoder {
                 // TODO handle too-large frames
                 if (readable >= frameSize) { // We can read the whole frame
                     var idx = in.readerIndex();
-                    out.add(decodeHeaderAndBody(ctx,
-                            in.readSlice(frameSize), // Prevent decodeHeaderAndBody() from reading beyond the frame
-                            frameSize));
+                    ByteBuf frame = in.readSlice(frameSize); // Prevent decodeHeaderAndBody() from reading beyond the frame
+                    if (frameTap != null) {
+                        frameTap.frame(frame);
+                    }
+                    FrameDecodeEvent event = new FrameDecodeEvent();
+                    event.begin();
+                    Frame decoded = decodeHeaderAndBody(ctx, frame, frameSize);
+                    event.commit(ctx, decoded, frameSize);
+                    out.add(decoded);
                     log().trace("{}: readable: {}, having read {}", ctx, in.readableBytes(), in.readerIndex() - idx);
                     if (in.readerIndex() - idx != frameSize) {
                         throw new RuntimeException("decodeHeaderAndBody did not read all of the buffer " + in);
@@ -56,6 +90,7 @@ public abstract class KafkaMessageDecoder extends ByteToMessageDecoder {
                 throw e;
             }
         }
+        bufferedBytes = in.readableBytes();
     }
 
     protected abstract Frame decodeHeaderAndBody(ChannelHandlerContext ctx, ByteBuf in, int length);
@@ -12,6 +12,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
 import io.kroxylicious.proxy.frame.Frame;
+import io.kroxylicious.proxy.internal.jfr.FrameEncodeEvent;
 
 /**
  * Abstraction for request and response encoders.
@@ -43,6 +44,10 @@ public abstract class KafkaMessageEncoder<F extends Frame> extends MessageToByte
     @Override
     protected void encode(ChannelHandlerContext ctx, F frame, ByteBuf out) throws Exception {
         log().trace("{}: Encoding {} to buffer {}", ctx, frame, out);
+        FrameEncodeEvent event = new FrameEncodeEvent();
+        event.begin();
+        int start = out.writerIndex();
         frame.encode(new ByteBufAccessorImpl(out));
+        event.commit(ctx, frame, out.writerIndex() - start - Integer.BYTES);
     }
 }
@@ -36,7 +36,15 @@ public class KafkaRequestDecoder extends KafkaMessageDecoder {
     private final DecodePredicate decodePredicate;
 
     public KafkaRequestDecoder(DecodePredicate decodePredicate) {
-        super();
+        this(decodePredicate, null);
+    }
+
+    /**
+     * @param decodePredicate Which requests, and responses, to decode.
+     * @param frameTap Sees the bytes of each request before it's decoded, or null.
+     */
+    public KafkaRequestDecoder(DecodePredicate decodePredicate, FrameTap frameTap) {
+        super(frameTap);
         this.decodePredicate = decodePredicate;
     }
 
@@ -101,7 +109,7 @@ public class KafkaRequestDecoder extends KafkaMessageDecoder {
                 log().trace("{}: body {}", ctx, body);
             }
 
-            frame = new DecodedRequestFrame<ApiMessage>(apiVersion, correlationId, decodeResponse, header, body);
+            frame = new DecodedRequestFrame<ApiMessage>(apiVersion, correlationId, decodeResponse, header, body, length);
             if (log().isTraceEnabled()) {
                 log().trace("{}: frame {}", ctx, frame);
             }
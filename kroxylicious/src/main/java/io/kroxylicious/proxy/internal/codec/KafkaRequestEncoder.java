@@ -81,7 +81,7 @@ public class KafkaRequestEncoder extends KafkaMessageEncoder<RequestFrame> {
         }
     }
 
-    static short readAcks(ByteBuf in, int startOfMessage, short apiKey, short apiVersion) {
+    public static short readAcks(ByteBuf in, int startOfMessage, short apiKey, short apiVersion) {
         // Annoying case: we need to know whether to expect a response so that we know
         // whether to add to the correlation (so that, in turn, we know how to rewrite the correlation
         // id of the client response).
@@ -82,21 +82,21 @@ public class KafkaResponseDecoder extends KafkaMessageDecoder {
                     FLOWING_DOWNSTREAM);
             Metrics.summary(KROXYLICIOUS_REQUEST_SIZE_BYTES, LIST_OF_TAGS).record(length);
             if (recipient == null) {
-                frame = new DecodedResponseFrame<>(apiVersion, correlationId, header, body);
+                frame = new DecodedResponseFrame<>(apiVersion, correlationId, header, body, length);
             }
             else {
                 frame = new InternalResponseFrame<>(recipient, apiVersion, correlationId, header, body, correlation.promise());
             }
         }
         else {
-            frame = opaqueFrame(in, correlationId, length);
+            frame = opaqueFrame(in, correlationId, length, correlation.apiKey(), correlation.apiVersion());
         }
         log().trace("{}: Frame: {}", ctx, frame);
         return frame;
     }
 
-    private OpaqueFrame opaqueFrame(ByteBuf in, int correlationId, int length) {
-        return new OpaqueResponseFrame(in.readSlice(length).retain(), correlationId, length);
+    private OpaqueFrame opaqueFrame(ByteBuf in, int correlationId, int length, short apiKeyId, short apiVersion) {
+        return new OpaqueResponseFrame(in.readSlice(length).retain(), correlationId, length, apiKeyId, apiVersion);
     }
 
     private ResponseHeaderData readHeader(short headerVersion, Readable accessor) {
@@ -5,6 +5,8 @@
  */
 package io.kroxylicious.proxy.internal.filter;
 
+import io.kroxylicious.proxy.example.topicencryption.TopicEncryption;
+import io.kroxylicious.proxy.example.topicencryption.TopicEncryption.TopicEncryptionConfig;
 import io.kroxylicious.proxy.filter.FilterContributor;
 import io.kroxylicious.proxy.filter.KrpcFilter;
 import io.kroxylicious.proxy.internal.filter.BrokerAddressFilter.BrokerAddressConfig;
@@ -18,7 +20,8 @@ public class BuiltinFilterContributor extends BaseContributor<KrpcFilter> implem
             .add("ApiVersions", ApiVersionsFilter::new)
             .add("BrokerAddress", BrokerAddressConfig.class, BrokerAddressFilter::new)
             .add("ProduceRequestTransformation", ProduceRequestTransformationConfig.class, ProduceRequestTransformationFilter::new)
-            .add("FetchResponseTransformation", FetchResponseTransformationConfig.class, FetchResponseTransformationFilter::new);
+            .add("FetchResponseTransformation", FetchResponseTransformationConfig.class, FetchResponseTransformationFilter::new)
+            .add("TopicEncryption", TopicEncryptionConfig.class, TopicEncryption::new);
 
     public BuiltinFilterContributor() {
         super(FILTERS);
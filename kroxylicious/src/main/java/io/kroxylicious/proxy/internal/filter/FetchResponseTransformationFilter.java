@@ -6,32 +6,25 @@
 package io.kroxylicious.proxy.internal.filter;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import org.apache.kafka.common.Uuid;
 import org.apache.kafka.common.message.FetchResponseData;
 import org.apache.kafka.common.message.FetchResponseData.FetchableTopicResponse;
 import org.apache.kafka.common.message.FetchResponseData.PartitionData;
-import org.apache.kafka.common.message.MetadataRequestData;
-import org.apache.kafka.common.message.MetadataResponseData;
 import org.apache.kafka.common.message.ResponseHeaderData;
 import org.apache.kafka.common.protocol.ApiKeys;
-import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
-import org.apache.kafka.common.record.MemoryRecordsBuilder;
-import org.apache.kafka.common.record.MutableRecordBatch;
-import org.apache.kafka.common.record.Record;
-import org.apache.kafka.common.record.TimestampType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.kroxylicious.proxy.config.BaseConfig;
 import io.kroxylicious.proxy.filter.FetchResponseFilter;
 import io.kroxylicious.proxy.filter.KrpcFilterContext;
-import io.kroxylicious.proxy.internal.util.MemoryRecordsHelper;
 
 /**
  * An filter for modifying the key/value/header/topic of {@link ApiKeys#FETCH} responses.
@@ -41,28 +34,38 @@ public class FetchResponseTransformationFilter implements FetchResponseFilter {
     public static class FetchResponseTransformationConfig extends BaseConfig {
 
         private final String transformation;
+        private final int parallelThresholdBytes;
 
-        public FetchResponseTransformationConfig(String transformation) {
+        public FetchResponseTransformationConfig(String transformation, Integer parallelThresholdBytes) {
             this.transformation = transformation;
+            this.parallelThresholdBytes = parallelThresholdBytes == null ? RecordTransformer.DEFAULT_PARALLEL_THRESHOLD_BYTES : parallelThresholdBytes;
         }
 
         public String transformation() {
             return transformation;
         }
+
+        /**
+         * @return The size of a response's records above which they're transformed off the event loop, a partition per thread.
+         */
+        public int parallelThresholdBytes() {
+            return parallelThresholdBytes;
+        }
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FetchResponseTransformationFilter.class);
 
     /**
-     * Transformation to be applied to record value.
+     * Transforms the record values.
      */
-    private final ByteBufferTransformation valueTransformation;
+    private final RecordTransformer transformer;
 
     // TODO: add transformation support for key/header/topic
 
     public FetchResponseTransformationFilter(FetchResponseTransformationConfig config) {
         try {
-            this.valueTransformation = (ByteBufferTransformation) Class.forName(config.transformation()).getConstructor().newInstance();
+            var transformation = Class.forName(config.transformation()).getConstructor().newInstance();
+            this.transformer = new RecordTransformer(RecordTransformer.batchTransformation(transformation), config.parallelThresholdBytes());
         }
         catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException
                 | ClassNotFoundException e) {
@@ -72,53 +75,44 @@ public class FetchResponseTransformationFilter implements FetchResponseFilter {
 
     @Override
     public void onFetchResponse(ResponseHeaderData header, FetchResponseData fetchResponse, KrpcFilterContext context) {
-        List<MetadataRequestData.MetadataRequestTopic> requestTopics = fetchResponse.responses().stream()
+        Set<Uuid> topicIds = fetchResponse.responses().stream()
                 .filter(t -> t.topic().isEmpty())
-                .map(fetchableTopicResponse -> {
-                    Uuid uuid = fetchableTopicResponse.topicId();
-                    return new MetadataRequestData.MetadataRequestTopic().setName(null).setTopicId(uuid);
-                })
-                .distinct()
-                .collect(Collectors.toList());
-        if (!requestTopics.isEmpty()) {
-            LOGGER.debug("Fetch response contains {} unknown topic ids, lookup via Metadata request: {}", requestTopics.size(), requestTopics);
-            // TODO Can't necessarily use HIGHEST_SUPPORTED_VERSION, must use highest supported version
-            context.<MetadataResponseData> sendRequest(MetadataRequestData.HIGHEST_SUPPORTED_VERSION,
-                    new MetadataRequestData()
-                            .setTopics(requestTopics))
-                    .thenAccept(metadataResponse -> {
-                        Map<Uuid, String> uidToName = metadataResponse.topics().stream().collect(Collectors.toMap(ti -> ti.topicId(), ti -> ti.name()));
-                        LOGGER.debug("Metadata response yields {}, updating original Fetch response", uidToName);
+                .map(FetchableTopicResponse::topicId)
+                .collect(Collectors.toSet());
+        if (!topicIds.isEmpty()) {
+            var transformed = context.topicMetadata().topicNames(topicIds)
+                    .thenCompose(topicNames -> {
+                        LOGGER.debug("Topic metadata yields {}, updating original Fetch response", topicNames);
                         for (var fetchableTopicResponse : fetchResponse.responses()) {
-                            fetchableTopicResponse.setTopic(uidToName.get(fetchableTopicResponse.topicId()));
+                            if (fetchableTopicResponse.topic().isEmpty()) {
+                                fetchableTopicResponse.setTopic(topicNames.get(fetchableTopicResponse.topicId()));
+                            }
                         }
-                        applyTransformation(context, fetchResponse);
-                        LOGGER.debug("Forwarding original Fetch response");
-                        context.forwardResponse(fetchResponse);
+                        return applyTransformation(context, fetchResponse);
                     });
+            context.forwardWhenComplete(transformed, fetchResponse);
         }
         else {
-            applyTransformation(context, fetchResponse);
-            context.forwardResponse(fetchResponse);
+            CompletableFuture<Void> transformed = applyTransformation(context, fetchResponse);
+            if (transformed.isDone()) {
+                transformed.join();
+                context.forwardResponse(fetchResponse);
+            }
+            else {
+                context.forwardWhenComplete(transformed, fetchResponse);
+            }
         }
     }
 
-    private void applyTransformation(KrpcFilterContext context, FetchResponseData responseData) {
+    private CompletableFuture<Void> applyTransformation(KrpcFilterContext context, FetchResponseData responseData) {
+        List<RecordTransformer.Partition> partitions = new ArrayList<>();
         for (FetchableTopicResponse topicData : responseData.responses()) {
             for (PartitionData partitionData : topicData.partitions()) {
                 MemoryRecords records = (MemoryRecords) partitionData.records();
-                MemoryRecordsBuilder newRecords = MemoryRecordsHelper.builder(context.createByteBufferOutputStream(records.sizeInBytes()), CompressionType.NONE,
-                        TimestampType.CREATE_TIME, 0);
-
-                for (MutableRecordBatch batch : records.batches()) {
-                    for (Iterator<Record> batchRecords = batch.iterator(); batchRecords.hasNext();) {
-                        Record batchRecord = batchRecords.next();
-                        newRecords.append(batchRecord.timestamp(), batchRecord.key(), valueTransformation.transform(topicData.topic(), batchRecord.value()));
-                    }
-                }
-
-                partitionData.setRecords(newRecords.build());
+                partitions.add(new RecordTransformer.Partition(topicData.topic(), records, context.createByteBufferOutputStream(records.sizeInBytes()),
+                        partitionData::setRecords));
             }
         }
+        return transformer.transform(partitions);
     }
 }
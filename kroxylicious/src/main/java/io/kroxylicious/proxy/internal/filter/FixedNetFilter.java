@@ -7,25 +7,26 @@ package io.kroxylicious.proxy.internal.filter;
 
 import io.kroxylicious.proxy.bootstrap.FilterChainFactory;
 import io.kroxylicious.proxy.filter.NetFilter;
+import io.kroxylicious.proxy.internal.UpstreamBrokers;
 
 /**
  * Implementation of {@link NetFilter} that is able to connect to a
  * single cluster, using a single, constant {@link FilterChainFactory}.
+ * The cluster's bootstrap servers are tried in the order given by their {@link UpstreamBrokers health},
+ * which is told the outcome of every attempt.
  */
 public class FixedNetFilter implements NetFilter {
 
-    private final String remoteHost;
-    private final int remotePort;
+    private final UpstreamBrokers brokers;
     private final FilterChainFactory filterChainFactory;
 
-    public FixedNetFilter(String remoteHost, int remotePort, FilterChainFactory filterChainFactory) {
-        this.remoteHost = remoteHost;
-        this.remotePort = remotePort;
+    public FixedNetFilter(UpstreamBrokers brokers, FilterChainFactory filterChainFactory) {
+        this.brokers = brokers;
         this.filterChainFactory = filterChainFactory;
     }
 
     @Override
     public void selectServer(NetFilterContext context) {
-        context.initiateConnect(remoteHost, remotePort, filterChainFactory.createFilters());
+        context.initiateConnect(brokers.candidates(), brokers.attemptDelayMillis(), brokers, filterChainFactory.createFilters());
     }
 }
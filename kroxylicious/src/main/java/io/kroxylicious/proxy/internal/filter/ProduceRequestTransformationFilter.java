@@ -8,60 +8,88 @@ package io.kroxylicious.proxy.internal.filter;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.kafka.common.message.ProduceRequestData;
 import org.apache.kafka.common.message.ProduceRequestData.PartitionProduceData;
 import org.apache.kafka.common.message.RequestHeaderData;
 import org.apache.kafka.common.protocol.ApiKeys;
-import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
-import org.apache.kafka.common.record.MemoryRecordsBuilder;
-import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.Record;
-import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.record.RecordBatch;
 
 import io.kroxylicious.proxy.config.BaseConfig;
 import io.kroxylicious.proxy.filter.KrpcFilterContext;
 import io.kroxylicious.proxy.filter.ProduceRequestFilter;
-import io.kroxylicious.proxy.internal.util.MemoryRecordsHelper;
 
 /**
  * An filter for modifying the key/value/header/topic of {@link ApiKeys#PRODUCE} requests.
  */
 public class ProduceRequestTransformationFilter implements ProduceRequestFilter {
 
-    public static class UpperCasing implements ByteBufferTransformation {
+    public static class UpperCasing implements ByteBufferTransformation, RecordBatchTransformation {
 
         @Override
         public ByteBuffer transform(String topicName, ByteBuffer in) {
-            return ByteBuffer.wrap(new String(StandardCharsets.UTF_8.decode(in).array()).toUpperCase().getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(StandardCharsets.UTF_8.decode(in).toString().toUpperCase().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void transform(String topicName, RecordBatch batch, Output output) {
+            for (Record record : batch) {
+                ByteBuffer value = record.value();
+                if (value == null) {
+                    output.append(record);
+                    continue;
+                }
+                ByteBuffer upper = output.valueBuffer(value.remaining());
+                boolean ascii = true;
+                for (int i = value.position(); ascii && i < value.limit(); i++) {
+                    byte b = value.get(i);
+                    ascii = b >= 0;
+                    upper.put(b >= 'a' && b <= 'z' ? (byte) (b - ('a' - 'A')) : b);
+                }
+                // Other characters need decoding, to upper case them by Unicode's rules
+                output.append(record, ascii ? upper.flip() : transform(topicName, value));
+            }
         }
     }
 
     public static class ProduceRequestTransformationConfig extends BaseConfig {
 
         private final String transformation;
+        private final int parallelThresholdBytes;
 
-        public ProduceRequestTransformationConfig(String transformation) {
+        public ProduceRequestTransformationConfig(String transformation, Integer parallelThresholdBytes) {
             this.transformation = transformation;
+            this.parallelThresholdBytes = parallelThresholdBytes == null ? RecordTransformer.DEFAULT_PARALLEL_THRESHOLD_BYTES : parallelThresholdBytes;
         }
 
         public String transformation() {
             return transformation;
         }
+
+        /**
+         * @return The size of a request's records above which they're transformed off the event loop, a partition per thread.
+         */
+        public int parallelThresholdBytes() {
+            return parallelThresholdBytes;
+        }
     }
 
     /**
-     * Transformation to be applied to record value.
+     * Transforms the record values.
      */
-    private final ByteBufferTransformation valueTransformation;
+    private final RecordTransformer transformer;
 
     // TODO: add transformation support for key/header/topic
 
     public ProduceRequestTransformationFilter(ProduceRequestTransformationConfig config) {
         try {
-            this.valueTransformation = (ByteBufferTransformation) Class.forName(config.transformation()).getConstructor().newInstance();
+            var transformation = Class.forName(config.transformation()).getConstructor().newInstance();
+            this.transformer = new RecordTransformer(RecordTransformer.batchTransformation(transformation), config.parallelThresholdBytes());
         }
         catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException
                 | ClassNotFoundException e) {
@@ -71,26 +99,25 @@ public class ProduceRequestTransformationFilter implements ProduceRequestFilter
 
     @Override
     public void onProduceRequest(RequestHeaderData header, ProduceRequestData data, KrpcFilterContext context) {
-        applyTransformation(context, data);
-        context.forwardRequest(data);
+        CompletableFuture<Void> transformed = applyTransformation(context, data);
+        if (transformed.isDone()) {
+            transformed.join();
+            context.forwardRequest(data);
+        }
+        else {
+            context.forwardWhenComplete(transformed, data);
+        }
     }
 
-    private void applyTransformation(KrpcFilterContext ctx, ProduceRequestData req) {
+    private CompletableFuture<Void> applyTransformation(KrpcFilterContext ctx, ProduceRequestData req) {
+        List<RecordTransformer.Partition> partitions = new ArrayList<>();
         req.topicData().forEach(topicData -> {
             for (PartitionProduceData partitionData : topicData.partitionData()) {
                 MemoryRecords records = (MemoryRecords) partitionData.records();
-                MemoryRecordsBuilder newRecords = MemoryRecordsHelper.builder(ctx.createByteBufferOutputStream(records.sizeInBytes()), CompressionType.NONE,
-                        TimestampType.CREATE_TIME, 0);
-
-                for (MutableRecordBatch batch : records.batches()) {
-                    for (Iterator<Record> batchRecords = batch.iterator(); batchRecords.hasNext();) {
-                        Record batchRecord = batchRecords.next();
-                        newRecords.append(batchRecord.timestamp(), batchRecord.key(), valueTransformation.transform(topicData.name(), batchRecord.value()));
-                    }
-                }
-
-                partitionData.setRecords(newRecords.build());
+                partitions.add(new RecordTransformer.Partition(topicData.name(), records, ctx.createByteBufferOutputStream(records.sizeInBytes()),
+                        partitionData::setRecords));
             }
         });
+        return transformer.transform(partitions);
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.filter;
+
+import java.nio.ByteBuffer;
+
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+
+/**
+ * <p>A transformation of the records of a batch, which is given the batch as a whole and writes the transformed records
+ * to an {@link Output} supplied by the proxy.</p>
+ *
+ * <p>The keys, values and headers of the batch's records are views of the batch's buffer (or, for compressed batches,
+ * of the decompressed records), so reading them doesn't copy them. A transformation which only changes some records
+ * can append the others unchanged, and one which computes new values can write them into the output's
+ * {@linkplain Output#valueBuffer(int) value buffer}, which is reused from one record to the next,
+ * rather than allocating a buffer per record.</p>
+ *
+ * <p>Transformations may be called on several threads at once, so must be thread-safe.</p>
+ */
+@FunctionalInterface
+public interface RecordBatchTransformation {
+
+    /**
+     * Where the transformed records of a batch are written.
+     * Records keep their original offset, timestamp, key and headers.
+     */
+    interface Output {
+
+        /**
+         * A buffer the transformation can write a record's new value into, which is only valid until the next append.
+         * @param minCapacity The capacity needed.
+         * @return An empty buffer with at least the given capacity.
+         */
+        ByteBuffer valueBuffer(int minCapacity);
+
+        /**
+         * Appends the given record with a new value.
+         * Records must be appended in offset order, and at least one record of each batch must be appended.
+         * @param record The original record.
+         * @param value The new value, between its position and limit, or null for a tombstone.
+         */
+        void append(Record record, ByteBuffer value);
+
+        /**
+         * Appends the given record unchanged.
+         * @param record The original record.
+         */
+        void append(Record record);
+    }
+
+    /**
+     * Transforms the records of a batch. The batch is neither a control batch nor empty.
+     * @param topicName The name of the batch's topic.
+     * @param batch The batch.
+     * @param output Where to append the transformed records.
+     */
+    void transform(String topicName, RecordBatch batch, Output output);
+
+    /**
+     * @param valueTransformation A transformation of record values.
+     * @return A batch transformation which applies the given transformation to the value of each record, except for tombstones.
+     */
+    static RecordBatchTransformation perRecord(ByteBufferTransformation valueTransformation) {
+        return (topicName, batch, output) -> {
+            for (Record record : batch) {
+                if (record.hasValue()) {
+                    output.append(record, valueTransformation.transform(topicName, record.value()));
+                }
+                else {
+                    output.append(record);
+                }
+            }
+        };
+    }
+}
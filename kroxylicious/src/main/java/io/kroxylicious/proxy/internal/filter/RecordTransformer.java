@@ -0,0 +1,193 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.filter;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+
+import io.kroxylicious.proxy.internal.util.MemoryRecordsHelper;
+
+/**
+ * <p>Transforms records, for {@link ProduceRequestTransformationFilter}, {@link FetchResponseTransformationFilter}
+ * and other filters which change record values.</p>
+ *
+ * <p>Records are transformed batch by batch, by a {@link RecordBatchTransformation}, and each transformed batch keeps the original's compression,
+ * offsets, timestamps, producer id, epoch and sequence, transactional flag and partition leader epoch,
+ * and each record keeps its key and headers. Control batches are copied as they are.</p>
+ *
+ * <p>When the records to transform add up to more than a threshold, the partitions are transformed
+ * in parallel on a pool shared by all connections, with a thread per processor,
+ * so that large requests and responses don't hold up the other connections on the event loop.</p>
+ */
+public class RecordTransformer {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD_BYTES = 64 * 1024;
+
+    private static final class SharedPool {
+        private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool(PARALLELISM,
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("kroxylicious-transformation-" + thread.getPoolIndex());
+                    return thread;
+                },
+                null, true, 0, PARALLELISM, 1, null, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The records of one partition.
+     * @param topicName The name of the partition's topic.
+     * @param records The records to transform.
+     * @param output Where to write the transformed records.
+     * It needs to be allocated on the event loop, but is written to on the pool.
+     * @param result Given the transformed records.
+     */
+    public record Partition(String topicName, MemoryRecords records, ByteBufferOutputStream output, Consumer<MemoryRecords> result) {
+    }
+
+    /**
+     * The buffer each thread gives transformations to write values into, which is kept unless it has grown very large.
+     */
+    private static final ThreadLocal<ByteBuffer> VALUE_BUFFER = new ThreadLocal<>();
+    private static final int MAX_RETAINED_VALUE_BUFFER_BYTES = 1024 * 1024;
+
+    private final RecordBatchTransformation transformation;
+    private final int parallelThresholdBytes;
+    private final Executor executor;
+
+    /**
+     * @param transformation The transformation to apply to each batch.
+     * @param parallelThresholdBytes The size of the records above which partitions are transformed on the shared pool.
+     */
+    public RecordTransformer(RecordBatchTransformation transformation, int parallelThresholdBytes) {
+        this(transformation, parallelThresholdBytes, null);
+    }
+
+    RecordTransformer(RecordBatchTransformation transformation, int parallelThresholdBytes, Executor executor) {
+        if (parallelThresholdBytes < 0) {
+            throw new IllegalArgumentException("parallelThresholdBytes must be >= 0, but was " + parallelThresholdBytes);
+        }
+        this.transformation = transformation;
+        this.parallelThresholdBytes = parallelThresholdBytes;
+        this.executor = executor;
+    }
+
+    /**
+     * @param transformation A {@link RecordBatchTransformation} or, failing that, a {@link ByteBufferTransformation} of record values.
+     * @return The batch transformation.
+     * @throws IllegalArgumentException If the transformation is neither.
+     */
+    static RecordBatchTransformation batchTransformation(Object transformation) {
+        if (transformation instanceof RecordBatchTransformation) {
+            return (RecordBatchTransformation) transformation;
+        }
+        else if (transformation instanceof ByteBufferTransformation) {
+            return RecordBatchTransformation.perRecord((ByteBufferTransformation) transformation);
+        }
+        throw new IllegalArgumentException(transformation.getClass().getName() + " is neither a " + RecordBatchTransformation.class.getSimpleName()
+                + " nor a " + ByteBufferTransformation.class.getSimpleName());
+    }
+
+    /**
+     * Transforms the records of the given partitions.
+     * @param partitions The partitions.
+     * @return A future which is already complete if the records were transformed on the calling thread,
+     * or which completes on a pool thread once they all have been.
+     */
+    public CompletableFuture<Void> transform(List<Partition> partitions) {
+        long totalBytes = 0;
+        for (Partition partition : partitions) {
+            totalBytes += partition.records().sizeInBytes();
+        }
+        if (totalBytes <= parallelThresholdBytes) {
+            for (Partition partition : partitions) {
+                transform(partition);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+        Executor pool = executor != null ? executor : SharedPool.INSTANCE;
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[partitions.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            Partition partition = partitions.get(i);
+            tasks[i] = CompletableFuture.runAsync(() -> transform(partition), pool);
+        }
+        return CompletableFuture.allOf(tasks);
+    }
+
+    private void transform(Partition partition) {
+        ByteBufferOutputStream output = partition.output();
+        int start = output.position();
+        for (MutableRecordBatch batch : partition.records().batches()) {
+            transform(partition.topicName(), batch, output);
+        }
+        ByteBuffer transformed = output.buffer().duplicate();
+        transformed.limit(output.position()).position(start);
+        partition.result().accept(MemoryRecords.readableRecords(transformed.slice()));
+    }
+
+    private void transform(String topicName, MutableRecordBatch batch, ByteBufferOutputStream output) {
+        Integer count = batch.countOrNull();
+        if (batch.isControlBatch() || (count != null && count == 0)) {
+            // Empty batches are those whose records have all been compacted away, kept for their producer state
+            batch.writeTo(output);
+            return;
+        }
+        MemoryRecordsBuilder builder = MemoryRecordsHelper.builderFor(output, batch);
+        transformation.transform(topicName, batch, new BatchOutput(builder));
+        if (builder.numRecords() == 0) {
+            throw new IllegalStateException("Transformation " + transformation.getClass().getName() + " appended no records for a batch of " + topicName);
+        }
+        if (batch.magic() >= RecordBatch.MAGIC_VALUE_V2) {
+            // The last records of the batch may have been compacted away, but consumers fetch from after the batch's last offset
+            builder.overrideLastOffset(batch.lastOffset());
+        }
+        builder.close();
+    }
+
+    private static final class BatchOutput implements RecordBatchTransformation.Output {
+        private final MemoryRecordsBuilder builder;
+
+        private BatchOutput(MemoryRecordsBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public ByteBuffer valueBuffer(int minCapacity) {
+            ByteBuffer buffer = VALUE_BUFFER.get();
+            if (buffer == null || buffer.capacity() < minCapacity) {
+                buffer = ByteBuffer.allocate(Math.max(minCapacity, buffer == null ? 1024 : 2 * buffer.capacity()));
+                if (buffer.capacity() <= MAX_RETAINED_VALUE_BUFFER_BYTES) {
+                    VALUE_BUFFER.set(buffer);
+                }
+            }
+            return buffer.clear();
+        }
+
+        @Override
+        public void append(Record record, ByteBuffer value) {
+            // The value is copied into the batch, so the value buffer can be reused for the next record
+            builder.appendWithOffset(record.offset(), record.timestamp(), record.key(), value, record.headers());
+        }
+
+        @Override
+        public void append(Record record) {
+            builder.appendWithOffset(record.offset(), record);
+        }
+    }
+}
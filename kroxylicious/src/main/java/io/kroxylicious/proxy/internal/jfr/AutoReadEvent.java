@@ -0,0 +1,60 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.jfr;
+
+import io.netty.channel.Channel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Reading from a client or broker connection being paused or resumed, which is how the proxy applies backpressure.
+ */
+@Name("io.kroxylicious.AutoRead")
+@Label("Auto Read")
+@Description("Reading from a connection being paused or resumed")
+@Category({ "Kroxylicious", "Backpressure" })
+@Enabled(false)
+@StackTrace(false)
+public final class AutoReadEvent extends Event {
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Side")
+    @Description("downstream for a client connection, upstream for a broker connection")
+    String side;
+
+    @Label("Auto Read")
+    boolean autoRead;
+
+    @Label("Reason")
+    String reason;
+
+    /**
+     * Sets whether the given channel reads automatically, recording an event if that's a change.
+     * @param channel The channel.
+     * @param upstream Whether the channel is a connection to a broker.
+     * @param autoRead Whether to read.
+     * @param reason Why reading is being paused or resumed.
+     */
+    public static void setAutoRead(Channel channel, boolean upstream, boolean autoRead, String reason) {
+        AutoReadEvent event = new AutoReadEvent();
+        if (event.isEnabled() && channel.config().isAutoRead() != autoRead) {
+            event.channel = channel.id().asShortText();
+            event.side = upstream ? "upstream" : "downstream";
+            event.autoRead = autoRead;
+            event.reason = reason;
+            event.commit();
+        }
+        channel.config().setAutoRead(autoRead);
+    }
+}
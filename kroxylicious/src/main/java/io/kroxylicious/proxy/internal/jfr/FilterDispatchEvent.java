@@ -0,0 +1,56 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.jfr;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+
+import io.netty.channel.Channel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A filter's {@code onRequest} or {@code onResponse} method being invoked.
+ * This covers only the method itself, not any work it completes asynchronously.
+ */
+@Name("io.kroxylicious.FilterDispatch")
+@Label("Filter Dispatch")
+@Description("A request or response being passed to a filter")
+@Category({ "Kroxylicious", "Filters" })
+@Enabled(false)
+@StackTrace(false)
+public final class FilterDispatchEvent extends Event {
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Filter")
+    String filter;
+
+    @Label("Direction")
+    String direction;
+
+    @Label("API Key")
+    String apiKey;
+
+    /**
+     * Commits this event, if it's enabled and over its threshold.
+     */
+    public void commit(Channel channel, Object filter, boolean request, ApiKeys apiKey) {
+        if (shouldCommit()) {
+            this.channel = channel.id().asShortText();
+            this.filter = filter.getClass().getName();
+            this.direction = request ? "request" : "response";
+            this.apiKey = apiKey.name;
+            commit();
+        }
+    }
+}
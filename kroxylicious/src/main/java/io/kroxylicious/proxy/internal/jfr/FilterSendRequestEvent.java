@@ -0,0 +1,55 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.jfr;
+
+import io.netty.channel.Channel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The round trip of a request a filter sent itself, from being sent until its response (or failure)
+ * completes the filter's future.
+ */
+@Name("io.kroxylicious.FilterSendRequest")
+@Label("Filter Send Request")
+@Description("A request sent by a filter, until its response arrived or it failed")
+@Category({ "Kroxylicious", "Filters" })
+@Enabled(false)
+@StackTrace(false)
+public final class FilterSendRequestEvent extends Event {
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Filter")
+    String filter;
+
+    @Label("API Key")
+    String apiKey;
+
+    @Label("Failure")
+    String failure;
+
+    /**
+     * Commits this event, if it's enabled and over its threshold.
+     * @param failure The reason the request failed, or null if it has a response.
+     */
+    public void commit(Channel channel, Object filter, short apiKeyId, Throwable failure) {
+        if (shouldCommit()) {
+            this.channel = channel.id().asShortText();
+            this.filter = filter.getClass().getName();
+            this.apiKey = FrameEvent.apiKey(apiKeyId);
+            this.failure = failure == null ? null : failure.toString();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The decoding of a frame read from a channel, into either a decoded or an opaque frame.
+ */
+@Name("io.kroxylicious.FrameDecode")
+@Label("Frame Decode")
+@Description("A frame read from a client or broker, being decoded")
+public final class FrameDecodeEvent extends FrameEvent {
+}
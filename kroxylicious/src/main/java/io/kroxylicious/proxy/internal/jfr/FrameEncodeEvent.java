@@ -0,0 +1,19 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The encoding of a frame being written to a channel.
+ */
+@Name("io.kroxylicious.FrameEncode")
+@Label("Frame Encode")
+@Description("A frame written to a client or broker, being encoded")
+public final class FrameEncodeEvent extends FrameEvent {
+}
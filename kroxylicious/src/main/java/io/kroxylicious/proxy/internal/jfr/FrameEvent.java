@@ -0,0 +1,86 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.jfr;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import io.kroxylicious.proxy.frame.DecodedFrame;
+import io.kroxylicious.proxy.frame.Frame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.frame.RequestFrame;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The decoding or encoding of a frame.
+ */
+@Category({ "Kroxylicious", "Frames" })
+@Enabled(false)
+@StackTrace(false)
+abstract class FrameEvent extends Event {
+
+    @Label("Channel")
+    String channel;
+
+    @Label("Direction")
+    String direction;
+
+    @Label("API Key")
+    String apiKey;
+
+    @Label("Correlation Id")
+    int correlationId;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+
+    @Label("Decoded")
+    boolean decoded;
+
+    /**
+     * Commits this event, if it's enabled and over its threshold.
+     * @param ctx The context of the codec.
+     * @param frame The frame.
+     * @param size The size of the frame, excluding its size prefix.
+     */
+    public void commit(ChannelHandlerContext ctx, Frame frame, int size) {
+        if (shouldCommit()) {
+            this.channel = ctx.channel().id().asShortText();
+            this.direction = frame instanceof RequestFrame ? "request" : "response";
+            this.apiKey = apiKey(frame);
+            this.correlationId = frame.correlationId();
+            this.size = size;
+            this.decoded = frame instanceof DecodedFrame;
+            commit();
+        }
+    }
+
+    static String apiKey(Frame frame) {
+        if (frame instanceof DecodedFrame) {
+            return ((DecodedFrame<?, ?>) frame).apiKey().name;
+        }
+        else if (frame instanceof OpaqueRequestFrame) {
+            return apiKey(((OpaqueRequestFrame) frame).apiKeyId());
+        }
+        else if (frame instanceof OpaqueResponseFrame) {
+            return apiKey(((OpaqueResponseFrame) frame).apiKeyId());
+        }
+        return null;
+    }
+
+    static String apiKey(short apiKeyId) {
+        return ApiKeys.hasId(apiKeyId) ? ApiKeys.forId(apiKeyId).name : Short.toString(apiKeyId);
+    }
+}
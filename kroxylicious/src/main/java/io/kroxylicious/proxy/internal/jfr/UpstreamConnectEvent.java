@@ -0,0 +1,55 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.jfr;
+
+import io.netty.channel.Channel;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The proxy connecting to a broker on behalf of a client.
+ */
+@Name("io.kroxylicious.UpstreamConnect")
+@Label("Upstream Connect")
+@Description("A connection to a broker being established for a client")
+@Category({ "Kroxylicious", "Connections" })
+@Enabled(false)
+@StackTrace(false)
+public final class UpstreamConnectEvent extends Event {
+
+    @Label("Channel")
+    @Description("The client's channel")
+    String channel;
+
+    @Label("Host")
+    String host;
+
+    @Label("Port")
+    int port;
+
+    @Label("Failure")
+    String failure;
+
+    /**
+     * Commits this event, if it's enabled and over its threshold.
+     * @param failure The reason the connection failed, or null if it succeeded.
+     */
+    public void commit(Channel channel, String host, int port, Throwable failure) {
+        if (shouldCommit()) {
+            this.channel = channel.id().asShortText();
+            this.host = host;
+            this.port = port;
+            this.failure = failure == null ? null : failure.toString();
+            commit();
+        }
+    }
+}
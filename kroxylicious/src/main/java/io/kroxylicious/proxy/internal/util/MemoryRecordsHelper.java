@@ -25,6 +25,22 @@ public class MemoryRecordsHelper {
         return builder(stream, RecordBatch.CURRENT_MAGIC_VALUE, compressionType, timestampType, baseOffset);
     }
 
+    /**
+     * Creates a builder for a batch like the given one: with the same magic, compression, timestamp type,
+     * base offset, producer id, epoch and sequence, transactional flag and partition leader epoch.
+     * Records appended with their original offsets make a copy of the batch, which can have different keys and values.
+     * @param stream The stream to write the batch to.
+     * @param batch The batch to copy.
+     * @return The builder.
+     */
+    public static MemoryRecordsBuilder builderFor(ByteBufferOutputStream stream,
+                                                  RecordBatch batch) {
+        long logAppendTime = batch.timestampType() == TimestampType.LOG_APPEND_TIME ? batch.maxTimestamp() : RecordBatch.NO_TIMESTAMP;
+        return new MemoryRecordsBuilder(stream, batch.magic(), batch.compressionType(), batch.timestampType(), batch.baseOffset(),
+                logAppendTime, batch.producerId(), batch.producerEpoch(), batch.baseSequence(), batch.isTransactional(), batch.isControlBatch(),
+                batch.partitionLeaderEpoch(), stream.remaining(), batch.deleteHorizonMs().orElse(RecordBatch.NO_TIMESTAMP));
+    }
+
     private static MemoryRecordsBuilder builder(ByteBufferOutputStream stream,
                                                 byte magic,
                                                 CompressionType compressionType,
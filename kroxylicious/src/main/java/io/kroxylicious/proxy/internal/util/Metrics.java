@@ -18,6 +18,46 @@ public class Metrics {
 
     public static final String KROXYLICIOUS_REQUEST_SIZE_BYTES = "kroxylicious_request_size_bytes";
 
+    public static final String KROXYLICIOUS_MEMORY_USED_BYTES = "kroxylicious_memory_used_bytes";
+
+    public static final String KROXYLICIOUS_MEMORY_HIGH_WATER_MARK_BYTES = "kroxylicious_memory_high_water_mark_bytes";
+
+    public static final String KROXYLICIOUS_MEMORY_LOW_WATER_MARK_BYTES = "kroxylicious_memory_low_water_mark_bytes";
+
+    public static final String KROXYLICIOUS_MEMORY_PAUSED_CONNECTIONS = "kroxylicious_memory_paused_connections";
+
+    public static final String KROXYLICIOUS_MEMORY_BACKPRESSURE_STATE = "kroxylicious_memory_backpressure_state";
+
+    public static final String KROXYLICIOUS_MEMORY_CONNECTION_PAUSES = "kroxylicious_memory_connection_pauses";
+
+    public static final String KROXYLICIOUS_QUOTA_THROTTLES = "kroxylicious_quota_throttles";
+
+    public static final String KROXYLICIOUS_METADATA_CACHE_REQUESTS = "kroxylicious_metadata_cache_requests";
+
+    public static final String KROXYLICIOUS_METADATA_CACHE_HIT_RATIO = "kroxylicious_metadata_cache_hit_ratio";
+
+    public static final String KROXYLICIOUS_COORDINATOR_CACHE_REQUESTS = "kroxylicious_coordinator_cache_requests";
+
+    public static final String KROXYLICIOUS_COORDINATOR_CACHE_HIT_RATIO = "kroxylicious_coordinator_cache_hit_ratio";
+
+    public static final String KROXYLICIOUS_COORDINATOR_CACHE_INVALIDATIONS = "kroxylicious_coordinator_cache_invalidations";
+
+    public static final String KROXYLICIOUS_FILTER_OFFLOAD_QUEUE_DEPTH = "kroxylicious_filter_offload_queue_depth";
+
+    public static final String KROXYLICIOUS_FILTER_OFFLOAD_LATENCY = "kroxylicious_filter_offload_latency";
+
+    public static final String KROXYLICIOUS_FILTER_BLOCKING_QUEUE_DEPTH = "kroxylicious_filter_blocking_queue_depth";
+
+    public static final String KROXYLICIOUS_FILTER_BLOCKING_LATENCY = "kroxylicious_filter_blocking_latency";
+
+    public static final String KROXYLICIOUS_RESPONSE_HEAD_OF_LINE_BLOCKING = "kroxylicious_response_head_of_line_blocking";
+
+    public static final String KROXYLICIOUS_UPSTREAM_CONNECT_LATENCY = "kroxylicious_upstream_connect_latency";
+
+    public static final String KROXYLICIOUS_UPSTREAM_CONNECT_FAILURES = "kroxylicious_upstream_connect_failures";
+
+    public static final String KROXYLICIOUS_UPSTREAM_CIRCUIT_OPEN = "kroxylicious_upstream_circuit_open";
+
     public static final String FLOWING_TAG = "flowing";
 
     public static final Tag FLOWING_UPSTREAM = Tag.of(FLOWING_TAG, "upstream");
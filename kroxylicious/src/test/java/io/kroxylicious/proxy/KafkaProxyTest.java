@@ -0,0 +1,70 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.jupiter.api.Test;
+
+import io.netty.channel.epoll.Epoll;
+
+import io.kroxylicious.proxy.config.ConfigParser;
+import io.kroxylicious.proxy.config.Configuration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class KafkaProxyTest {
+
+    private static Configuration configuration(int port, boolean useSoReusePort) {
+        return new ConfigParser().parseConfiguration("""
+                proxy:
+                  address: localhost:%d
+                  useSoReusePort: %s
+                clusters:
+                  demo:
+                    bootstrap_servers: localhost:9092
+                filters:
+                - type: ApiVersions
+                """.formatted(port, useSoReusePort));
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void testReusePortDefaultsToFalse() throws Exception {
+        var proxy = new KafkaProxy(new ConfigParser().parseConfiguration("""
+                proxy:
+                  address: localhost:9192
+                clusters:
+                  demo:
+                    bootstrap_servers: localhost:9092
+                """));
+        assertThat(proxy.useSoReusePort()).isFalse();
+    }
+
+    @Test
+    public void testReusePortAcceptsConnections() throws Exception {
+        assumeTrue(Epoll.isAvailable(), "SO_REUSEPORT requires epoll");
+        int port = freePort();
+        try (var proxy = new KafkaProxy(configuration(port, true)).startup()) {
+            assertThat(proxy.useSoReusePort()).isTrue();
+            for (int i = 0; i < 8; i++) {
+                try (var socket = new Socket()) {
+                    socket.connect(new InetSocketAddress("localhost", port), 5000);
+                    assertThat(socket.isConnected()).isTrue();
+                }
+            }
+        }
+    }
+}
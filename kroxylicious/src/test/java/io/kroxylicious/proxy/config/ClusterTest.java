@@ -0,0 +1,47 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.net.InetSocketAddress;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClusterTest {
+
+    private static Cluster parse(String bootstrapServers) {
+        String yaml = """
+                proxy:
+                  address: localhost:9192
+                clusters:
+                  demo:
+                    bootstrap_servers: "%s"
+                """.formatted(bootstrapServers);
+        return new ConfigParser().parseConfiguration(yaml).clusters().get("demo");
+    }
+
+    @Test
+    public void testSingleBootstrapServer() {
+        assertThat(parse("localhost:9092").bootstrapServerAddresses())
+                .containsExactly(InetSocketAddress.createUnresolved("localhost", 9092));
+    }
+
+    @Test
+    public void testBootstrapServerList() {
+        assertThat(parse("kafka-0:9092, kafka-1:9093,[::1]:9094").bootstrapServerAddresses()).containsExactly(
+                InetSocketAddress.createUnresolved("kafka-0", 9092),
+                InetSocketAddress.createUnresolved("kafka-1", 9093),
+                InetSocketAddress.createUnresolved("::1", 9094));
+    }
+
+    @Test
+    public void testBootstrapServerWithoutPort() {
+        assertThatThrownBy(() -> parse("kafka-0:9092,kafka-1")).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("bootstrap_servers entries must be host:port, but was kafka-1");
+    }
+}
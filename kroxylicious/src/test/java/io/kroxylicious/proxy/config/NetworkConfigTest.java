@@ -0,0 +1,247 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.config;
+
+import java.net.InetSocketAddress;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NetworkConfigTest {
+
+    private static NetworkConfig parse(String network) {
+        String yaml = """
+                proxy:
+                  address: localhost:9192
+                """ + network.indent(2);
+        return new ConfigParser().parseConfiguration(yaml).proxy().network();
+    }
+
+    @Test
+    public void testDefaults() {
+        NetworkConfig network = parse("");
+        assertThat(network.workerThreads()).isEqualTo(Runtime.getRuntime().availableProcessors());
+        assertThat(network.ioRatio()).isEmpty();
+        assertThat(network.allocator()).isEqualTo(NetworkConfig.AllocatorType.POOLED_DIRECT);
+        assertThat(network.receiveBufferAllocator().minimum()).isEqualTo(64);
+        assertThat(network.receiveBufferAllocator().initial()).isEqualTo(2048);
+        assertThat(network.receiveBufferAllocator().maximum()).isEqualTo(65536);
+        assertThat(network.downstream().writeBufferLowWaterMark()).isEqualTo(32 * 1024);
+        assertThat(network.downstream().writeBufferHighWaterMark()).isEqualTo(64 * 1024);
+        assertThat(network.downstream().sendBufferSize()).isEmpty();
+        assertThat(network.upstream().receiveBufferSize()).isEmpty();
+    }
+
+    @Test
+    public void testExplicitValues() {
+        NetworkConfig network = parse("""
+                network:
+                  workerThreads: 3
+                  ioRatio: 80
+                  allocator: POOLED_HEAP
+                  receiveBufferAllocator:
+                    minimum: 1024
+                    maximum: 1048576
+                  downstream:
+                    writeBufferLowWaterMark: 65536
+                    writeBufferHighWaterMark: 131072
+                    receiveBufferSize: 262144
+                  upstream:
+                    writeBufferHighWaterMark: 1048576
+                    sendBufferSize: 524288
+                """);
+        assertThat(network.workerThreads()).isEqualTo(3);
+        assertThat(network.ioRatio()).contains(80);
+        assertThat(network.allocator()).isEqualTo(NetworkConfig.AllocatorType.POOLED_HEAP);
+        assertThat(network.receiveBufferAllocator().minimum()).isEqualTo(1024);
+        assertThat(network.receiveBufferAllocator().initial()).isEqualTo(2048);
+        assertThat(network.receiveBufferAllocator().maximum()).isEqualTo(1048576);
+        assertThat(network.downstream().writeBufferLowWaterMark()).isEqualTo(65536);
+        assertThat(network.downstream().writeBufferHighWaterMark()).isEqualTo(131072);
+        assertThat(network.downstream().receiveBufferSize()).contains(262144);
+        assertThat(network.upstream().writeBufferLowWaterMark()).isEqualTo(32 * 1024);
+        assertThat(network.upstream().writeBufferHighWaterMark()).isEqualTo(1048576);
+        assertThat(network.upstream().sendBufferSize()).contains(524288);
+    }
+
+    @Test
+    public void testHighWaterMarkDefaultFollowsLowWaterMark() {
+        NetworkConfig network = parse("""
+                network:
+                  downstream:
+                    writeBufferLowWaterMark: 131072
+                """);
+        assertThat(network.downstream().writeBufferHighWaterMark()).isEqualTo(131072);
+    }
+
+    @Test
+    public void testInvalidWorkerThreads() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  workerThreads: 0
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("workerThreads must be > 0, but was 0");
+    }
+
+    @Test
+    public void testInvalidIoRatio() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  ioRatio: 101
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("ioRatio must be between 1 and 100, but was 101");
+    }
+
+    @Test
+    public void testInvalidWaterMarks() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  upstream:
+                    writeBufferLowWaterMark: 2048
+                    writeBufferHighWaterMark: 1024
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("writeBufferHighWaterMark (1024) must be >= writeBufferLowWaterMark (2048)");
+    }
+
+    @Test
+    public void testInvalidReceiveBufferAllocatorRange() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  receiveBufferAllocator:
+                    minimum: 4096
+                    initial: 1024
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("receiveBufferAllocator must satisfy minimum <= initial <= maximum, but was 4096 <= 1024 <= 65536");
+    }
+
+    @Test
+    public void testRequestScheduling() {
+        assertThat(parse("").maxInFlightRequests()).isEmpty();
+        assertThat(parse("").fairReadQuantum()).isEmpty();
+        NetworkConfig network = parse("""
+                network:
+                  maxInFlightRequests: 100
+                  fairReadQuantum: 16
+                """);
+        assertThat(network.maxInFlightRequests()).contains(100);
+        assertThat(network.fairReadQuantum()).contains(16);
+    }
+
+    @Test
+    public void testInvalidMaxInFlightRequests() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  maxInFlightRequests: 0
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("maxInFlightRequests must be > 0, but was 0");
+    }
+
+    @Test
+    public void testInvalidSocketBufferSize() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  downstream:
+                    sendBufferSize: -1
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("sendBufferSize must be > 0, but was -1");
+    }
+
+    @Test
+    public void testDns() {
+        NetworkConfig.DnsConfig defaults = parse("").dns();
+        assertThat(defaults.async()).isTrue();
+        assertThat(defaults.nameServers()).isEmpty();
+        assertThat(defaults.minTtlSeconds()).isZero();
+        assertThat(defaults.maxTtlSeconds()).isEqualTo(Integer.MAX_VALUE);
+        assertThat(defaults.negativeTtlSeconds()).isZero();
+        assertThat(defaults.queryTimeoutMillis()).isEqualTo(5000);
+        assertThat(defaults.happyEyeballs()).isFalse();
+        assertThat(defaults.connectionAttemptDelayMillis()).isEqualTo(250);
+
+        NetworkConfig.DnsConfig dns = parse("""
+                network:
+                  dns:
+                    nameServers: [ "127.0.0.1", "127.0.0.2:5353", "[::1]:5353" ]
+                    minTtlSeconds: 10
+                    maxTtlSeconds: 300
+                    negativeTtlSeconds: 5
+                    queryTimeoutMillis: 1000
+                    happyEyeballs: true
+                    connectionAttemptDelayMillis: 100
+                """).dns();
+        assertThat(dns.nameServers()).containsExactly(new InetSocketAddress("127.0.0.1", 53),
+                new InetSocketAddress("127.0.0.2", 5353), new InetSocketAddress("::1", 5353));
+        assertThat(dns.minTtlSeconds()).isEqualTo(10);
+        assertThat(dns.maxTtlSeconds()).isEqualTo(300);
+        assertThat(dns.negativeTtlSeconds()).isEqualTo(5);
+        assertThat(dns.queryTimeoutMillis()).isEqualTo(1000);
+        assertThat(dns.happyEyeballs()).isTrue();
+        assertThat(dns.connectionAttemptDelayMillis()).isEqualTo(100);
+    }
+
+    @Test
+    public void testInvalidDnsTtls() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  dns:
+                    minTtlSeconds: 60
+                    maxTtlSeconds: 30
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("dns.maxTtlSeconds (30) must be >= dns.minTtlSeconds (60)");
+    }
+
+    @Test
+    public void testInvalidDnsNameServer() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  dns:
+                    nameServers: [ "127.0.0.1:dns" ]
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("dns.nameServers entries must be host[:port], but was 127.0.0.1:dns");
+    }
+
+    @Test
+    public void testDnsOptionsRequireAsync() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  dns:
+                    async: false
+                    happyEyeballs: true
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("dns.nameServers and dns.happyEyeballs require dns.async");
+    }
+
+    @Test
+    public void testFailover() {
+        NetworkConfig.FailoverConfig defaults = parse("").failover();
+        assertThat(defaults.attemptDelayMillis()).isEqualTo(500);
+        assertThat(defaults.failureThreshold()).isEqualTo(3);
+        assertThat(defaults.openMillis()).isEqualTo(30000);
+
+        NetworkConfig.FailoverConfig failover = parse("""
+                network:
+                  failover:
+                    attemptDelayMillis: 0
+                    failureThreshold: 1
+                    openMillis: 5000
+                """).failover();
+        assertThat(failover.attemptDelayMillis()).isZero();
+        assertThat(failover.failureThreshold()).isEqualTo(1);
+        assertThat(failover.openMillis()).isEqualTo(5000);
+    }
+
+    @Test
+    public void testInvalidFailureThreshold() {
+        assertThatThrownBy(() -> parse("""
+                network:
+                  failover:
+                    failureThreshold: 0
+                """)).isInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("failover.failureThreshold must be > 0, but was 0");
+    }
+}
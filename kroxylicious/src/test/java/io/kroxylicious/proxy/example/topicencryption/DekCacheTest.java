@@ -0,0 +1,130 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.example.topicencryption;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DekCacheTest {
+
+    private final AtomicInteger generated = new AtomicInteger();
+    private final AtomicInteger unwrapped = new AtomicInteger();
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    /** A KMS whose wrapped keys are the keys themselves */
+    private final Kms kms = new Kms() {
+        @Override
+        public CompletionStage<DataKey> generateKey(String kekId) {
+            byte[] key = new byte[]{ (byte) generated.incrementAndGet() };
+            return CompletableFuture.completedFuture(new DataKey(new SecretKeySpec(key, "AES"), key));
+        }
+
+        @Override
+        public CompletionStage<SecretKey> unwrap(ByteBuffer wrapped) {
+            unwrapped.incrementAndGet();
+            byte[] key = new byte[wrapped.remaining()];
+            wrapped.duplicate().get(key);
+            return CompletableFuture.completedFuture(new SecretKeySpec(key, "AES"));
+        }
+    };
+
+    private final DekCache cache = new DekCache(kms, 1000, 2, nanoTime::get);
+
+    @Test
+    void testEncryptionKeyIsReusedUntilItExpires() {
+        Kms.DataKey first = cache.encryptionKey("kek", 10).join();
+        assertThat(cache.encryptionKey("kek", 10).join()).isSameAs(first);
+        assertThat(cache.encryptionKey("other", 10).join()).isNotSameAs(first);
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(cache.encryptionKey("kek", 10).join()).isNotSameAs(first);
+        assertThat(generated.get()).isEqualTo(3);
+    }
+
+    @Test
+    void testEncryptionKeyIsReplacedAfterMaxEncryptions() {
+        Kms.DataKey first = cache.encryptionKey("kek", (int) (DekCache.MAX_ENCRYPTIONS / 2)).join();
+        assertThat(cache.encryptionKey("kek", (int) (DekCache.MAX_ENCRYPTIONS / 2)).join()).isSameAs(first);
+        assertThat(cache.encryptionKey("kek", 1).join()).isNotSameAs(first);
+    }
+
+    @Test
+    void testGeneratedKeysDecryptWithoutKms() {
+        Kms.DataKey key = cache.encryptionKey("kek", 1).join();
+        assertThat(cache.cachedDecryptionKey(ByteBuffer.wrap(key.wrapped()))).isSameAs(key.key());
+        assertThat(unwrapped.get()).isZero();
+    }
+
+    @Test
+    void testDecryptionKeysAreCachedLeastRecentlyUsed() {
+        ByteBuffer a = ByteBuffer.wrap(new byte[]{ 1 });
+        ByteBuffer b = ByteBuffer.wrap(new byte[]{ 2 });
+        ByteBuffer c = ByteBuffer.wrap(new byte[]{ 3 });
+        cache.decryptionKey(a);
+        cache.decryptionKey(b);
+        cache.decryptionKey(a);
+        assertThat(unwrapped.get()).isEqualTo(2);
+
+        cache.decryptionKey(c);
+        assertThat(cache.size()).isEqualTo(2);
+        cache.decryptionKey(a);
+        assertThat(unwrapped.get()).as("Expect a to have been used more recently than b").isEqualTo(3);
+        cache.decryptionKey(b);
+        assertThat(unwrapped.get()).isEqualTo(4);
+    }
+
+    @Test
+    void testDecryptionKeysExpire() {
+        ByteBuffer a = ByteBuffer.wrap(new byte[]{ 1 });
+        cache.decryptionKey(a);
+        cache.decryptionKey(a);
+        assertThat(unwrapped.get()).isEqualTo(1);
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        cache.decryptionKey(a);
+        assertThat(unwrapped.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testKmsIsCalledOnceForAKeyBeingGenerated() {
+        var pending = new CompletableFuture<Kms.DataKey>();
+        AtomicInteger calls = new AtomicInteger();
+        var slowCache = new DekCache(new Kms() {
+            @Override
+            public CompletionStage<DataKey> generateKey(String kekId) {
+                calls.incrementAndGet();
+                return pending;
+            }
+
+            @Override
+            public CompletionStage<SecretKey> unwrap(ByteBuffer wrapped) {
+                return kms.unwrap(wrapped);
+            }
+        }, 1000, 2, nanoTime::get);
+
+        var first = slowCache.encryptionKey("kek", 1);
+        var second = slowCache.encryptionKey("kek", 1);
+        assertThat(first).isNotDone().isSameAs(second);
+        assertThat(calls.get()).isEqualTo(1);
+
+        pending.completeExceptionally(new IllegalArgumentException("Unknown KEK kek"));
+        assertThat(first).isCompletedExceptionally();
+        // A failure isn't cached
+        slowCache.encryptionKey("kek", 1);
+        assertThat(calls.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.example.topicencryption;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import javax.crypto.SecretKey;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import io.kroxylicious.proxy.internal.filter.RecordBatchTransformation;
+import io.kroxylicious.proxy.internal.filter.RecordTransformer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TopicEncryptionTest {
+
+    private static final Header[] HEADERS = { new RecordHeader("h", bytes("header")) };
+
+    private final FileKms kms = new FileKms(keks("kek1", "kek2"));
+    private final EnvelopeEncryption encryption = new EnvelopeEncryption(Map.of("orders", "kek1"), new DekCache(kms, 60_000, 10));
+
+    private static Properties keks(String... kekIds) {
+        var keks = new Properties();
+        for (String kekId : kekIds) {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            keks.setProperty(kekId, Base64.getEncoder().encodeToString(key));
+        }
+        return keks;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { Integer.MAX_VALUE, 0 })
+    void testValuesRoundTrip(int parallelThresholdBytes) {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.GZIP,
+                new SimpleRecord(10, bytes("k1"), bytes("v1"), HEADERS),
+                new SimpleRecord(20, bytes("k2"), null),
+                new SimpleRecord(30, null, bytes("")));
+
+        MemoryRecords encrypted = transform(encryption::encryption, parallelThresholdBytes, "orders", original);
+        List<Record> encryptedRecords = records(encrypted);
+        assertThat(encryptedRecords).hasSize(3);
+        assertThat(encryptedRecords.get(0).key()).isEqualTo(ByteBuffer.wrap(bytes("k1")));
+        assertThat(encryptedRecords.get(0).headers()).isEqualTo(HEADERS);
+        assertThat(EnvelopeEncryption.wrappedKey(encryptedRecords.get(0).value())).isNotNull();
+        assertThat(encryptedRecords.get(0).value()).isNotEqualTo(ByteBuffer.wrap(bytes("v1")));
+        assertThat(encryptedRecords.get(1).hasValue()).isFalse();
+
+        MemoryRecords decrypted = transform(encryption::decryption, parallelThresholdBytes, "orders", encrypted);
+        List<Record> decryptedRecords = records(decrypted);
+        assertThat(decryptedRecords.get(0).timestamp()).isEqualTo(10);
+        assertThat(decryptedRecords.get(0).value()).isEqualTo(ByteBuffer.wrap(bytes("v1")));
+        assertThat(decryptedRecords.get(0).headers()).isEqualTo(HEADERS);
+        assertThat(decryptedRecords.get(1).hasValue()).isFalse();
+        assertThat(decryptedRecords.get(2).value().remaining()).isZero();
+    }
+
+    @Test
+    void testEachValueHasItsOwnIv() {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE,
+                new SimpleRecord(10, null, bytes("same")),
+                new SimpleRecord(10, null, bytes("same")));
+
+        List<Record> encrypted = records(transform(encryption::encryption, Integer.MAX_VALUE, "orders", original));
+        assertThat(encrypted.get(0).value()).isNotEqualTo(encrypted.get(1).value());
+    }
+
+    @Test
+    void testUnencryptedValuesAreKept() {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, null, bytes("plain")));
+
+        List<Record> decrypted = records(transform(encryption::decryption, Integer.MAX_VALUE, "orders", original));
+        assertThat(decrypted.get(0).value()).isEqualTo(ByteBuffer.wrap(bytes("plain")));
+    }
+
+    @Test
+    void testPlaintextLookingLikeAnOldFormatValueIsKept() {
+        // A value starting with the version byte alone, as encrypted values used to
+        ByteBuffer value = ByteBuffer.allocate(64).put((byte) 1).putShort((short) 30000).put(bytes("plain")).flip();
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, null, value.duplicate()));
+
+        List<Record> decrypted = records(transform(encryption::decryption, Integer.MAX_VALUE, "orders", original));
+        assertThat(decrypted.get(0).value()).isEqualTo(value);
+    }
+
+    @Test
+    void testValueClaimingALongerWrappedKeyThanItHasIsKept() {
+        ByteBuffer value = ByteBuffer.allocate(64).put(EnvelopeEncryption.MAGIC).put(EnvelopeEncryption.VERSION).putShort((short) -1).flip();
+        assertThat(EnvelopeEncryption.wrappedKey(value)).isNull();
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, null, value.duplicate()));
+
+        List<Record> decrypted = records(transform(encryption::decryption, Integer.MAX_VALUE, "orders", original));
+        assertThat(decrypted.get(0).value()).isEqualTo(value);
+    }
+
+    @Test
+    void testValueMovedToAnotherTopicIsNotDecrypted() {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, null, bytes("v1")));
+        MemoryRecords encrypted = transform(encryption::encryption, Integer.MAX_VALUE, "orders", original);
+
+        List<Record> decrypted = records(transform(encryption::decryption, Integer.MAX_VALUE, "payments", encrypted));
+        assertThat(decrypted.get(0).value()).isEqualTo(records(encrypted).get(0).value());
+    }
+
+    @Test
+    void testTamperedValueIsNotDecrypted() {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE,
+                new SimpleRecord(10, null, bytes("v1")),
+                new SimpleRecord(20, null, bytes("v2")));
+        List<Record> encrypted = records(transform(encryption::encryption, Integer.MAX_VALUE, "orders", original));
+        Record record = encrypted.get(0);
+        ByteBuffer value = ByteBuffer.allocate(record.valueSize()).put(record.value()).flip();
+        value.put(value.limit() - 1, (byte) (value.get(value.limit() - 1) ^ 1));
+        MemoryRecords tampered = MemoryRecords.withRecords(CompressionType.NONE,
+                new SimpleRecord(10, null, value.duplicate()),
+                new SimpleRecord(20, null, encrypted.get(1).value()));
+
+        List<Record> decrypted = records(transform(encryption::decryption, Integer.MAX_VALUE, "orders", tampered));
+        assertThat(decrypted.get(0).value()).isEqualTo(value);
+        // The rest of the batch is still decrypted
+        assertThat(decrypted.get(1).value()).isEqualTo(ByteBuffer.wrap(bytes("v2")));
+    }
+
+    @Test
+    void testKmsFailureFailsTheFuture() {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, null, bytes("v1")));
+        var unknownKek = new EnvelopeEncryption(Map.of("orders", "missing"), new DekCache(kms, 60_000, 10));
+
+        var future = unknownKek.encryption(List.of(new RecordTransformer.Partition("orders", original, new ByteBufferOutputStream(16), records -> {
+        })));
+        assertThatThrownBy(future::join).isInstanceOf(CompletionException.class).hasRootCauseMessage("Unknown KEK missing");
+    }
+
+    @Test
+    void testRecordsWaitForTheKmsWithoutBlocking() {
+        var pending = new ArrayList<CompletableFuture<Kms.DataKey>>();
+        Kms slowKms = new Kms() {
+            @Override
+            public CompletionStage<DataKey> generateKey(String kekId) {
+                var generated = new CompletableFuture<DataKey>();
+                pending.add(generated);
+                return generated;
+            }
+
+            @Override
+            public CompletionStage<SecretKey> unwrap(ByteBuffer wrapped) {
+                return kms.unwrap(wrapped);
+            }
+        };
+        var slowEncryption = new EnvelopeEncryption(Map.of("orders", "kek1"), new DekCache(slowKms, 60_000, 10));
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, null, bytes("v1")));
+        AtomicReference<MemoryRecords> result = new AtomicReference<>();
+        var partitions = List.of(new RecordTransformer.Partition("orders", original, new ByteBufferOutputStream(16), result::set));
+
+        var transformation = slowEncryption.encryption(partitions);
+        assertThat(transformation).isNotDone();
+        assertThat(pending).hasSize(1);
+        // Another request for the same KEK waits for the same KMS call
+        assertThat(slowEncryption.encryption(partitions)).isNotDone();
+        assertThat(pending).hasSize(1);
+
+        pending.get(0).complete(kms.generateKey("kek1").toCompletableFuture().join());
+        new RecordTransformer(transformation.join(), Integer.MAX_VALUE).transform(partitions).join();
+        assertThat(records(transform(encryption::decryption, Integer.MAX_VALUE, "orders", result.get())).get(0).value())
+                .isEqualTo(ByteBuffer.wrap(bytes("v1")));
+    }
+
+    @Test
+    void testKeyWhichCantBeUnwrappedLeavesValuesAsTheyAre() {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, null, bytes("v1")));
+        MemoryRecords encrypted = transform(encryption::encryption, Integer.MAX_VALUE, "orders", original);
+        // A KMS without the KEK
+        var otherEncryption = new EnvelopeEncryption(Map.of("orders", "kek1"), new DekCache(new FileKms(keks("kek1")), 60_000, 10));
+
+        List<Record> decrypted = records(transform(otherEncryption::decryption, Integer.MAX_VALUE, "orders", encrypted));
+        assertThat(decrypted.get(0).value()).isEqualTo(records(encrypted).get(0).value());
+    }
+
+    @Test
+    void testFileKmsWrapsAndUnwraps(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("keks.properties");
+        try (var writer = Files.newBufferedWriter(file)) {
+            keks("kek1").store(writer, null);
+        }
+        var fileKms = new FileKms(Map.of("path", file.toString()));
+
+        Kms.DataKey dataKey = fileKms.generateKey("kek1").toCompletableFuture().join();
+        assertThat(dataKey.key().getEncoded()).hasSize(32);
+        assertThat(fileKms.unwrap(ByteBuffer.wrap(dataKey.wrapped())).toCompletableFuture().join().getEncoded()).isEqualTo(dataKey.key().getEncoded());
+        assertThat(fileKms.generateKey("kek2")).failsWithin(Duration.ZERO).withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IllegalArgumentException.class);
+        assertThat(kms.unwrap(ByteBuffer.wrap(dataKey.wrapped()))).failsWithin(Duration.ZERO).withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testConfigRequiresTopics() {
+        assertThatThrownBy(() -> new TopicEncryption.TopicEncryptionConfig(Map.of(), null, null, null, null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static MemoryRecords transform(Function<List<RecordTransformer.Partition>, CompletableFuture<RecordBatchTransformation>> transformation,
+                                           int parallelThresholdBytes, String topicName, MemoryRecords records) {
+        AtomicReference<MemoryRecords> result = new AtomicReference<>();
+        var partitions = List.of(new RecordTransformer.Partition(topicName, records, new ByteBufferOutputStream(16), result::set));
+        try {
+            transformation.apply(partitions)
+                    .thenCompose(batchTransformation -> new RecordTransformer(batchTransformation, parallelThresholdBytes).transform(partitions))
+                    .join();
+        }
+        catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+        return result.get();
+    }
+
+    private static List<Record> records(MemoryRecords records) {
+        List<Record> result = new ArrayList<>();
+        records.records().forEach(result::add);
+        return result;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.apache.kafka.common.message.FetchResponseData;
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.ProduceResponseData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.kroxylicious.proxy.config.QuotaConfig;
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ByteRateQuotaHandlerTest {
+
+    private static final short PRODUCE_VERSION = 8;
+    private static final short FETCH_VERSION = 12;
+
+    private EmbeddedChannel channel;
+    private final AtomicBoolean paused = new AtomicBoolean();
+
+    @AfterEach
+    public void tearDown() {
+        if (channel != null) {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private EmbeddedChannel channel(ByteRateQuotas quotas) {
+        return new EmbeddedChannel(new ByteRateQuotaHandler(quotas, () -> paused.set(true), () -> paused.set(false)));
+    }
+
+    private static OpaqueRequestFrame produceRequest(String clientId, int correlationId) {
+        var header = new RequestHeaderData()
+                .setRequestApiKey(ApiKeys.PRODUCE.id)
+                .setRequestApiVersion(PRODUCE_VERSION)
+                .setClientId(clientId)
+                .setCorrelationId(correlationId);
+        var frame = new DecodedRequestFrame<>(PRODUCE_VERSION, correlationId, false, header, new ProduceRequestData().setAcks((short) 1));
+        ByteBuf buf = encode(frame.estimateEncodedSize(), frame::encode);
+        return new OpaqueRequestFrame(buf, correlationId, false, buf.readableBytes());
+    }
+
+    private static OpaqueResponseFrame opaqueResponse(ApiKeys apiKey, short apiVersion, ApiMessage body) {
+        var frame = new DecodedResponseFrame<>(apiVersion, 1, new ResponseHeaderData().setCorrelationId(1), body);
+        ByteBuf buf = encode(frame.estimateEncodedSize(), frame::encode);
+        return new OpaqueResponseFrame(buf, 1, buf.readableBytes(), apiKey.id, apiVersion);
+    }
+
+    /** Encodes a frame and strips the frame size, as the decoders do */
+    private static ByteBuf encode(int size, Consumer<ByteBufAccessorImpl> encoder) {
+        ByteBuf buf = Unpooled.buffer(size);
+        encoder.accept(new ByteBufAccessorImpl(buf));
+        buf.skipBytes(Integer.BYTES);
+        return buf;
+    }
+
+    private static ByteBufAccessorImpl encoded(OpaqueResponseFrame frame) {
+        ByteBuf buf = Unpooled.buffer(frame.estimateEncodedSize());
+        frame.encode(new ByteBufAccessorImpl(buf));
+        buf.skipBytes(Integer.BYTES);
+        return new ByteBufAccessorImpl(buf);
+    }
+
+    @Test
+    public void testProduceWithinQuotaIsNotThrottled() {
+        channel = channel(new ByteRateQuotas(new QuotaConfig(null, 1_000_000L, null, null, null)));
+        channel.writeInbound(produceRequest("client", 1));
+        assertThat(paused).isFalse();
+        assertThat((Object) channel.readInbound()).isInstanceOf(OpaqueRequestFrame.class);
+    }
+
+    @Test
+    public void testProduceOverQuotaThrottlesUntilThrottleTimeHasPassed() throws Exception {
+        // A 10ms burst at 100 bytes/s is 1 byte, so any produce request is over quota, by a few hundred milliseconds
+        channel = channel(new ByteRateQuotas(new QuotaConfig(null, 100L, null, 10L, null)));
+        channel.writeInbound(produceRequest("client", 1));
+        assertThat(paused).isTrue();
+
+        // The response tells the client it's being throttled
+        var response = new DecodedResponseFrame<>(PRODUCE_VERSION, 1, new ResponseHeaderData().setCorrelationId(1), new ProduceResponseData());
+        channel.writeOutbound(response);
+        assertThat(response.body().throttleTimeMs()).isPositive();
+
+        Thread.sleep(1000);
+        channel.runScheduledPendingTasks();
+        assertThat(paused).isFalse();
+    }
+
+    @Test
+    public void testQuotasAreSharedByClientId() {
+        // 100 bytes per 100ms burst
+        var quotas = new ByteRateQuotas(new QuotaConfig(QuotaConfig.QuotaKey.CLIENT_ID, 1_000L, null, 100L, null));
+        channel = channel(quotas);
+        var sameClient = new AtomicBoolean();
+        var sameClientChannel = new EmbeddedChannel(new ByteRateQuotaHandler(quotas, () -> sameClient.set(true), () -> sameClient.set(false)));
+        var otherClient = new AtomicBoolean();
+        var otherClientChannel = new EmbeddedChannel(new ByteRateQuotaHandler(quotas, () -> otherClient.set(true), () -> otherClient.set(false)));
+        try {
+            int size = produceRequest("client", 1).estimateEncodedSize();
+            assertThat(size).isLessThan(50);
+            channel.writeInbound(produceRequest("client", 1));
+            sameClientChannel.writeInbound(produceRequest("client", 1));
+            otherClientChannel.writeInbound(produceRequest("other", 1));
+            assertThat(paused).isFalse();
+            assertThat(sameClient).isFalse();
+
+            // More requests from "client" take it over its quota, whichever connection they're sent on
+            for (int i = 2; i < 100 / size + 2; i++) {
+                channel.writeInbound(produceRequest("client", i));
+            }
+            assertThat(paused).isTrue();
+            assertThat(otherClient).isFalse();
+        }
+        finally {
+            sameClientChannel.finishAndReleaseAll();
+            otherClientChannel.finishAndReleaseAll();
+        }
+    }
+
+    @Test
+    public void testFetchOverQuotaSetsThrottleTimeInOpaqueResponse() {
+        channel = channel(new ByteRateQuotas(new QuotaConfig(null, null, 1_000L, 1L, null)));
+        var response = opaqueResponse(ApiKeys.FETCH, FETCH_VERSION, new FetchResponseData().setThrottleTimeMs(0));
+
+        channel.writeOutbound(response);
+        assertThat(paused).isTrue();
+
+        var accessor = encoded(channel.readOutbound());
+        new ResponseHeaderData(accessor, ApiKeys.FETCH.responseHeaderVersion(FETCH_VERSION));
+        var fetchResponse = new FetchResponseData(accessor, FETCH_VERSION);
+        assertThat(fetchResponse.throttleTimeMs()).isPositive();
+    }
+
+    @Test
+    public void testOpaqueProduceResponseKeepsLongerBrokerThrottleTime() {
+        var response = opaqueResponse(ApiKeys.PRODUCE, PRODUCE_VERSION, new ProduceResponseData().setThrottleTimeMs(5000));
+
+        assertThat(response.raiseThrottleTimeMs(10)).isTrue();
+
+        var accessor = encoded(response);
+        new ResponseHeaderData(accessor, ApiKeys.PRODUCE.responseHeaderVersion(PRODUCE_VERSION));
+        assertThat(new ProduceResponseData(accessor, PRODUCE_VERSION).throttleTimeMs()).isEqualTo(5000);
+    }
+
+    @Test
+    public void testFlexibleOpaqueProduceResponseIsUnchanged() {
+        short flexibleVersion = 9;
+        var response = opaqueResponse(ApiKeys.PRODUCE, flexibleVersion, new ProduceResponseData());
+        assertThat(response.raiseThrottleTimeMs(10)).isFalse();
+        response.buf().release();
+    }
+}
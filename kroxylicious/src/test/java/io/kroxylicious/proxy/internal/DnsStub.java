@@ -0,0 +1,113 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+
+/**
+ * A DNS server on the loopback interface which answers A and AAAA queries from a fixed set of records,
+ * counting the queries it is asked.
+ */
+final class DnsStub implements AutoCloseable {
+
+    private final NioEventLoopGroup group = new NioEventLoopGroup(1);
+    private final Map<String, List<InetAddress>> records = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> queries = new ConcurrentHashMap<>();
+    private final Channel channel;
+    private volatile long ttlSeconds = 60;
+
+    DnsStub() throws InterruptedException {
+        channel = new Bootstrap().group(group)
+                .channel(NioDatagramChannel.class)
+                .handler(new SimpleChannelInboundHandler<DatagramDnsQuery>() {
+                    @Override
+                    public void handlerAdded(ChannelHandlerContext ctx) {
+                        ctx.pipeline().addBefore(ctx.name(), null, new DatagramDnsQueryDecoder());
+                        ctx.pipeline().addBefore(ctx.name(), null, new DatagramDnsResponseEncoder());
+                    }
+
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) {
+                        ctx.writeAndFlush(answer(query));
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    private DatagramDnsResponse answer(DatagramDnsQuery query) {
+        DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+        String name = question.name().endsWith(".") ? question.name().substring(0, question.name().length() - 1) : question.name();
+        queries.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+        var response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id());
+        response.addRecord(DnsSection.QUESTION, question);
+        List<InetAddress> addresses = records.get(name);
+        if (addresses == null) {
+            return response.setCode(DnsResponseCode.NXDOMAIN);
+        }
+        for (var address : addresses) {
+            if ((question.type() == DnsRecordType.A && address instanceof Inet4Address)
+                    || (question.type() == DnsRecordType.AAAA && address instanceof Inet6Address)) {
+                response.addRecord(DnsSection.ANSWER,
+                        new DefaultDnsRawRecord(question.name(), question.type(), ttlSeconds, Unpooled.wrappedBuffer(address.getAddress())));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * @return The address to use as a name server.
+     */
+    String address() {
+        var address = (InetSocketAddress) channel.localAddress();
+        return address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    void records(String name, InetAddress... addresses) {
+        records.put(name, List.of(addresses));
+    }
+
+    void ttlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * @return The number of queries for the given name, of any type.
+     */
+    int queries(String name) {
+        var count = queries.get(name);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        channel.close().sync();
+        group.shutdownGracefully().sync();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FairReadSchedulerTest {
+
+    private EmbeddedChannel channel;
+    private FairReadScheduler scheduler;
+    private final List<String> resumed = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        channel = new EmbeddedChannel();
+        scheduler = new FairReadScheduler(channel.eventLoop(), 10);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testResumesAfterOneTurnWithinTwoQuanta() {
+        scheduler.giveWay(15, () -> resumed.add("a"));
+        assertThat(scheduler.waiting()).isEqualTo(1);
+
+        channel.runPendingTasks();
+
+        assertThat(resumed).containsExactly("a");
+        assertThat(scheduler.waiting()).isZero();
+    }
+
+    @Test
+    public void testLargerDeficitWaitsMoreTurns() {
+        // The embedded event loop runs all the turns in one go, so check the order they resumed in
+        scheduler.giveWay(35, () -> resumed.add("heavy"));
+        scheduler.giveWay(25, () -> resumed.add("medium"));
+        scheduler.giveWay(12, () -> resumed.add("light"));
+
+        channel.runPendingTasks();
+
+        // light pays off its deficit in the first turn, medium in the second and heavy in the third
+        assertThat(resumed).containsExactly("light", "medium", "heavy");
+        assertThat(scheduler.waiting()).isZero();
+    }
+
+    @Test
+    public void testResumesInOrderOfWaiting() {
+        scheduler.giveWay(20, () -> resumed.add("first"));
+        scheduler.giveWay(20, () -> resumed.add("second"));
+        scheduler.giveWay(20, () -> resumed.add("third"));
+
+        channel.runPendingTasks();
+
+        assertThat(resumed).containsExactly("first", "second", "third");
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import io.kroxylicious.proxy.config.FilterExecutorConfig;
+import io.kroxylicious.proxy.filter.ApiVersionsRequestFilter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FilterExecutorTest {
+
+    private final FilterExecutor filterExecutor = new FilterExecutor(new FilterExecutorConfig(1, 2));
+
+    @AfterEach
+    public void tearDown() {
+        filterExecutor.shutdown();
+    }
+
+    @Test
+    public void testFiltersRunOnTheirPools() {
+        assertThat(filterExecutor.poolFor(new FilterHandlerTest.BlockingFilter())).isNotNull();
+        assertThat(filterExecutor.poolFor(new FilterHandlerTest.OffloadedFilter(null))).isNotNull()
+                .isNotSameAs(filterExecutor.poolFor(new FilterHandlerTest.BlockingFilter()));
+        ApiVersionsRequestFilter eventLoopFilter = (header, request, context) -> context.forwardRequest(request);
+        assertThat(filterExecutor.poolFor(eventLoopFilter)).isNull();
+    }
+
+    @Test
+    public void testBlockingPoolLimitsConcurrency() throws Exception {
+        var pool = filterExecutor.poolFor(new FilterHandlerTest.BlockingFilter());
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var started = new CountDownLatch(2);
+        var blocked = new CountDownLatch(1);
+        var done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            pool.execute(ImmediateEventExecutor.INSTANCE, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                started.countDown();
+                try {
+                    blocked.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }, failure -> done.countDown());
+        }
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(running.get()).isEqualTo(2);
+        assertThat(filterExecutor.queued()).isEqualTo(3);
+
+        blocked.countDown();
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(2);
+        assertThat(filterExecutor.queued()).isZero();
+    }
+}
@@ -5,6 +5,8 @@
  */
 package io.kroxylicious.proxy.internal;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
@@ -22,12 +24,15 @@ import org.junit.jupiter.api.Test;
 
 import io.kroxylicious.proxy.filter.ApiVersionsRequestFilter;
 import io.kroxylicious.proxy.filter.ApiVersionsResponseFilter;
+import io.kroxylicious.proxy.filter.BlockingKrpcFilter;
 import io.kroxylicious.proxy.filter.KrpcFilterContext;
+import io.kroxylicious.proxy.filter.Offload;
 import io.kroxylicious.proxy.future.InternalCompletionStage;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -108,6 +113,195 @@ public class FilterHandlerTest extends FilterHarness {
         var frame = writeResponse(new ApiVersionsResponseData());
     }
 
+    @Test
+    public void testForwardRequestWhenComplete() {
+        List<CompletableFuture<Void>> stages = new ArrayList<>();
+        ApiVersionsRequestFilter filter = (header, request, context) -> {
+            if (stages.isEmpty()) {
+                var stage = new CompletableFuture<Void>();
+                stages.add(stage);
+                context.forwardWhenComplete(stage, request);
+            }
+            else {
+                context.forwardRequest(request);
+            }
+        };
+        buildChannel(filter);
+        var first = writeRequest(new ApiVersionsRequestData());
+        var second = writeRequest(new ApiVersionsRequestData());
+        assertNull(channel.readOutbound(), "Expect the later request to be held back");
+
+        stages.get(0).complete(null);
+        assertSame(first, channel.readOutbound(), "Expect the first request first");
+        assertSame(second, channel.readOutbound(), "Expect the held back request to follow");
+    }
+
+    @Test
+    public void testForwardResponseWhenComplete() {
+        List<CompletableFuture<Void>> stages = new ArrayList<>();
+        ApiVersionsResponseFilter filter = (header, response, context) -> {
+            var stage = new CompletableFuture<Void>();
+            stages.add(stage);
+            context.forwardWhenComplete(stage, response);
+        };
+        buildChannel(filter);
+        var first = writeResponse(new ApiVersionsResponseData());
+        var second = writeResponse(new ApiVersionsResponseData());
+        assertEquals(1, stages.size(), "Expect the later response not to reach the filter yet");
+        assertNull(channel.readInbound());
+
+        stages.get(0).complete(null);
+        assertSame(first, channel.readInbound());
+        assertNull(channel.readInbound(), "Expect the later response to wait for its own stage");
+        assertEquals(2, stages.size());
+
+        stages.get(1).complete(null);
+        assertSame(second, channel.readInbound());
+    }
+
+    @Test
+    public void testForwardWhenCompleteFailureClosesConnection() {
+        var stage = new CompletableFuture<Void>();
+        ApiVersionsRequestFilter filter = (header, request, context) -> context.forwardWhenComplete(stage, request);
+        buildChannel(filter);
+        writeRequest(new ApiVersionsRequestData());
+
+        var failure = new IllegalStateException("transformation failed");
+        stage.completeExceptionally(failure);
+        assertNull(channel.readOutbound(), "Expect the request not to be forwarded");
+        assertSame(failure, assertThrows(IllegalStateException.class, channel::checkException));
+    }
+
+    @Offload
+    public static class OffloadedFilter implements ApiVersionsRequestFilter, ApiVersionsResponseFilter {
+        private final RuntimeException failure;
+
+        OffloadedFilter(RuntimeException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public void onApiVersionsRequest(RequestHeaderData header, ApiVersionsRequestData request, KrpcFilterContext context) {
+            if (failure != null) {
+                throw failure;
+            }
+            context.forwardRequest(request);
+        }
+
+        @Override
+        public void onApiVersionsResponse(ResponseHeaderData header, ApiVersionsResponseData response, KrpcFilterContext context) {
+            context.forwardResponse(response);
+        }
+    }
+
+    @Test
+    public void testOffloadedFilterKeepsRequestOrder() {
+        List<Runnable> tasks = new ArrayList<>();
+        var filterExecutor = new FilterExecutor(tasks::add);
+        buildChannel(new OffloadedFilter(null), filterExecutor);
+        var first = writeRequest(new ApiVersionsRequestData());
+        var second = writeRequest(new ApiVersionsRequestData());
+        assertEquals(1, tasks.size(), "Expect the later request to be held back");
+        assertEquals(1, filterExecutor.queued());
+
+        tasks.remove(0).run();
+        assertEquals(0, filterExecutor.queued());
+        channel.runPendingTasks();
+        assertSame(first, channel.readOutbound());
+        assertNull(channel.readOutbound());
+        assertEquals(1, tasks.size(), "Expect the held back request to be offloaded in turn");
+
+        tasks.remove(0).run();
+        channel.runPendingTasks();
+        assertSame(second, channel.readOutbound());
+    }
+
+    @Test
+    public void testOffloadedFilterIsInvokedOneAtATime() {
+        List<Runnable> tasks = new ArrayList<>();
+        buildChannel(new OffloadedFilter(null), new FilterExecutor(tasks::add));
+        var request = writeRequest(new ApiVersionsRequestData());
+        var response = writeResponse(new ApiVersionsResponseData());
+        assertEquals(1, tasks.size(), "Expect the response to wait for the request to have been handled");
+
+        tasks.remove(0).run();
+        channel.runPendingTasks();
+        assertSame(request, channel.readOutbound());
+        assertEquals(1, tasks.size());
+
+        tasks.remove(0).run();
+        channel.runPendingTasks();
+        assertSame(response, channel.readInbound());
+    }
+
+    @Test
+    public void testFilterWithoutAnnotationIsNotOffloaded() {
+        List<Runnable> tasks = new ArrayList<>();
+        ApiVersionsRequestFilter filter = (header, request, context) -> context.forwardRequest(request);
+        buildChannel(filter, new FilterExecutor(tasks::add));
+        var frame = writeRequest(new ApiVersionsRequestData());
+        assertTrue(tasks.isEmpty());
+        assertSame(frame, channel.readOutbound());
+    }
+
+    @Test
+    public void testOffloadedFilterFailureClosesConnection() {
+        List<Runnable> tasks = new ArrayList<>();
+        var failure = new IllegalStateException("filter failed");
+        buildChannel(new OffloadedFilter(failure), new FilterExecutor(tasks::add));
+        writeRequest(new ApiVersionsRequestData());
+
+        tasks.remove(0).run();
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        assertSame(failure, assertThrows(IllegalStateException.class, channel::checkException));
+    }
+
+    public static class BlockingFilter implements BlockingKrpcFilter, ApiVersionsRequestFilter {
+        @Override
+        public void onApiVersionsRequest(RequestHeaderData header, ApiVersionsRequestData request, KrpcFilterContext context) {
+            context.forwardRequest(request);
+        }
+    }
+
+    @Test
+    public void testBlockingFilterRunsOnBlockingPool() {
+        List<Runnable> offloadTasks = new ArrayList<>();
+        List<Runnable> blockingTasks = new ArrayList<>();
+        buildChannel(new BlockingFilter(), new FilterExecutor(offloadTasks::add, blockingTasks::add, null));
+        var first = writeRequest(new ApiVersionsRequestData());
+        var second = writeRequest(new ApiVersionsRequestData());
+        assertTrue(offloadTasks.isEmpty());
+        assertEquals(1, blockingTasks.size(), "Expect the later request to be held back");
+
+        blockingTasks.remove(0).run();
+        channel.runPendingTasks();
+        assertSame(first, channel.readOutbound());
+        assertEquals(1, blockingTasks.size());
+
+        blockingTasks.remove(0).run();
+        channel.runPendingTasks();
+        assertSame(second, channel.readOutbound());
+    }
+
+    @Test
+    public void testSendRequestAndWaitOnEventLoopIsRejected() {
+        RuntimeException[] thrown = { null };
+        ApiVersionsRequestFilter filter = (header, request, context) -> {
+            try {
+                context.sendRequestAndWait((short) 3, new FetchRequestData());
+            }
+            catch (RuntimeException e) {
+                thrown[0] = e;
+            }
+            context.forwardRequest(request);
+        };
+        buildChannel(filter);
+        var frame = writeRequest(new ApiVersionsRequestData());
+        assertTrue(thrown[0] instanceof IllegalStateException);
+        assertSame(frame, channel.readOutbound(), "Expect no request to have been sent");
+    }
+
     @Test
     public void testSendRequest() {
         FetchRequestData body = new FetchRequestData();
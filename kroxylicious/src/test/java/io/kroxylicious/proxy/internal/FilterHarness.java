@@ -27,6 +27,7 @@ import static org.junit.jupiter.api.Assertions.fail;
 public abstract class FilterHarness {
     public static final String TEST_CLIENT = "test-client";
     protected EmbeddedChannel channel;
+    protected final SharedTopicMetadataCache topicMetadata = new SharedTopicMetadataCache();
     private FilterHandler filterHandler;
     private KrpcFilter filter;
 
@@ -46,8 +47,22 @@ public abstract class FilterHarness {
      * @param timeoutMs The timeout for {@link io.kroxylicious.proxy.filter.KrpcFilterContext#sendRequest(short, ApiMessage)}.
      */
     protected void buildChannel(KrpcFilter filter, long timeoutMs) {
+        buildChannel(filter, timeoutMs, null);
+    }
+
+    /**
+     * Build a {@link #channel} containing a single {@link FilterHandler} for the given
+     * {@code filter}.
+     * @param filter The filter in the pipeline.
+     * @param filterExecutor Where to invoke the filter, if it's annotated with {@link io.kroxylicious.proxy.filter.Offload}.
+     */
+    protected void buildChannel(KrpcFilter filter, FilterExecutor filterExecutor) {
+        buildChannel(filter, 1000L, filterExecutor);
+    }
+
+    private void buildChannel(KrpcFilter filter, long timeoutMs, FilterExecutor filterExecutor) {
         this.filter = filter;
-        filterHandler = new FilterHandler(filter, timeoutMs, null);
+        filterHandler = new FilterHandler(filter, timeoutMs, null, topicMetadata, filterExecutor);
         channel = new EmbeddedChannel(filterHandler);
     }
 
@@ -0,0 +1,150 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.apache.kafka.common.message.ApiVersionsRequestData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.message.SaslAuthenticateRequestData;
+import org.apache.kafka.common.message.SaslHandshakeRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.kroxylicious.proxy.config.FrameCaptureConfig;
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.internal.FrameCapture.CapturedFrame;
+import io.kroxylicious.proxy.internal.FrameCapture.Direction;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class FrameCaptureHandlerTest {
+
+    /**
+     * @return A request frame as the decoder delimits it, from its header to the end of its body.
+     */
+    private static ByteBuf request(ApiKeys apiKey, short apiVersion, ApiMessage body, int correlationId) {
+        var header = new RequestHeaderData()
+                .setRequestApiKey(apiKey.id)
+                .setRequestApiVersion(apiVersion)
+                .setClientId("client")
+                .setCorrelationId(correlationId);
+        var frame = new DecodedRequestFrame<>(apiVersion, correlationId, false, header, body);
+        ByteBuf encoded = Unpooled.buffer();
+        frame.encode(new ByteBufAccessorImpl(encoded));
+        return encoded.skipBytes(Integer.BYTES);
+    }
+
+    private static ByteBuf request(ApiKeys apiKey, ApiMessage body, int correlationId) {
+        return request(apiKey, apiKey.latestVersion(), body, correlationId);
+    }
+
+    private static OpaqueResponseFrame response(ApiKeys apiKey, int correlationId) {
+        ByteBuf buf = Unpooled.buffer().writeInt(correlationId).writeZero(8);
+        return new OpaqueResponseFrame(buf, correlationId, buf.readableBytes(), apiKey.id, apiKey.latestVersion());
+    }
+
+    @Test
+    void capturesSampledMatchingRequestsAndTheirResponses() {
+        var capture = new FrameCapture(new FrameCaptureConfig(2, Set.of(ApiKeys.METADATA), "client", null, null, null));
+        var handler = new FrameCaptureHandler(capture);
+        var channel = new EmbeddedChannel(handler);
+
+        for (int correlationId = 1; correlationId <= 3; correlationId++) {
+            handler.frame(request(ApiKeys.METADATA, new MetadataRequestData(), correlationId));
+            handler.frame(request(ApiKeys.API_VERSIONS, new ApiVersionsRequestData(), 100 + correlationId));
+        }
+        for (int correlationId = 1; correlationId <= 3; correlationId++) {
+            channel.writeOutbound(response(ApiKeys.METADATA, correlationId));
+            channel.writeOutbound(response(ApiKeys.API_VERSIONS, 100 + correlationId));
+        }
+
+        // The first matching request, and then one in every two, with the responses to them
+        assertThat(capture.frames())
+                .extracting(CapturedFrame::direction, CapturedFrame::apiKey, CapturedFrame::correlationId)
+                .containsExactly(
+                        tuple(Direction.REQUEST, ApiKeys.METADATA.id, 1),
+                        tuple(Direction.REQUEST, ApiKeys.METADATA.id, 3),
+                        tuple(Direction.RESPONSE, ApiKeys.METADATA.id, 1),
+                        tuple(Direction.RESPONSE, ApiKeys.METADATA.id, 3));
+        assertThat(channel.outboundMessages()).hasSize(6);
+    }
+
+    @Test
+    void capturesTheDecodersBytes() {
+        var capture = new FrameCapture(new FrameCaptureConfig(1, null, null, null, null, null));
+        var handler = new FrameCaptureHandler(capture);
+        new EmbeddedChannel(handler);
+        ByteBuf frame = request(ApiKeys.METADATA, new MetadataRequestData().setAllowAutoTopicCreation(false), 7);
+        int readerIndex = frame.readerIndex();
+
+        handler.frame(frame);
+
+        CapturedFrame captured = capture.frames().get(0);
+        assertThat(captured.frameLength()).isEqualTo(frame.readableBytes());
+        assertThat(captured.bytes()).isEqualTo(ByteBufUtil.getBytes(frame));
+        assertThat(frame.readerIndex()).isEqualTo(readerIndex);
+    }
+
+    @Test
+    void neverCapturesAuthentication() {
+        // Even when configured to capture the SASL APIs
+        var capture = new FrameCapture(new FrameCaptureConfig(1, Set.of(ApiKeys.SASL_HANDSHAKE, ApiKeys.SASL_AUTHENTICATE, ApiKeys.METADATA),
+                null, null, null, null));
+        var handler = new FrameCaptureHandler(capture);
+        var channel = new EmbeddedChannel(handler);
+
+        handler.frame(request(ApiKeys.SASL_HANDSHAKE, new SaslHandshakeRequestData().setMechanism("PLAIN"), 1));
+        handler.frame(request(ApiKeys.SASL_AUTHENTICATE, new SaslAuthenticateRequestData().setAuthBytes("\0user\0secret".getBytes(StandardCharsets.UTF_8)), 2));
+        channel.writeOutbound(response(ApiKeys.SASL_AUTHENTICATE, 2));
+        assertThat(capture.frames()).isEmpty();
+
+        handler.frame(request(ApiKeys.METADATA, new MetadataRequestData(), 3));
+        assertThat(capture.frames()).extracting(CapturedFrame::correlationId).containsExactly(3);
+    }
+
+    @Test
+    void capturesNothingAfterUnframedAuthentication() {
+        var capture = new FrameCapture(new FrameCaptureConfig(1, null, null, null, null, null));
+        var handler = new FrameCaptureHandler(capture);
+        new EmbeddedChannel(handler);
+
+        handler.frame(request(ApiKeys.SASL_HANDSHAKE, (short) 0, new SaslHandshakeRequestData().setMechanism("PLAIN"), 1));
+        // A PLAIN token, which the decoder delimits as if it were a frame
+        handler.frame(Unpooled.copiedBuffer("\0user\0secret", StandardCharsets.UTF_8));
+        handler.frame(request(ApiKeys.METADATA, new MetadataRequestData(), 2));
+
+        assertThat(capture.frames()).isEmpty();
+    }
+
+    @Test
+    void doesNotEncodeDecodedResponses() {
+        var capture = new FrameCapture(new FrameCaptureConfig(1, null, null, null, null, null));
+        var handler = new FrameCaptureHandler(capture);
+        var channel = new EmbeddedChannel(handler);
+
+        handler.frame(request(ApiKeys.METADATA, new MetadataRequestData(), 1));
+        channel.writeOutbound(new DecodedResponseFrame<>(ApiKeys.METADATA.latestVersion(), 1, new ResponseHeaderData().setCorrelationId(1),
+                new MetadataResponseData()));
+
+        assertThat(capture.frames()).extracting(CapturedFrame::direction).containsExactly(Direction.REQUEST);
+        assertThat(channel.outboundMessages()).hasSize(1);
+    }
+}
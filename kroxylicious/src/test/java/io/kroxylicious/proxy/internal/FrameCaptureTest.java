@@ -0,0 +1,139 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import io.kroxylicious.proxy.config.FrameCaptureConfig;
+import io.kroxylicious.proxy.internal.FrameCapture.CapturedFrame;
+import io.kroxylicious.proxy.internal.FrameCapture.Direction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FrameCaptureTest {
+
+    private static ByteBuf frame(int length, int fill) {
+        ByteBuf buf = Unpooled.buffer(length);
+        for (int i = 0; i < length; i++) {
+            buf.writeByte(fill + i);
+        }
+        return buf;
+    }
+
+    private static FrameCapture capture(int slots, int maxBytesPerFrame) {
+        return new FrameCapture(new FrameCaptureConfig(1, null, null, null, slots, maxBytesPerFrame));
+    }
+
+    @Test
+    void capturesFramesInOrder() {
+        var capture = capture(4, 16);
+        ByteBuf request = frame(10, 0);
+        capture.capture("conn0001", Direction.REQUEST, ApiKeys.METADATA.id, (short) 12, 7, request);
+        capture.capture("conn0001", Direction.RESPONSE, ApiKeys.METADATA.id, (short) 12, 7, frame(20, 100));
+
+        List<CapturedFrame> frames = capture.frames();
+        assertThat(frames).extracting(CapturedFrame::sequence).containsExactly(0L, 1L);
+        assertThat(frames.get(0).bytes()).isEqualTo(ByteBufUtil.getBytes(frame(10, 0)));
+        assertThat(frames.get(0).truncated()).isFalse();
+        assertThat(frames.get(1).frameLength()).isEqualTo(20);
+        assertThat(frames.get(1).bytes()).hasSize(16);
+        assertThat(frames.get(1).truncated()).isTrue();
+        assertThat(request.readerIndex()).isZero();
+
+        var dump = capture.dump();
+        assertThat(dump.get(0))
+                .containsEntry("connection", "conn0001")
+                .containsEntry("direction", "REQUEST")
+                .containsEntry("apiKey", "METADATA")
+                .containsEntry("apiVersion", (short) 12)
+                .containsEntry("correlationId", 7)
+                .containsEntry("length", 10)
+                .containsEntry("truncated", false);
+    }
+
+    @Test
+    void overwritesOldestFrames() {
+        var capture = capture(3, 8);
+        for (int i = 0; i < 5; i++) {
+            capture.capture("c", Direction.REQUEST, ApiKeys.PRODUCE.id, (short) 9, i, frame(4, i));
+        }
+
+        assertThat(capture.frames()).extracting(CapturedFrame::correlationId).containsExactly(2, 3, 4);
+    }
+
+    @Test
+    void dumpsCompleteFramesInWireFormat() {
+        var capture = capture(4, 8);
+        capture.capture("c", Direction.REQUEST, ApiKeys.PRODUCE.id, (short) 9, 1, frame(4, 0));
+        capture.capture("c", Direction.RESPONSE, ApiKeys.PRODUCE.id, (short) 9, 1, frame(4, 50));
+        capture.capture("c", Direction.REQUEST, ApiKeys.PRODUCE.id, (short) 9, 2, frame(12, 0));
+
+        ByteBuffer wire = ByteBuffer.wrap(capture.dumpWire(Direction.REQUEST));
+        assertThat(wire.getInt()).isEqualTo(4);
+        byte[] bytes = new byte[4];
+        wire.get(bytes);
+        assertThat(bytes).containsExactly(0, 1, 2, 3);
+        // The truncated frame is left out
+        assertThat(wire.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void matchesConfiguredPredicates() {
+        var capture = new FrameCapture(new FrameCaptureConfig(1, Set.of(ApiKeys.PRODUCE, ApiKeys.FETCH), "client", "tenant.example.com", null, null));
+
+        assertThat(capture.matches(ApiKeys.PRODUCE.id, "client", "tenant.example.com")).isTrue();
+        assertThat(capture.matches(ApiKeys.METADATA.id, "client", "tenant.example.com")).isFalse();
+        assertThat(capture.matches(ApiKeys.FETCH.id, "other", "tenant.example.com")).isFalse();
+        assertThat(capture.matches(ApiKeys.FETCH.id, "client", null)).isFalse();
+        assertThat(capture(1, 0).matches(ApiKeys.METADATA.id, null, null)).isTrue();
+    }
+
+    @Test
+    void concurrentWritersNeverExposeTornFrames() throws Exception {
+        var capture = capture(8, 64);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int fill = w;
+            writers.add(new Thread(() -> {
+                ByteBuf buf = Unpooled.buffer(64);
+                for (int i = 0; i < 64; i++) {
+                    buf.writeByte(fill);
+                }
+                for (int i = 0; i < 20_000; i++) {
+                    capture.capture("c", Direction.REQUEST, ApiKeys.PRODUCE.id, (short) 9, fill, buf);
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (int i = 0; i < 200; i++) {
+            for (CapturedFrame frame : capture.frames()) {
+                // Each writer fills its frames with its own number, which is also their correlation id
+                for (byte b : frame.bytes()) {
+                    assertThat((int) b).isEqualTo(frame.correlationId());
+                }
+            }
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+    }
+
+    @Test
+    void rejectsRingLargerThan2GiB() {
+        assertThatThrownBy(() -> capture(Integer.MAX_VALUE, 1024)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -11,19 +11,24 @@ import java.util.Map;
 
 import org.apache.kafka.common.message.ApiVersionsRequestData;
 import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.MetadataResponseData;
 import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
 import org.apache.kafka.common.message.SaslAuthenticateRequestData;
 import org.apache.kafka.common.message.SaslHandshakeRequestData;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.ApiMessage;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.ArgumentCaptor;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.DefaultChannelPromise;
@@ -34,15 +39,20 @@ import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
 import io.netty.handler.codec.haproxy.HAProxyProxiedProtocol;
 import io.netty.handler.ssl.SniCompletionEvent;
 
+import io.kroxylicious.proxy.config.MemoryBudgetConfig;
+import io.kroxylicious.proxy.config.NetworkConfig;
 import io.kroxylicious.proxy.filter.KrpcFilter;
 import io.kroxylicious.proxy.filter.NetFilter;
 import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
 import io.kroxylicious.proxy.internal.KafkaProxyFrontendHandler.State;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -155,17 +165,7 @@ class KafkaProxyFrontendHandlerTest {
             return null;
         }).when(filter).selectServer(valueCapture.capture());
 
-        var handler = new KafkaProxyFrontendHandler(filter, dp, false, false) {
-            @Override
-            ChannelFuture initConnection(String remoteHost, int remotePort, Bootstrap b) {
-                // This is ugly... basically the EmbeddedChannel doesn't seem to handle the case
-                // of a handler creating an outgoing connection and ends up
-                // trying to re-register the outbound channel => IllegalStateException
-                // So we override this method to short-circuit that
-                outboundChannel = new EmbeddedChannel();
-                return new DefaultChannelPromise(outboundChannel).setSuccess();
-            }
-        };
+        var handler = handler(filter, dp, NetworkConfig.defaults());
         inboundChannel.pipeline().addLast(handler);
         inboundChannel.pipeline().fireChannelActive();
 
@@ -220,6 +220,56 @@ class KafkaProxyFrontendHandlerTest {
 
     }
 
+    private KafkaProxyFrontendHandler handler(NetFilter filter, SaslDecodePredicate dp, NetworkConfig networkConfig) {
+        return new KafkaProxyFrontendHandler(filter, dp, false, false, networkConfig,
+                new MemoryAccountant(MemoryBudgetConfig.defaults(), new SimpleMeterRegistry()), null, new TopicMetadataCaches(), null, null) {
+            @Override
+            ChannelFuture initConnection(String remoteHost, int remotePort, Bootstrap b) {
+                // This is ugly... basically the EmbeddedChannel doesn't seem to handle the case
+                // of a handler creating an outgoing connection and ends up
+                // trying to re-register the outbound channel => IllegalStateException
+                // So we override this method to short-circuit that
+                outboundChannel = new EmbeddedChannel();
+                return new DefaultChannelPromise(outboundChannel).setSuccess();
+            }
+        };
+    }
+
+    @Test
+    public void inFlightLimitPausesReads() {
+        var dp = new SaslDecodePredicate(false);
+        var filter = mock(NetFilter.class);
+        doAnswer(i -> {
+            NetFilter.NetFilterContext ctx = i.getArgument(0);
+            ctx.initiateConnect(CLUSTER_HOST, CLUSTER_PORT, new KrpcFilter[0]);
+            return null;
+        }).when(filter).selectServer(any());
+        var networkConfig = new NetworkConfig(null, null, null, null, null, null, 2, null, null, null);
+        var handler = handler(filter, dp, networkConfig);
+        inboundChannel.pipeline().addLast(handler);
+        inboundChannel.pipeline().fireChannelActive();
+
+        // The first request is forwarded once connected
+        writeRequest(MetadataRequestData.HIGHEST_SUPPORTED_VERSION, new MetadataRequestData());
+        handleConnect(filter, handler);
+
+        // The second reaches the limit
+        writeRequest(MetadataRequestData.HIGHEST_SUPPORTED_VERSION, new MetadataRequestData());
+        assertFalse(inboundChannel.config().isAutoRead(),
+                "Expect inbound autoRead=false, since maxInFlightRequests are in flight");
+
+        // A response to the first request frees up a slot
+        var response = new DecodedResponseFrame<>(MetadataRequestData.HIGHEST_SUPPORTED_VERSION, 0,
+                new ResponseHeaderData().setCorrelationId(0), new MetadataResponseData());
+        var buf = Unpooled.buffer();
+        response.encode(new ByteBufAccessorImpl(buf));
+        outboundChannel.writeInbound(buf);
+        handler.outboundReadComplete();
+        assertTrue(inboundChannel.config().isAutoRead(),
+                "Expect inbound autoRead=true, since a response has been received");
+        outboundChannel.finishAndReleaseAll();
+    }
+
     private void handleConnect(NetFilter filter, KafkaProxyFrontendHandler handler) {
         verify(filter).selectServer(handler);
         assertEquals(State.CONNECTED, handler.state());
@@ -0,0 +1,169 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.kroxylicious.proxy.config.MemoryBudgetConfig;
+
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_MEMORY_USED_BYTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryAccountantTest {
+
+    // ChannelOutboundBuffer counts some overhead per queued message
+    private static final Offset<Long> OVERHEAD = Offset.offset(1_000L);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private MemoryAccountant accountant;
+    private Connection heavy;
+    private Connection medium;
+    private Connection light;
+
+    private static class Connection {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final AtomicBoolean paused = new AtomicBoolean();
+        final ConnectionMemoryAccount account = new ConnectionMemoryAccount(channel, null,
+                () -> paused.set(true),
+                () -> paused.set(false));
+
+        void queue(int bytes) {
+            channel.write(Unpooled.buffer(bytes).writeZero(bytes));
+        }
+
+        boolean isPaused() {
+            channel.runPendingTasks();
+            return paused.get();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        accountant = new MemoryAccountant(new MemoryBudgetConfig(true, 100_000L, 50_000L, 100L), registry);
+        heavy = new Connection();
+        medium = new Connection();
+        light = new Connection();
+        accountant.register(heavy.account);
+        accountant.register(medium.account);
+        accountant.register(light.account);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        heavy.channel.finishAndReleaseAll();
+        medium.channel.finishAndReleaseAll();
+        light.channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testBelowHighWaterMark() {
+        heavy.queue(60_000);
+        medium.queue(30_000);
+        light.queue(5_000);
+
+        accountant.check();
+
+        assertThat(accountant.usedBytes()).isCloseTo(95_000, OVERHEAD);
+        assertThat(accountant.state()).isEqualTo(MemoryAccountant.State.NORMAL);
+        assertThat(heavy.isPaused()).isFalse();
+        assertThat(medium.isPaused()).isFalse();
+        assertThat(light.isPaused()).isFalse();
+    }
+
+    @Test
+    public void testPausesHeaviestThenAllThenResumes() {
+        heavy.queue(60_000);
+        medium.queue(30_000);
+        light.queue(15_000);
+
+        // Crossing the high water mark pauses just enough of the heaviest connections
+        accountant.check();
+        assertThat(accountant.usedBytes()).isCloseTo(105_000, OVERHEAD);
+        assertThat(accountant.state()).isEqualTo(MemoryAccountant.State.SHEDDING);
+        assertThat(accountant.pausedConnections()).isEqualTo(1);
+        assertThat(heavy.isPaused()).isTrue();
+        assertThat(medium.isPaused()).isFalse();
+        assertThat(light.isPaused()).isFalse();
+
+        // Not falling, so everything gets paused
+        accountant.check();
+        assertThat(accountant.state()).isEqualTo(MemoryAccountant.State.PAUSED_ALL);
+        assertThat(accountant.pausedConnections()).isEqualTo(3);
+        assertThat(medium.isPaused()).isTrue();
+        assertThat(light.isPaused()).isTrue();
+
+        // Between the water marks nothing changes
+        medium.channel.flush();
+        accountant.check();
+        assertThat(accountant.usedBytes()).isCloseTo(75_000, OVERHEAD);
+        assertThat(accountant.state()).isEqualTo(MemoryAccountant.State.PAUSED_ALL);
+
+        // Below the low water mark everything resumes
+        heavy.channel.flush();
+        accountant.check();
+        assertThat(accountant.usedBytes()).isCloseTo(15_000, OVERHEAD);
+        assertThat(accountant.state()).isEqualTo(MemoryAccountant.State.NORMAL);
+        assertThat(accountant.pausedConnections()).isZero();
+        assertThat(heavy.isPaused()).isFalse();
+        assertThat(medium.isPaused()).isFalse();
+        assertThat(light.isPaused()).isFalse();
+    }
+
+    @Test
+    public void testDoesNotEscalateWhileFalling() {
+        heavy.queue(90_000);
+        medium.queue(20_000);
+
+        accountant.check();
+        assertThat(accountant.state()).isEqualTo(MemoryAccountant.State.SHEDDING);
+
+        // Still above the high water mark, but draining
+        medium.channel.flush();
+        medium.queue(15_000);
+        accountant.check();
+        assertThat(accountant.usedBytes()).isCloseTo(105_000, OVERHEAD);
+        assertThat(accountant.state()).isEqualTo(MemoryAccountant.State.SHEDDING);
+        assertThat(medium.isPaused()).isFalse();
+    }
+
+    @Test
+    public void testDeregisteredConnectionIsNotAccounted() {
+        heavy.queue(200_000);
+        accountant.deregister(heavy.account);
+
+        accountant.check();
+
+        assertThat(accountant.usedBytes()).isZero();
+        assertThat(accountant.state()).isEqualTo(MemoryAccountant.State.NORMAL);
+    }
+
+    @Test
+    public void testMetersAreRemovedWhenStopped() {
+        var executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            heavy.queue(10_000);
+            accountant.start(executor);
+            accountant.check();
+            assertThat(registry.get(KROXYLICIOUS_MEMORY_USED_BYTES).gauge().value()).isCloseTo(10_000, Offset.offset(1_000.0));
+
+            accountant.stop();
+            assertThat(registry.getMeters()).isEmpty();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.message.FetchResponseData;
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartitionBytesReaderTest {
+
+    private static final Uuid TOPIC_ID = Uuid.randomUuid();
+    private static final MemoryRecords SMALL = records(10);
+    private static final MemoryRecords LARGE = records(1000);
+
+    record Read(String topicName, Uuid topicId, int partition, int bytes) {
+    }
+
+    private final List<Read> reads = new ArrayList<>();
+
+    private static MemoryRecords records(int valueSize) {
+        return MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("x".repeat(valueSize).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static Stream<Short> produceVersions() {
+        return IntStream.rangeClosed(ApiKeys.PRODUCE.oldestVersion(), ApiKeys.PRODUCE.latestVersion()).mapToObj(version -> (short) version);
+    }
+
+    static Stream<Short> fetchVersions() {
+        return IntStream.rangeClosed(ApiKeys.FETCH.oldestVersion(), ApiKeys.FETCH.latestVersion()).mapToObj(version -> (short) version);
+    }
+
+    private static ProduceRequestData produceRequest(short apiVersion) {
+        var request = new ProduceRequestData().setAcks((short) 1).setTimeoutMs(1000);
+        if (apiVersion >= 3) {
+            request.setTransactionalId("txn");
+        }
+        var topicA = new ProduceRequestData.TopicProduceData().setName("a");
+        topicA.partitionData().add(new ProduceRequestData.PartitionProduceData().setIndex(0).setRecords(SMALL));
+        topicA.partitionData().add(new ProduceRequestData.PartitionProduceData().setIndex(1).setRecords(LARGE));
+        request.topicData().add(topicA);
+        var topicB = new ProduceRequestData.TopicProduceData().setName("b");
+        topicB.partitionData().add(new ProduceRequestData.PartitionProduceData().setIndex(7).setRecords(null));
+        request.topicData().add(topicB);
+        return request;
+    }
+
+    private static FetchResponseData fetchResponse(short apiVersion) {
+        var topic = new FetchResponseData.FetchableTopicResponse().setTopic("a").setTopicId(TOPIC_ID);
+        var withAborted = new FetchResponseData.PartitionData().setPartitionIndex(0).setRecords(LARGE);
+        if (apiVersion >= 4) {
+            withAborted.setAbortedTransactions(new ArrayList<>(List.of(new FetchResponseData.AbortedTransaction().setProducerId(1).setFirstOffset(2))));
+        }
+        topic.partitions().add(withAborted);
+        topic.partitions().add(new FetchResponseData.PartitionData().setPartitionIndex(3).setRecords(SMALL));
+        var response = new FetchResponseData();
+        response.responses().add(topic);
+        return response;
+    }
+
+    /** Encodes a frame and strips the frame size, as the decoders do */
+    private static ByteBuf encode(int size, Consumer<ByteBufAccessorImpl> encoder) {
+        ByteBuf buf = Unpooled.buffer(size);
+        encoder.accept(new ByteBufAccessorImpl(buf));
+        buf.skipBytes(Integer.BYTES);
+        return buf;
+    }
+
+    private static DecodedRequestFrame<ProduceRequestData> decodedProduceRequest(short apiVersion) {
+        var header = new RequestHeaderData()
+                .setRequestApiKey(ApiKeys.PRODUCE.id)
+                .setRequestApiVersion(apiVersion)
+                .setClientId("client")
+                .setCorrelationId(1);
+        return new DecodedRequestFrame<>(apiVersion, 1, false, header, produceRequest(apiVersion));
+    }
+
+    private static DecodedResponseFrame<FetchResponseData> decodedFetchResponse(short apiVersion) {
+        return new DecodedResponseFrame<>(apiVersion, 1, new ResponseHeaderData().setCorrelationId(1), fetchResponse(apiVersion));
+    }
+
+    @ParameterizedTest
+    @MethodSource("produceVersions")
+    void readsOpaqueProduceRequest(short apiVersion) {
+        var frame = decodedProduceRequest(apiVersion);
+        ByteBuf buf = encode(frame.estimateEncodedSize(), frame::encode);
+        var opaque = new OpaqueRequestFrame(buf, 1, true, buf.readableBytes());
+        int readerIndex = buf.readerIndex();
+
+        PartitionBytesReader.readProduceRequest(opaque, this::read);
+
+        assertThat(reads).containsExactly(
+                new Read("a", null, 0, SMALL.sizeInBytes()),
+                new Read("a", null, 1, LARGE.sizeInBytes()),
+                new Read("b", null, 7, 0));
+        assertThat(opaque.buf().readerIndex()).isEqualTo(readerIndex);
+    }
+
+    @ParameterizedTest
+    @MethodSource("fetchVersions")
+    void readsOpaqueFetchResponse(short apiVersion) {
+        var frame = decodedFetchResponse(apiVersion);
+        ByteBuf buf = encode(frame.estimateEncodedSize(), frame::encode);
+        var opaque = new OpaqueResponseFrame(buf, 1, buf.readableBytes(), ApiKeys.FETCH.id, apiVersion);
+
+        PartitionBytesReader.readFetchResponse(opaque, this::read);
+
+        String topicName = apiVersion >= 13 ? null : "a";
+        Uuid topicId = apiVersion >= 13 ? TOPIC_ID : null;
+        assertThat(reads).containsExactly(
+                new Read(topicName, topicId, 0, LARGE.sizeInBytes()),
+                new Read(topicName, topicId, 3, SMALL.sizeInBytes()));
+    }
+
+    @Test
+    void readsDecodedFrames() {
+        PartitionBytesReader.readProduceRequest(decodedProduceRequest((short) 9), this::read);
+        PartitionBytesReader.readFetchResponse(decodedFetchResponse((short) 13), this::read);
+
+        assertThat(reads).containsExactly(
+                new Read("a", null, 0, SMALL.sizeInBytes()),
+                new Read("a", null, 1, LARGE.sizeInBytes()),
+                new Read("b", null, 7, 0),
+                new Read(null, TOPIC_ID, 0, LARGE.sizeInBytes()),
+                new Read(null, TOPIC_ID, 3, SMALL.sizeInBytes()));
+    }
+
+    private void read(String topicName, Uuid topicId, int partition, int bytes) {
+        reads.add(new Read(topicName, topicId, partition, bytes));
+    }
+}
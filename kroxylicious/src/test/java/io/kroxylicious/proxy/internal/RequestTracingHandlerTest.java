@@ -0,0 +1,164 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.List;
+
+import org.apache.kafka.common.message.ApiVersionsRequestData;
+import org.apache.kafka.common.message.ApiVersionsResponseData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+
+import io.kroxylicious.proxy.config.TracingConfig;
+import io.kroxylicious.proxy.filter.ApiVersionsRequestFilter;
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestTracingHandlerTest {
+
+    private final InMemorySpanExporter exporter = InMemorySpanExporter.create();
+    private RequestTracing tracing;
+    private RequestTracingHandler handler;
+    private EmbeddedChannel downstream;
+
+    @BeforeEach
+    void setUp() {
+        tracing = new RequestTracing(2, SimpleSpanProcessor.create(exporter), "test");
+        handler = new RequestTracingHandler(tracing);
+        downstream = new EmbeddedChannel(handler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        downstream.finishAndReleaseAll();
+        tracing.stop();
+    }
+
+    private static <B extends ApiMessage> DecodedRequestFrame<B> request(B body, int correlationId) {
+        var apiKey = ApiKeys.forId(body.apiKey());
+        var header = new RequestHeaderData()
+                .setRequestApiKey(apiKey.id)
+                .setRequestApiVersion(apiKey.latestVersion())
+                .setClientId("test-client")
+                .setCorrelationId(correlationId);
+        return new DecodedRequestFrame<>(apiKey.latestVersion(), correlationId, false, header, body);
+    }
+
+    private static <B extends ApiMessage> DecodedResponseFrame<B> response(B body, int correlationId) {
+        var apiKey = ApiKeys.forId(body.apiKey());
+        return new DecodedResponseFrame<>(apiKey.latestVersion(), correlationId, new ResponseHeaderData().setCorrelationId(correlationId), body);
+    }
+
+    private static List<String> eventNames(SpanData span) {
+        return span.getEvents().stream().map(EventData::getName).toList();
+    }
+
+    @Test
+    void tracesOneInSampleOneInRequests() {
+        for (int correlationId = 1; correlationId <= 4; correlationId++) {
+            downstream.writeInbound(request(new ApiVersionsRequestData(), correlationId));
+            assertThat((Object) downstream.readInbound()).isNotNull();
+        }
+        for (int correlationId = 1; correlationId <= 4; correlationId++) {
+            downstream.writeOutbound(response(new ApiVersionsResponseData(), correlationId));
+            assertThat((Object) downstream.readOutbound()).isNotNull();
+        }
+
+        assertThat(exporter.getFinishedSpanItems())
+                .extracting(span -> span.getAttributes().get(RequestTracing.CORRELATION_ID))
+                .containsExactly(1L, 3L);
+        assertThat(exporter.getFinishedSpanItems()).allSatisfy(span -> {
+            assertThat(span.getName()).isEqualTo(ApiKeys.API_VERSIONS.name);
+            assertThat(span.getKind()).isEqualTo(SpanKind.SERVER);
+            assertThat(span.getAttributes().get(RequestTracing.CLIENT_ID)).isEqualTo("test-client");
+            assertThat(span.getResource().getAttribute(RequestTracing.SERVICE_NAME)).isEqualTo("test");
+        });
+    }
+
+    @Test
+    void tracesFiltersUpstreamAndFilterRequests() {
+        ApiVersionsRequestFilter filter = (header, request, context) -> {
+            context.sendRequest(ApiKeys.METADATA.latestVersion(), new MetadataRequestData());
+            context.forwardRequest(request);
+        };
+        var upstream = new EmbeddedChannel(handler.upstreamHandler(),
+                new FilterHandler(filter, 1000, null, new SharedTopicMetadataCache(), null, handler));
+
+        downstream.writeInbound(request(new ApiVersionsRequestData(), 1));
+        upstream.writeOutbound((Object) downstream.readInbound());
+        InternalRequestFrame<?> filterRequest = upstream.readOutbound();
+        assertThat((Object) upstream.readOutbound()).isInstanceOf(DecodedRequestFrame.class);
+        upstream.writeInbound(new InternalResponseFrame<>(filter, ApiKeys.METADATA.latestVersion(), 2, new ResponseHeaderData(),
+                new MetadataResponseData(), filterRequest.promise()));
+        upstream.writeInbound(response(new ApiVersionsResponseData(), 1));
+        downstream.writeOutbound((Object) upstream.readInbound());
+        downstream.readOutbound();
+        upstream.finishAndReleaseAll();
+
+        List<SpanData> spans = exporter.getFinishedSpanItems();
+        assertThat(spans).hasSize(2);
+        SpanData sendRequest = spans.get(0);
+        SpanData request = spans.get(1);
+        assertThat(eventNames(request)).containsExactly("filter.request", "upstream.write", "upstream.response");
+        assertThat(request.getEvents().get(0).getAttributes().get(RequestTracing.FILTER)).isEqualTo(filter.getClass().getName());
+        assertThat(sendRequest.getName()).isEqualTo("sendRequest " + ApiKeys.METADATA.name);
+        assertThat(sendRequest.getKind()).isEqualTo(SpanKind.CLIENT);
+        assertThat(sendRequest.getParentSpanId()).isEqualTo(request.getSpanId());
+        assertThat(sendRequest.getTraceId()).isEqualTo(request.getTraceId());
+    }
+
+    @Test
+    void endsRequestsWithoutResponseWhenWrittenUpstream() {
+        var upstream = new EmbeddedChannel(handler.upstreamHandler());
+
+        downstream.writeInbound(request(new ProduceRequestData().setAcks((short) 0), 1));
+        upstream.writeOutbound((Object) downstream.readInbound());
+        upstream.finishAndReleaseAll();
+
+        assertThat(exporter.getFinishedSpanItems()).singleElement().satisfies(span -> {
+            assertThat(span.getName()).isEqualTo(ApiKeys.PRODUCE.name);
+            assertThat(eventNames(span)).containsExactly("upstream.write");
+            assertThat(span.getStatus().getStatusCode()).isEqualTo(StatusCode.UNSET);
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(TracingConfig.Protocol.class)
+    void exportsOverOtlp(TracingConfig.Protocol protocol) {
+        var otlpTracing = new RequestTracing(new TracingConfig(10, null, protocol, null));
+        assertThat(otlpTracing.sampleOneIn()).isEqualTo(10);
+        otlpTracing.stop();
+    }
+
+    @Test
+    void endsRequestsInFlightWhenConnectionCloses() {
+        downstream.writeInbound(request(new ApiVersionsRequestData(), 1));
+        downstream.close();
+
+        assertThat(exporter.getFinishedSpanItems()).singleElement()
+                .satisfies(span -> assertThat(span.getStatus().getStatusCode()).isEqualTo(StatusCode.ERROR));
+    }
+}
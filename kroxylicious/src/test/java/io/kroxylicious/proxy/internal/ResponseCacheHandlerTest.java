@@ -0,0 +1,349 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.kafka.common.message.ApiVersionsRequestData;
+import org.apache.kafka.common.message.DescribeClusterRequestData;
+import org.apache.kafka.common.message.DescribeClusterResponseData;
+import org.apache.kafka.common.message.FindCoordinatorRequestData;
+import org.apache.kafka.common.message.FindCoordinatorResponseData;
+import org.apache.kafka.common.message.HeartbeatRequestData;
+import org.apache.kafka.common.message.HeartbeatResponseData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.message.SaslHandshakeRequestData;
+import org.apache.kafka.common.message.SaslHandshakeResponseData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.apache.kafka.common.protocol.Errors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.kroxylicious.proxy.config.CoordinatorCacheConfig;
+import io.kroxylicious.proxy.config.MetadataCacheConfig;
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCacheHandlerTest {
+
+    private static final short METADATA_VERSION = 9;
+    private static final short FIND_COORDINATOR_VERSION = 3;
+
+    private final ResponseCache cache = ResponseCache.forMetadata(new MetadataCacheConfig(60_000L, null));
+    private final ResponseCache coordinators = ResponseCache.forCoordinators(new CoordinatorCacheConfig(60_000L, null));
+    private final List<EmbeddedChannel> channels = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        channels.forEach(EmbeddedChannel::finishAndReleaseAll);
+    }
+
+    private EmbeddedChannel channel(AtomicBoolean paused) {
+        var channel = new EmbeddedChannel(new ResponseCacheHandler(cache, coordinators, () -> paused.set(true), () -> paused.set(false)));
+        channels.add(channel);
+        return channel;
+    }
+
+    private EmbeddedChannel channel() {
+        return channel(new AtomicBoolean());
+    }
+
+    private static DecodedRequestFrame<MetadataRequestData> metadataRequest(int correlationId, String... topics) {
+        var body = new MetadataRequestData();
+        for (String topic : topics) {
+            body.topics().add(new MetadataRequestData.MetadataRequestTopic().setName(topic));
+        }
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.METADATA.id).setRequestApiVersion(METADATA_VERSION).setCorrelationId(correlationId);
+        return new DecodedRequestFrame<>(METADATA_VERSION, correlationId, true, header, body);
+    }
+
+    private static DecodedResponseFrame<MetadataResponseData> metadataResponse(int correlationId, String topic, Errors error) {
+        var body = new MetadataResponseData();
+        body.topics().add(new MetadataResponseData.MetadataResponseTopic().setName(topic).setErrorCode(error.code()));
+        return new DecodedResponseFrame<>(METADATA_VERSION, correlationId, new ResponseHeaderData().setCorrelationId(correlationId), body);
+    }
+
+    private static DecodedRequestFrame<ApiVersionsRequestData> otherRequest(int correlationId) {
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.API_VERSIONS.id).setRequestApiVersion((short) 3).setCorrelationId(correlationId);
+        return new DecodedRequestFrame<>((short) 3, correlationId, false, header, new ApiVersionsRequestData());
+    }
+
+    private static <T extends ApiMessage> DecodedRequestFrame<T> request(ApiKeys apiKey, short apiVersion, int correlationId, T body) {
+        var header = new RequestHeaderData().setRequestApiKey(apiKey.id).setRequestApiVersion(apiVersion).setCorrelationId(correlationId);
+        return new DecodedRequestFrame<>(apiVersion, correlationId, true, header, body);
+    }
+
+    private static DecodedRequestFrame<FindCoordinatorRequestData> findCoordinatorRequest(int correlationId, String groupId) {
+        return request(ApiKeys.FIND_COORDINATOR, FIND_COORDINATOR_VERSION, correlationId, new FindCoordinatorRequestData().setKey(groupId));
+    }
+
+    private static <T extends ApiMessage> DecodedResponseFrame<T> response(short apiVersion, int correlationId, T body) {
+        return new DecodedResponseFrame<>(apiVersion, correlationId, new ResponseHeaderData().setCorrelationId(correlationId), body);
+    }
+
+    private static DecodedResponseFrame<FindCoordinatorResponseData> findCoordinatorResponse(int correlationId, int nodeId) {
+        return response(FIND_COORDINATOR_VERSION, correlationId, new FindCoordinatorResponseData().setNodeId(nodeId).setHost("proxy").setPort(9092));
+    }
+
+    /** Decodes a response written to the client */
+    private static MetadataResponseData readResponse(EmbeddedChannel channel, int expectedCorrelationId) {
+        return new MetadataResponseData(readResponse(channel, ApiKeys.METADATA, METADATA_VERSION, expectedCorrelationId), METADATA_VERSION);
+    }
+
+    private static ByteBufAccessorImpl readResponse(EmbeddedChannel channel, ApiKeys apiKey, short apiVersion, int expectedCorrelationId) {
+        OpaqueResponseFrame frame = channel.readOutbound();
+        assertThat(frame).isNotNull();
+        ByteBuf buf = Unpooled.buffer(frame.estimateEncodedSize());
+        frame.encode(new ByteBufAccessorImpl(buf));
+        buf.skipBytes(Integer.BYTES);
+        var accessor = new ByteBufAccessorImpl(buf);
+        var header = new ResponseHeaderData(accessor, apiKey.responseHeaderVersion(apiVersion));
+        assertThat(header.correlationId()).isEqualTo(expectedCorrelationId);
+        return accessor;
+    }
+
+    private static FindCoordinatorResponseData readFindCoordinatorResponse(EmbeddedChannel channel, int expectedCorrelationId) {
+        return new FindCoordinatorResponseData(readResponse(channel, ApiKeys.FIND_COORDINATOR, FIND_COORDINATOR_VERSION, expectedCorrelationId),
+                FIND_COORDINATOR_VERSION);
+    }
+
+    @Test
+    public void testResponseIsCachedForLaterRequests() {
+        var first = channel();
+        first.writeInbound(metadataRequest(1, "foo", "bar"));
+        assertThat((Object) first.readInbound()).isNotNull();
+        first.writeOutbound(metadataResponse(1, "foo", Errors.NONE));
+        assertThat(readResponse(first, 1).topics()).hasSize(1);
+
+        // The same topics, in a different order, on another connection
+        var second = channel();
+        second.writeInbound(metadataRequest(7, "bar", "foo"));
+        assertThat((Object) second.readInbound()).as("request should not be forwarded").isNull();
+        assertThat(readResponse(second, 7).topics().find("foo")).isNotNull();
+
+        // A different request is a different response
+        second.writeInbound(metadataRequest(8, "baz"));
+        assertThat((Object) second.readInbound()).isNotNull();
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneRequest() {
+        var leader = channel();
+        var paused = new AtomicBoolean();
+        var follower = channel(paused);
+
+        leader.writeInbound(metadataRequest(1, "foo"));
+        assertThat((Object) leader.readInbound()).isNotNull();
+
+        follower.writeInbound(metadataRequest(5, "foo"));
+        follower.writeInbound(otherRequest(6));
+        assertThat((Object) follower.readInbound()).as("requests should wait for the leader's response").isNull();
+        assertThat(paused).isTrue();
+
+        leader.writeOutbound(metadataResponse(1, "foo", Errors.NONE));
+        readResponse(leader, 1);
+        follower.runPendingTasks();
+        assertThat(readResponse(follower, 5).topics().find("foo")).isNotNull();
+        DecodedRequestFrame<?> deferred = follower.readInbound();
+        assertThat(deferred.correlationId()).isEqualTo(6);
+        assertThat(paused).isFalse();
+    }
+
+    @Test
+    public void testNotServedFromCacheWhileEarlierResponsesAreOutstanding() {
+        var first = channel();
+        first.writeInbound(metadataRequest(1, "foo"));
+        first.readInbound();
+        first.writeOutbound(metadataResponse(1, "foo", Errors.NONE));
+        readResponse(first, 1);
+
+        var second = channel();
+        second.writeInbound(otherRequest(1));
+        second.writeInbound(metadataRequest(2, "foo"));
+        // Answering the Metadata request now would overtake the first response
+        assertThat((Object) second.readInbound()).isNotNull();
+        assertThat((Object) second.readInbound()).isNotNull();
+    }
+
+    @Test
+    public void testErrorResponsesAreNotCached() {
+        var first = channel();
+        first.writeInbound(metadataRequest(1, "foo"));
+        first.readInbound();
+        first.writeOutbound(metadataResponse(1, "foo", Errors.LEADER_NOT_AVAILABLE));
+        readResponse(first, 1);
+        assertThat(cache.size()).isZero();
+
+        var second = channel();
+        second.writeInbound(metadataRequest(2, "foo"));
+        assertThat((Object) second.readInbound()).isNotNull();
+    }
+
+    @Test
+    public void testWaitingConnectionsAskForThemselvesIfLeaderCloses() {
+        var leader = channel();
+        var follower = channel();
+        leader.writeInbound(metadataRequest(1, "foo"));
+        leader.readInbound();
+        follower.writeInbound(metadataRequest(2, "foo"));
+
+        leader.close();
+        follower.runPendingTasks();
+        DecodedRequestFrame<?> forwarded = follower.readInbound();
+        assertThat(forwarded.correlationId()).isEqualTo(2);
+    }
+
+    @Test
+    public void testExpiredResponsesAreRemoved() {
+        var first = channel();
+        first.writeInbound(metadataRequest(1, "foo"));
+        first.readInbound();
+        first.writeOutbound(metadataResponse(1, "foo", Errors.NONE));
+        readResponse(first, 1);
+        assertThat(cache.size()).isEqualTo(1);
+
+        cache.removeExpired(System.nanoTime());
+        assertThat(cache.size()).isEqualTo(1);
+        cache.removeExpired(System.nanoTime() + 61_000_000_000L);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void testCoordinatorLookupIsCachedForLaterRequests() {
+        var first = channel();
+        first.writeInbound(findCoordinatorRequest(1, "my-group"));
+        assertThat((Object) first.readInbound()).isNotNull();
+        first.writeOutbound(findCoordinatorResponse(1, 3));
+        assertThat(readFindCoordinatorResponse(first, 1).nodeId()).isEqualTo(3);
+
+        var second = channel();
+        second.writeInbound(findCoordinatorRequest(4, "my-group"));
+        assertThat((Object) second.readInbound()).as("request should not be forwarded").isNull();
+        assertThat(readFindCoordinatorResponse(second, 4).nodeId()).isEqualTo(3);
+
+        // Another group, or another version, is another lookup
+        second.writeInbound(findCoordinatorRequest(5, "other-group"));
+        assertThat((Object) second.readInbound()).isNotNull();
+        second.writeOutbound(findCoordinatorResponse(5, 1));
+        readFindCoordinatorResponse(second, 5);
+        second.writeInbound(request(ApiKeys.FIND_COORDINATOR, (short) 2, 6, new FindCoordinatorRequestData().setKey("my-group")));
+        assertThat((Object) second.readInbound()).isNotNull();
+    }
+
+    @Test
+    public void testNotCoordinatorInvalidatesCachedLookup() {
+        var lookup = channel();
+        lookup.writeInbound(findCoordinatorRequest(1, "my-group"));
+        lookup.readInbound();
+        lookup.writeOutbound(findCoordinatorResponse(1, 3));
+        readFindCoordinatorResponse(lookup, 1);
+        assertThat(coordinators.size()).isEqualTo(1);
+
+        // A heartbeat for another group on the coordinator's connection changes nothing
+        var member = channel();
+        member.writeInbound(request(ApiKeys.HEARTBEAT, (short) 4, 1, new HeartbeatRequestData().setGroupId("other-group")));
+        member.readInbound();
+        member.writeOutbound(response((short) 4, 1, new HeartbeatResponseData().setErrorCode(Errors.NOT_COORDINATOR.code())));
+        member.readOutbound();
+        assertThat(coordinators.size()).isEqualTo(1);
+
+        member.writeInbound(request(ApiKeys.HEARTBEAT, (short) 4, 2, new HeartbeatRequestData().setGroupId("my-group")));
+        member.readInbound();
+        member.writeOutbound(response((short) 4, 2, new HeartbeatResponseData().setErrorCode(Errors.NOT_COORDINATOR.code())));
+        member.readOutbound();
+        assertThat(coordinators.size()).isZero();
+
+        // So the next lookup goes to the broker
+        lookup.writeInbound(findCoordinatorRequest(2, "my-group"));
+        assertThat((Object) lookup.readInbound()).isNotNull();
+    }
+
+    @Test
+    public void testCoordinatorErrorsAreNotCached() {
+        var first = channel();
+        first.writeInbound(findCoordinatorRequest(1, "my-group"));
+        first.readInbound();
+        first.writeOutbound(response(FIND_COORDINATOR_VERSION, 1, new FindCoordinatorResponseData().setErrorCode(Errors.COORDINATOR_NOT_AVAILABLE.code())));
+        readFindCoordinatorResponse(first, 1);
+        assertThat(coordinators.size()).isZero();
+    }
+
+    @Test
+    public void testDescribeClusterIsCached() {
+        var first = channel();
+        first.writeInbound(request(ApiKeys.DESCRIBE_CLUSTER, (short) 0, 1, new DescribeClusterRequestData()));
+        first.readInbound();
+        var body = new DescribeClusterResponseData().setClusterId("my-cluster");
+        body.brokers().add(new DescribeClusterResponseData.DescribeClusterBroker().setBrokerId(0).setHost("proxy").setPort(9092));
+        first.writeOutbound(response((short) 0, 1, body));
+        readResponse(first, ApiKeys.DESCRIBE_CLUSTER, (short) 0, 1);
+
+        var second = channel();
+        second.writeInbound(request(ApiKeys.DESCRIBE_CLUSTER, (short) 0, 9, new DescribeClusterRequestData()));
+        assertThat((Object) second.readInbound()).isNull();
+        var cached = new DescribeClusterResponseData(readResponse(second, ApiKeys.DESCRIBE_CLUSTER, (short) 0, 9), (short) 0);
+        assertThat(cached.clusterId()).isEqualTo("my-cluster");
+        assertThat(cached.brokers()).hasSize(1);
+    }
+
+    /** A connection whose client has authenticated with the broker, through the proxy */
+    private EmbeddedChannel brokerAuthenticatedChannel() {
+        var channel = channel();
+        channel.writeInbound(request(ApiKeys.SASL_HANDSHAKE, (short) 1, 0, new SaslHandshakeRequestData().setMechanism("PLAIN")));
+        assertThat((Object) channel.readInbound()).isNotNull();
+        channel.writeOutbound(response((short) 1, 0, new SaslHandshakeResponseData()));
+        assertThat((Object) channel.readOutbound()).isNotNull();
+        return channel;
+    }
+
+    @Test
+    public void testConnectionsAuthenticatedByTheBrokerDoNotShareResponses() {
+        var describeClusterBody = new DescribeClusterResponseData().setClusterId("my-cluster").setClusterAuthorizedOperations(42);
+        // What an unauthenticated client was told isn't served to an authenticated one either
+        var anonymous = channel();
+        anonymous.writeInbound(metadataRequest(1, "foo"));
+        anonymous.readInbound();
+        anonymous.writeOutbound(metadataResponse(1, "foo", Errors.NONE));
+        readResponse(anonymous, 1);
+        assertThat(cache.size()).isEqualTo(1);
+
+        for (int i = 0; i < 2; i++) {
+            var principal = brokerAuthenticatedChannel();
+
+            principal.writeInbound(metadataRequest(1, "foo"));
+            assertThat((Object) principal.readInbound()).as("request should be forwarded").isNotNull();
+            principal.writeOutbound(metadataResponse(1, "foo", Errors.NONE));
+            assertThat((Object) principal.readOutbound()).isInstanceOf(DecodedResponseFrame.class);
+
+            principal.writeInbound(findCoordinatorRequest(2, "my-group"));
+            assertThat((Object) principal.readInbound()).as("request should be forwarded").isNotNull();
+            principal.writeOutbound(findCoordinatorResponse(2, 3));
+            assertThat((Object) principal.readOutbound()).isInstanceOf(DecodedResponseFrame.class);
+
+            principal.writeInbound(request(ApiKeys.DESCRIBE_CLUSTER, (short) 0, 3, new DescribeClusterRequestData()));
+            assertThat((Object) principal.readInbound()).as("request should be forwarded").isNotNull();
+            principal.writeOutbound(response((short) 0, 3, describeClusterBody.duplicate()));
+            assertThat((Object) principal.readOutbound()).isInstanceOf(DecodedResponseFrame.class);
+        }
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(coordinators.size()).isZero();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+import io.kroxylicious.proxy.frame.ResponseFrame;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseOrdererTest {
+
+    private static final short METADATA_VERSION = 9;
+
+    private final List<EmbeddedChannel> channels = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        channels.forEach(EmbeddedChannel::finishAndReleaseAll);
+    }
+
+    private EmbeddedChannel channel(ResponseOrderer orderer) {
+        var channel = new EmbeddedChannel(orderer);
+        channels.add(channel);
+        return channel;
+    }
+
+    private static DecodedRequestFrame<MetadataRequestData> request(int correlationId) {
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.METADATA.id).setRequestApiVersion(METADATA_VERSION).setCorrelationId(correlationId);
+        return new DecodedRequestFrame<>(METADATA_VERSION, correlationId, true, header, new MetadataRequestData());
+    }
+
+    private static DecodedRequestFrame<ProduceRequestData> produceRequest(int correlationId, short acks) {
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.PRODUCE.id).setRequestApiVersion((short) 9).setCorrelationId(correlationId);
+        return new DecodedRequestFrame<>((short) 9, correlationId, true, header, new ProduceRequestData().setAcks(acks));
+    }
+
+    private static DecodedResponseFrame<MetadataResponseData> response(int correlationId) {
+        return new DecodedResponseFrame<>(METADATA_VERSION, correlationId, new ResponseHeaderData().setCorrelationId(correlationId), new MetadataResponseData());
+    }
+
+    private static List<Integer> writtenCorrelationIds(EmbeddedChannel channel) {
+        List<Integer> correlationIds = new ArrayList<>();
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            correlationIds.add(((ResponseFrame) msg).correlationId());
+        }
+        return correlationIds;
+    }
+
+    @Test
+    public void testResponsesInOrderAreWrittenStraightAway() {
+        var orderer = new ResponseOrderer();
+        var channel = channel(orderer);
+        channel.writeInbound(request(1), request(2));
+        assertThat((Object) channel.readInbound()).isNotNull();
+        assertThat((Object) channel.readInbound()).isNotNull();
+
+        channel.writeOutbound(response(1));
+        assertThat(writtenCorrelationIds(channel)).containsExactly(1);
+        channel.writeOutbound(response(2));
+        assertThat(writtenCorrelationIds(channel)).containsExactly(2);
+        assertThat(orderer.awaitingResponse()).isZero();
+    }
+
+    @Test
+    public void testResponsesOutOfOrderAreHeldUntilThoseBeforeThemAreWritten() {
+        var orderer = new ResponseOrderer();
+        var channel = channel(orderer);
+        channel.writeInbound(request(1), request(2), request(3));
+
+        channel.writeOutbound(response(3));
+        channel.writeOutbound(response(2));
+        assertThat(writtenCorrelationIds(channel)).isEmpty();
+        assertThat(orderer.held()).isEqualTo(2);
+
+        channel.writeOutbound(response(1));
+        assertThat(writtenCorrelationIds(channel)).containsExactly(1, 2, 3);
+        assertThat(orderer.held()).isZero();
+        assertThat(orderer.awaitingResponse()).isZero();
+    }
+
+    @Test
+    public void testRingGrowsBeyondInitialCapacity() {
+        var orderer = new ResponseOrderer();
+        var channel = channel(orderer);
+        for (int correlationId = 0; correlationId < 100; correlationId++) {
+            channel.writeInbound(request(correlationId));
+        }
+        for (int correlationId = 99; correlationId >= 0; correlationId--) {
+            channel.writeOutbound(response(correlationId));
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int correlationId = 0; correlationId < 100; correlationId++) {
+            expected.add(correlationId);
+        }
+        assertThat(writtenCorrelationIds(channel)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testDeeplyPipelinedResponsesInAnyOrder() {
+        var orderer = new ResponseOrderer();
+        var channel = channel(orderer);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // Spread out, so that the index has collisions and wraps around
+            int correlationId = i * 7919;
+            channel.writeInbound(request(correlationId));
+            expected.add(correlationId);
+        }
+        List<Integer> shuffled = new ArrayList<>(expected);
+        Collections.shuffle(shuffled, new Random(42));
+        for (int correlationId : shuffled) {
+            channel.writeOutbound(response(correlationId));
+        }
+        assertThat(writtenCorrelationIds(channel)).isEqualTo(expected);
+        assertThat(orderer.held()).isZero();
+        assertThat(orderer.awaitingResponse()).isZero();
+    }
+
+    @Test
+    public void testReusedCorrelationIdsAreMatchedOldestFirst() {
+        var orderer = new ResponseOrderer();
+        var channel = channel(orderer);
+        channel.writeInbound(request(1), request(2), request(1), request(3));
+
+        channel.writeOutbound(response(3));
+        channel.writeOutbound(response(1));
+        assertThat(writtenCorrelationIds(channel)).containsExactly(1);
+        channel.writeOutbound(response(1));
+        assertThat(writtenCorrelationIds(channel)).isEmpty();
+        assertThat(orderer.held()).isEqualTo(2);
+
+        channel.writeOutbound(response(2));
+        assertThat(writtenCorrelationIds(channel)).containsExactly(2, 1, 3);
+        assertThat(orderer.awaitingResponse()).isZero();
+    }
+
+    @Test
+    public void testProduceWithoutAcksDoesNotBlockLaterResponses() {
+        var orderer = new ResponseOrderer();
+        var channel = channel(orderer);
+        channel.writeInbound(produceRequest(1, (short) 0), produceRequest(2, (short) 1));
+        assertThat(orderer.awaitingResponse()).isEqualTo(1);
+
+        channel.writeOutbound(response(2));
+        assertThat(writtenCorrelationIds(channel)).containsExactly(2);
+    }
+
+    @Test
+    public void testResponseToUnknownRequestIsWrittenStraightAway() {
+        var orderer = new ResponseOrderer();
+        var channel = channel(orderer);
+        channel.writeInbound(request(1));
+
+        channel.writeOutbound(response(42));
+        assertThat(writtenCorrelationIds(channel)).containsExactly(42);
+        assertThat(orderer.awaitingResponse()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGivesUpOnMissingResponse() {
+        var orderer = new ResponseOrderer(0);
+        var channel = channel(orderer);
+        channel.writeInbound(request(1), request(2), request(3));
+
+        // write() doesn't run the scheduled tasks, unlike writeOutbound()
+        channel.write(response(2));
+        assertThat(orderer.held()).isEqualTo(1);
+
+        channel.runPendingTasks();
+        assertThat(writtenCorrelationIds(channel)).containsExactly(2);
+        assertThat(orderer.held()).isZero();
+        assertThat(orderer.awaitingResponse()).isEqualTo(1);
+
+        channel.writeOutbound(response(3));
+        assertThat(writtenCorrelationIds(channel)).containsExactly(3);
+    }
+
+    @Test
+    public void testHeldResponsesAreReleasedWhenChannelCloses() {
+        var orderer = new ResponseOrderer();
+        var channel = channel(orderer);
+        channel.writeInbound(request(1), request(2));
+        ByteBuf buf = Unpooled.buffer(4).writeInt(2);
+        ChannelFuture write = channel.write(new OpaqueResponseFrame(buf, 2, 4, ApiKeys.METADATA.id, METADATA_VERSION));
+        assertThat(orderer.held()).isEqualTo(1);
+
+        channel.close();
+        assertThat(buf.refCnt()).isZero();
+        assertThat(write.isDone()).isTrue();
+        assertThat(write.isSuccess()).isFalse();
+        assertThat(orderer.held()).isZero();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.Map;
+
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.message.CreateTopicsResponseData;
+import org.apache.kafka.common.message.DeleteTopicsResponseData;
+import org.apache.kafka.common.message.MetadataResponseData;
+import org.apache.kafka.common.protocol.Errors;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SharedTopicMetadataCacheTest {
+
+    private static final Uuid FOO_ID = Uuid.randomUuid();
+    private static final Uuid BAR_ID = Uuid.randomUuid();
+
+    static MetadataResponseData metadataResponse(Uuid topicId, String name, int partitions) {
+        var topic = new MetadataResponseData.MetadataResponseTopic().setTopicId(topicId).setName(name);
+        for (int i = 0; i < partitions; i++) {
+            topic.partitions().add(new MetadataResponseData.MetadataResponsePartition().setPartitionIndex(i).setLeaderId(i + 100));
+        }
+        var response = new MetadataResponseData();
+        response.topics().add(topic);
+        return response;
+    }
+
+    @Test
+    public void testUpdatedFromResponses() {
+        var cache = new SharedTopicMetadataCache();
+        cache.update(metadataResponse(FOO_ID, "foo", 2));
+        assertThat(cache.topic(FOO_ID)).hasValueSatisfying(topic -> {
+            assertThat(topic.name()).isEqualTo("foo");
+            assertThat(topic.partitionLeaders()).isEqualTo(Map.of(0, 100, 1, 101));
+        });
+        assertThat(cache.topic("foo")).map(topic -> topic.topicId()).hasValue(FOO_ID);
+
+        var created = new CreateTopicsResponseData();
+        created.topics().add(new CreateTopicsResponseData.CreatableTopicResult().setName("bar").setTopicId(BAR_ID).setNumPartitions(3));
+        cache.update(created);
+        assertThat(cache.topic(BAR_ID)).map(topic -> topic.partitions()).hasValue(3);
+
+        var deleted = new DeleteTopicsResponseData();
+        deleted.responses().add(new DeleteTopicsResponseData.DeletableTopicResult().setName("foo").setTopicId(FOO_ID));
+        cache.update(deleted);
+        assertThat(cache.topicNames()).isEqualTo(Map.of(BAR_ID, "bar"));
+    }
+
+    @Test
+    public void testRecreatedTopicReplacesOldId() {
+        var cache = new SharedTopicMetadataCache();
+        cache.update(metadataResponse(FOO_ID, "foo", 1));
+        Uuid recreatedId = Uuid.randomUuid();
+        cache.update(metadataResponse(recreatedId, "foo", 1));
+        assertThat(cache.topicNames()).isEqualTo(Map.of(recreatedId, "foo"));
+
+        var unknown = new MetadataResponseData();
+        unknown.topics().add(new MetadataResponseData.MetadataResponseTopic().setTopicId(recreatedId).setErrorCode(Errors.UNKNOWN_TOPIC_ID.code()));
+        cache.update(unknown);
+        assertThat(cache.topic("foo")).isEmpty();
+    }
+}
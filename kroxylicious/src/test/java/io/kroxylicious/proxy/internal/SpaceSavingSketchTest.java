@@ -0,0 +1,91 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.kroxylicious.proxy.internal.SpaceSavingSketch.Entry;
+import io.kroxylicious.proxy.internal.SpaceSavingSketch.Summary;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpaceSavingSketchTest {
+
+    @Test
+    void countsExactlyWithinCapacity() {
+        var sketch = new SpaceSavingSketch<String>(3);
+        sketch.add("a", 5);
+        sketch.add("b", 10);
+        sketch.add("a", 7);
+
+        assertThat(sketch.summary()).isEqualTo(new Summary<>(List.of(new Entry<>("a", 12, 0), new Entry<>("b", 10, 0)), 0));
+    }
+
+    @Test
+    void newKeyTakesOverSmallestCounter() {
+        var sketch = new SpaceSavingSketch<String>(2);
+        sketch.add("a", 5);
+        sketch.add("b", 10);
+        sketch.add("c", 1);
+
+        assertThat(sketch.summary()).isEqualTo(new Summary<>(List.of(new Entry<>("b", 10, 0), new Entry<>("c", 6, 5)), 6));
+    }
+
+    @Test
+    void findsHeavyHittersAmongManyKeys() {
+        var sketch = new SpaceSavingSketch<Integer>(50);
+        var random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // A long tail of light keys, and three heavy ones
+            sketch.add(random.nextInt(10_000), 1);
+            if (i % 10 == 0) {
+                sketch.add(-1, 3);
+                sketch.add(-2, 2);
+                sketch.add(-3, 1);
+            }
+        }
+
+        var entries = sketch.summary().entries();
+        assertThat(entries.subList(0, 3)).extracting(Entry::key).containsExactly(-1, -2, -3);
+        assertThat(entries.get(0).count() - entries.get(0).error()).isLessThanOrEqualTo(30_000).isGreaterThan(0);
+        assertThat(entries.get(0).count()).isGreaterThanOrEqualTo(30_000);
+    }
+
+    @Test
+    void mergeAddsFloorsOfSummariesWithoutKey() {
+        var first = new SpaceSavingSketch<String>(2);
+        first.add("a", 10);
+        first.add("b", 4);
+        first.add("c", 1);
+        var second = new SpaceSavingSketch<String>(2);
+        second.add("a", 3);
+        second.add("d", 8);
+
+        var merged = SpaceSavingSketch.merge(List.of(first.summary(), second.summary()), 2);
+
+        // first has a=10, c=5 (error 4) and floor 5; second has d=8, a=3 and floor 3
+        assertThat(merged.entries()).containsExactlyInAnyOrder(new Entry<>("a", 13, 0), new Entry<>("d", 13, 5));
+        assertThat(merged.floor()).isEqualTo(8);
+    }
+
+    @Test
+    void clearForgetsKeys() {
+        var sketch = new SpaceSavingSketch<String>(2);
+        sketch.add("a", 5);
+        sketch.clear();
+
+        assertThat(sketch.summary()).isEqualTo(Summary.empty());
+    }
+
+    @Test
+    void rejectsNonPositiveCapacity() {
+        assertThatThrownBy(() -> new SpaceSavingSketch<String>(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
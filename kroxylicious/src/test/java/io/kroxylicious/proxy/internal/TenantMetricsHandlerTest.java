@@ -0,0 +1,105 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import org.apache.kafka.common.message.ApiVersionsRequestData;
+import org.apache.kafka.common.message.ApiVersionsResponseData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.SniCompletionEvent;
+
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.frame.OpaqueRequestFrame;
+import io.kroxylicious.proxy.frame.OpaqueResponseFrame;
+
+import static io.kroxylicious.proxy.internal.TenantMetrics.KROXYLICIOUS_TENANT_ACTIVE_CONNECTIONS;
+import static io.kroxylicious.proxy.internal.TenantMetrics.KROXYLICIOUS_TENANT_BYTES;
+import static io.kroxylicious.proxy.internal.TenantMetrics.KROXYLICIOUS_TENANT_REQUESTS;
+import static io.kroxylicious.proxy.internal.TenantMetrics.OTHER_TENANTS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TenantMetricsHandlerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TenantMetrics metrics = new TenantMetrics(registry, 10);
+    private final EmbeddedChannel channel = new EmbeddedChannel(new TenantMetricsHandler(metrics));
+
+    @AfterEach
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private double bytes(String tenant, String direction) {
+        return registry.get(KROXYLICIOUS_TENANT_BYTES).tags("tenant", tenant, "direction", direction).functionCounter().count();
+    }
+
+    private double connections(String tenant) {
+        return registry.get(KROXYLICIOUS_TENANT_ACTIVE_CONNECTIONS).tags("tenant", tenant).gauge().value();
+    }
+
+    @Test
+    void countsTheTrafficOfTheSniHostnamesTenant() {
+        channel.pipeline().fireUserEventTriggered(new SniCompletionEvent("tenant1.kafka.example.com"));
+
+        // The API key, version and correlation id, then the rest of the frame
+        var request = Unpooled.buffer().writeShort(ApiKeys.PRODUCE.id).writeShort(9).writeInt(7).writeZero(100);
+        channel.writeInbound(new OpaqueRequestFrame(request, 7, false, request.readableBytes()));
+        var response = Unpooled.buffer().writeInt(7).writeZero(50);
+        channel.writeOutbound(new OpaqueResponseFrame(response, 7, response.readableBytes(), ApiKeys.PRODUCE.id, (short) 9));
+        metrics.publish();
+
+        assertThat(bytes("tenant1", "in")).isEqualTo(Integer.BYTES + 108);
+        assertThat(bytes("tenant1", "out")).isEqualTo(Integer.BYTES + 54);
+        assertThat(registry.get(KROXYLICIOUS_TENANT_REQUESTS).tags("tenant", "tenant1", "ApiKey", "PRODUCE").functionCounter().count()).isEqualTo(1);
+        assertThat(connections("tenant1")).isEqualTo(1);
+
+        channel.close();
+        assertThat(connections("tenant1")).isZero();
+    }
+
+    @Test
+    void decodedRequestsAreCountedByTheLengthTheyWereReadWith() {
+        channel.pipeline().fireUserEventTriggered(new SniCompletionEvent("tenant1.kafka.example.com"));
+
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.API_VERSIONS.id).setRequestApiVersion((short) 3).setCorrelationId(1);
+        var request = new DecodedRequestFrame<>((short) 3, 1, false, header, new ApiVersionsRequestData(), 1000);
+        channel.writeInbound(request);
+        channel.writeOutbound(new DecodedResponseFrame<>((short) 3, 1, new ResponseHeaderData().setCorrelationId(1), new ApiVersionsResponseData()));
+        metrics.publish();
+
+        assertThat(bytes("tenant1", "in")).isEqualTo(Integer.BYTES + 1000);
+        assertThat(bytes("tenant1", "out")).isPositive();
+    }
+
+    @Test
+    void clientsWithoutSniAreCountedUnderOther() {
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.API_VERSIONS.id).setRequestApiVersion((short) 3).setCorrelationId(1);
+        channel.writeInbound(new DecodedRequestFrame<>((short) 3, 1, false, header, new ApiVersionsRequestData(), 10));
+        metrics.publish();
+
+        assertThat(bytes(OTHER_TENANTS, "in")).isEqualTo(Integer.BYTES + 10);
+        assertThat(connections(OTHER_TENANTS)).isEqualTo(1);
+    }
+
+    @Test
+    void stopRemovesTheMeters() {
+        channel.pipeline().fireUserEventTriggered(new SniCompletionEvent("tenant1.kafka.example.com"));
+        var header = new RequestHeaderData().setRequestApiKey(ApiKeys.API_VERSIONS.id).setRequestApiVersion((short) 3).setCorrelationId(1);
+        channel.writeInbound(new DecodedRequestFrame<>((short) 3, 1, false, header, new ApiVersionsRequestData(), 10));
+        metrics.publish();
+
+        metrics.stop();
+        assertThat(registry.getMeters()).isEmpty();
+    }
+}
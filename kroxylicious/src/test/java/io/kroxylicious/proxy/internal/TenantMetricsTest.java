@@ -0,0 +1,122 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import static io.kroxylicious.proxy.internal.TenantMetrics.KROXYLICIOUS_TENANT_ACTIVE_CONNECTIONS;
+import static io.kroxylicious.proxy.internal.TenantMetrics.KROXYLICIOUS_TENANT_BYTES;
+import static io.kroxylicious.proxy.internal.TenantMetrics.KROXYLICIOUS_TENANT_REQUESTS;
+import static io.kroxylicious.proxy.internal.TenantMetrics.OTHER_TENANTS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TenantMetricsTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TenantMetrics metrics = new TenantMetrics(registry, 1, nanoTime::get);
+
+    private double bytes(String tenant, String direction) {
+        return registry.get(KROXYLICIOUS_TENANT_BYTES).tags("tenant", tenant, "direction", direction).functionCounter().count();
+    }
+
+    private double requests(String tenant, ApiKeys apiKey) {
+        return registry.get(KROXYLICIOUS_TENANT_REQUESTS).tags("tenant", tenant, "ApiKey", apiKey.name()).functionCounter().count();
+    }
+
+    private double connections(String tenant) {
+        return registry.get(KROXYLICIOUS_TENANT_ACTIVE_CONNECTIONS).tags("tenant", tenant).gauge().value();
+    }
+
+    @Test
+    void countsAreAddedUpUnderOtherUntilPublished() {
+        var tenant1 = metrics.counters("tenant1");
+        tenant1.connected();
+        tenant1.request(ApiKeys.PRODUCE, 100);
+        tenant1.response(10);
+
+        assertThat(metrics.counters("tenant1")).isSameAs(tenant1);
+        assertThat(bytes(OTHER_TENANTS, "in")).isEqualTo(100);
+        assertThat(bytes(OTHER_TENANTS, "out")).isEqualTo(10);
+        assertThat(connections(OTHER_TENANTS)).isEqualTo(1);
+        assertThat(registry.find(KROXYLICIOUS_TENANT_BYTES).tag("tenant", "tenant1").meters()).isEmpty();
+
+        metrics.publish();
+
+        assertThat(bytes("tenant1", "in")).isEqualTo(100);
+        assertThat(requests("tenant1", ApiKeys.PRODUCE)).isEqualTo(1);
+        assertThat(connections("tenant1")).isEqualTo(1);
+        // What was counted under _other stays counted there
+        assertThat(bytes(OTHER_TENANTS, "in")).isEqualTo(100);
+        assertThat(requests(OTHER_TENANTS, ApiKeys.PRODUCE)).isEqualTo(1);
+        assertThat(connections(OTHER_TENANTS)).isZero();
+
+        tenant1.request(ApiKeys.PRODUCE, 100);
+        assertThat(bytes("tenant1", "in")).isEqualTo(200);
+        assertThat(bytes(OTHER_TENANTS, "in")).isEqualTo(100);
+    }
+
+    @Test
+    void onlyTopTenantsHaveTheirOwnMeters() {
+        metrics.counters("tenant1").request(ApiKeys.FETCH, 100);
+        metrics.counters("tenant2").request(ApiKeys.FETCH, 200);
+        metrics.publish();
+
+        assertThat(bytes("tenant2", "in")).isEqualTo(200);
+        assertThat(registry.find(KROXYLICIOUS_TENANT_BYTES).tag("tenant", "tenant1").meters()).isEmpty();
+        // Including tenant2's traffic from before it was a top tenant
+        assertThat(bytes(OTHER_TENANTS, "in")).isEqualTo(300);
+        assertThat(requests(OTHER_TENANTS, ApiKeys.FETCH)).isEqualTo(2);
+
+        metrics.counters("tenant1").request(ApiKeys.FETCH, 1000);
+        metrics.publish();
+
+        assertThat(bytes("tenant1", "in")).isEqualTo(1100);
+        assertThat(registry.find(KROXYLICIOUS_TENANT_BYTES).tag("tenant", "tenant2").meters()).isEmpty();
+        assertThat(registry.find(KROXYLICIOUS_TENANT_REQUESTS).tag("tenant", "tenant2").meters()).isEmpty();
+        // Plus tenant1's traffic from before it was a top tenant, and from here on tenant2's
+        assertThat(bytes(OTHER_TENANTS, "in")).isEqualTo(1300);
+        metrics.counters("tenant2").request(ApiKeys.FETCH, 10);
+        assertThat(bytes(OTHER_TENANTS, "in")).isEqualTo(1310);
+    }
+
+    @Test
+    void otherNeverGoesDown() {
+        double previous = 0;
+        for (int i = 0; i < 10; i++) {
+            // The busiest tenant alternates, so tenants keep joining and leaving the top tenants
+            metrics.counters("tenant" + (i % 2)).request(ApiKeys.FETCH, 1000 * (i + 1));
+            metrics.counters("tenant" + (i % 3)).request(ApiKeys.FETCH, 1);
+            metrics.publish();
+            double other = bytes(OTHER_TENANTS, "in");
+            assertThat(other).isGreaterThanOrEqualTo(previous);
+            assertThat(requests(OTHER_TENANTS, ApiKeys.FETCH)).isPositive();
+            previous = other;
+        }
+    }
+
+    @Test
+    void topTenantsArePublishedOncePerInterval() {
+        metrics.counters("tenant1").request(ApiKeys.FETCH, 100);
+        metrics.maybePublish();
+        assertThat(registry.find(KROXYLICIOUS_TENANT_BYTES).tag("tenant", "tenant1").meters()).hasSize(2);
+
+        metrics.counters("tenant2").request(ApiKeys.FETCH, 200);
+        metrics.maybePublish();
+        assertThat(registry.find(KROXYLICIOUS_TENANT_BYTES).tag("tenant", "tenant2").meters()).isEmpty();
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(TenantMetrics.PUBLISH_INTERVAL_MS));
+        metrics.maybePublish();
+        assertThat(registry.find(KROXYLICIOUS_TENANT_BYTES).tag("tenant", "tenant2").meters()).hasSize(2);
+    }
+}
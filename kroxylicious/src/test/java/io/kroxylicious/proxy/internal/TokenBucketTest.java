@@ -0,0 +1,64 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.kroxylicious.proxy.config.QuotaConfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstIsFree() {
+        // 1000 bytes/s with a 100ms burst allows 100 bytes at once
+        var bucket = new TokenBucket(1000, SECOND / 10, 0);
+        assertThat(bucket.charge(60, 0)).isZero();
+        assertThat(bucket.charge(40, 0)).isZero();
+        assertThat(bucket.isFull(0)).isFalse();
+    }
+
+    @Test
+    public void testDebtBeyondBurst() {
+        var bucket = new TokenBucket(1000, SECOND / 10, 0);
+        // 300 bytes takes 300ms to earn, less the 100ms burst
+        assertThat(bucket.charge(300, 0)).isEqualTo(SECOND / 5);
+        // Charging more while in debt extends the wait
+        assertThat(bucket.charge(100, 0)).isEqualTo(3 * SECOND / 10);
+    }
+
+    @Test
+    public void testRefillsOverTime() {
+        var bucket = new TokenBucket(1000, SECOND / 10, 0);
+        bucket.charge(300, 0);
+        assertThat(bucket.isFull(SECOND / 5)).isFalse();
+        // After 300ms the bucket is full again, so a further 100 bytes are free
+        assertThat(bucket.charge(100, 3 * SECOND / 10)).isZero();
+        assertThat(bucket.isFull(SECOND / 2)).isTrue();
+        // A full bucket doesn't accumulate more than a burst
+        assertThat(bucket.charge(200, 10 * SECOND)).isEqualTo(SECOND / 10);
+    }
+
+    @Test
+    public void testQuotasShareBucketsByKeyAndRemoveFullOnes() {
+        var quotas = new ByteRateQuotas(new QuotaConfig(null, 1000L, null, 100L, 50L));
+        assertThat(quotas.chargeProduce("a", 100, 0)).isZero();
+        assertThat(quotas.chargeProduce("b", 100, 0)).isZero();
+        // throttling is capped at maxThrottleMs
+        assertThat(quotas.chargeProduce("a", 1000, 0)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(quotas.buckets()).isEqualTo(2);
+
+        quotas.removeFullBuckets(SECOND / 2);
+        assertThat(quotas.buckets()).isEqualTo(1);
+        quotas.removeFullBuckets(2 * SECOND);
+        assertThat(quotas.buckets()).isZero();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.message.FetchResponseData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.junit.jupiter.api.Test;
+
+import io.kroxylicious.proxy.filter.FetchResponseFilter;
+
+import static io.kroxylicious.proxy.internal.SharedTopicMetadataCacheTest.metadataResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TopicMetadataCacheFilterTest extends FilterHarness {
+
+    private static final Uuid FOO_ID = Uuid.randomUuid();
+    private static final Uuid BAR_ID = Uuid.randomUuid();
+
+    @Test
+    public void testMetadataResponsesUpdateCache() {
+        buildChannel(new TopicMetadataCacheFilter(topicMetadata));
+        var frame = writeResponse(metadataResponse(FOO_ID, "foo", 1));
+        assertThat((Object) channel.readInbound()).isSameAs(frame);
+        assertThat(topicMetadata.topicNames()).isEqualTo(Map.of(FOO_ID, "foo"));
+    }
+
+    @Test
+    public void testCachedTopicNamesNeedNoRequest() {
+        topicMetadata.update(metadataResponse(FOO_ID, "foo", 1));
+        List<Map<Uuid, String>> results = new ArrayList<>();
+        FetchResponseFilter filter = (header, response, context) -> context.topicMetadata().topicNames(Set.of(FOO_ID))
+                .thenAccept(results::add);
+        buildChannel(filter);
+
+        writeResponse(new FetchResponseData());
+        assertThat((Object) channel.readOutbound()).isNull();
+        assertThat(results).containsExactly(Map.of(FOO_ID, "foo"));
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneRequest() {
+        List<Map<Uuid, String>> results = new ArrayList<>();
+        FetchResponseFilter filter = (header, response, context) -> context.topicMetadata().topicNames(Set.of(FOO_ID, BAR_ID))
+                .thenAccept(results::add);
+        buildChannel(filter);
+
+        writeResponse(new FetchResponseData());
+        writeResponse(new FetchResponseData());
+        InternalRequestFrame<?> request = channel.readOutbound();
+        assertThat(request.apiVersion()).isEqualTo(SharedTopicMetadataCache.METADATA_BY_ID_VERSION);
+        assertThat(((MetadataRequestData) request.body()).topics()).hasSize(2);
+        assertThat((Object) channel.readOutbound()).as("second lookup should wait for the first").isNull();
+        assertThat(topicMetadata.pendingLookups()).isEqualTo(2);
+
+        // bar doesn't exist
+        writeInternalResponse(metadataResponse(FOO_ID, "foo", 1), (CompletableFuture<?>) request.promise());
+        channel.runPendingTasks();
+        assertThat(results).containsExactly(Map.of(FOO_ID, "foo"), Map.of(FOO_ID, "foo"));
+        assertThat(topicMetadata.pendingLookups()).isZero();
+    }
+}
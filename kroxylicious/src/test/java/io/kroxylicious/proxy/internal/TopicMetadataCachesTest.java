@@ -0,0 +1,78 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.junit.jupiter.api.Test;
+
+import io.kroxylicious.proxy.filter.KrpcFilterContext;
+
+import static io.kroxylicious.proxy.internal.SharedTopicMetadataCacheTest.metadataResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyShort;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TopicMetadataCachesTest {
+
+    private static final List<InetSocketAddress> CLUSTER_A = List.of(
+            InetSocketAddress.createUnresolved("a1", 9092),
+            InetSocketAddress.createUnresolved("a2", 9092));
+    private static final List<InetSocketAddress> CLUSTER_B = List.of(
+            InetSocketAddress.createUnresolved("b1", 9092));
+
+    @Test
+    public void testCachedPerClusterAndSniHostname() {
+        var caches = new TopicMetadataCaches();
+        var cache = caches.forCluster("tenant1.example.com", CLUSTER_A);
+        assertThat(caches.forCluster("tenant1.example.com", List.of(CLUSTER_A.get(1), CLUSTER_A.get(0)))).isSameAs(cache);
+        assertThat(caches.forCluster("tenant2.example.com", CLUSTER_A)).isNotSameAs(cache);
+        assertThat(caches.forCluster("tenant1.example.com", CLUSTER_B)).isNotSameAs(cache);
+        assertThat(caches.forCluster(null, CLUSTER_A)).isNotSameAs(cache);
+        assertThat(caches.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void testDroppedOnceTheLastConnectionReleasesIt() {
+        var caches = new TopicMetadataCaches();
+        var cache = caches.forCluster("tenant1.example.com", CLUSTER_A);
+        assertThat(caches.forCluster("tenant1.example.com", CLUSTER_A)).isSameAs(cache);
+
+        caches.release("tenant1.example.com", CLUSTER_A);
+        assertThat(caches.size()).isEqualTo(1);
+        caches.release("tenant1.example.com", CLUSTER_A);
+        assertThat(caches.size()).isZero();
+
+        assertThat(caches.forCluster("tenant1.example.com", CLUSTER_A)).isNotSameAs(cache);
+    }
+
+    @Test
+    public void testEntriesNotVisibleFromAnotherClustersContext() {
+        var caches = new TopicMetadataCaches();
+        Uuid topicId = Uuid.randomUuid();
+        caches.forCluster("tenant1.example.com", CLUSTER_A).update(metadataResponse(topicId, "tenant1-secret", 1));
+
+        for (var other : List.of(caches.forCluster("tenant2.example.com", CLUSTER_A), caches.forCluster(null, CLUSTER_B))) {
+            var context = mock(KrpcFilterContext.class);
+            when(context.sendRequest(anyShort(), any(ApiMessage.class))).thenReturn(new CompletableFuture<>());
+            var view = other.forContext(context, Runnable::run);
+
+            assertThat(view.topic(topicId)).isEmpty();
+            assertThat(view.topic("tenant1-secret")).isEmpty();
+            view.topicNames(Set.of(topicId));
+            // It was looked up on the other cluster's own connection, rather than answered from the first cluster's entries
+            verify(context).sendRequest(anyShort(), any(ApiMessage.class));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.apache.kafka.common.message.ApiVersionsRequestData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.message.ProduceRequestData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.SaslAuthenticateRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.ApiMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.kroxylicious.proxy.config.TrafficRecordingConfig;
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
+import io.kroxylicious.proxy.internal.codec.DecodePredicate;
+import io.kroxylicious.proxy.internal.codec.KafkaRequestDecoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TrafficRecorderTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * @return A request as it would be on the wire, with its frame size.
+     */
+    static ByteBuf request(ApiKeys apiKey, ApiMessage body, int correlationId) {
+        short apiVersion = apiKey.latestVersion();
+        var header = new RequestHeaderData()
+                .setRequestApiKey(apiKey.id)
+                .setRequestApiVersion(apiVersion)
+                .setClientId("client")
+                .setCorrelationId(correlationId);
+        var frame = new DecodedRequestFrame<>(apiVersion, correlationId, false, header, body);
+        ByteBuf buf = Unpooled.buffer(frame.estimateEncodedSize());
+        frame.encode(new ByteBufAccessorImpl(buf));
+        return buf;
+    }
+
+    static ByteBuf produceWithoutAcks(int correlationId) {
+        return request(ApiKeys.PRODUCE, new ProduceRequestData().setAcks((short) 0).setTimeoutMs(1000), correlationId);
+    }
+
+    /**
+     * @return A client connection whose requests are recorded.
+     */
+    static EmbeddedChannel connection(TrafficRecorder recorder) {
+        var channel = new EmbeddedChannel();
+        channel.pipeline().addLast(new KafkaRequestDecoder(DecodePredicate.forFilters(), recorder.connection(channel)));
+        return channel;
+    }
+
+    private static byte[] withoutFrameSize(ByteBuf request) {
+        return ByteBufUtil.getBytes(request, Integer.BYTES, request.readableBytes() - Integer.BYTES);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private TrafficRecorder recorder(Integer segmentBytes, Long maxBytes) {
+        return new TrafficRecorder(new TrafficRecordingConfig(directory.toString(), segmentBytes, maxBytes));
+    }
+
+    @Test
+    void recordsRequestsOfEachConnection() throws Exception {
+        var recorder = recorder(null, null);
+        ByteBuf apiVersions = request(ApiKeys.API_VERSIONS, new ApiVersionsRequestData(), 1);
+        ByteBuf metadata = request(ApiKeys.METADATA, new MetadataRequestData(), 2);
+        ByteBuf produce = produceWithoutAcks(1);
+
+        var first = connection(recorder);
+        var second = connection(recorder);
+        first.writeInbound(apiVersions.retainedDuplicate());
+        second.writeInbound(produce.retainedDuplicate());
+        first.writeInbound(metadata.retainedDuplicate());
+        first.close();
+        second.close();
+        recorder.stop();
+
+        var recording = TrafficRecording.read(directory);
+        assertThat(recording.sessions()).hasSize(2);
+        var firstSession = recording.sessions().get(0);
+        assertThat(firstSession.requests()).hasSize(2);
+        assertThat(bytes(firstSession.requests().get(0).frame())).isEqualTo(withoutFrameSize(apiVersions));
+        assertThat(bytes(firstSession.requests().get(1).frame())).isEqualTo(withoutFrameSize(metadata));
+        assertThat(firstSession.requests().get(1).nanos()).isGreaterThanOrEqualTo(firstSession.requests().get(0).nanos());
+        assertThat(recording.sessions().get(1).requests()).singleElement()
+                .satisfies(request -> assertThat(bytes(request.frame())).isEqualTo(withoutFrameSize(produce)));
+    }
+
+    @Test
+    void rollsSegments() throws Exception {
+        var recorder = recorder(64, null);
+        var channel = connection(recorder);
+        for (int correlationId = 0; correlationId < 10; correlationId++) {
+            channel.writeInbound(request(ApiKeys.METADATA, new MetadataRequestData(), correlationId));
+        }
+        channel.close();
+        recorder.stop();
+
+        try (Stream<Path> segments = Files.list(directory)) {
+            assertThat(segments.count()).isGreaterThan(1);
+        }
+        assertThat(TrafficRecording.read(directory).sessions()).singleElement()
+                .satisfies(session -> assertThat(session.requests()).hasSize(10));
+    }
+
+    @Test
+    void truncatesSegmentsToWhatWasWritten() throws Exception {
+        var recorder = recorder(1024 * 1024, null);
+        var channel = connection(recorder);
+        channel.close();
+        recorder.stop();
+
+        try (Stream<Path> segments = Files.list(directory)) {
+            // The header, and a record each for the connect and the close
+            assertThat(segments).singleElement()
+                    .satisfies(segment -> assertThat(Files.size(segment)).isEqualTo(TrafficRecorder.SEGMENT_HEADER_BYTES + 2L * TrafficRecorder.RECORD_HEADER_BYTES));
+        }
+    }
+
+    @Test
+    void stopsRecordingAtMaxBytes() throws Exception {
+        var recorder = recorder(128, 256L);
+        var channel = connection(recorder);
+        for (int correlationId = 0; correlationId < 10; correlationId++) {
+            channel.writeInbound(request(ApiKeys.METADATA, new MetadataRequestData(), correlationId));
+        }
+        channel.close();
+        recorder.stop();
+
+        // The requests are still forwarded
+        assertThat(channel.inboundMessages()).hasSize(10);
+        try (Stream<Path> segments = Files.list(directory)) {
+            assertThat(segments.mapToLong(path -> path.toFile().length()).sum()).isLessThanOrEqualTo(256);
+        }
+        assertThat(TrafficRecording.read(directory).sessions().get(0).requests()).hasSizeBetween(1, 9);
+    }
+
+    @Test
+    void doesNotRecordCredentials() throws Exception {
+        var recorder = recorder(null, null);
+        var channel = connection(recorder);
+        channel.writeInbound(request(ApiKeys.SASL_AUTHENTICATE, new SaslAuthenticateRequestData().setAuthBytes(new byte[]{ 1, 2, 3 }), 1));
+        channel.close();
+        recorder.stop();
+
+        assertThat(TrafficRecording.read(directory).sessions()).singleElement()
+                .satisfies(session -> assertThat(session.requests()).isEmpty());
+    }
+
+    @Test
+    void rejectsDirectoryHoldingRecording() {
+        var recorder = recorder(null, null);
+        var channel = connection(recorder);
+        channel.close();
+        recorder.stop();
+
+        assertThatThrownBy(() -> recorder(null, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
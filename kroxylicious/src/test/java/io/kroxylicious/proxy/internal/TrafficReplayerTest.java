@@ -0,0 +1,135 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.apache.kafka.common.message.ApiVersionsRequestData;
+import org.apache.kafka.common.message.MetadataRequestData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.kroxylicious.proxy.config.TrafficRecordingConfig;
+
+import static io.kroxylicious.proxy.internal.TrafficRecorderTest.connection;
+import static io.kroxylicious.proxy.internal.TrafficRecorderTest.produceWithoutAcks;
+import static io.kroxylicious.proxy.internal.TrafficRecorderTest.request;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TrafficReplayerTest {
+
+    @TempDir
+    Path directory;
+
+    private ServerSocket server;
+
+    /**
+     * Starts a stub broker, which answers each request except produce requests with a response of just its correlation id.
+     */
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread connection = new Thread(() -> answer(socket));
+                    connection.setDaemon(true);
+                    connection.start();
+                }
+                catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static void answer(Socket socket) {
+        try (socket;
+                var in = new DataInputStream(socket.getInputStream());
+                var out = new DataOutputStream(socket.getOutputStream())) {
+            while (true) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                ByteBuffer request = ByteBuffer.wrap(frame);
+                short apiKey = request.getShort(0);
+                if (apiKey != ApiKeys.PRODUCE.id) {
+                    out.writeInt(Integer.BYTES);
+                    out.writeInt(request.getInt(Short.BYTES + Short.BYTES));
+                    out.flush();
+                }
+            }
+        }
+        catch (IOException e) {
+            // The replayer closed the connection
+        }
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void replaysRecordedSessions() throws Exception {
+        var recorder = new TrafficRecorder(new TrafficRecordingConfig(directory.toString(), null, null));
+        var first = connection(recorder);
+        first.writeInbound(request(ApiKeys.API_VERSIONS, new ApiVersionsRequestData(), 1));
+        first.writeInbound(produceWithoutAcks(2));
+        first.writeInbound(request(ApiKeys.METADATA, new MetadataRequestData(), 3));
+        var second = connection(recorder);
+        second.writeInbound(request(ApiKeys.API_VERSIONS, new ApiVersionsRequestData(), 7));
+        first.close();
+        second.close();
+        recorder.stop();
+
+        var replayer = new TrafficReplayer(TrafficRecording.read(directory), "localhost", server.getLocalPort(), 10);
+        var result = replayer.replay(Duration.ofSeconds(30));
+
+        assertThat(result.sessions()).isEqualTo(2);
+        assertThat(result.failedSessions()).isZero();
+        assertThat(result.requests()).isEqualTo(4);
+        assertThat(result.unanswered()).isZero();
+        assertThat(result.mismatched()).isZero();
+        assertThat(result.latencies()).containsOnlyKeys(ApiKeys.API_VERSIONS, ApiKeys.METADATA);
+        assertThat(result.latencies().get(ApiKeys.API_VERSIONS).count()).isEqualTo(2);
+        assertThat(result.latencies().get(ApiKeys.METADATA).count()).isEqualTo(1);
+        assertThat(result.report()).contains("API_VERSIONS", "METADATA", "sessions: 2 (0 failed)");
+    }
+
+    @Test
+    void countsSessionsWhichCannotConnect() throws Exception {
+        var recorder = new TrafficRecorder(new TrafficRecordingConfig(directory.toString(), null, null));
+        var channel = connection(recorder);
+        channel.writeInbound(request(ApiKeys.API_VERSIONS, new ApiVersionsRequestData(), 1));
+        channel.close();
+        recorder.stop();
+        int port = server.getLocalPort();
+        server.close();
+
+        var result = new TrafficReplayer(TrafficRecording.read(directory), "localhost", port, 1).replay(Duration.ofSeconds(30));
+
+        assertThat(result.failedSessions()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsNonPositiveSpeed() {
+        assertThatThrownBy(() -> new TrafficReplayer(null, "localhost", 9092, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
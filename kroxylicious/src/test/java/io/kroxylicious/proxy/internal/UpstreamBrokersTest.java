@@ -0,0 +1,186 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import io.kroxylicious.proxy.config.NetworkConfig;
+
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_UPSTREAM_CIRCUIT_OPEN;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_UPSTREAM_CONNECT_FAILURES;
+import static io.kroxylicious.proxy.internal.util.Metrics.KROXYLICIOUS_UPSTREAM_CONNECT_LATENCY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UpstreamBrokersTest {
+
+    private static final InetSocketAddress A = InetSocketAddress.createUnresolved("kafka-a", 9092);
+    private static final InetSocketAddress B = InetSocketAddress.createUnresolved("kafka-b", 9092);
+    private static final InetSocketAddress C = InetSocketAddress.createUnresolved("kafka-c", 9092);
+    private static final ConnectException REFUSED = new ConnectException("Connection refused");
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        Metrics.addRegistry(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(registry);
+    }
+
+    private UpstreamBrokers brokers(int failureThreshold, InetSocketAddress... servers) {
+        return new UpstreamBrokers(List.of(servers), new NetworkConfig.FailoverConfig(100L, failureThreshold, 1000L), nanoTime::get);
+    }
+
+    private void advanceMillis(long millis) {
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    void prefersHealthyThenRecentlyConnectedServers() {
+        var brokers = brokers(3, A, B, C);
+        assertThat(brokers.candidates()).containsExactly(A, B, C);
+
+        brokers.connected(C, 1000);
+        assertThat(brokers.candidates()).containsExactly(C, A, B);
+
+        advanceMillis(10);
+        brokers.connected(B, 1000);
+        assertThat(brokers.candidates()).containsExactly(B, C, A);
+
+        brokers.failed(B, 1000, REFUSED);
+        assertThat(brokers.candidates()).containsExactly(C, A, B);
+    }
+
+    @Test
+    void skipsServersWhoseCircuitIsOpen() {
+        var brokers = brokers(2, A, B);
+        brokers.failed(A, 1000, REFUSED);
+        assertThat(brokers.candidates()).containsExactly(B, A);
+
+        brokers.failed(A, 1000, REFUSED);
+        assertThat(brokers.candidates()).containsExactly(B);
+
+        // Half open: tried after the healthy servers, and one failure opens it again
+        advanceMillis(1000);
+        assertThat(brokers.candidates()).containsExactly(B, A);
+        brokers.failed(A, 1000, REFUSED);
+        assertThat(brokers.candidates()).containsExactly(B);
+
+        // A success closes it
+        advanceMillis(1000);
+        brokers.connected(A, 1000);
+        assertThat(brokers.candidates()).containsExactly(B, A);
+        brokers.failed(A, 1000, REFUSED);
+        assertThat(brokers.candidates()).containsExactly(B, A);
+    }
+
+    @Test
+    void onlyOneCallerTriesAHalfOpenCircuit() {
+        var brokers = brokers(1, A, B);
+        brokers.failed(A, 1000, REFUSED);
+        advanceMillis(1000);
+
+        assertThat(brokers.candidates()).containsExactly(B, A);
+        assertThat(brokers.candidates()).containsExactly(B);
+
+        // A trial that is never reported is given to another caller once it has had as long as the circuit was open
+        advanceMillis(999);
+        assertThat(brokers.candidates()).containsExactly(B);
+        advanceMillis(1);
+        assertThat(brokers.candidates()).containsExactly(B, A);
+        assertThat(brokers.candidates()).containsExactly(B);
+
+        brokers.connected(A, 1000);
+        assertThat(brokers.candidates()).containsExactly(B, A);
+        assertThat(brokers.candidates()).containsExactly(B, A);
+    }
+
+    @Test
+    void triesATriallingServerWhenThereIsNoOther() {
+        var brokers = brokers(1, A);
+        brokers.failed(A, 1000, REFUSED);
+        advanceMillis(1000);
+
+        assertThat(brokers.candidates()).containsExactly(A);
+        assertThat(brokers.candidates()).containsExactly(A);
+    }
+
+    @Test
+    void triesEveryServerWhenAllCircuitsAreOpen() {
+        var brokers = brokers(1, A, B);
+        brokers.failed(B, 1000, REFUSED);
+        advanceMillis(10);
+        brokers.failed(A, 1000, REFUSED);
+
+        // The one to leave the open state soonest first
+        assertThat(brokers.candidates()).containsExactly(B, A);
+    }
+
+    @Test
+    void recordsConnectMetrics() {
+        // Servers no other test uses, since meters outlive the instances which registered them
+        var up = InetSocketAddress.createUnresolved("kafka-up", 9092);
+        var down = InetSocketAddress.createUnresolved("kafka-down", 9092);
+        var brokers = brokers(1, up, down);
+        brokers.connected(up, TimeUnit.MILLISECONDS.toNanos(5));
+        brokers.failed(down, 1000, REFUSED);
+
+        assertThat(registry.get(KROXYLICIOUS_UPSTREAM_CONNECT_LATENCY).tag("broker", "kafka-up:9092").timer().count()).isEqualTo(1);
+        assertThat(registry.get(KROXYLICIOUS_UPSTREAM_CONNECT_FAILURES).tag("broker", "kafka-down:9092").counter().count()).isEqualTo(1);
+        assertThat(registry.get(KROXYLICIOUS_UPSTREAM_CIRCUIT_OPEN).tag("broker", "kafka-up:9092").gauge().value()).isZero();
+        assertThat(registry.get(KROXYLICIOUS_UPSTREAM_CIRCUIT_OPEN).tag("broker", "kafka-down:9092").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void failsOverToTheNextServer() throws Exception {
+        var group = new NioEventLoopGroup(1);
+        try (var live = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            int deadPort;
+            try (var dead = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+                deadPort = dead.getLocalPort();
+            }
+            var deadServer = InetSocketAddress.createUnresolved("127.0.0.1", deadPort);
+            var liveServer = InetSocketAddress.createUnresolved("127.0.0.1", live.getLocalPort());
+            var brokers = brokers(1, deadServer, liveServer);
+            EventLoop eventLoop = group.next();
+            var bootstrap = new Bootstrap().group(eventLoop).channel(NioSocketChannel.class).handler(new ChannelInboundHandlerAdapter());
+
+            Channel channel = eventLoop.submit(() -> ConnectRace.start(bootstrap, eventLoop, brokers.candidates(), brokers.attemptDelayMillis(), brokers))
+                    .get().get(10, TimeUnit.SECONDS);
+
+            assertThat(((InetSocketAddress) channel.remoteAddress()).getPort()).isEqualTo(live.getLocalPort());
+            channel.close().sync();
+            // The dead server's circuit opened, so the next connection goes straight to the live one
+            assertThat(brokers.candidates()).containsExactly(liveServer);
+        }
+        finally {
+            group.shutdownGracefully().sync();
+        }
+    }
+}
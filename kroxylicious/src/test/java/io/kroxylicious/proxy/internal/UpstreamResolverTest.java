@@ -0,0 +1,170 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import io.kroxylicious.proxy.config.NetworkConfig;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UpstreamResolverTest {
+
+    private static final String BROKER = "broker.test";
+
+    private DnsStub dns;
+    private NioEventLoopGroup group;
+    private UpstreamResolver resolver;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dns = new DnsStub();
+        group = new NioEventLoopGroup(2);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (resolver != null) {
+            resolver.close();
+        }
+        group.shutdownGracefully().sync();
+        dns.close();
+    }
+
+    private UpstreamResolver resolver(Integer maxTtlSeconds, Boolean happyEyeballs) {
+        resolver = new UpstreamResolver(new NetworkConfig.DnsConfig(true, List.of(dns.address()), null, maxTtlSeconds, null, 2000L, happyEyeballs, 50L),
+                NioDatagramChannel.class);
+        return resolver;
+    }
+
+    private InetSocketAddress resolve(EventLoop eventLoop) throws Exception {
+        return resolver.group().getResolver(eventLoop).resolve(InetSocketAddress.createUnresolved(BROKER, 9092)).get(5, TimeUnit.SECONDS);
+    }
+
+    private static InetAddress address(String literal) throws UnknownHostException {
+        return InetAddress.getByName(literal);
+    }
+
+    private Bootstrap bootstrap(EventLoop eventLoop) {
+        return new Bootstrap().group(eventLoop)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInboundHandlerAdapter())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 30000);
+    }
+
+    @Test
+    void sharesCachedAnswersAcrossEventLoops() throws Exception {
+        dns.records(BROKER, address("127.0.0.1"));
+        resolver(null, null);
+
+        assertThat(resolve(group.next()).getAddress()).isEqualTo(address("127.0.0.1"));
+        int queries = dns.queries(BROKER);
+        assertThat(queries).isPositive();
+
+        dns.records(BROKER, address("127.0.0.2"));
+        // Every event loop has its own resolver, but they share a cache
+        assertThat(resolve(group.next()).getAddress()).isEqualTo(address("127.0.0.1"));
+        assertThat(resolve(group.next()).getAddress()).isEqualTo(address("127.0.0.1"));
+        assertThat(dns.queries(BROKER)).isEqualTo(queries);
+    }
+
+    @Test
+    void reResolvesOnceTheTtlHasExpired() throws Exception {
+        dns.records(BROKER, address("127.0.0.1"));
+        dns.ttlSeconds(1);
+        resolver(null, null);
+
+        assertThat(resolve(group.next()).getAddress()).isEqualTo(address("127.0.0.1"));
+        dns.records(BROKER, address("127.0.0.2"));
+        Thread.sleep(1500);
+
+        assertThat(resolve(group.next()).getAddress()).isEqualTo(address("127.0.0.2"));
+    }
+
+    @Test
+    void capsTheTtlAtMaxTtl() throws Exception {
+        dns.records(BROKER, address("127.0.0.1"));
+        resolver(1, null);
+
+        resolve(group.next());
+        int queries = dns.queries(BROKER);
+        Thread.sleep(1500);
+        resolve(group.next());
+
+        assertThat(dns.queries(BROKER)).isGreaterThan(queries);
+    }
+
+    @Test
+    void failsForUnknownHosts() {
+        resolver(null, null);
+
+        assertThatThrownBy(() -> resolve(group.next())).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(UnknownHostException.class);
+    }
+
+    @Test
+    void connectsToTheFirstAddressToAccept() throws Exception {
+        try (var broker = new ServerSocket(0, 50, address("127.0.0.1"))) {
+            // Nothing listens on the first address, so the second is tried without waiting out the attempt delay
+            dns.records(BROKER, address("127.0.0.2"), address("127.0.0.1"));
+            resolver(null, true);
+            EventLoop eventLoop = group.next();
+
+            Channel channel = resolver.connectToAny(bootstrap(eventLoop), eventLoop, BROKER, broker.getLocalPort()).get(10, TimeUnit.SECONDS);
+
+            assertThat(channel.isActive()).isTrue();
+            assertThat(((InetSocketAddress) channel.remoteAddress()).getAddress()).isEqualTo(address("127.0.0.1"));
+            channel.close().sync();
+        }
+    }
+
+    @Test
+    void failsWhenNoAddressAccepts() throws Exception {
+        int port;
+        try (var closed = new ServerSocket(0, 50, address("127.0.0.1"))) {
+            port = closed.getLocalPort();
+        }
+        dns.records(BROKER, address("127.0.0.1"), address("127.0.0.2"));
+        resolver(null, true);
+        EventLoop eventLoop = group.next();
+
+        assertThatThrownBy(() -> resolver.connectToAny(bootstrap(eventLoop), eventLoop, BROKER, port).get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(ConnectException.class);
+    }
+
+    @Test
+    void interleavesAddressFamilies() throws Exception {
+        var v4a = new InetSocketAddress(address("192.0.2.1"), 9092);
+        var v4b = new InetSocketAddress(address("192.0.2.2"), 9092);
+        var v6a = new InetSocketAddress(address("2001:db8::1"), 9092);
+        var v6b = new InetSocketAddress(address("2001:db8::2"), 9092);
+
+        assertThat(UpstreamResolver.interleave(List.of(v6a, v6b, v4a, v4b))).containsExactly(v6a, v4a, v6b, v4b);
+        assertThat(UpstreamResolver.interleave(List.of(v4a, v4b, v6a))).containsExactly(v4a, v6a, v4b);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.filter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.ControlRecordType;
+import org.apache.kafka.common.record.EndTransactionMarker;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordTransformerTest {
+
+    private static final ByteBufferTransformation UPPER_CASING = (topicName, original) -> ByteBuffer
+            .wrap(StandardCharsets.UTF_8.decode(original).toString().toUpperCase().getBytes(StandardCharsets.UTF_8));
+
+    private static final Header[] HEADERS = { new RecordHeader("h", "header".getBytes(StandardCharsets.UTF_8)) };
+
+    @ParameterizedTest
+    @EnumSource(value = CompressionType.class, names = { "NONE", "GZIP", "LZ4" })
+    void testBatchIsKeptButValuesTransformed(CompressionType compression) {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.CURRENT_MAGIC_VALUE, compression,
+                TimestampType.CREATE_TIME, 100, RecordBatch.NO_TIMESTAMP, 7L, (short) 2, 5, false, 3);
+        builder.append(new SimpleRecord(10, bytes("k1"), bytes("v1"), HEADERS));
+        builder.append(new SimpleRecord(20, bytes("k2"), bytes("v2")));
+        MemoryRecords original = builder.build();
+
+        MemoryRecords transformed = transform(new RecordTransformer(RecordBatchTransformation.perRecord(UPPER_CASING), Integer.MAX_VALUE), original);
+
+        List<MutableRecordBatch> batches = batches(transformed);
+        assertEquals(1, batches.size());
+        MutableRecordBatch batch = batches.get(0);
+        assertEquals(compression, batch.compressionType());
+        assertEquals(100, batch.baseOffset());
+        assertEquals(101, batch.lastOffset());
+        assertEquals(7L, batch.producerId());
+        assertEquals(2, batch.producerEpoch());
+        assertEquals(5, batch.baseSequence());
+        assertEquals(3, batch.partitionLeaderEpoch());
+        assertEquals(20, batch.maxTimestamp());
+
+        List<Record> records = records(batch);
+        assertEquals(2, records.size());
+        assertEquals(10, records.get(0).timestamp());
+        assertEquals("k1", string(records.get(0).key()));
+        assertEquals("V1", string(records.get(0).value()));
+        assertArrayEquals(HEADERS, records.get(0).headers());
+        assertEquals("V2", string(records.get(1).value()));
+    }
+
+    @Test
+    void testEachBatchIsTransformedSeparately() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        MemoryRecordsBuilder first = MemoryRecords.builder(buffer, CompressionType.GZIP, TimestampType.CREATE_TIME, 0);
+        first.append(new SimpleRecord(10, bytes("k1"), bytes("v1")));
+        first.close();
+        MemoryRecordsBuilder second = MemoryRecords.builder(buffer, CompressionType.NONE, TimestampType.CREATE_TIME, 1);
+        second.append(new SimpleRecord(10, bytes("k2"), bytes("v2")));
+        second.close();
+        buffer.flip();
+
+        MemoryRecords transformed = transform(new RecordTransformer(RecordBatchTransformation.perRecord(UPPER_CASING), Integer.MAX_VALUE),
+                MemoryRecords.readableRecords(buffer));
+
+        List<MutableRecordBatch> batches = batches(transformed);
+        assertEquals(2, batches.size());
+        assertEquals(CompressionType.GZIP, batches.get(0).compressionType());
+        assertEquals("V1", string(records(batches.get(0)).get(0).value()));
+        assertEquals(CompressionType.NONE, batches.get(1).compressionType());
+        assertEquals(1, batches.get(1).baseOffset());
+        assertEquals("V2", string(records(batches.get(1)).get(0).value()));
+    }
+
+    @Test
+    void testTombstonesStayTombstones() {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, bytes("k1"), null));
+
+        MemoryRecords transformed = transform(new RecordTransformer(RecordBatchTransformation.perRecord(UPPER_CASING), Integer.MAX_VALUE), original);
+
+        Record record = records(batches(transformed).get(0)).get(0);
+        assertEquals("k1", string(record.key()));
+        assertFalse(record.hasValue());
+        assertNull(record.value());
+    }
+
+    @Test
+    void testControlBatchesAreCopied() {
+        MemoryRecords original = MemoryRecords.withEndTransactionMarker(42, 1000L, (short) 1, new EndTransactionMarker(ControlRecordType.COMMIT, 0));
+
+        MemoryRecords transformed = transform(new RecordTransformer((topicName, batch, output) -> {
+            throw new AssertionError("Control records are not transformed");
+        }, Integer.MAX_VALUE), original);
+
+        assertEquals(original.buffer(), transformed.buffer());
+    }
+
+    @Test
+    void testBatchTransformationCanAppendRecordsUnchanged() {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.GZIP, TimestampType.CREATE_TIME, 0);
+        builder.append(new SimpleRecord(10, bytes("k1"), bytes("v1"), HEADERS));
+        builder.append(new SimpleRecord(20, bytes("k2"), bytes("v2")));
+        MemoryRecords original = builder.build();
+
+        MemoryRecords transformed = transform(new RecordTransformer((topicName, batch, output) -> {
+            for (Record record : batch) {
+                if (record.offset() == 0) {
+                    output.append(record);
+                }
+                else {
+                    output.append(record, output.valueBuffer(1).put((byte) 'x').flip());
+                }
+            }
+        }, Integer.MAX_VALUE), original);
+
+        List<Record> records = records(batches(transformed).get(0));
+        assertEquals("v1", string(records.get(0).value()));
+        assertArrayEquals(HEADERS, records.get(0).headers());
+        assertEquals("x", string(records.get(1).value()));
+        assertEquals("k2", string(records.get(1).key()));
+    }
+
+    @Test
+    void testBatchTransformationMustAppendRecords() {
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, bytes("k1"), bytes("v1")));
+        var transformer = new RecordTransformer((topicName, batch, output) -> {
+        }, Integer.MAX_VALUE);
+
+        assertThrows(IllegalStateException.class, () -> transform(transformer, original));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "hello, world", "", "grüße", "ǆ" })
+    void testUpperCasingBatchesMatchesUpperCasingValues(String value) {
+        var upperCasing = new ProduceRequestTransformationFilter.UpperCasing();
+        MemoryRecords original = MemoryRecords.withRecords(CompressionType.NONE,
+                new SimpleRecord(10, bytes("k1"), bytes(value)), new SimpleRecord(10, bytes("k2"), null));
+
+        MemoryRecords batchTransformed = transform(new RecordTransformer(upperCasing, Integer.MAX_VALUE), original);
+        MemoryRecords recordTransformed = transform(new RecordTransformer(RecordBatchTransformation.perRecord(upperCasing), Integer.MAX_VALUE), original);
+
+        assertEquals(recordTransformed.buffer(), batchTransformed.buffer());
+        assertEquals(value.toUpperCase(), string(records(batches(batchTransformed).get(0)).get(0).value()));
+    }
+
+    @Test
+    void testLargeRecordsAreTransformedOnExecutor() {
+        List<Runnable> tasks = new ArrayList<>();
+        RecordTransformer transformer = new RecordTransformer(RecordBatchTransformation.perRecord(UPPER_CASING), 0, tasks::add);
+        AtomicReference<MemoryRecords> first = new AtomicReference<>();
+        AtomicReference<MemoryRecords> second = new AtomicReference<>();
+        MemoryRecords records = MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord(10, bytes("k"), bytes("v")));
+
+        var future = transformer.transform(List.of(
+                new RecordTransformer.Partition("a", records, new ByteBufferOutputStream(64), first::set),
+                new RecordTransformer.Partition("b", records, new ByteBufferOutputStream(64), second::set)));
+
+        assertFalse(future.isDone());
+        assertEquals(2, tasks.size(), "Expect a task per partition");
+        tasks.get(1).run();
+        assertFalse(future.isDone());
+        assertNull(first.get());
+        tasks.get(0).run();
+        assertTrue(future.isDone());
+        assertEquals("V", string(records(batches(first.get()).get(0)).get(0).value()));
+        assertEquals("V", string(records(batches(second.get()).get(0)).get(0).value()));
+    }
+
+    private static MemoryRecords transform(RecordTransformer transformer, MemoryRecords records) {
+        AtomicReference<MemoryRecords> result = new AtomicReference<>();
+        var future = transformer.transform(List.of(new RecordTransformer.Partition("topic", records, new ByteBufferOutputStream(16), result::set)));
+        assertTrue(future.isDone(), "Expect small records to be transformed on the calling thread");
+        return result.get();
+    }
+
+    private static List<MutableRecordBatch> batches(MemoryRecords records) {
+        List<MutableRecordBatch> batches = new ArrayList<>();
+        records.batches().forEach(batches::add);
+        return batches;
+    }
+
+    private static List<Record> records(RecordBatch batch) {
+        List<Record> records = new ArrayList<>();
+        batch.forEach(records::add);
+        return records;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.proxy.internal.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.kafka.common.message.ApiVersionsRequestData;
+import org.apache.kafka.common.message.ApiVersionsResponseData;
+import org.apache.kafka.common.message.RequestHeaderData;
+import org.apache.kafka.common.message.ResponseHeaderData;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import io.kroxylicious.proxy.filter.ApiVersionsRequestFilter;
+import io.kroxylicious.proxy.frame.DecodedRequestFrame;
+import io.kroxylicious.proxy.frame.DecodedResponseFrame;
+import io.kroxylicious.proxy.internal.FilterHandler;
+import io.kroxylicious.proxy.internal.SharedTopicMetadataCache;
+import io.kroxylicious.proxy.internal.codec.ByteBufAccessorImpl;
+import io.kroxylicious.proxy.internal.codec.DecodePredicate;
+import io.kroxylicious.proxy.internal.codec.KafkaRequestDecoder;
+import io.kroxylicious.proxy.internal.codec.KafkaResponseEncoder;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KroxyliciousEventsTest {
+
+    private static final ApiVersionsRequestFilter FORWARDING_FILTER = (header, request, context) -> context.forwardRequest(request);
+
+    @TempDir
+    Path directory;
+
+    private Recording recording;
+
+    @AfterEach
+    void closeRecording() {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    private static ByteBuf apiVersionsRequest(int correlationId) {
+        short apiVersion = ApiKeys.API_VERSIONS.latestVersion();
+        var header = new RequestHeaderData()
+                .setRequestApiKey(ApiKeys.API_VERSIONS.id)
+                .setRequestApiVersion(apiVersion)
+                .setClientId("client")
+                .setCorrelationId(correlationId);
+        var frame = new DecodedRequestFrame<>(apiVersion, correlationId, false, header, new ApiVersionsRequestData());
+        ByteBuf buf = Unpooled.buffer(frame.estimateEncodedSize());
+        frame.encode(new ByteBufAccessorImpl(buf));
+        return buf;
+    }
+
+    private void startRecording(String... enabledEvents) throws Exception {
+        recording = new Recording(Configuration.getConfiguration("default"));
+        for (String event : enabledEvents) {
+            recording.enable(event).withoutThreshold();
+        }
+        recording.start();
+    }
+
+    private List<RecordedEvent> stopRecording() throws IOException {
+        recording.stop();
+        Path file = directory.resolve("recording.jfr");
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().startsWith("io.kroxylicious."))
+                .toList();
+    }
+
+    /**
+     * Passes a request through a decoder and a filter, and a response through an encoder.
+     */
+    private static void exchange(boolean decodeRequest) {
+        var predicate = decodeRequest ? DecodePredicate.forFilters(FORWARDING_FILTER) : DecodePredicate.forFilters();
+        var channel = new EmbeddedChannel(new KafkaRequestDecoder(predicate),
+                new FilterHandler(FORWARDING_FILTER, 1000, null, new SharedTopicMetadataCache(), null),
+                new KafkaResponseEncoder());
+        channel.writeInbound(apiVersionsRequest(7));
+        Object request = channel.readInbound();
+        if (request instanceof DecodedRequestFrame) {
+            channel.writeOutbound(request);
+            assertThat((Object) channel.readOutbound()).isSameAs(request);
+        }
+        channel.writeOutbound(new DecodedResponseFrame<>(ApiKeys.API_VERSIONS.latestVersion(), 7,
+                new ResponseHeaderData().setCorrelationId(7), new ApiVersionsResponseData()));
+        ByteBuf response = channel.readOutbound();
+        response.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void eventsAreDisabledByDefault() throws Exception {
+        startRecording();
+        exchange(true);
+        var channel = new EmbeddedChannel();
+        AutoReadEvent.setAutoRead(channel, false, false, "test");
+
+        assertThat(stopRecording()).isEmpty();
+        assertThat(channel.config().isAutoRead()).isFalse();
+    }
+
+    @Test
+    void recordsFrameCodecEvents() throws Exception {
+        startRecording("io.kroxylicious.FrameDecode", "io.kroxylicious.FrameEncode");
+        exchange(false);
+
+        var events = stopRecording();
+        assertThat(events).hasSize(2);
+        RecordedEvent decode = events.stream().filter(event -> event.getEventType().getName().equals("io.kroxylicious.FrameDecode")).findFirst().orElseThrow();
+        assertThat(decode.getString("direction")).isEqualTo("request");
+        assertThat(decode.getString("apiKey")).isEqualTo(ApiKeys.API_VERSIONS.name);
+        assertThat(decode.getInt("correlationId")).isEqualTo(7);
+        assertThat(decode.getInt("size")).isPositive();
+        assertThat(decode.getBoolean("decoded")).isFalse();
+        RecordedEvent encode = events.stream().filter(event -> event.getEventType().getName().equals("io.kroxylicious.FrameEncode")).findFirst().orElseThrow();
+        assertThat(encode.getString("direction")).isEqualTo("response");
+        assertThat(encode.getString("apiKey")).isEqualTo(ApiKeys.API_VERSIONS.name);
+        assertThat(encode.getBoolean("decoded")).isTrue();
+    }
+
+    @Test
+    void recordsFilterDispatch() throws Exception {
+        startRecording("io.kroxylicious.FilterDispatch");
+        exchange(true);
+
+        assertThat(stopRecording()).singleElement().satisfies(event -> {
+            assertThat(event.getString("filter")).isEqualTo(FORWARDING_FILTER.getClass().getName());
+            assertThat(event.getString("direction")).isEqualTo("request");
+            assertThat(event.getString("apiKey")).isEqualTo(ApiKeys.API_VERSIONS.name);
+        });
+    }
+
+    @Test
+    void recordsOnlyAutoReadChanges() throws Exception {
+        startRecording("io.kroxylicious.AutoRead");
+        var channel = new EmbeddedChannel();
+        AutoReadEvent.setAutoRead(channel, true, false, "memory");
+        AutoReadEvent.setAutoRead(channel, true, false, "memory");
+        AutoReadEvent.setAutoRead(channel, true, true, "memory");
+
+        var events = stopRecording();
+        assertThat(events).extracting(event -> event.getBoolean("autoRead")).containsExactly(false, true);
+        assertThat(events).allSatisfy(event -> {
+            assertThat(event.getString("side")).isEqualTo("upstream");
+            assertThat(event.getString("reason")).isEqualTo("memory");
+        });
+    }
+}
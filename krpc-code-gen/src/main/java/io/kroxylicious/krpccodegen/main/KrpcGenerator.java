@@ -32,6 +32,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
+import io.kroxylicious.krpccodegen.model.EntityFields;
 import io.kroxylicious.krpccodegen.model.KrpcSchemaObjectWrapper;
 import io.kroxylicious.krpccodegen.model.RetrieveApiKey;
 import io.kroxylicious.krpccodegen.schema.MessageSpec;
@@ -198,7 +199,8 @@ public class KrpcGenerator {
                     logger.log(Level.DEBUG, "Processing message spec {0} with template {1} to {2}", messageSpec.name(), templateName, outputFile);
                     Map<String, Object> dataModel = Map.of(
                             "structRegistry", structRegistry,
-                            "messageSpec", messageSpec);
+                            "messageSpec", messageSpec,
+                            "entityFields", new EntityFields());
                     template.process(dataModel, writer);
                 }
             }
@@ -236,7 +238,8 @@ public class KrpcGenerator {
                             // "structRegistry", structRegistry,
                             "outputPackage", outputPackage,
                             "messageSpecs", messageSpecs,
-                            "retrieveApiKey", new RetrieveApiKey());
+                            "retrieveApiKey", new RetrieveApiKey(),
+                            "entityFields", new EntityFields());
                     template.process(dataModel, writer);
                 }
             }
@@ -0,0 +1,69 @@
+/*
+ * Copyright Kroxylicious Authors.
+ *
+ * Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package io.kroxylicious.krpccodegen.model;
+
+import java.util.List;
+
+import io.kroxylicious.krpccodegen.schema.EntityType;
+import io.kroxylicious.krpccodegen.schema.FieldSpec;
+import io.kroxylicious.krpccodegen.schema.FieldType;
+import io.kroxylicious.krpccodegen.schema.MessageSpec;
+import io.kroxylicious.krpccodegen.schema.StructSpec;
+
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModelException;
+
+/**
+ * <p>A custom FreeMarker function which obtains the fields of a message spec that lead to the names of entities,
+ * i.e. fields whose entity type is a string (topic names, group ids and transactional ids).
+ * These are the string (or string array) fields which have such an entity type,
+ * along with the struct (or struct array) fields which have such fields at some depth.</p>
+ *
+ * <p>{@code entityFields(messageSpec)} gives the top level fields of the message, and
+ * {@code entityFields(messageSpec, field)} gives the fields of the struct of the given struct (or struct array) field,
+ * which may be one of the message's common structs.</p>
+ */
+public class EntityFields implements TemplateMethodModelEx {
+
+    static List<FieldSpec> entityFields(MessageSpec messageSpec, List<FieldSpec> fields) {
+        return fields.stream().filter(field -> leadsToEntity(messageSpec, field)).toList();
+    }
+
+    static List<FieldSpec> structFields(MessageSpec messageSpec, FieldSpec field) {
+        if (!field.fields().isEmpty()) {
+            return field.fields();
+        }
+        FieldType type = field.type().isArray() ? ((FieldType.ArrayType) field.type()).elementType() : field.type();
+        return messageSpec.commonStructs().stream()
+                .filter(struct -> struct.name().equals(type.toString()))
+                .map(StructSpec::fields)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No struct " + type + " in " + messageSpec.name()));
+    }
+
+    private static boolean isEntityName(EntityType entityType) {
+        return entityType == EntityType.TOPIC_NAME || entityType == EntityType.GROUP_ID || entityType == EntityType.TRANSACTIONAL_ID;
+    }
+
+    private static boolean leadsToEntity(MessageSpec messageSpec, FieldSpec field) {
+        if (isEntityName(field.entityType())) {
+            return true;
+        }
+        if (field.type().isStruct() || field.type().isStructArray()) {
+            return structFields(messageSpec, field).stream().anyMatch(child -> leadsToEntity(messageSpec, child));
+        }
+        return false;
+    }
+
+    @Override
+    public Object exec(List arguments) throws TemplateModelException {
+        MessageSpec messageSpec = ((MessageSpecModel) arguments.get(0)).spec;
+        if (arguments.size() == 1) {
+            return entityFields(messageSpec, messageSpec.fields());
+        }
+        return entityFields(messageSpec, structFields(messageSpec, ((FieldSpecModel) arguments.get(1)).spec));
+    }
+}